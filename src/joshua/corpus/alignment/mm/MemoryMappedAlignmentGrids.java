@@ -178,8 +178,10 @@ public class MemoryMappedAlignmentGrids extends AbstractAlignmentGrids {
 		int end = pointCounts.get(sentenceId+1);
 		int numPoints = end - start;
 		short[] reversePoints = new short[numPoints];
-		reverseAlignmentPoints.position(start);
-		reverseAlignmentPoints.get(reversePoints);
+		// absolute gets, so that threads may share the buffer
+		for (int i = 0; i < numPoints; i++) {
+			reversePoints[i] = reverseAlignmentPoints.get(start + i);
+		}
 		
 		return AlignmentGrid.getPoints(targetSpanStart, targetSpanEnd, widths.get(sentenceId), reversePoints);
 		
@@ -194,8 +196,10 @@ public class MemoryMappedAlignmentGrids extends AbstractAlignmentGrids {
 		int end = pointCounts.get(sentenceId+1);
 		int numPoints = end - start;
 		short[] points = new short[numPoints];
-		alignmentPoints.position(start);
-		alignmentPoints.get(points);
+		// absolute gets, so that threads may share the buffer
+		for (int i = 0; i < numPoints; i++) {
+			points[i] = alignmentPoints.get(start + i);
+		}
 		
 		return AlignmentGrid.getPoints(sourceSpanStart, sourceSpanEnd, heights.get(sentenceId), points);
 		
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -133,6 +135,7 @@ public class LexProbs extends AbstractLexProbs {
 //		logger.info("Calculating lexical translation probability table");
 		
 	}
+	
 	/**
 	 * Gets co-occurrence counts from a parallel corpus.
 	 * 
@@ -246,6 +249,22 @@ public class LexProbs extends AbstractLexProbs {
 	
 	/* See Javadoc for LexicalProbabilities#lexProbSourceGivenTarget(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
 	public float lexProbSourceGivenTarget(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return lexProbSourceGivenTarget(this, parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+	
+	/**
+	 * Calculates the lexical translation probability of a source
+	 * phrase given a target phrase, averaging the probabilities
+	 * of each source word given the target words it is aligned to.
+	 * 
+	 * @param lexProbs Word translation probabilities
+	 * @param parallelCorpus Aligned parallel corpus the phrases are from
+	 * @param sourcePhrases Matched source phrases
+	 * @param sourcePhraseIndex Index of the source phrase
+	 * @param targetPhrase Target phrase
+	 * @return the lexical translation probability
+	 */
+	static float lexProbSourceGivenTarget(LexicalProbabilities lexProbs, ParallelCorpus parallelCorpus, MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
 		
 		float sourceGivenTarget = 1.0f;
 		
@@ -271,14 +290,14 @@ public class LexProbs extends AbstractLexProbs {
 				
 				if (targetIndices==null) {
 					
-					sum += this.sourceGivenTarget(sourceWord, null);
+					sum += lexProbs.sourceGivenTarget(sourceWord, null);
 					average = sum;
 					
 				} else {
 					for (int targetIndex : targetIndices) {
 
 						int targetWord = targetCorpus.getWordID(targetIndex);
-						sum += sourceGivenTarget(sourceWord, targetWord);
+						sum += lexProbs.sourceGivenTarget(sourceWord, targetWord);
 						
 					}
 					average = sum / targetIndices.length;
@@ -294,6 +313,22 @@ public class LexProbs extends AbstractLexProbs {
 
 	/* See Javadoc for LexicalProbabilities#lexProbTargetGivenSource(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
 	public float lexProbTargetGivenSource(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return lexProbTargetGivenSource(this, parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+	
+	/**
+	 * Calculates the lexical translation probability of a target
+	 * phrase given a source phrase, averaging the probabilities
+	 * of each target word given the source words it is aligned to.
+	 * 
+	 * @param lexProbs Word translation probabilities
+	 * @param parallelCorpus Aligned parallel corpus the phrases are from
+	 * @param sourcePhrases Matched source phrases
+	 * @param sourcePhraseIndex Index of the source phrase
+	 * @param targetPhrase Target phrase
+	 * @return the lexical translation probability
+	 */
+	static float lexProbTargetGivenSource(LexicalProbabilities lexProbs, ParallelCorpus parallelCorpus, MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
 		
 		final boolean LOGGING_FINEST = logger.isLoggable(Level.FINEST);
 		
@@ -334,7 +369,7 @@ public class LexProbs extends AbstractLexProbs {
 								
 				if (sourceIndices==null) {
 
-					sum += targetGivenSource(targetWord, null);
+					sum += lexProbs.targetGivenSource(targetWord, null);
 					average = sum;
 					if (LOGGING_FINEST) s.append(sum);
 					
@@ -343,7 +378,7 @@ public class LexProbs extends AbstractLexProbs {
 					for (int sourceIndex : sourceIndices) {
 
 						int sourceWord = sourceCorpus.getWordID(sourceIndex);
-						float value = targetGivenSource(targetWord, sourceWord);
+						float value = lexProbs.targetGivenSource(targetWord, sourceWord);
 						sum += value;
 						if (LOGGING_FINEST) {
 							s.append('+');
@@ -381,7 +416,27 @@ public class LexProbs extends AbstractLexProbs {
 	@Override
 	public String toString() {
 		
-		StringBuilder s = new StringBuilder();
+		StringWriter s = new StringWriter();
+		
+		try {
+			write(s);
+		} catch (IOException e) {
+			// A StringWriter does not throw
+			throw new RuntimeException(e);
+		}
+		
+		return s.toString();
+	}
+	
+	/**
+	 * Writes the string representation of the lexical probabilities,
+	 * one word pair at a time, without building it in memory.
+	 * 
+	 * @param out Writer to which one line per word pair is written
+	 * @throws IOException if the writer throws
+	 * @see #toString()
+	 */
+	public void write(Writer out) throws IOException {
 		
 		for (Pair<Integer,Integer> pair : counts) {
 
@@ -389,29 +444,27 @@ public class LexProbs extends AbstractLexProbs {
 			Integer targetID = pair.second;
 			
 			if (sourceID==null) {
-				s.append("NULL");
+				out.write("NULL");
 			} else {
-				s.append(sourceVocab.getWord(sourceID));
+				out.write(sourceVocab.getWord(sourceID));
 			}
 			
-			s.append(' ');
+			out.write(' ');
 			
 			if (targetID==null) {
-				s.append("NULL");
+				out.write("NULL");
 			} else {
-				s.append(targetVocab.getWord(targetID));
+				out.write(targetVocab.getWord(targetID));
 			}
 			
-			s.append(' ');
-			s.append(targetGivenSource(targetID,sourceID));
+			out.write(' ');
+			out.write(String.valueOf(targetGivenSource(targetID,sourceID)));
 			
-			s.append(' ');
-			s.append(sourceGivenTarget(sourceID,targetID));
+			out.write(' ');
+			out.write(String.valueOf(sourceGivenTarget(sourceID,targetID)));
 			
-			s.append('\n');
+			out.write('\n');
 		}
-		
-		return s.toString();
 	}
 	
 	public void writeExternal(ObjectOutput out) throws IOException {
@@ -0,0 +1,525 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.lexprob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import joshua.corpus.MatchedHierarchicalPhrases;
+import joshua.corpus.ParallelCorpus;
+import joshua.corpus.suffix_array.HierarchicalPhrase;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.util.Pair;
+
+/**
+ * Lexical translation probabilities served from a memory-mapped
+ * binary table instead of from co-occurrence counts held in
+ * hash maps.
+ * <p>
+ * The table is written once, by {@link #write(LexProbs,String)},
+ * from probabilities calculated by {@link LexProbs}. Loading it
+ * only maps its arrays read-only, so it takes milliseconds and
+ * the pages are shared by every process that maps the same file.
+ * Probabilities are looked up by binary search, and are exactly
+ * those calculated by LexProbs; unseen word pairs get the floor
+ * probability.
+ * <p>
+ * The file starts with a header of ints: MAGIC, VERSION, the bits
+ * of the floor probability the table was calculated with, and the
+ * numbers of source words and of word pairs. Then follow
+ * <ul>
+ *   <li>sourceWords: the sorted source words of all pairs</li>
+ *   <li>firstPair: for each source word, and one past the last
+ *       source word, the index of its first pair</li>
+ *   <li>targetWords: the target word of each pair, sorted within
+ *       each source word</li>
+ *   <li>sourceGivenTarget, targetGivenSource: the float
+ *       probabilities of each pair</li>
+ * </ul>
+ * The NULL word is stored as {@link #NULL_WORD}.
+ * <p>
+ * {@link #writeExternal(ObjectOutput)} writes the same table to
+ * an object stream, and {@link #readExternal(ObjectInput)} reads
+ * it back into the heap instead of mapping it.
+ *
+ * @version $LastChangedDate$
+ */
+public class MemoryMappedLexProbs extends AbstractLexProbs {
+
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(MemoryMappedLexProbs.class.getName());
+	
+	/** Identifies a binary lexical probability file. */
+	private static final int MAGIC = 0x4A4C5031;
+	
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 5;
+	
+	/** Stands for the NULL word, which LexProbs represents as <code>null</code>. */
+	static final int NULL_WORD = Integer.MIN_VALUE;
+	
+	/** Symbol table for the source language. */
+	private final SymbolTable sourceVocab;
+	
+	/** Symbol table for the target language. */
+	private final SymbolTable targetVocab;
+	
+	/** Parallel corpus from which the table was calculated. */
+	private final ParallelCorpus parallelCorpus;
+	
+	/** Probability returned for word pairs not in the table. */
+	private float floorProbability;
+	
+	private IntBuffer sourceWords;
+	private IntBuffer firstPair;
+	private IntBuffer targetWords;
+	private FloatBuffer sourceGivenTarget;
+	private FloatBuffer targetGivenSource;
+	
+	private int numSources;
+	
+	
+	/**
+	 * Maps a binary lexical probability table, using the floor
+	 * probability it was calculated with.
+	 * 
+	 * @param parallelCorpus Aligned parallel corpus from which
+	 *                       the table was calculated
+	 * @param binaryFileName File written by {@link #write(LexProbs,String)}
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public MemoryMappedLexProbs(ParallelCorpus parallelCorpus, String binaryFileName) throws IOException {
+		this(parallelCorpus, binaryFileName, Float.intBitsToFloat(readHeader(binaryFileName)[2]));
+	}
+	
+	/**
+	 * Maps a binary lexical probability table, returning the
+	 * specified floor probability for unseen word pairs.
+	 * 
+	 * @param parallelCorpus Aligned parallel corpus from which
+	 *                       the table was calculated
+	 * @param binaryFileName File written by {@link #write(LexProbs,String)}
+	 * @param floorProbability
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public MemoryMappedLexProbs(ParallelCorpus parallelCorpus, String binaryFileName, float floorProbability) throws IOException {
+		
+		this.sourceVocab = parallelCorpus.getSourceCorpus().getVocabulary();
+		this.targetVocab = parallelCorpus.getTargetCorpus().getVocabulary();
+		this.parallelCorpus = parallelCorpus;
+		this.floorProbability = floorProbability;
+		
+		int[] header = readHeader(binaryFileName);
+		this.numSources = header[3];
+		int numPairs = header[4];
+		
+		RandomAccessFile binaryFile = new RandomAccessFile(binaryFileName, "r");
+		long position = 4L * HEADER_SIZE;
+		try {
+			FileChannel channel = binaryFile.getChannel();
+			
+			this.sourceWords = mapInts(channel, position, numSources);
+			position += 4L * numSources;
+			this.firstPair = mapInts(channel, position, numSources + 1);
+			position += 4L * (numSources + 1);
+			this.targetWords = mapInts(channel, position, numPairs);
+			position += 4L * numPairs;
+			this.sourceGivenTarget = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numPairs).asFloatBuffer();
+			position += 4L * numPairs;
+			this.targetGivenSource = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numPairs).asFloatBuffer();
+		} finally {
+			// the mappings stay valid after the file is closed
+			binaryFile.close();
+		}
+		
+		logger.info("Mapped lexical translation probabilities of " + numPairs + " word pairs from " + binaryFileName);
+	}
+	
+	/**
+	 * Tells whether a file starts like a binary lexical
+	 * probability table written by {@link #write(LexProbs,String)}.
+	 * 
+	 * @param fileName Name of a file
+	 * @return <code>true</code> if the file can be read and
+	 *         starts with the magic number of a binary lexical
+	 *         probability table, <code>false</code> otherwise
+	 */
+	public static boolean isBinaryFile(String fileName) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	private static int[] readHeader(String binaryFileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFileName)));
+		try {
+			return readHeader(in, binaryFileName);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static int[] readHeader(DataInput in, String source) throws IOException {
+		int[] header = new int[HEADER_SIZE];
+		for (int i = 0; i < HEADER_SIZE; i++) {
+			header[i] = in.readInt();
+		}
+		if (header[0] != MAGIC) {
+			throw new IOException(source + " is not a binary lexical probability table");
+		}
+		if (header[1] != VERSION) {
+			throw new IOException("Unsupported version " + header[1] + " of binary lexical probability table in " + source);
+		}
+		return header;
+	}
+	
+	private static IntBuffer mapInts(FileChannel channel, long position, int size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asIntBuffer();
+	}
+	
+	/**
+	 * Writes the probabilities of all word pairs counted by
+	 * lexical translation probabilities as a binary table.
+	 * 
+	 * @param lexProbs Lexical translation probabilities
+	 *                 calculated from co-occurrence counts
+	 * @param binaryFileName File to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(LexProbs lexProbs, String binaryFileName) throws IOException {
+		
+		// sort the pairs by source word, then by target word
+		int numPairs = 0;
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			numPairs++;
+		}
+		long[] pairs = new long[numPairs];
+		int index = 0;
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			pairs[index++] = key(toWord(pair.first), toWord(pair.second));
+		}
+		Arrays.sort(pairs);
+		
+		int numSources = 0;
+		for (int i = 0; i < numPairs; i++) {
+			if (i == 0 || sourceWord(pairs[i]) != sourceWord(pairs[i - 1])) {
+				numSources++;
+			}
+		}
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFileName)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(Float.floatToIntBits(lexProbs.getFloorProbability()));
+			out.writeInt(numSources);
+			out.writeInt(numPairs);
+			
+			for (int i = 0; i < numPairs; i++) {
+				if (i == 0 || sourceWord(pairs[i]) != sourceWord(pairs[i - 1])) {
+					out.writeInt(sourceWord(pairs[i]));
+				}
+			}
+			for (int i = 0; i < numPairs; i++) {
+				if (i == 0 || sourceWord(pairs[i]) != sourceWord(pairs[i - 1])) {
+					out.writeInt(i);
+				}
+			}
+			out.writeInt(numPairs);
+			for (int i = 0; i < numPairs; i++) {
+				out.writeInt(targetWord(pairs[i]));
+			}
+			for (int i = 0; i < numPairs; i++) {
+				out.writeFloat(lexProbs.sourceGivenTarget(toInteger(sourceWord(pairs[i])), toInteger(targetWord(pairs[i]))));
+			}
+			for (int i = 0; i < numPairs; i++) {
+				out.writeFloat(lexProbs.targetGivenSource(toInteger(targetWord(pairs[i])), toInteger(sourceWord(pairs[i]))));
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/** 
+	 * Packs a word pair into a long whose signed order is the
+	 * order of the source words, then of the target words.
+	 */
+	private static long key(int sourceWord, int targetWord) {
+		return ((long) sourceWord << 32) | ((targetWord ^ 0x80000000) & 0xffffffffL);
+	}
+	
+	private static int sourceWord(long key) {
+		return (int) (key >> 32);
+	}
+	
+	private static int targetWord(long key) {
+		return ((int) key) ^ 0x80000000;
+	}
+	
+	private static int toWord(Integer word) {
+		return (word==null) ? NULL_WORD : word;
+	}
+	
+	private static Integer toInteger(int word) {
+		return (word==NULL_WORD) ? null : word;
+	}
+	
+	/**
+	 * Finds the index of a word pair in the table.
+	 * 
+	 * @return the index of the word pair, 
+	 *         or -1 if the pair is not in the table
+	 */
+	private int find(int sourceWord, int targetWord) {
+		
+		int low = 0;
+		int high = numSources - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int word = sourceWords.get(mid);
+			if (word < sourceWord) {
+				low = mid + 1;
+			} else if (word > sourceWord) {
+				high = mid - 1;
+			} else {
+				low = firstPair.get(mid);
+				high = firstPair.get(mid + 1) - 1;
+				while (low <= high) {
+					mid = (low + high) >>> 1;
+					word = targetWords.get(mid);
+					if (word < targetWord) {
+						low = mid + 1;
+					} else if (word > targetWord) {
+						high = mid - 1;
+					} else {
+						return mid;
+					}
+				}
+				return -1;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/* See Javadoc for LexicalProbabilities#sourceGivenTarget(Integer,Integer). */
+	public float sourceGivenTarget(Integer sourceWord, Integer targetWord) {
+		int pair = find(toWord(sourceWord), toWord(targetWord));
+		return (pair < 0) ? floorProbability : sourceGivenTarget.get(pair);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#targetGivenSource(Integer,Integer). */
+	public float targetGivenSource(Integer targetWord, Integer sourceWord) {
+		int pair = find(toWord(sourceWord), toWord(targetWord));
+		return (pair < 0) ? floorProbability : targetGivenSource.get(pair);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#sourceGivenTarget(String,String). */
+	public float sourceGivenTarget(String sourceWord, String targetWord) {
+		Integer sourceID = (sourceWord==null) ? null : sourceVocab.getID(sourceWord);
+		Integer targetID = (targetWord==null) ? null : targetVocab.getID(targetWord);
+		
+		return sourceGivenTarget(sourceID, targetID);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#targetGivenSource(String,String). */
+	public float targetGivenSource(String targetWord, String sourceWord) {
+		Integer targetID = (targetWord==null) ? null : targetVocab.getID(targetWord);
+		Integer sourceID = (sourceWord==null) ? null : sourceVocab.getID(sourceWord);
+		
+		return targetGivenSource(targetID, sourceID);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#lexProbSourceGivenTarget(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
+	public float lexProbSourceGivenTarget(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return LexProbs.lexProbSourceGivenTarget(this, parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#lexProbTargetGivenSource(MatchedHierarchicalPhrases,int,HierarchicalPhrase). */
+	public float lexProbTargetGivenSource(MatchedHierarchicalPhrases sourcePhrases, int sourcePhraseIndex, HierarchicalPhrase targetPhrase) {
+		return LexProbs.lexProbTargetGivenSource(this, parallelCorpus, sourcePhrases, sourcePhraseIndex, targetPhrase);
+	}
+	
+	/* See Javadoc for LexicalProbabilities#getFloorProbability. */
+	public float getFloorProbability() {
+		return floorProbability;
+	}
+	
+	public SymbolTable getSourceVocab() {
+		return sourceVocab;
+	}
+	
+	public SymbolTable getTargetVocab() {
+		return targetVocab;
+	}
+	
+	/**
+	 * Gets a string representation of the lexical probabilities,
+	 * with one line per word pair, in the order of the table.
+	 * 
+	 * @return a string representation of the lexical probabilities
+	 */
+	@Override
+	public String toString() {
+		
+		StringWriter s = new StringWriter();
+		
+		try {
+			write(s);
+		} catch (IOException e) {
+			// A StringWriter does not throw
+			throw new RuntimeException(e);
+		}
+		
+		return s.toString();
+	}
+	
+	/**
+	 * Writes the string representation of the lexical probabilities,
+	 * one word pair at a time, in the order of the table.
+	 * 
+	 * @param out Writer to which one line per word pair is written
+	 * @throws IOException if the writer throws
+	 */
+	public void write(Writer out) throws IOException {
+		
+		for (int source = 0; source < numSources; source++) {
+			
+			int sourceWord = sourceWords.get(source);
+			String sourceString = (sourceWord==NULL_WORD) ? "NULL" : sourceVocab.getWord(sourceWord);
+			
+			for (int pair = firstPair.get(source), end = firstPair.get(source + 1); pair < end; pair++) {
+				
+				int targetWord = targetWords.get(pair);
+				
+				out.write(sourceString);
+				out.write(' ');
+				out.write((targetWord==NULL_WORD) ? "NULL" : targetVocab.getWord(targetWord));
+				out.write(' ');
+				out.write(String.valueOf(targetGivenSource.get(pair)));
+				out.write(' ');
+				out.write(String.valueOf(sourceGivenTarget.get(pair)));
+				out.write('\n');
+			}
+		}
+	}
+	
+	/**
+	 * Writes the table, in the format of the binary file,
+	 * to an object stream.
+	 * 
+	 * @param out Object stream to which the table is written
+	 * @throws IOException if the stream throws
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		
+		int numPairs = firstPair.get(numSources);
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(Float.floatToIntBits(floorProbability));
+		out.writeInt(numSources);
+		out.writeInt(numPairs);
+		
+		for (int i = 0; i < numSources; i++) {
+			out.writeInt(sourceWords.get(i));
+		}
+		for (int i = 0; i <= numSources; i++) {
+			out.writeInt(firstPair.get(i));
+		}
+		for (int i = 0; i < numPairs; i++) {
+			out.writeInt(targetWords.get(i));
+		}
+		for (int i = 0; i < numPairs; i++) {
+			out.writeFloat(sourceGivenTarget.get(i));
+		}
+		for (int i = 0; i < numPairs; i++) {
+			out.writeFloat(targetGivenSource.get(i));
+		}
+	}
+	
+	/**
+	 * Reads a table written by {@link #writeExternal(ObjectOutput)}
+	 * into the heap, replacing the table of this object
+	 * and its floor probability.
+	 * 
+	 * @param in Object stream from which the table is read
+	 * @throws IOException if the stream does not hold a table
+	 */
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		
+		int[] header = readHeader(in, "object stream");
+		int numSources = header[3];
+		int numPairs = header[4];
+		
+		IntBuffer sourceWords = readInts(in, numSources);
+		IntBuffer firstPair = readInts(in, numSources + 1);
+		IntBuffer targetWords = readInts(in, numPairs);
+		FloatBuffer sourceGivenTarget = readFloats(in, numPairs);
+		FloatBuffer targetGivenSource = readFloats(in, numPairs);
+		
+		this.floorProbability = Float.intBitsToFloat(header[2]);
+		this.numSources = numSources;
+		this.sourceWords = sourceWords;
+		this.firstPair = firstPair;
+		this.targetWords = targetWords;
+		this.sourceGivenTarget = sourceGivenTarget;
+		this.targetGivenSource = targetGivenSource;
+	}
+	
+	private static IntBuffer readInts(DataInput in, int size) throws IOException {
+		int[] values = new int[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = in.readInt();
+		}
+		return IntBuffer.wrap(values);
+	}
+	
+	private static FloatBuffer readFloats(DataInput in, int size) throws IOException {
+		float[] values = new float[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = in.readFloat();
+		}
+		return FloatBuffer.wrap(values);
+	}
+}
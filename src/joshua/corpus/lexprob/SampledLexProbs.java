@@ -217,13 +217,13 @@ public class SampledLexProbs extends AbstractLexProbs {
 		
 		if (logger.isLoggable(Level.FINE)) logger.fine("Need to get source given target lexprob p(" + sourceVocab.getWord(sourceWord) + " | " +  targetVocab.getWord(targetWord) + "); sourceWord ID == " + sourceWord + "; targetWord ID == " + targetWord);
 				
-		if (!sourceGivenTarget.containsKey(targetWord)) {
-			calculateSourceGivenTarget(targetWord);
+		Map<Integer,Float> map = sourceGivenTarget.get(targetWord);
+		if (null == map) {
+			map = calculateSourceGivenTarget(targetWord);
 		}
 		
-		Map<Integer,Float> map = sourceGivenTarget.get(targetWord);
 		if (map.containsKey(sourceWord)) {
-			return sourceGivenTarget.get(targetWord).get(sourceWord);
+			return map.get(sourceWord);
 		} else {
 			if (logger.isLoggable(Level.FINE)) logger.fine("No source given target lexprob found for p(" + sourceVocab.getWord(sourceWord) + " | " + targetVocab.getWord(targetWord) + "); returning FLOOR_PROBABILITY " + floorProbability);
 			return floorProbability;
@@ -241,11 +241,11 @@ public class SampledLexProbs extends AbstractLexProbs {
 		
 		if (logger.isLoggable(Level.FINE)) logger.fine("Need to get target given source lexprob p(" + targetVocab.getWord(targetWord) + " | " + sourceVocab.getWord(sourceWord) + "); sourceWord ID == " + sourceWord + "; targetWord ID == " + targetWord);
 		
-		if (!targetGivenSource.containsKey(sourceWord)) {
-			calculateTargetGivenSource(sourceWord);
+		Map<Integer,Float> map = targetGivenSource.get(sourceWord);
+		if (null == map) {
+			map = calculateTargetGivenSource(sourceWord);
 		}
 
-		Map<Integer,Float> map = targetGivenSource.get(sourceWord);
 		if (map.containsKey(targetWord)) {
 			return map.get(targetWord);
 		} else {
@@ -423,8 +423,9 @@ public class SampledLexProbs extends AbstractLexProbs {
 	 * Calculates the lexical probabilities for a target word.
 	 * 
 	 * @param targetWord
+	 * @return the probabilities, also stored in the cache
 	 */
-	private void calculateSourceGivenTarget(Integer targetWord) {
+	private Map<Integer,Float> calculateSourceGivenTarget(Integer targetWord) {
 
 		Map<Integer,Integer> counts = new HashMap<Integer,Integer>();
 		
@@ -472,9 +473,10 @@ public class SampledLexProbs extends AbstractLexProbs {
 			}
 		}
 		sourceGivenTarget.put(targetWord, sourceProbs);
+		return sourceProbs;
 	}
 	
-	private void calculateTargetGivenSource(int sourceWord) {
+	private Map<Integer,Float> calculateTargetGivenSource(int sourceWord) {
 
 		if (logger.isLoggable(Level.FINE)) logger.fine("Calculating lexprob distribution P( TARGET | " + sourceVocab.getWord(sourceWord) + "); sourceWord ID == " + sourceWord);
 				
@@ -532,7 +534,7 @@ public class SampledLexProbs extends AbstractLexProbs {
 		}
 		if (logger.isLoggable(Level.FINER)) logger.finer("Storing " + targetProbs.size() + " probabilities for lexprob distribution P( TARGET | " + sourceVocab.getWord(sourceWord) + ")");
 		targetGivenSource.put(sourceWord, targetProbs);
-		
+		return targetProbs;
 	}
 
 	public float lexProbSourceGivenTarget(
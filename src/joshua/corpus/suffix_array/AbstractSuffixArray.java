@@ -109,8 +109,10 @@ public abstract class AbstractSuffixArray implements Suffixes {
 	/* See Javadoc for Suffixes interface.*/
 	public MatchedHierarchicalPhrases createHierarchicalPhrases(Pattern pattern, int minNonterminalSpan, int maxPhraseSpan) {
 		
-		if (hierarchicalPhraseCache.containsKey(pattern)) {
-			return hierarchicalPhraseCache.get(pattern);
+		MatchedHierarchicalPhrases cached = hierarchicalPhraseCache.get(pattern);
+		
+		if (cached != null) {
+			return cached;
 		} else {
 
 			int arity = pattern.arity();
@@ -187,9 +189,11 @@ public abstract class AbstractSuffixArray implements Suffixes {
 	public MatchedHierarchicalPhrases createTriviallyHierarchicalPhrases(int[] startPositions,
 			Pattern pattern, SymbolTable vocab) {
 
-			if (hierarchicalPhraseCache.containsKey(pattern)) {
+			MatchedHierarchicalPhrases cached = hierarchicalPhraseCache.get(pattern);
+		
+			if (cached != null) {
 				if (logger.isLoggable(Level.FINEST)) logger.finest("Cache has " + hierarchicalPhraseCache.size() + " entries, and did contain pattern:    	" + pattern.toString());
-				return hierarchicalPhraseCache.get(pattern);
+				return cached;
 			} else {
 				if (logger.isLoggable(Level.FINEST)) logger.finest("Cache has " + hierarchicalPhraseCache.size() + " entries, but did not contain pattern:	" + pattern.toString());
 				// In the case of contiguous phrases, 
@@ -17,6 +17,7 @@
  */
 package joshua.corpus.suffix_array;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -24,7 +25,16 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,7 +43,7 @@ import joshua.corpus.CorpusArray;
 import joshua.corpus.ParallelCorpus;
 import joshua.corpus.alignment.AlignmentGrids;
 import joshua.corpus.lexprob.LexProbs;
-import joshua.corpus.lexprob.LexicalProbabilities;
+import joshua.corpus.lexprob.MemoryMappedLexProbs;
 import joshua.corpus.vocab.Vocabulary;
 import joshua.decoder.JoshuaConfiguration;
 import joshua.util.Cache;
@@ -67,6 +77,26 @@ public class Compile {
 	
 	private int minNonterminalSpan = JoshuaConfiguration.sa_min_nonterminal_span;
 	
+	/** Number of threads constructing alignments, lexprobs and suffix arrays. */
+	private int threads = 1;
+	
+	/**
+	 * Sets the number of threads that construct the alignment
+	 * grids and lexprobs, the target suffix array, and the source
+	 * suffix array concurrently. One thread, the default,
+	 * constructs them one after another, which keeps fewer of them
+	 * in memory at once; more threads are faster, but need a heap
+	 * that holds all three.
+	 * 
+	 * @param threads number of threads, from 1 to 3
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		}
+		this.threads = threads;
+	}
+	
 	public void setMinNonterminalSpan(int minNonterminalSpan) {
 		this.minNonterminalSpan = minNonterminalSpan;
 	}
@@ -125,6 +155,9 @@ public class Compile {
 		}
 		
 		
+		long startTime = System.currentTimeMillis();
+		long stageTime = startTime;
+		
 		// Construct common vocabulary
 		Vocabulary symbolTable = new Vocabulary();
 		if (logger.isLoggable(Level.INFO)) logger.info("Adding terminal tokens from file " + sourceCorpusFileName + " to common vocabulary");
@@ -136,7 +169,7 @@ public class Compile {
 			logger.severe("Source corpus and target corpus have different number of sentences (" + sourceLengths[1] + " vs " + targetLengths[1] + ")");
 			System.exit(-3);
 		}
-		int numberOfSentences = sourceLengths[1];
+		final int numberOfSentences = sourceLengths[1];
 		
 		// Write README file to disk
 		String readmeFilename = outputDirName + File.separator + "README.txt";
@@ -161,11 +194,12 @@ public class Compile {
 			out.println("Common symbol table for source and target language: " + binaryVocabFilename);
 		}
 		
+		stageTime = logStage("Common vocabulary", stageTime);
 		
 		
 		// Construct source language corpus
 		if (logger.isLoggable(Level.INFO)) logger.info("Constructing corpus array from file " + sourceCorpusFileName);
-		CorpusArray sourceCorpusArray = SuffixArrayFactory.createCorpusArray(sourceCorpusFileName, symbolTable, sourceLengths[0], sourceLengths[1]);
+		final CorpusArray sourceCorpusArray = SuffixArrayFactory.createCorpusArray(sourceCorpusFileName, symbolTable, sourceLengths[0], sourceLengths[1]);
 		
 		// Write source corpus to disk
 		{
@@ -181,7 +215,7 @@ public class Compile {
 		
 		// Construct target language corpus
 		if (logger.isLoggable(Level.INFO)) logger.info("Constructing corpus array from file " + targetCorpusFileName);
-		CorpusArray targetCorpusArray = SuffixArrayFactory.createCorpusArray(targetCorpusFileName, symbolTable, targetLengths[0], targetLengths[1]);
+		final CorpusArray targetCorpusArray = SuffixArrayFactory.createCorpusArray(targetCorpusFileName, symbolTable, targetLengths[0], targetLengths[1]);
 		
 		
 		// Write target language corpus to disk
@@ -196,126 +230,268 @@ public class Compile {
 	    	out.println("Target language corpus: " + binaryTargetCorpusFilename);
 		}
 		
-		{
-			// Construct alignments data structure
-			AlignmentGrids grids = new AlignmentGrids(
-					new Scanner(new File(alignmentsFileName)), 
-					sourceCorpusArray, 
-					targetCorpusArray,
-					numberOfSentences);
+		stageTime = logStage("Corpus arrays", stageTime);
+		
+		
+		// The remaining files depend only on the corpora,
+		// so they are constructed concurrently. Each task
+		// returns its lines of the README file.
+		if (logger.isLoggable(Level.INFO)) logger.info("Constructing alignments, lexprobs and suffix arrays using " + threads + " threads");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		
+		Future<String> alignmentsTask = pool.submit(new Callable<String>() {
+			public String call() throws IOException {
+				return compileAlignments(sourceCorpusArray, targetCorpusArray, numberOfSentences);
+			}
+		});
+		
+		Future<String> targetSuffixesTask = pool.submit(new Callable<String>() {
+			public String call() throws IOException {
+				return compileTargetSuffixes(targetCorpusArray);
+			}
+		});
+		
+		Future<String> sourceSuffixesTask = pool.submit(new Callable<String>() {
+			public String call() throws IOException {
+				return compileSourceSuffixes(sourceCorpusArray);
+			}
+		});
+		
+		try {
+			out.print(getResult(alignmentsTask));
+			out.print(getResult(targetSuffixesTask));
+			out.print(getResult(sourceSuffixesTask));
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		logStage("Alignments, lexprobs and suffix arrays", stageTime);
+		
+		out.flush();
+		out.close();
+		
+		logStage("Compilation", startTime);
+		if (logger.isLoggable(Level.INFO)) logger.info("Completed writing binary files to disk");
+		
+	}
+	
+	/**
+	 * Constructs the alignment grids and lexical translation
+	 * probabilities, and writes them to disk.
+	 * 
+	 * @return the lines of the README file describing the
+	 *         files written
+	 */
+	private String compileAlignments(CorpusArray sourceCorpusArray, CorpusArray targetCorpusArray, int numberOfSentences) throws IOException {
+		
+		long stageTime = System.currentTimeMillis();
+		StringBuilder readme = new StringBuilder();
+		
+		// Construct alignments data structure
+		AlignmentGrids grids = new AlignmentGrids(
+				new Scanner(new File(alignmentsFileName)), 
+				sourceCorpusArray, 
+				targetCorpusArray,
+				numberOfSentences);
 
-			// Write alignments to disk
-			{
-				String binaryAlignmentsFilename = outputDirName + File.separator + "alignment.grids";
-				if (logger.isLoggable(Level.INFO)) logger.info("Writing binary alignment grids to disk at " + binaryAlignmentsFilename);
+		// Write alignments to disk
+		{
+			String binaryAlignmentsFilename = outputDirName + File.separator + "alignment.grids";
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing binary alignment grids to disk at " + binaryAlignmentsFilename);
 
-				BinaryOut alignmentsOut = new BinaryOut(binaryAlignmentsFilename);
-				grids.writeExternal(alignmentsOut);
-				alignmentsOut.flush();
-				alignmentsOut.close();
+			BinaryOut alignmentsOut = new BinaryOut(binaryAlignmentsFilename);
+			grids.writeExternal(alignmentsOut);
+			alignmentsOut.flush();
+			alignmentsOut.close();
 
-				out.println("Source-target alignment grids: " + binaryAlignmentsFilename);
-			}
+			readme.append("Source-target alignment grids: " + binaryAlignmentsFilename + "\n");
+		}
+		
+		stageTime = logStage("Alignment grids", stageTime);
 
-			// Write lexprobs to disk
-			{
-				ParallelCorpus parallelCorpus = new AlignedParallelCorpus(sourceCorpusArray, targetCorpusArray, grids);
+		// Write lexprobs to disk
+		{
+			ParallelCorpus parallelCorpus = new AlignedParallelCorpus(sourceCorpusArray, targetCorpusArray, grids);
 
-				if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexprob table");
-				LexicalProbabilities lexProbs = 
-					new LexProbs(parallelCorpus, Float.MIN_VALUE);
+			if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexprob table");
+			LexProbs lexProbs = 
+				new LexProbs(parallelCorpus, Float.MIN_VALUE);
 
-				String lexprobsFilename = outputDirName + File.separator + "lexprobs.txt";
-				FileOutputStream stream = new FileOutputStream(lexprobsFilename);
-				OutputStreamWriter lexprobsOut = new OutputStreamWriter(stream, charset);
+			String lexprobsFilename = outputDirName + File.separator + "lexprobs.txt";
 
-				String binaryLexCountFilename = outputDirName + File.separator + "lexicon.counts";
-				if (logger.isLoggable(Level.INFO)) logger.info("Writing binary lexicon counts to disk at " + binaryLexCountFilename);
+			String binaryLexCountFilename = outputDirName + File.separator + "lexicon.counts";
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing binary lexicon counts to disk at " + binaryLexCountFilename);
 
-				//			BinaryOut lexCountOut = new BinaryOut(binaryLexCountFilename);
-				ObjectOutput lexCountOut = new ObjectOutputStream(new FileOutputStream(binaryLexCountFilename));
-				lexProbs.writeExternal(lexCountOut);
-				lexCountOut.close();
+			//			BinaryOut lexCountOut = new BinaryOut(binaryLexCountFilename);
+			ObjectOutput lexCountOut = new ObjectOutputStream(new FileOutputStream(binaryLexCountFilename));
+			lexProbs.writeExternal(lexCountOut);
+			lexCountOut.close();
 
-				String s = lexProbs.toString();
+			// Stream the lexprobs rather than building one string
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing lexprobs at " + lexprobsFilename);
+			Writer lexprobsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(lexprobsFilename), charset));
+			lexProbs.write(lexprobsOut);
+			lexprobsOut.flush();
+			lexprobsOut.close();
+			readme.append("Lexprobs at " + lexprobsFilename + "\n");
 
-				if (logger.isLoggable(Level.INFO)) logger.info("Writing lexprobs at " + lexprobsFilename);
-				lexprobsOut.write(s);  
-				lexprobsOut.flush();
-				lexprobsOut.close();
-				out.println("Lexprobs at " + lexprobsFilename);
+			String binaryLexProbsFilename = outputDirName + File.separator + "lexprobs.bin";
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing binary lexprob table to disk at " + binaryLexProbsFilename);
+			MemoryMappedLexProbs.write(lexProbs, binaryLexProbsFilename);
+			readme.append("Binary lexprob table at " + binaryLexProbsFilename + "\n");
 
-			}
 		}
 		
-		// Write target language suffix array to disk
-		{
-			// Construct target language suffix array
-			if (logger.isLoggable(Level.INFO)) logger.info("Constructing suffix array from file " + targetCorpusFileName);
-			SuffixArray targetSuffixArray = SuffixArrayFactory.createSuffixArray(targetCorpusArray, Cache.DEFAULT_CAPACITY);
-			
-			String binaryTargetSuffixesFilename = outputDirName + File.separator + "target.suffixes";
-			if (logger.isLoggable(Level.INFO)) logger.info("Writing binary target corpus to disk at " + binaryTargetSuffixesFilename);
-			
-			BinaryOut suffixesOut = new BinaryOut(new FileOutputStream(binaryTargetSuffixesFilename), false);
-			targetSuffixArray.writeExternal(suffixesOut);	
-	    	suffixesOut.flush();
-	    	
-			out.println("Target language suffix array: " + binaryTargetSuffixesFilename);
-		}
+		logStage("Lexprobs", stageTime);
 		
+		return readme.toString();
+	}
+	
+	/**
+	 * Constructs the target language suffix array and writes it
+	 * to disk.
+	 * 
+	 * @return the line of the README file describing the file
+	 *         written
+	 */
+	private String compileTargetSuffixes(CorpusArray targetCorpusArray) throws IOException {
 		
-		{
-			// Construct source language suffix array
-			if (logger.isLoggable(Level.INFO)) logger.info("Constructing suffix array from file " + sourceCorpusFileName);
-			SuffixArray sourceSuffixArray = SuffixArrayFactory.createSuffixArray(sourceCorpusArray, Cache.DEFAULT_CAPACITY);
+		long stageTime = System.currentTimeMillis();
+		
+		// Construct target language suffix array
+		if (logger.isLoggable(Level.INFO)) logger.info("Constructing suffix array from file " + targetCorpusFileName);
+		SuffixArray targetSuffixArray = SuffixArrayFactory.createSuffixArray(targetCorpusArray, Cache.DEFAULT_CAPACITY);
+		
+		String binaryTargetSuffixesFilename = outputDirName + File.separator + "target.suffixes";
+		if (logger.isLoggable(Level.INFO)) logger.info("Writing binary target corpus to disk at " + binaryTargetSuffixesFilename);
+		
+		BinaryOut suffixesOut = new BinaryOut(new FileOutputStream(binaryTargetSuffixesFilename), false);
+		targetSuffixArray.writeExternal(suffixesOut);	
+    	suffixesOut.flush();
+    	
+    	logStage("Target language suffix array", stageTime);
+    	
+		return "Target language suffix array: " + binaryTargetSuffixesFilename + "\n";
+	}
+	
+	/**
+	 * Constructs the source language suffix array and its index
+	 * of frequent phrases, and writes them to disk.
+	 * 
+	 * @return the line of the README file describing the files
+	 *         written
+	 */
+	private String compileSourceSuffixes(CorpusArray sourceCorpusArray) throws IOException {
+		
+		long stageTime = System.currentTimeMillis();
+		StringBuilder readme = new StringBuilder();
+		
+		// Construct source language suffix array
+		if (logger.isLoggable(Level.INFO)) logger.info("Constructing suffix array from file " + sourceCorpusFileName);
+		SuffixArray sourceSuffixArray = SuffixArrayFactory.createSuffixArray(sourceCorpusArray, Cache.DEFAULT_CAPACITY);
 
-			// Write source language suffix array to disk
-			{
-				String binarySourceSuffixesFilename = outputDirName + File.separator + "source.suffixes";
-				if (logger.isLoggable(Level.INFO)) logger.info("Writing binary source corpus to disk at " + binarySourceSuffixesFilename);
+		// Write source language suffix array to disk
+		{
+			String binarySourceSuffixesFilename = outputDirName + File.separator + "source.suffixes";
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing binary source corpus to disk at " + binarySourceSuffixesFilename);
 
-				BinaryOut suffixesOut = new BinaryOut(new FileOutputStream(binarySourceSuffixesFilename), false);
-				sourceSuffixArray.writeExternal(suffixesOut);	
-				suffixesOut.flush();
+			BinaryOut suffixesOut = new BinaryOut(new FileOutputStream(binarySourceSuffixesFilename), false);
+			sourceSuffixArray.writeExternal(suffixesOut);	
+			suffixesOut.flush();
 
-				out.println("Source language suffix array: " + binarySourceSuffixesFilename);
-			}
+			readme.append("Source language suffix array: " + binarySourceSuffixesFilename + "\n");
+		}
+		
+		stageTime = logStage("Source language suffix array", stageTime);
 
-			// Precompute and write frequent phrase locations to disk
-			{
-				if (logger.isLoggable(Level.INFO)) logger.info("Precomputing indices for most frequent phrases");
-				FrequentPhrases frequentPhrases = 
-					new FrequentPhrases(sourceSuffixArray, minFrequency, maxPhrases, maxPhraseLength, maxPhraseLength, maxPhraseSpan, minNonterminalSpan);
+		// Precompute and write frequent phrase locations to disk
+		{
+			if (logger.isLoggable(Level.INFO)) logger.info("Precomputing indices for most frequent phrases");
+			FrequentPhrases frequentPhrases = 
+				new FrequentPhrases(sourceSuffixArray, minFrequency, maxPhrases, maxPhraseLength, maxPhraseLength, maxPhraseSpan, minNonterminalSpan);
 
-				String frequentPhrasesFilename = outputDirName + File.separator + "frequentPhrases";
-				if (logger.isLoggable(Level.INFO)) logger.info("Writing precomputing indices for most frequent phrases at " + frequentPhrasesFilename);
-				BinaryOut frequentPhrasesOut = new BinaryOut(frequentPhrasesFilename);
-				frequentPhrases.writeExternal(frequentPhrasesOut);
-				frequentPhrasesOut.close();
-			}
+			String frequentPhrasesFilename = outputDirName + File.separator + "frequentPhrases";
+			if (logger.isLoggable(Level.INFO)) logger.info("Writing precomputing indices for most frequent phrases at " + frequentPhrasesFilename);
+			BinaryOut frequentPhrasesOut = new BinaryOut(frequentPhrasesFilename);
+			frequentPhrases.writeExternal(frequentPhrasesOut);
+			frequentPhrasesOut.close();
 		}
 		
-		out.flush();
-		out.close();
-		
-		if (logger.isLoggable(Level.INFO)) logger.info("Completed writing binary files to disk");
+		logStage("Frequent phrases", stageTime);
 		
+		return readme.toString();
+	}
+	
+	/**
+	 * Waits for a compilation task, rethrowing any exception
+	 * it threw.
+	 */
+	private static String getResult(Future<String> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			IOException ioe = new IOException("Interrupted while compiling");
+			ioe.initCause(e);
+			throw ioe;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+	
+	/**
+	 * Logs the time taken by a stage of compilation, and the
+	 * peak heap use so far.
+	 * 
+	 * @param stage Name of the stage
+	 * @param stageTime Time at which the stage started
+	 * @return the current time
+	 */
+	private static long logStage(String stage, long stageTime) {
+		long now = System.currentTimeMillis();
+		if (logger.isLoggable(Level.INFO)) {
+			// Pools peak at different times, so their sum is an upper bound
+			long peak = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			logger.info(String.format("%s took %d ms; peak heap use so far at most %d MB", 
+					stage, now - stageTime, peak >> 20));
+		}
+		return now;
 	}
 	
 	public static void main(String[] args) throws IOException {
 		
-		if (args.length < 4) {
-			System.err.println("Usage: java " + Compile.class.getName() + " sourceCorpus targetCorpus alignmentsFile outputDir.josh");
+		Compile compiler = new Compile();
+		
+		int i = 0;
+		while (i + 1 < args.length && "-threads".equals(args[i])) {
+			compiler.setThreads(Integer.parseInt(args[i + 1]));
+			i += 2;
+		}
+		
+		if (args.length - i < 4) {
+			System.err.println("Usage: java " + Compile.class.getName() + " [-threads n] sourceCorpus targetCorpus alignmentsFile outputDir.josh [encoding]");
+			System.err.println("  -threads n  construct alignments and lexprobs, and the two suffix arrays, on up to 3 threads (default 1)");
 			System.exit(0);
 		}
 		
-		Compile compiler = new Compile();
-		compiler.setSourceCorpus(args[0]);
-		compiler.setTargetCorpus(args[1]);
-		compiler.setAlignments(args[2]);
-		compiler.setOutputDir(args[3]);
-		if (args.length > 4) compiler.setEncoding(args[4]);
+		compiler.setSourceCorpus(args[i]);
+		compiler.setTargetCorpus(args[i + 1]);
+		compiler.setAlignments(args[i + 2]);
+		compiler.setOutputDir(args[i + 3]);
+		if (args.length - i > 4) compiler.setEncoding(args[i + 4]);
 		
 		compiler.execute();
 	}
@@ -17,7 +17,12 @@
  */
 package joshua.corpus.suffix_array;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 import joshua.corpus.AlignedParallelCorpus;
 import joshua.corpus.Phrase;
@@ -25,6 +30,7 @@ import joshua.corpus.RuleExtractor;
 import joshua.corpus.alignment.Alignments;
 import joshua.corpus.lexprob.LexProbs;
 import joshua.corpus.lexprob.LexicalProbabilities;
+import joshua.corpus.lexprob.MemoryMappedLexProbs;
 import joshua.decoder.ff.FeatureFunction;
 import joshua.decoder.ff.tm.Grammar;
 import joshua.decoder.ff.tm.GrammarFactory;
@@ -42,6 +48,10 @@ import joshua.prefix_tree.PrefixTree;
  */
 public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implements GrammarFactory {
 
+	/** Logger for this class. */
+	private static final Logger logger = 
+		Logger.getLogger(ParallelCorpusGrammarFactory.class.getName());
+	
 	/** Source language corpus, represented as a suffix array. */
 	private final Suffixes sourceSuffixArray;
 	
@@ -82,6 +92,17 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 	
 	private final float oovFeatureCost;
 	
+	/**
+	 * Threads that extract the rules of the patterns of a
+	 * sentence, shared by all sentences; <code>null</code> if
+	 * rules are extracted by the thread that builds the
+	 * prefix tree.
+	 */
+	private ExecutorService ruleExtractionPool = null;
+	
+	/** Number of threads that extract rules. */
+	private int ruleExtractionThreads = 1;
+	
 	/**
 	 * Constructs a factory capable of getting a grammar backed
 	 * by a suffix array.
@@ -116,6 +137,55 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 			String defaultLHSSymbol, 
 			float oovFeatureCost) {
 		
+		this(sourceSuffixArray, targetSuffixArray, alignments, models, 
+				null, sampleSize, maxPhraseSpan, maxPhraseLength, 
+				maxNonterminals, minNonterminalSpan, lexProbFloor, 
+				ruleOwner, defaultLHSSymbol, oovFeatureCost);
+	}
+	
+	
+	/**
+	 * Constructs a factory capable of getting a grammar backed
+	 * by a suffix array, whose lexical translation probabilities
+	 * are mapped from a binary table written by
+	 * {@link MemoryMappedLexProbs#write(LexProbs, String)}.
+	 * 
+	 * @param sourceSuffixArray Source language corpus, 
+	 *                          represented as a suffix array
+	 * @param targetSuffixArray Target language corpus
+	 *                          represented as a suffix array
+	 * @param alignments        Parallel corpus alignment points
+	 * @param lexProbsFilename  Binary lexical probability table;
+	 *                          if <code>null</code>, or if the table 
+	 *                          cannot be mapped, the probabilities
+	 *                          are calculated from the parallel corpus
+	 * @param maxPhraseSpan     Max span in the source corpus of any 
+	 *                          extracted hierarchical phrase
+	 * @param maxPhraseLength   Maximum number of terminals plus nonterminals 
+	 *                          allowed in any extracted hierarchical phrase
+	 * @param maxNonterminals   Maximum number of nonterminals allowed on the 
+	 *                          right-hand side of any extracted rule
+	 * @param lexProbFloor      Probability returned for unseen word pairs
+	 * @param ruleOwner 		Specifies a name identifier for this grammar
+	 * @param defaultLHSSymbol TODO
+	 * @param oovFeatureCost TODO
+	 */
+	public ParallelCorpusGrammarFactory(
+			Suffixes sourceSuffixArray, 
+			Suffixes targetSuffixArray, 
+			Alignments alignments, 
+			ArrayList<FeatureFunction> models,
+			String lexProbsFilename,
+			int sampleSize, 
+			int maxPhraseSpan, 
+			int maxPhraseLength, 
+			int maxNonterminals, 
+			int minNonterminalSpan, 
+			float lexProbFloor, 
+			String ruleOwner, 
+			String defaultLHSSymbol, 
+			float oovFeatureCost) {
+		
 		super((sourceSuffixArray==null)?null:sourceSuffixArray.getCorpus(), 
 				(targetSuffixArray==null)?null:targetSuffixArray.getCorpus(), 
 				alignments);
@@ -124,7 +194,7 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 		this.maxPhraseLength   = maxPhraseLength;
 		this.maxNonterminals   = maxNonterminals;
 		this.minNonterminalSpan = minNonterminalSpan;
-		this.lexProbs          = new LexProbs(this,lexProbFloor);
+		this.lexProbs          = mapLexProbs(lexProbsFilename, lexProbFloor);
 		this.ruleOwner = ruleOwner;
 		this.defaultLHSSymbol = defaultLHSSymbol;
 		this.oovFeatureCost = oovFeatureCost;
@@ -205,7 +275,9 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 		this.maxPhraseLength   = maxPhraseLength;
 		this.maxNonterminals   = maxNonterminals;
 		this.minNonterminalSpan = minNonterminalSpan;
-		this.lexProbs          = new LexProbs(this, lexCountsFilename);
+		this.lexProbs          = MemoryMappedLexProbs.isBinaryFile(lexCountsFilename) ? 
+				mapLexProbs(lexCountsFilename, null) : 
+				new LexProbs(this, lexCountsFilename);
 		this.ruleOwner = ruleOwner;
 		this.defaultLHSSymbol = defaultLHSSymbol;
 		this.oovFeatureCost = oovFeatureCost;
@@ -244,6 +316,35 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 	}
 	
 	
+	/**
+	 * Maps a binary lexical probability table, falling back on
+	 * calculating the probabilities from this parallel corpus.
+	 * 
+	 * @param lexProbsFilename Binary lexical probability table,
+	 *                         or <code>null</code>
+	 * @param lexProbFloor     Probability returned for unseen word
+	 *                         pairs, or <code>null</code> to use 
+	 *                         the floor stored in the table
+	 * @return lexical translation probabilities
+	 */
+	private LexicalProbabilities mapLexProbs(String lexProbsFilename, Float lexProbFloor) {
+		
+		if (lexProbsFilename != null) {
+			try {
+				if (lexProbFloor == null) {
+					return new MemoryMappedLexProbs(this, lexProbsFilename);
+				} else {
+					return new MemoryMappedLexProbs(this, lexProbsFilename, lexProbFloor);
+				}
+			} catch (IOException e) {
+				logger.warning("Unable to map lexical translation probabilities from " + lexProbsFilename + ": " + e.getMessage());
+			}
+		}
+		
+		return new LexProbs(this, (lexProbFloor == null) ? Float.MIN_VALUE : lexProbFloor);
+	}
+	
+	
 	/** 
 	 * Extracts a grammar which contains only those rules
 	 * relevant for translating the specified sentence.
@@ -335,4 +436,57 @@ public class ParallelCorpusGrammarFactory extends AlignedParallelCorpus implemen
 	public float getOovFeatureCost() {
 		return this.oovFeatureCost;
 	}
+	
+	/**
+	 * Sets the number of threads that extract rules for the
+	 * patterns found while building the prefix tree of a
+	 * sentence. With one thread, rules are extracted by the
+	 * thread that builds the prefix tree.
+	 * <p>
+	 * This method should be called before any grammar is
+	 * requested.
+	 * 
+	 * @param threads number of rule extraction threads
+	 */
+	public void setRuleExtractionThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of rule extraction threads must be positive: " + threads);
+		}
+		if (this.ruleExtractionPool != null) {
+			this.ruleExtractionPool.shutdown();
+			this.ruleExtractionPool = null;
+		}
+		this.ruleExtractionThreads = threads;
+		if (threads > 1) {
+			this.ruleExtractionPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "rule extraction");
+					// the pool must not keep the program running
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Gets the threads that extract rules for the patterns of
+	 * a sentence.
+	 * 
+	 * @return the rule extraction threads, or <code>null</code>
+	 *         if rules should be extracted by the thread that
+	 *         builds the prefix tree
+	 */
+	public ExecutorService getRuleExtractionPool() {
+		return this.ruleExtractionPool;
+	}
+	
+	/**
+	 * Gets the number of threads that extract rules.
+	 * 
+	 * @return the number of rule extraction threads
+	 */
+	public int getRuleExtractionThreads() {
+		return this.ruleExtractionThreads;
+	}
 }
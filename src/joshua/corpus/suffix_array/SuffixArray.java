@@ -27,7 +27,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutput;
 import java.util.List;
-import java.util.Random;
 import java.util.logging.Logger;
 
 
@@ -53,13 +52,6 @@ import java.util.logging.Logger;
  */
 public class SuffixArray extends AbstractSuffixArray {
 	
-	/**
-	 * A random number generator used in the quick sort
-	 * implementation.
-	 */
-	private static final Random RAND = new Random();
-	
-	
 	/** Logger for this class. */
 	private static final Logger logger = 
 		Logger.getLogger(SuffixArray.class.getName());
@@ -94,11 +86,7 @@ public class SuffixArray extends AbstractSuffixArray {
 		
 		suffixes = new int[corpusArray.size()];
 
-		// Create an array of suffix IDs
-		for (int i = 0, n=corpusArray.size(); i < n; i++) {
-			suffixes[i] = i;
-		}
-		// Sort the array of suffixes
+		// Sort the suffixes of the corpus into the array
 		sort(suffixes);
 
 	}
@@ -162,11 +150,14 @@ public class SuffixArray extends AbstractSuffixArray {
 	//===========================================================
 
 	/** 
-	 * Sorts the initalized, unsorted suffixes. Uses quick sort
-	 * and the compareSuffixes method defined in CorpusArray.
+	 * Fills the array with the corpus positions of all suffixes,
+	 * sorted in linear time in the order defined by the
+	 * compareSuffixes method of Corpus.
+	 * 
+	 * @see SuffixSorter
 	 */ 
     protected void sort(int[] suffixes) {
-        qsort(suffixes, 0, suffixes.length - 1);
+        SuffixSorter.sort(corpus, suffixes);
     }
     
 
@@ -175,53 +166,6 @@ public class SuffixArray extends AbstractSuffixArray {
     	FileUtility.writeBytes(suffixes, out);
     }
     
-  //===============================================================
- // Private 
- //===============================================================
- 	
- 	//===============================================================
- 	// Methods
- 	//===============================================================
- 	
- 	/** Quick sort */	
-     private void qsort(int[] array, int begin, int end) {
-         if (end > begin) {
-         	
-             int index; 
-             {	index = begin + RAND.nextInt(end - begin + 1);
-                 int pivot = array[index];
-                 
-                 {
-                 	int tmp = array[index];
-                 	array[index] = array[end];
-                 	array[end] = tmp;
-                 }
-                 
-                 for (int i = index = begin; i < end; ++ i) {
-                     if (corpus.compareSuffixes(array[i], pivot, MAX_COMPARISON_LENGTH) <= 0) {
-                         
-                         {
-                         	int tmp = array[index];
-                         	array[index] = array[i];
-                         	array[i] = tmp;
-                         	index++;
-                         }
-                     }
-                 }
-                 
-                 {
-                 	int tmp = array[index];
-                 	array[index] = array[end];
-                 	array[end] = tmp;
-                 }
-             }
-             
-             qsort(array, begin, index - 1);
-             qsort(array, index + 1,  end);
-         }
-     }
-
-
 	public void writeExternal(ObjectOutput out) throws IOException {
 		
 		// Write the corpus
@@ -0,0 +1,219 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.suffix_array;
+
+import java.util.Arrays;
+
+import joshua.corpus.Corpus;
+
+/**
+ * Sorts the suffixes of a corpus in linear time, using the induced
+ * sorting algorithm SA-IS of Nong, Zhang &amp; Chan (2009) "Linear
+ * Suffix Array Construction by Almost Pure Induced-Sorting".
+ * <p>
+ * Suffixes are ordered by word ID, and a suffix that is a prefix of
+ * another suffix comes first. This is the order of
+ * {@link Corpus#compareSuffixes(int, int, int)}, except that
+ * suffixes are compared in full rather than up to a maximum number
+ * of words, so suffixes that the latter considers equal are ordered
+ * by the rest of their words.
+ *
+ * @version $LastChangedDate$
+ */
+class SuffixSorter {
+
+	/**
+	 * Sorts all suffixes of a corpus.
+	 *
+	 * @param corpus Corpus whose suffixes are sorted
+	 * @param suffixes Array of length <code>corpus.size()</code>,
+	 *                 into which the corpus positions of the sorted
+	 *                 suffixes are written
+	 */
+	static void sort(Corpus corpus, int[] suffixes) {
+
+		int n = corpus.size();
+		if (n == 0) {
+			return;
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			int wordID = corpus.getWordID(i);
+			if (wordID < min) min = wordID;
+			if (wordID > max) max = wordID;
+		}
+
+		// Shift word IDs to 1..k-1 and end the text
+		// with a sentinel 0, smaller than any word
+		int[] text = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			text[i] = corpus.getWordID(i) - min + 1;
+		}
+		text[n] = 0;
+
+		int[] sorted = new int[n + 1];
+		sais(text, sorted, n + 1, max - min + 2);
+
+		// The sentinel suffix sorts first
+		System.arraycopy(sorted, 1, suffixes, 0, n);
+	}
+
+	/**
+	 * Sorts the suffixes of a text whose last symbol is a unique
+	 * sentinel 0.
+	 *
+	 * @param s Text, with symbols in the range 0..k-1
+	 * @param sa Array into which the sorted suffixes are written
+	 * @param n Length of the text
+	 * @param k Size of the alphabet
+	 */
+	private static void sais(int[] s, int[] sa, int n, int k) {
+
+		// Classify each suffix as S-type (true) or L-type (false)
+		boolean[] t = new boolean[n];
+		t[n - 1] = true;
+		for (int i = n - 2; i >= 0; i--) {
+			t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+		}
+
+		// Sort the LMS substrings by inducing from their first symbols
+		int[] bkt = new int[k];
+		getBuckets(s, n, bkt, k, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = 1; i < n; i++) {
+			if (isLMS(t, i)) {
+				sa[--bkt[s[i]]] = i;
+			}
+		}
+		induceL(t, sa, s, bkt, n, k);
+		induceS(t, sa, s, bkt, n, k);
+
+		// Move the sorted LMS substrings to the front
+		int n1 = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLMS(t, sa[i])) {
+				sa[n1++] = sa[i];
+			}
+		}
+
+		// Name the LMS substrings; equal substrings get the same name.
+		// LMS positions are at least two apart, so pos/2 is unique.
+		Arrays.fill(sa, n1, n, -1);
+		int name = 0;
+		int prev = -1;
+		for (int i = 0; i < n1; i++) {
+			int pos = sa[i];
+			boolean diff = false;
+			for (int d = 0; ; d++) {
+				if (prev == -1 || s[pos + d] != s[prev + d] || t[pos + d] != t[prev + d]) {
+					diff = true;
+					break;
+				} else if (d > 0 && (isLMS(t, pos + d) || isLMS(t, prev + d))) {
+					break;
+				}
+			}
+			if (diff) {
+				name++;
+				prev = pos;
+			}
+			sa[n1 + pos / 2] = name - 1;
+		}
+		int[] s1 = new int[n1];
+		for (int i = n - 1, j = n1 - 1; i >= n1; i--) {
+			if (sa[i] >= 0) {
+				s1[j--] = sa[i];
+			}
+		}
+
+		// Sort the LMS suffixes, recursing if their names are not unique
+		if (name < n1) {
+			sais(s1, sa, n1, name);
+		} else {
+			for (int i = 0; i < n1; i++) {
+				sa[s1[i]] = i;
+			}
+		}
+
+		// Induce the order of all suffixes from the sorted LMS suffixes
+		getBuckets(s, n, bkt, k, true);
+		for (int i = 1, j = 0; i < n; i++) {
+			if (isLMS(t, i)) {
+				s1[j++] = i;
+			}
+		}
+		for (int i = 0; i < n1; i++) {
+			sa[i] = s1[sa[i]];
+		}
+		Arrays.fill(sa, n1, n, -1);
+		for (int i = n1 - 1; i >= 0; i--) {
+			int j = sa[i];
+			sa[i] = -1;
+			sa[--bkt[s[j]]] = j;
+		}
+		induceL(t, sa, s, bkt, n, k);
+		induceS(t, sa, s, bkt, n, k);
+	}
+
+	/**
+	 * Returns whether the suffix at a position is left-most
+	 * S-type, that is, S-type and preceded by an L-type suffix.
+	 */
+	private static boolean isLMS(boolean[] t, int i) {
+		return i > 0 && t[i] && !t[i - 1];
+	}
+
+	/**
+	 * Computes the start or end of each symbol's bucket in the
+	 * suffix array.
+	 */
+	private static void getBuckets(int[] s, int n, int[] bkt, int k, boolean end) {
+		Arrays.fill(bkt, 0, k, 0);
+		for (int i = 0; i < n; i++) {
+			bkt[s[i]]++;
+		}
+		int sum = 0;
+		for (int c = 0; c < k; c++) {
+			sum += bkt[c];
+			bkt[c] = end ? sum : sum - bkt[c];
+		}
+	}
+
+	/** Places each L-type suffix at the start of its bucket. */
+	private static void induceL(boolean[] t, int[] sa, int[] s, int[] bkt, int n, int k) {
+		getBuckets(s, n, bkt, k, false);
+		for (int i = 0; i < n; i++) {
+			int j = sa[i] - 1;
+			if (j >= 0 && !t[j]) {
+				sa[bkt[s[j]]++] = j;
+			}
+		}
+	}
+
+	/** Places each S-type suffix at the end of its bucket. */
+	private static void induceS(boolean[] t, int[] sa, int[] s, int[] bkt, int n, int k) {
+		getBuckets(s, n, bkt, k, true);
+		for (int i = n - 1; i >= 0; i--) {
+			int j = sa[i] - 1;
+			if (j >= 0 && t[j]) {
+				sa[--bkt[s[j]]] = j;
+			}
+		}
+	}
+}
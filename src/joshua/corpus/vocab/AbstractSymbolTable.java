@@ -17,7 +17,7 @@
  */
 package joshua.corpus.vocab;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -28,8 +28,8 @@ import java.util.HashMap;
  * @version $LastChangedDate$
  */
 public abstract class AbstractSymbolTable implements SymbolTable {	
-	/*a speed up trick*/
-	HashMap<Integer, Integer> targetNonterminalIntexCache = new HashMap<Integer, Integer> ();
+	/*a speed up trick; concurrent, since decoder threads share the symbol table*/
+	ConcurrentHashMap<Integer, Integer> targetNonterminalIntexCache = new ConcurrentHashMap<Integer, Integer> ();
 	
 	/* See Javadoc for SymbolTable interface. */
 	final public int[] addTerminals(String sentence){
@@ -0,0 +1,133 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.corpus.vocab;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Symbol table that decoder threads may share, for instance to
+ * add OOV words while other threads look words up.
+ * <p>
+ * Terminals get the same ids as in {@link BuildinSymbol}, counting
+ * up from {@link #getLowestID()}. Lookups in either direction do
+ * not lock: words map to ids in a ConcurrentHashMap, and ids map
+ * to words in an array indexed by id. A word is added under a
+ * lock, which keeps the ids dense; the lock is only taken for
+ * words that are not yet in the table.
+ *
+ * @version $LastChangedDate$
+ */
+public class ConcurrentSymbol extends DefaultSymbol {
+	
+	private static final Logger logger = Logger.getLogger(ConcurrentSymbol.class.getName());
+	
+	private final ConcurrentHashMap<String,Integer> terminalToID = new ConcurrentHashMap<String,Integer>();
+	
+	/** 
+	 * Terminals by id minus lmStartSymID. The array is replaced,
+	 * never resized in place, so readers see either the old or
+	 * the new array, both holding every published word.
+	 */
+	private volatile String[] terminals = new String[1024];
+	
+	/** Guarded by this. */
+	private int curTerminalID = lmStartSymID;
+	
+	public ConcurrentSymbol() {
+		this(null);
+	}
+	
+	public ConcurrentSymbol(String fname) {
+		if (null != fname) {
+			logger.info("Construct the symbol table from a file " + fname);
+			try {
+				initializeSymTblFromFile(fname);
+			} catch (IOException ioe) {
+				throw new RuntimeException(
+					"Error encountered while constructing symbol table from file " + fname,
+					ioe);
+			}
+		
+		} else {
+			logger.info("Construct the symbol table on the fly");
+		}
+	}
+	
+	public int addTerminal(String terminal) {
+		return getID(terminal);
+	}
+	
+	/** Get int for string (initial, or recover) */
+	public int getID(String str) {
+		Integer resID = terminalToID.get(str);
+		if (null != resID) { // already have this symbol
+			return resID;
+		} else {
+			return add(str);
+		}
+	}
+	
+	private synchronized int add(String str) {
+		// another thread may have added the symbol since the lookup
+		Integer resID = terminalToID.get(str);
+		if (null != resID) {
+			return resID;
+		}
+		
+		int id = curTerminalID;
+		if (id >= lmEndSymID) {
+			throw new RuntimeException("curTerminalID is greater than lmEndSymID");
+		}
+		
+		int index = id - lmStartSymID;
+		String[] table = this.terminals;
+		if (index >= table.length) {
+			String[] grown = new String[Math.min(2 * table.length, lmEndSymID - lmStartSymID)];
+			System.arraycopy(table, 0, grown, 0, table.length);
+			table = grown;
+		}
+		table[index] = str;
+		this.terminals = table;
+		
+		// publish the id only once its word can be read back
+		terminalToID.put(str, id);
+		curTerminalID++;
+		return id;
+	}
+	
+	
+	public String getTerminal(int id) {
+		String[] table = this.terminals;
+		int index = id - lmStartSymID;
+		String res = (index >= 0 && index < table.length) ? table[index] : null;
+		if (res == null) {
+			logger.warning("null string for id="+id);
+		}
+		
+		return res;
+	}
+	
+	
+	public Collection<Integer> getAllIDs() {
+		return terminalToID.values();
+	}
+	
+}
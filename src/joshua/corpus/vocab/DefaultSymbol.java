@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -55,8 +56,9 @@ public abstract class DefaultSymbol extends AbstractSymbolTable {
 	
 	// terminal symbol may get from a tbl file, srilm, or a lm file
 	//**non-terminal symbol is always from myself, and the integer should always be negative	
-	private HashMap<String,Integer> string2id = new HashMap<String,Integer>();
-	private HashMap<Integer,String> id2string = new HashMap<Integer,String>();
+	//  concurrent maps, so that threads may look nonterminals up while one is added
+	private ConcurrentHashMap<String,Integer> string2id = new ConcurrentHashMap<String,Integer>();
+	private ConcurrentHashMap<Integer,String> id2string = new ConcurrentHashMap<Integer,String>();
 	private int nonterminalCurrentId = -1;
 	
 	private static final Logger logger =
@@ -131,7 +133,7 @@ public abstract class DefaultSymbol extends AbstractSymbolTable {
 	
 		
 //	####### following functions used for TM only
-	final public int addNonterminal(String str) {
+	final public synchronized int addNonterminal(String str) {
 		Integer id = this.string2id.get(str);
 		if (null != id) { // already have this symbol
 			if (! isNonterminal(id)) {
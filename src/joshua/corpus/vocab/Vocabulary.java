@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -77,11 +78,14 @@ public class Vocabulary extends AbstractExternalizableSymbolTable
 
 	/**
 	 * Constructor creates an empty vocabulary.
+	 * <p>
+	 * Words may be looked up, and added, by several threads
+	 * at once; lookups do not lock.
 	 */
 	public Vocabulary() {
-		nonterminalToInt = new HashMap<String,Integer>();
-		terminalToInt = new HashMap<String,Integer>();  
-		intToString = new HashMap<Integer,String>();
+		nonterminalToInt = new ConcurrentHashMap<String,Integer>();
+		terminalToInt = new ConcurrentHashMap<String,Integer>();  
+		intToString = new ConcurrentHashMap<Integer,String>();
 //		isFixed = false;
 //		terminalToInt.put(UNKNOWN_WORD_STRING, UNKNOWN_WORD);
 //		intToString.put(UNKNOWN_WORD, UNKNOWN_WORD_STRING);
@@ -511,11 +515,17 @@ public class Vocabulary extends AbstractExternalizableSymbolTable
 		if (id != null) {
 			return id.intValue();
 		} else {
-			int size = nonterminalToInt.size();
-			id = -(size+1);
-			nonterminalToInt.put(nonterminal, id);
-			intToString.put(id, nonterminal);
-			return id;
+			synchronized (this) {
+				// another thread may have added the word since the lookup
+				id = nonterminalToInt.get(nonterminal);
+				if (id == null) {
+					int size = nonterminalToInt.size();
+					id = -(size+1);
+					intToString.put(id, nonterminal);
+					nonterminalToInt.put(nonterminal, id);
+				}
+				return id;
+			}
 		} 
 	}
 
@@ -524,10 +534,16 @@ public class Vocabulary extends AbstractExternalizableSymbolTable
 		if (id != null) {
 			return id.intValue();
 		} else {
-			id = Integer.valueOf(terminalToInt.size()+1);
-			intToString.put(id, terminal);
-			terminalToInt.put(terminal, id);
-			return id.intValue();
+			synchronized (this) {
+				// another thread may have added the word since the lookup
+				id = terminalToInt.get(terminal);
+				if (id == null) {
+					id = Integer.valueOf(terminalToInt.size()+1);
+					intToString.put(id, terminal);
+					terminalToInt.put(terminal, id);
+				}
+				return id.intValue();
+			}
 		} 
 	}
 
@@ -32,6 +32,7 @@ import joshua.decoder.ff.state_maintenance.StateComputer;
 import joshua.decoder.ff.tm.GrammarFactory;
 import joshua.decoder.hypergraph.HyperGraph;
 import joshua.discriminative.FileUtilityOld;
+import joshua.util.CoIterator;
 import joshua.util.FileUtility;
 import joshua.util.Regex;
 import joshua.util.io.LineReader;
@@ -78,17 +79,40 @@ public class DecoderFactory {
 	 * sentences. This automatically detects whether we should
 	 * run the decoder in parallel or not.
      *
-     * (Matt Post, August 2011) This needs to be rewritten.  The
-     * proper way to do it is to put all the sentences in a queue or
-     * wrap access to them in a thread-safe class.  Then start the
-     * decoder threads.  Each thread obtains the sentece to decode and
-     * deposits it somewhere.  Deposits are then accumulated and
-     * output sequentially.
+     * Sentences are read ahead into a bounded queue by the
+     * InputHandler, which also reassembles the finished translations
+     * in order; see that class for details.
 	 */
 	public void decodeTestSet(String testFile, String nbestFile, String oracleFile) {
 
         // create the input manager
-        InputHandler inputHandler = new InputHandler(testFile);
+        decode(new InputHandler(testFile, this.grammarFactories));
+	}
+	
+	/**
+	 * Decodes a set of sentences like
+	 * {@link #decodeTestSet(String, String, String)}, but hands
+	 * the translations to a co-iterator, in input order, instead
+	 * of printing them. The co-iterator is called from a single
+	 * thread.
+	 */
+	public void decodeTestSet(String testFile, CoIterator<Translation> translations) {
+		decode(new InputHandler(testFile, this.grammarFactories, translations, false));
+	}
+	
+	/**
+	 * Decodes a set of sentences like
+	 * {@link #decodeTestSet(String, CoIterator)}, but the n-best
+	 * lists of the translations are extracted as candidates,
+	 * with their feature values, instead of being formatted.
+	 * See {@link Translation#candidates()}.
+	 */
+	public void decodeCandidates(String testFile, CoIterator<Translation> translations) {
+		decode(new InputHandler(testFile, this.grammarFactories, translations, true));
+	}
+	
+	
+	private void decode(InputHandler inputHandler) {
 
 		this.decoderThreads = new DecoderThread[JoshuaConfiguration.num_parallel_decoders];
 
@@ -120,6 +144,9 @@ public class DecoderFactory {
             }
         }
 
+        // wait for the last translations to be written
+        inputHandler.finish();
+
 // 				if (JoshuaConfiguration.save_disk_hg) {
 // 					pdecoder.hypergraphSerializer.writeRulesNonParallel(
 // 						nbestFile + ".hg.rules");
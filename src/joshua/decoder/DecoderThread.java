@@ -69,7 +69,7 @@ import edu.jhu.thrax.util.TestSetFilter;
  * @author Zhifei Li, <zhifei.work@gmail.com>
  * @version $LastChangedDate: 2010-05-02 11:19:17 -0400 (Sun, 02 May 2010) $
  */
-// BUG: known synchronization problem: LM cache; srilm call;
+// BUG: known synchronization problem: srilm call;
 public class DecoderThread extends Thread {
 	/* these variables may be the same across all threads (e.g.,
 	 * just copy from DecoderFactory), or differ from thread
@@ -223,6 +223,9 @@ public class DecoderThread extends Thread {
 
             }
 
+            // extract the n-best list here, outside of any locks, so
+            // that the hypergraph can be freed as soon as possible
+            inputHandler.extractNbest(translation);
             inputHandler.register(translation);
 
             /* //debug
@@ -265,8 +268,21 @@ public class DecoderThread extends Thread {
 
         Grammar[] grammars = new Grammar[numGrammars];
 
+        // use the grammars prefetched by the input handler, if any
+        long grammarStart = System.currentTimeMillis();
+        Grammar[] prefetched = (inputHandler == null)
+            ? null
+            : inputHandler.prefetchedGrammars(sentence);
+
         for (int i = 0; i< grammarFactories.size(); i++)
-            grammars[i] = grammarFactories.get(i).getGrammarForSentence(sentence.pattern());
+            grammars[i] = (prefetched == null)
+                ? grammarFactories.get(i).getGrammarForSentence(sentence.pattern())
+                : prefetched[i];
+
+        if (JoshuaConfiguration.grammar_prefetch_depth > 0 && logger.isLoggable(Level.INFO))
+            logger.info(String.format("Sentence %d: waited %d ms for %s grammars",
+                sentence.id(), System.currentTimeMillis() - grammarStart,
+                (prefetched == null) ? "extracted" : "prefetched"));
 
         // load the sentence-specific grammar
         boolean alreadyExisted = true; // whether it already existed
@@ -18,12 +18,22 @@
 
 package joshua.decoder;
 
+import joshua.decoder.ff.tm.Grammar;
+import joshua.decoder.ff.tm.GrammarFactory;
 import joshua.decoder.segment_file.Sentence;
 import joshua.decoder.segment_file.LatticeInput;
+import joshua.util.CoIterator;
 
-import java.util.Iterator;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,9 +54,26 @@ import java.util.zip.GZIPInputStream;
  * Lattice Format, via the Lattice class).  Format (2) is used to
  * denote the sentences number of each sentence.  
  *
- * The input handler provides thread-safe sequential access to the
- * input sentences.  It also manages receiving and assembling decoded
- * sentences in order (via calls to register()).
+ * The input handler schedules the input and output of a decoding
+ * run.  A reader thread parses sentences ahead of the decoding
+ * threads into a bounded queue, from which decoding threads take
+ * them via next().  Finished translations are handed back via
+ * register() and stored in a fixed-size reorder window, from which a
+ * single writer thread prints them in input order, or hands them to a
+ * co-iterator if one was given.  A decoding thread
+ * that gets too far ahead of the writer blocks in register() until
+ * the window has room, so memory use does not depend on the size of
+ * the input.  Queue depth and the time spent waiting on both ends are
+ * logged when the run finishes.
+ *
+ * If grammar prefetching is enabled, the reader thread also starts
+ * extracting the grammars of each sentence before queueing it, and the
+ * queue holds at most the look-ahead depth.  A decoding thread then
+ * picks up the grammars via prefetchedGrammars(), so that extraction
+ * of upcoming sentences overlaps with chart parsing.  While more heap
+ * than the prefetch memory budget is in use, sentences are queued
+ * without prefetching, and their grammars are extracted by the
+ * decoding thread as before.
  *
  * Ideally, InputHandler objects could represent complicated
  * constraints and restrictions on the object being decoded.  This
@@ -58,25 +85,102 @@ import java.util.zip.GZIPInputStream;
  * @version $LastChangedDate: $
  */
 
-public class InputHandler implements Iterator<Sentence> {
+public class InputHandler {
 
 	private static final Logger logger =
 		Logger.getLogger(InputHandler.class.getName());
 
+	private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
+
+    /* Placed on the queue by the reader thread after the last
+     * sentence.  It is put back by each decoding thread that sees it,
+     * so that every thread gets to see it. */
+    private static final Sentence END_OF_INPUT = new Sentence("", -1);
+
     String corpusFile = null;
-    int sentenceNo = -1;
-    Sentence nextSentence = null;
     BufferedReader lineReader = null;
 
-	private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
+    /* Sentences parsed by the reader thread, waiting to be decoded. */
+    private final BlockingQueue<Sentence> queue;
+    private final int queueSize;
+
+    /* The reorder window.  Translation with sequence id i lives in
+     * slot i % window.length until it is printed. */
+    private final Translation[] window;
+    private int lastCompletedId = -1;
+    private int numSentences = -1; // unknown until the input is read
+    private final Object lock = new Object();
+
+    private final Thread readerThread;
+    private final Thread writerThread;
 
-    List<Sentence>    issued;
-    List<Translation> completed;
-    int lastCompletedId = -1;
-    static final Object lock = new Object();
+    /* Receives the translations in input order instead of standard
+     * output; null to print them. */
+    private final CoIterator<Translation> translations;
 
-    InputHandler(String corpusFile) {
+    /* Whether the n-best lists are extracted as candidates for the
+     * co-iterator instead of being formatted. */
+    private final boolean candidates;
+
+    /* Statistics, reported by finish().  Times are in milliseconds. */
+    private long queueDepthTotal = 0;
+    private int  queueDepthMax = 0;
+    private int  numTaken = 0;
+    private long inputWaitTime = 0;
+    private long windowWaitTime = 0;
+    private long readerWaitTime = 0;
+
+    /* Grammar prefetching; the pool is null if it is disabled.  The
+     * futures are keyed by sentence sequence id. */
+    private final List<GrammarFactory> grammarFactories;
+    private final ExecutorService prefetchPool;
+    private final long prefetchMemory; // bytes of heap in use; 0 for no limit
+    private final ConcurrentHashMap<Integer,Future<Grammar[]>> prefetched =
+        new ConcurrentHashMap<Integer,Future<Grammar[]>>();
+    private int  numPrefetched = 0;
+    private int  numPrefetchSkipped = 0;
+    private long grammarWaitTime = 0;
+
+    InputHandler(String corpusFile, List<GrammarFactory> grammarFactories) {
+        this(corpusFile, grammarFactories, null, false);
+    }
+
+    InputHandler(String corpusFile, List<GrammarFactory> grammarFactories,
+                 CoIterator<Translation> translations, boolean candidates) {
+        this(corpusFile, JoshuaConfiguration.input_queue_size,
+             Math.max(JoshuaConfiguration.output_window_size,
+                      JoshuaConfiguration.num_parallel_decoders),
+             grammarFactories,
+             JoshuaConfiguration.grammar_prefetch_depth,
+             JoshuaConfiguration.grammar_prefetch_memory * 1024L * 1024L,
+             translations, candidates);
+    }
+
+    /**
+     * @param corpusFile File to read sentences from ("-" for STDIN)
+     * @param queueSize Number of sentences to parse ahead of the
+     *                  decoding threads
+     * @param windowSize Number of finished translations that can be
+     *                  held waiting for an earlier one; must be at
+     *                  least the number of decoding threads
+     * @param grammarFactories Factories whose grammars are prefetched
+     * @param prefetchDepth Number of sentences whose grammars are
+     *                  extracted ahead of the decoding threads; 0
+     *                  disables prefetching
+     * @param prefetchMemory Bytes of heap in use above which no
+     *                  further grammars are prefetched; 0 for no limit
+     * @param translations Co-iterator that receives the finished
+     *                  translations in input order; null to print
+     *                  them to standard output
+     * @param candidates Whether the n-best lists are extracted as
+     *                  candidates instead of being formatted
+     */
+    InputHandler(String corpusFile, int queueSize, int windowSize,
+                 List<GrammarFactory> grammarFactories, int prefetchDepth, long prefetchMemory,
+                 CoIterator<Translation> translations, boolean candidates) {
         this.corpusFile = corpusFile;
+        this.translations = translations;
+        this.candidates = candidates;
 
         InputStream inputStream = null;
 
@@ -94,95 +198,319 @@ public class InputHandler implements Iterator<Sentence> {
             e.printStackTrace();
         }
 
-        issued    = new ArrayList<Sentence>();
-        completed = new ArrayList<Translation>();
-
-        // load the first input item
         this.lineReader = new BufferedReader(new InputStreamReader(inputStream, FILE_ENCODING));
 
-        prepareNextLine();
+        this.grammarFactories = grammarFactories;
+        this.prefetchMemory = prefetchMemory;
+        if (prefetchDepth > 0 && grammarFactories != null && ! grammarFactories.isEmpty()) {
+            // the look-ahead is bounded by the queue
+            queueSize = Math.min(queueSize, prefetchDepth);
+            this.prefetchPool = Executors.newFixedThreadPool(
+                Math.min(prefetchDepth, JoshuaConfiguration.num_parallel_decoders),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "InputHandler prefetcher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        } else {
+            this.prefetchPool = null;
+        }
+
+        this.queueSize = queueSize;
+        this.queue  = new ArrayBlockingQueue<Sentence>(queueSize);
+        this.window = new Translation[windowSize];
+
+        this.readerThread = new Thread("InputHandler reader") {
+            public void run() {
+                readSentences();
+            }
+        };
+        this.readerThread.setDaemon(true);
+
+        this.writerThread = new Thread("InputHandler writer") {
+            public void run() {
+                writeTranslations();
+            }
+        };
+        this.writerThread.setDaemon(true);
+
+        this.readerThread.start();
+        this.writerThread.start();
     }
 
-    private synchronized void prepareNextLine() {
-        // technically the synchronization is unnecessary because this
-        // is only called from the constructor and next(), but it
-        // feels like it should be synchronized
+
+    /**
+     * Body of the reader thread.  Parses each line of the input and
+     * puts it on the queue, blocking while the queue is full.  If
+     * prefetching is enabled, extraction of the sentence's grammars is
+     * started before it is queued.
+     */
+    private void readSentences() {
+        int sentenceNo = 0;
         try {
-            String line = lineReader.readLine();
-            sentenceNo++;
-            if (line == null) {
-                nextSentence = null;
-            } else {
-                if (line.startsWith("(((")) {
-                    nextSentence = new LatticeInput(line, sentenceNo);
-                } else {
-                    nextSentence = new Sentence(line, sentenceNo);
-                }
+            for (String line = lineReader.readLine(); line != null; line = lineReader.readLine()) {
+                Sentence sentence = (line.startsWith("((("))
+                    ? new LatticeInput(line, sentenceNo)
+                    : new Sentence(line, sentenceNo);
+                sentenceNo++;
 
-                synchronized(lock) {
-                    issued.add(nextSentence);
-                    completed.add(null);
-                }
+                if (prefetchPool != null)
+                    prefetch(sentence);
+
+                long start = System.currentTimeMillis();
+                queue.put(sentence);
+                readerWaitTime += System.currentTimeMillis() - start;
             }
+            lineReader.close();
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            logger.warning("reader thread was interrupted");
+        }
+
+        synchronized(lock) {
+            numSentences = sentenceNo;
+            lock.notifyAll();
+        }
+
+        try {
+            queue.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            logger.warning("reader thread was interrupted");
+        }
+    }
+
+
+    /**
+     * Starts extracting the grammars of a sentence, unless more heap
+     * than the prefetch memory budget is in use.  Called by the reader
+     * thread only.
+     */
+    private void prefetch(final Sentence sentence) {
+        if (prefetchMemory > 0) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            if (used > prefetchMemory) {
+                if (logger.isLoggable(Level.FINE))
+                    logger.fine("not prefetching grammars for sentence " + sentence.id() + ": " + (used >> 20) + " MB of heap in use");
+                synchronized(lock) {
+                    numPrefetchSkipped++;
+                }
+                return;
+            }
+        }
+
+        Future<Grammar[]> grammars = prefetchPool.submit(new Callable<Grammar[]>() {
+            public Grammar[] call() {
+                Grammar[] grammars = new Grammar[grammarFactories.size()];
+                for (int i = 0; i < grammars.length; i++)
+                    grammars[i] = grammarFactories.get(i).getGrammarForSentence(sentence.pattern());
+                return grammars;
+            }
+        });
+        prefetched.put(sentence.sequenceId(), grammars);
+    }
+
+
+    /**
+     * Returns the grammars prefetched for a sentence returned by
+     * next(), one per grammar factory, blocking until their
+     * extraction has finished.  Returns null if the grammars were not
+     * prefetched, in which case the caller must extract them.
+     */
+    public Grammar[] prefetchedGrammars(Sentence sentence) {
+        Future<Grammar[]> future = prefetched.remove(sentence.sequenceId());
+        if (future == null)
+            return null;
+
+        long start = System.currentTimeMillis();
+        Grammar[] grammars;
+        try {
+            grammars = future.get();
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while waiting for the grammars of sentence " + sentence.id());
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error extracting grammars for sentence " + sentence.id(), e.getCause());
         }
+        long waited = System.currentTimeMillis() - start;
+
+        synchronized(lock) {
+            grammarWaitTime += waited;
+            numPrefetched++;
+        }
+
+        return grammars;
     }
 
-    public synchronized boolean hasNext() {
-        return nextSentence != null;
-    } 
 
-    /*
-     * Returns the next sentence item.
+    /**
+     * Returns the next sentence to decode, blocking until the reader
+     * thread has parsed one, or null when the input is exhausted.
      */
-    public synchronized Sentence next() {
-        Sentence sentence = nextSentence;
+    public Sentence next() {
+        long start = System.currentTimeMillis();
+        Sentence sentence;
+        try {
+            sentence = queue.take();
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while waiting for input");
+            return null;
+        }
+        long waited = System.currentTimeMillis() - start;
+        int depth = queue.size();
+
+        if (sentence == END_OF_INPUT) {
+            // leave it there for the other threads
+            queue.offer(END_OF_INPUT);
+            return null;
+        }
 
-        prepareNextLine();
+        synchronized(lock) {
+            inputWaitTime += waited;
+            queueDepthTotal += depth;
+            if (depth > queueDepthMax)
+                queueDepthMax = depth;
+            numTaken++;
+        }
 
         return sentence;
     }
 
-    public void remove() {
-        // unimplemented
+
+    /**
+     * Extracts the n-best list of a finished translation in the form
+     * in which it is handed on: formatted for printing, or as
+     * candidates.  Called by the decoding thread before register(),
+     * outside of any locks.
+     */
+    public void extractNbest(Translation translation) {
+        if (candidates)
+            translation.extractCandidates();
+        else
+            translation.format();
     }
-    
-    
+
     /**
-     * Receives a sentence from a thread that has finished translating it.
+     * Receives a sentence from a thread that has finished translating
+     * it.  Blocks while the translation falls outside the reorder
+     * window; printing is done by the writer thread.  If interrupted
+     * while blocked, it keeps waiting and stores the translation, so
+     * the writer is never left waiting for it, and then restores the
+     * thread's interrupt status.
      */
-    public synchronized void register(Translation translation) {
-        int id = translation.id();
+    public void register(Translation translation) {
+        int id = translation.getSourceSentence().sequenceId();
 
         logger.fine("thread " + id + " finished");
 
-        // store this one
         synchronized(lock) {
-            completed.set(id,translation);
-
-            // if the previous sentence is the last item, then print
-            // this translation and all the subsequent ones waiting on
-            // it
-            if (lastCompletedId == id - 1) {
-
-                for (int i = id; i < completed.size() && completed.get(i) != null; i++) {
-                    logger.fine("thread " + id + " printing");
-
-                    Translation t = completed.get(i);
-                    t.print();
-                    // delete it
-                    completed.set(i, null);
-                    // update the last completed item
-                    lastCompletedId++;
+            boolean interrupted = false;
+            if (id - lastCompletedId > window.length) {
+                logger.fine("thread " + id + " waiting for thread " + (lastCompletedId + 1));
+                long start = System.currentTimeMillis();
+                while (id - lastCompletedId > window.length) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // The writer blocks until this id is stored, so
+                        // keep waiting and restore the flag afterwards.
+                        logger.warning("interrupted while waiting for the reorder window");
+                        interrupted = true;
+                    }
                 }
-            } else {
-                logger.fine("thread " + id + " waiting for thread " + (id-1));
+                windowWaitTime += System.currentTimeMillis() - start;
             }
+
+            window[id % window.length] = translation;
+            lock.notifyAll();
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
 
+    /**
+     * Body of the writer thread.  Waits for the translation following
+     * the last one printed, removes it from the reorder window and
+     * prints it, or passes it to the co-iterator.  Printing happens
+     * outside the lock; since this is the only thread that prints,
+     * order is preserved.
+     */
+    private void writeTranslations() {
+        try {
+            for (;;) {
+                Translation translation;
+
+                synchronized(lock) {
+                    int id = lastCompletedId + 1;
+                    int slot = id % window.length;
+                    while (window[slot] == null && ! (numSentences >= 0 && id >= numSentences)) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            logger.warning("writer thread was interrupted");
+                            return;
+                        }
+                    }
+
+                    if (window[slot] == null)
+                        break;
+
+                    translation = window[slot];
+                    window[slot] = null;
+                    lastCompletedId = id;
+                    lock.notifyAll();
+                }
+
+                logger.fine("printing translation " + translation.id());
+                if (translations != null)
+                    translations.coNext(translation);
+                else
+                    translation.print();
+            }
+        } finally {
+            if (translations != null)
+                translations.finish();
+        }
+    }
+
+
+    /**
+     * Blocks until every sentence read from the input has been
+     * printed, then logs the scheduling statistics.  To be called
+     * once all decoding threads have finished.
+     */
+    public void finish() {
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while waiting for the writer thread");
+        }
+
+        if (logger.isLoggable(Level.INFO)) {
+            synchronized(lock) {
+                logger.info(String.format(
+                    "Decoded %d sentences; input queue depth avg %.1f max %d (capacity %d); reader blocked %d ms; decoders waited %d ms for input and %d ms for the reorder window (size %d)",
+                    numTaken,
+                    (numTaken == 0) ? 0.0 : (double) queueDepthTotal / numTaken,
+                    queueDepthMax, queueSize,
+                    readerWaitTime, inputWaitTime, windowWaitTime, window.length));
+                if (prefetchPool != null)
+                    logger.info(String.format(
+                        "Prefetched grammars for %d sentences (look-ahead %d); %d not prefetched over the memory budget; decoders waited %d ms for prefetched grammars",
+                        numPrefetched, queueSize, numPrefetchSkipped, grammarWaitTime));
+            }
+        }
+
+        if (prefetchPool != null)
+            prefetchPool.shutdown();
+    }
+
+
     /**
      * When the ability to handle oracle sentences is added back in,
      * this function should return the parallel oracle sentence.
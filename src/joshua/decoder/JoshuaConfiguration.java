@@ -43,7 +43,10 @@ public class JoshuaConfiguration {
 	public static boolean use_kenlm                  = false;
 	public static boolean use_bloomfilter_lm         = false;
 	public static boolean use_trie_lm                = false;
+	public static boolean use_compact_trie_lm        = false; // same scores as use_trie_lm, in far less memory
+	public static boolean use_memory_mapped_lm       = false; // lm_file was compiled by MemoryMappedTrieLM; same scores as use_trie_lm
 	public static double  lm_ceiling_cost            = 100;
+	public static int     lm_cache_size              = 262144; // number of LM probabilities cached for all threads; 0 disables the cache
 	public static boolean use_left_equivalent_state  = false;
 	public static boolean use_right_equivalent_state = true;
 	public static int     lm_order                   = 3;
@@ -65,6 +68,7 @@ public class JoshuaConfiguration {
 	
 	public static String  tm_file                    = null;
 	public static String  tm_format                  = null;
+	public static boolean use_memory_mapped_tm       = false; // tm_file was compiled by MemoryMappedGrammar
 	
 	// TODO: default to glue grammar provided with Joshua
 	// TODO: support multiple glue grammars
@@ -106,6 +110,7 @@ public class JoshuaConfiguration {
 	public static boolean sa_sentence_final_X      = true;
 	public static boolean sa_edgeXMayViolatePhraseSpan = true;
 	public static float   sa_lex_floor_prob        = Float.MIN_VALUE;
+	public static int     sa_rule_extraction_threads = 1; // threads extracting rules for the patterns of each sentence
 	
 	// TODO: introduce the various corpus/tm file package formats
 //	public static String sa_vocab_suffix = "vocab";
@@ -140,6 +145,10 @@ public class JoshuaConfiguration {
 	//parallel decoding
 	public static String parallel_files_prefix = "/tmp/temp.parallel"; // C:\\Users\\zli\\Documents\\temp.parallel; used for parallel decoding
 	public static int    num_parallel_decoders = 1; //number of threads should run
+	public static int    input_queue_size      = 100; //number of sentences read ahead of the decoder threads
+	public static int    output_window_size    = 100; //number of finished translations that may wait for an earlier one
+	public static int    grammar_prefetch_depth  = 0; //number of upcoming sentences whose grammars are extracted ahead of the decoder threads; 0 disables prefetching
+	public static int    grammar_prefetch_memory = 0; //MB of heap in use above which no more grammars are prefetched; 0 for no limit
 	
 	//disk hg
 	public static boolean save_disk_hg             = false; //if true, save three files: fnbest, fnbest.hg.items, fnbest.hg.rules
@@ -266,6 +275,11 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("tm format: %s", tm_format));
 
+				} else if ("use_memory_mapped_tm".equals(fds[0])) {
+					use_memory_mapped_tm = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("use_memory_mapped_tm: %s", use_memory_mapped_tm));
+
 				} else if ("glue_format".equals(fds[0])) {
 					glue_format = fds[1].trim();
 						
@@ -349,6 +363,10 @@ public class JoshuaConfiguration {
 					sa_lex_floor_prob = Float.valueOf(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("floor value for probabilities returned as lexical transaltion probabilities: %s", sa_lex_floor_prob));
+				} else if ("sa_rule_extraction_threads".equals(fds[0])) {
+					sa_rule_extraction_threads = Integer.parseInt(fds[1].trim());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("suffix array rule extraction threads: %s", sa_rule_extraction_threads));
 				} else if ("use_srilm".equals(fds[0])) {
 					use_srilm = Boolean.valueOf(fds[1]);
 					if (use_srilm) {
@@ -372,11 +390,29 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("use_trie_lm: %s", use_trie_lm));
 					
+				} else if ("use_compact_trie_lm".equals(fds[0])) {
+					use_compact_trie_lm = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("use_compact_trie_lm: %s", use_compact_trie_lm));
+					
+				} else if ("use_memory_mapped_lm".equals(fds[0])) {
+					use_memory_mapped_lm = Boolean.valueOf(fds[1]);
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("use_memory_mapped_lm: %s", use_memory_mapped_lm));
+					
 				} else if ("lm_ceiling_cost".equals(fds[0])) {
 					lm_ceiling_cost = Double.parseDouble(fds[1]);
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("lm_ceiling_cost: %s", lm_ceiling_cost));
 					
+				} else if ("lm_cache_size".equals(fds[0])) {
+					lm_cache_size = Integer.parseInt(fds[1]);
+					if (lm_cache_size < 0) {
+						throw new IllegalArgumentException("Must specify a non-negative number for lm_cache_size");
+					}
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("lm_cache_size: %s", lm_cache_size));
+					
 				// BUG: accepting typos in config file is not acceptable
 				} else if ("use_left_euqivalent_state".equals(fds[0])) {
 					use_left_equivalent_state = Boolean.parseBoolean(fds[1]);
@@ -564,6 +600,38 @@ public class JoshuaConfiguration {
 					if (logger.isLoggable(Level.FINEST)) 
 						logger.finest(String.format("num_parallel_decoders: %s", num_parallel_decoders));
 					
+				} else if ("input_queue_size".equals(fds[0])) {
+					input_queue_size = Integer.parseInt(fds[1]);
+					if (input_queue_size <= 0) {
+						throw new IllegalArgumentException("Must specify a positive number for input_queue_size");
+					}
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("input_queue_size: %s", input_queue_size));
+					
+				} else if ("output_window_size".equals(fds[0])) {
+					output_window_size = Integer.parseInt(fds[1]);
+					if (output_window_size <= 0) {
+						throw new IllegalArgumentException("Must specify a positive number for output_window_size");
+					}
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("output_window_size: %s", output_window_size));
+					
+				} else if ("grammar_prefetch_depth".equals(fds[0])) {
+					grammar_prefetch_depth = Integer.parseInt(fds[1]);
+					if (grammar_prefetch_depth < 0) {
+						throw new IllegalArgumentException("Must specify a non-negative number for grammar_prefetch_depth");
+					}
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("grammar_prefetch_depth: %s", grammar_prefetch_depth));
+					
+				} else if ("grammar_prefetch_memory".equals(fds[0])) {
+					grammar_prefetch_memory = Integer.parseInt(fds[1]);
+					if (grammar_prefetch_memory < 0) {
+						throw new IllegalArgumentException("Must specify a non-negative number for grammar_prefetch_memory");
+					}
+					if (logger.isLoggable(Level.FINEST)) 
+						logger.finest(String.format("grammar_prefetch_memory: %s", grammar_prefetch_memory));
+					
 				} else if ("save_disk_hg".equals(fds[0])) {
 					save_disk_hg = Boolean.valueOf(fds[1]);
 					if (logger.isLoggable(Level.FINEST)) 
@@ -34,7 +34,7 @@ import joshua.corpus.mm.MemoryMappedCorpusArray;
 import joshua.corpus.suffix_array.ParallelCorpusGrammarFactory;
 import joshua.corpus.suffix_array.Suffixes;
 import joshua.corpus.suffix_array.mm.MemoryMappedSuffixArray;
-import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.ConcurrentSymbol;
 import joshua.corpus.vocab.KenSymbol;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.corpus.vocab.Vocabulary;
@@ -44,21 +44,26 @@ import joshua.decoder.ff.PhraseModelFF;
 import joshua.decoder.ff.SourcePathFF;
 import joshua.decoder.ff.WordPenaltyFF;
 import joshua.decoder.ff.OOVFF;
+import joshua.decoder.ff.lm.CachedLanguageModel;
 import joshua.decoder.ff.lm.LanguageModelFF;
 import joshua.decoder.ff.lm.kenlm.jni.KenLM;
 import joshua.decoder.ff.lm.NGramLanguageModel;
 import joshua.decoder.ff.lm.bloomfilter_lm.BloomFilterLanguageModel;
+import joshua.decoder.ff.lm.buildin_lm.CompactTrieLM;
 import joshua.decoder.ff.lm.buildin_lm.LMGrammarJAVA;
+import joshua.decoder.ff.lm.buildin_lm.MemoryMappedTrieLM;
 import joshua.decoder.ff.lm.buildin_lm.TrieLM;
 import joshua.decoder.ff.state_maintenance.NgramStateComputer;
 import joshua.decoder.ff.state_maintenance.StateComputer;
 import joshua.decoder.ff.tm.Grammar;
 import joshua.decoder.ff.tm.GrammarFactory;
 import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+import joshua.decoder.ff.tm.hiero.MemoryMappedGrammar;
 import joshua.discriminative.DiscriminativeSupport;
 import joshua.discriminative.feature_related.feature_function.BLEUOracleModel;
 import joshua.discriminative.feature_related.feature_function.FeatureTemplateBasedFF;
 import joshua.ui.hypergraph_visualizer.HyperGraphViewer;
+import joshua.util.CoIterator;
 import joshua.util.FileUtility;
 import joshua.util.Regex;
 import joshua.util.io.BinaryIn;
@@ -218,6 +223,30 @@ public class JoshuaDecoder {
 		this.decoderFactory.decodeTestSet(testFile, nbestFile, null);
 	}
 	
+	/**
+	 * Decode a whole test set, handing each translation to a
+	 * co-iterator in input order rather than printing it.
+	 *
+	 * @param testFile
+	 * @param translations
+	 */
+	public void decodeTestSet(String testFile, CoIterator<Translation> translations) {
+		this.decoderFactory.decodeTestSet(testFile, translations);
+	}
+	
+	/**
+	 * Decode a whole test set like
+	 * {@link #decodeTestSet(String, CoIterator)}, but with the
+	 * n-best list of each translation extracted as candidates
+	 * instead of formatted.
+	 *
+	 * @param testFile
+	 * @param translations
+	 */
+	public void decodeCandidates(String testFile, CoIterator<Translation> translations) {
+		this.decoderFactory.decodeCandidates(testFile, translations);
+	}
+	
 	
 	/** Decode a sentence. This must be non-parallel. */
 	public void decodeSentence(String testSentence, String[] nbests) {
@@ -228,6 +257,16 @@ public class JoshuaDecoder {
 	public void cleanUp() {
 		//TODO
 		//this.languageModel.end_lm_grammar(); //end the threads
+		if (this.languageModel instanceof CachedLanguageModel) {
+			((CachedLanguageModel) this.languageModel).logStatistics();
+		}
+		for (GrammarFactory grammarFactory : this.grammarFactories) {
+			if (grammarFactory instanceof ParallelCorpusGrammarFactory) {
+				Suffixes suffixArray = ((ParallelCorpusGrammarFactory) grammarFactory).getSuffixArray();
+				suffixArray.getCachedHierarchicalPhrases().logStatistics("Hierarchical phrase");
+				suffixArray.getCachedRules().logStatistics("Rule");
+			}
+		}
 	}
 	
 	public void visualizeHyperGraphForSentence(String sentence)
@@ -387,7 +426,8 @@ public class JoshuaDecoder {
 		} else {
 			if (null == existingSymbols) {
 				//this.symbolTable = new Vocabulary();//new BuildinSymbol(null);
-				this.symbolTable = new BuildinSymbol();
+				// decoder threads add OOV words to the shared symbol table
+				this.symbolTable = new ConcurrentSymbol();
 			} else {
 				this.symbolTable = existingSymbols;
 			}
@@ -431,6 +471,22 @@ public class JoshuaDecoder {
 					this.languageModel = new TrieLM(
 							this.symbolTable,
 							JoshuaConfiguration.lm_file);
+		} else if (JoshuaConfiguration.use_compact_trie_lm) {
+			if (JoshuaConfiguration.use_left_equivalent_state
+			|| JoshuaConfiguration.use_right_equivalent_state) {
+				throw new IllegalArgumentException("using compact Trie LM, we cannot use suffix/prefix stuff");
+			}
+			this.languageModel = new CompactTrieLM(
+				this.symbolTable,
+				JoshuaConfiguration.lm_file);
+		} else if (JoshuaConfiguration.use_memory_mapped_lm) {
+			if (JoshuaConfiguration.use_left_equivalent_state
+			|| JoshuaConfiguration.use_right_equivalent_state) {
+				throw new IllegalArgumentException("using memory-mapped LM, we cannot use suffix/prefix stuff");
+			}
+			this.languageModel = new MemoryMappedTrieLM(
+				this.symbolTable,
+				JoshuaConfiguration.lm_file);
 		} else {
 			
 //			logger.info("Reading language model from " + JoshuaConfiguration.lm_file + " into internal trie");
@@ -448,6 +504,11 @@ public class JoshuaDecoder {
 				JoshuaConfiguration.use_left_equivalent_state,
 				JoshuaConfiguration.use_right_equivalent_state);
 		}
+		
+		if (JoshuaConfiguration.lm_cache_size > 0) {
+			this.languageModel = new CachedLanguageModel(
+				this.languageModel, JoshuaConfiguration.lm_cache_size);
+		}
 	}
 	
 	
@@ -480,7 +541,17 @@ public class JoshuaDecoder {
 			if (logger.isLoggable(Level.INFO))
 				logger.info("Using grammar read from file " + JoshuaConfiguration.tm_file);
 
-            MemoryBasedBatchGrammar gr = new MemoryBasedBatchGrammar(
+            MemoryBasedBatchGrammar gr;
+            if (JoshuaConfiguration.use_memory_mapped_tm) {
+                gr = new MemoryMappedGrammar(
+                    JoshuaConfiguration.tm_file,
+                    this.symbolTable,
+                    JoshuaConfiguration.phrase_owner,
+                    JoshuaConfiguration.default_non_terminal,
+                    JoshuaConfiguration.span_limit,
+                    JoshuaConfiguration.oov_feature_cost);
+            } else {
+                gr = new MemoryBasedBatchGrammar(
 					JoshuaConfiguration.tm_format,
                     JoshuaConfiguration.tm_file,
                     this.symbolTable,
@@ -488,6 +559,7 @@ public class JoshuaDecoder {
                     JoshuaConfiguration.default_non_terminal,
                     JoshuaConfiguration.span_limit,
                     JoshuaConfiguration.oov_feature_cost);
+            }
 
             this.grammarFactories.add(gr);
 		
@@ -603,13 +675,27 @@ public class JoshuaDecoder {
 					binaryAlignmentFileName,
 					sourceCorpusArray,
 					targetCorpusArray);
-				
+		
+		// Map the lexprob table if the corpus was compiled with one,
+		// rather than calculating it from the parallel corpus
+		String binaryLexProbsFileName = 
+			JoshuaConfiguration.tm_file + 
+			File.separator + "lexprobs.bin";
+		if (new File(binaryLexProbsFileName).exists()) {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("Reading lexical translation probabilities from " +
+					binaryLexProbsFileName);
+		} else {
+			binaryLexProbsFileName = null;
+		}
+		
 		// Finally, add the parallel corpus that will serve as a grammar
 		ParallelCorpusGrammarFactory parallelCorpus = new ParallelCorpusGrammarFactory(
 				sourceSuffixArray,
 				targetSuffixArray,
 				alignments,
 				this.featureFunctions,
+				binaryLexProbsFileName,
 				JoshuaConfiguration.sa_rule_sample_size,
 				JoshuaConfiguration.sa_max_phrase_span,
 				JoshuaConfiguration.sa_max_phrase_length,
@@ -617,6 +703,7 @@ public class JoshuaDecoder {
 				JoshuaConfiguration.sa_min_nonterminal_span,
 				JoshuaConfiguration.sa_lex_floor_prob, 
 				JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
+		parallelCorpus.setRuleExtractionThreads(JoshuaConfiguration.sa_rule_extraction_threads);
 		
 		return parallelCorpus;
 	}
@@ -23,12 +23,15 @@ import joshua.decoder.segment_file.Sentence;
 import joshua.decoder.hypergraph.HyperGraph;
 import joshua.decoder.hypergraph.KBestExtractor;
 
+import joshua.util.CoIterator;
 import joshua.util.Regex;
 
 import java.io.StringWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import java.util.regex.Pattern;
@@ -53,6 +56,8 @@ public class Translation {
     private double       score;
     private HyperGraph   hypergraph;
     private List<FeatureFunction> featureFunctions;
+    private byte[]       output = null;
+    private List<KBestExtractor.Candidate> candidates = null;
 
     public Translation(Sentence source, HyperGraph hypergraph, List<FeatureFunction> featureFunctions) {
         this.source = source;
@@ -60,6 +65,9 @@ public class Translation {
         this.featureFunctions = featureFunctions;
     }
 
+    /* Returns the hypergraph, or null once format() or
+     * extractCandidates() has been called.
+     */
     public HyperGraph hypergraph() {
         return this.hypergraph;
     }
@@ -101,9 +109,21 @@ public class Translation {
         }
     }
 
-    /* Prints the k-best list to standard output.
+    /**
+     * Extracts the k-best list from the hypergraph and stores it as
+     * formatted output.  This is the expensive part of producing
+     * output, and is meant to be called by the decoding thread
+     * before the translation is handed to the InputHandler, so that
+     * no lock is held while it runs.  The hypergraph is released
+     * afterwards so that it can be collected before the translation
+     * is written.
      */
-    public void print() {
+    public void format() {
+        if (output != null)
+            return;
+
+        StringWriter sw = new StringWriter();
+
         if (hypergraph != null) {
             KBestExtractor kBestExtractor = new KBestExtractor(JoshuaDecoder.symbolTable,
                 JoshuaConfiguration.use_unique_nbest,
@@ -112,28 +132,95 @@ public class Translation {
                 JoshuaConfiguration.add_combined_cost,
                 false, true);
 
+            BufferedWriter out = new BufferedWriter(sw);
             try {
                 kBestExtractor.lazyKBestExtractOnHG(hypergraph, 
-                    this.featureFunctions, JoshuaConfiguration.topN, id(), 
-                    (BufferedWriter)null);
+                    this.featureFunctions, JoshuaConfiguration.topN, id(), out);
+                out.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
 
         } else {
-            
-            System.out.print(id() + " ||| " + getSourceSentence().sentence() + " ||| ");
-			
-            for (FeatureFunction ff: featureFunctions)
-                System.out.print(" 0");
 
-            System.out.println(" ||| 0.0");
+            sw.write(id() + " ||| " + getSourceSentence().sentence() + " ||| ");
+
+            for (FeatureFunction ff: featureFunctions)
+                sw.write(" 0");
 
+            sw.write(" ||| 0.0\n");
         }
 
+        // the platform encoding is what System.out would have used
+        this.output = sw.toString().getBytes();
+        this.hypergraph = null;
+    }
+
+    /* Prints the k-best list to standard output, formatting it first
+     * if that has not already been done.
+     */
+    public void print() {
+        format();
+
+        System.out.write(output, 0, output.length);
         System.out.flush();
     }
 
+    /* Writes the k-best list, as print() would print it, to a
+     * stream, formatting it first if that has not already been done.
+     */
+    public void print(OutputStream out) throws IOException {
+        format();
+
+        out.write(output);
+    }
+
+    /**
+     * Extracts the k-best list from the hypergraph as candidates,
+     * each with its feature values, for callers that would
+     * otherwise parse them back out of the formatted list.  Like
+     * format(), this is meant to be called by the decoding thread,
+     * and the hypergraph is released afterwards.
+     */
+    public void extractCandidates() {
+        if (candidates != null)
+            return;
+
+        final List<KBestExtractor.Candidate> list = new ArrayList<KBestExtractor.Candidate>();
+
+        if (hypergraph != null) {
+            KBestExtractor kBestExtractor = new KBestExtractor(JoshuaDecoder.symbolTable,
+                JoshuaConfiguration.use_unique_nbest,
+                false, false, false, false, true);
+
+            kBestExtractor.lazyKBestExtractCandidates(hypergraph,
+                this.featureFunctions, JoshuaConfiguration.topN, id(),
+                new CoIterator<KBestExtractor.Candidate>() {
+                    public void coNext(KBestExtractor.Candidate candidate) {
+                        list.add(candidate);
+                    }
+                    public void finish() {}
+                });
+
+        } else {
+
+            list.add(new KBestExtractor.Candidate(getSourceSentence().sentence(),
+                new double[featureFunctions.size()], 0.0));
+        }
+
+        this.candidates = list;
+        this.hypergraph = null;
+    }
+
+    /* Returns the k-best candidates, best first, extracting them
+     * first if that has not already been done.
+     */
+    public List<KBestExtractor.Candidate> candidates() {
+        extractCandidates();
+
+        return candidates;
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append(id());
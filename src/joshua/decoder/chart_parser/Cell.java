@@ -59,7 +59,7 @@ class Cell {
 	private int constraintSymbolId;
 		
 	// to maintain uniqueness of nodes
-	private HashMap<String,HGNode> nodesSigTbl = new HashMap<String,HGNode>();
+	private NodeTable nodesSigTbl;
 	
 	// signature by lhs
 	private Map<Integer,SuperNode> superNodesTbl = new HashMap<Integer,SuperNode>();
@@ -84,6 +84,7 @@ class Cell {
 	public Cell(Chart chart, int goalSymID) {
 		this.chart     = chart;
 		this.goalSymID = goalSymID;
+		this.nodesSigTbl = new NodeTable(chart.getStateComputers());
 		
 		if(JoshuaConfiguration.useBeamAndThresholdPrune){
 			PriorityQueue<HGNode> nodesHeap = new PriorityQueue<HGNode>(1, HGNode.logPComparator);		
@@ -196,7 +197,7 @@ class Cell {
 			 * need to check whether the node is already exist, 
 			 * if yes, just add the hyperedges, this may change the best logP of the node 
 			 * */
-			HGNode oldNode = this.nodesSigTbl.get( res.getSignature() );
+			HGNode oldNode = this.nodesSigTbl.get( res );
 			if (null != oldNode) { // have an item with same states, combine items
 				this.chart.nMerged++;
 				
@@ -212,7 +213,7 @@ class Cell {
 					}
 					
 					res.addHyperedgesInNode(oldNode.hyperedges);
-					addNewNode(res, noPrune); //this will update the HashMap, so that the oldNode is destroyed
+					addNewNode(res, noPrune); //this will update the node table, so that the oldNode is destroyed
 					
 				} else {//merge new to old, does not trigger pruningItems
 					oldNode.addHyperedgesInNode(res.hyperedges);
@@ -249,7 +250,7 @@ class Cell {
 	 * (2) a new hyperedge's signature matches an old node's signature, but the best-logp of old node is worse than the new hyperedge's logP
 	 * */
 	private void addNewNode(HGNode node, boolean noPrune) {
-		this.nodesSigTbl.put(node.getSignature(), node); // add/replace the item
+		this.nodesSigTbl.put(node); // add/replace the item
 		this.sortedNodes = null; // reset the list
 			
 	
@@ -258,7 +259,7 @@ class Cell {
 				List<HGNode> prunedNodes = beamPruner.addOneObjInHeapWithPrune(node);
 				this.chart.nPrunedItems += prunedNodes.size();
 				for(HGNode prunedNode : prunedNodes)
-					nodesSigTbl.remove(prunedNode.getSignature());
+					nodesSigTbl.remove(prunedNode);
 			}else{
 				beamPruner.addOneObjInHeapWithoutPrune(node);
 			}
@@ -289,10 +290,7 @@ class Cell {
 		if (null == this.sortedNodes) {
 			//== get sortedNodes
 			//HGNode[] tCollection =(HGNode[])((Collection<HGNode>)this.nodesSigTbl.values()).toArray();
-			HGNode[] nodesArray = new HGNode[this.nodesSigTbl.size()];
-			int i=0;
-			for(HGNode node : this.nodesSigTbl.values() )
-				nodesArray[i++]= node;
+			HGNode[] nodesArray = this.nodesSigTbl.toArray();
 			
 			/**sort the node in an decreasing-LogP order
 			 * */
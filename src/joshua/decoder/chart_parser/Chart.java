@@ -346,6 +346,11 @@ public class Chart {
 	}
 	
 	
+	List<StateComputer> getStateComputers() {
+		return this.stateComputers;
+	}
+	
+	
 	public Cell getCell(int i, int j){
 		return this.cells[i][j];
 	}
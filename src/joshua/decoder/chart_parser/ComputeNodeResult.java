@@ -1,10 +1,13 @@
 
 package joshua.decoder.chart_parser;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
+import joshua.decoder.ff.DefaultStatelessFF;
 import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.StateComputingFF;
 import joshua.decoder.ff.state_maintenance.DPState;
 import joshua.decoder.ff.state_maintenance.StateComputer;
 import joshua.decoder.ff.tm.Rule;
@@ -27,6 +30,29 @@ public class ComputeNodeResult {
 	// the key is state id;
 	private HashMap<Integer,DPState> dpStates;
 	
+	/* the indices, in the last feature list seen, of the features
+	 * that are not rule-only, i.e. whose logPs are computed per edge */
+	private static volatile PerEdgeFeatures perEdgeFeatures = null;
+	
+	private static final class PerEdgeFeatures {
+		final List<FeatureFunction> featureFunctions;
+		final int size;
+		final int[] indices;
+		
+		PerEdgeFeatures(List<FeatureFunction> featureFunctions) {
+			this.featureFunctions = featureFunctions;
+			this.size = featureFunctions.size();
+			int[] indices = new int[this.size];
+			int count = 0;
+			for (int k = 0; k < this.size; k++) {
+				if (! DefaultStatelessFF.isRuleOnly(featureFunctions.get(k))) {
+					indices[count++] = k;
+				}
+			}
+			this.indices = Arrays.copyOf(indices, count);
+		}
+	}
+	
 	
 	
 	
@@ -48,9 +74,24 @@ public class ComputeNodeResult {
 		
 		HashMap<Integer,DPState> allDPStates = null;
 		
+		/* transition and future logPs of the features that computed
+		 * a state themselves, indexed as featureFunctions; null for
+		 * all other features */
+		double[][] fusedLogPs = null;
+		
 		if(stateComputers!=null){
 			for(StateComputer stateComputer : stateComputers){
-				DPState dpState = stateComputer.computeState(rule, antNodes, i, j, srcPath);					
+				DPState dpState;
+				int k = findStateComputingFF(featureFunctions, stateComputer);
+				if (k >= 0) {
+					if (null == fusedLogPs)
+						fusedLogPs = new double[featureFunctions.size()][];
+					fusedLogPs[k] = new double[2];
+					dpState = ((StateComputingFF<?>) featureFunctions.get(k)).computeStateAndLogPs(
+							rule, antNodes, i, j, srcPath, sentID, fusedLogPs[k]);
+				} else {
+					dpState = stateComputer.computeState(rule, antNodes, i, j, srcPath);
+				}
 				
 				if(allDPStates==null)
 					allDPStates = new HashMap<Integer,DPState>();
@@ -59,10 +100,19 @@ public class ComputeNodeResult {
 		}
 		
 		//=== compute feature logPs
-		double transitionLogPSum    = 0.0;
+		// (the rule-only features contribute a logP cached on the rule,
+		// and no future logP)
+		double transitionLogPSum    = rule.getStatelessLogP(featureFunctions);
 		double futureLogPEstimation = 0.0;
 		
-		for (FeatureFunction ff : featureFunctions) {		
+		for (int k : perEdgeIndices(featureFunctions)) {
+			FeatureFunction ff = featureFunctions.get(k);
+			if (null != fusedLogPs && null != fusedLogPs[k]) {
+				transitionLogPSum    += ff.getWeight() * fusedLogPs[k][0];
+				futureLogPEstimation += ff.getWeight() * fusedLogPs[k][1];
+				continue;
+			}
+			
 			transitionLogPSum += 
 				ff.getWeight() * ff.transitionLogP(rule, antNodes, i, j, srcPath, sentID);
 			
@@ -102,6 +152,36 @@ public class ComputeNodeResult {
 		//printInfo();
 	}
 	
+	/**
+	 * @return the indices of the features whose logPs are not
+	 *         included in Rule.getStatelessLogP
+	 */
+	private static int[] perEdgeIndices(List<FeatureFunction> featureFunctions) {
+		PerEdgeFeatures features = perEdgeFeatures;
+		if (null == features
+				|| features.featureFunctions != featureFunctions
+				|| features.size != featureFunctions.size()) {
+			features = new PerEdgeFeatures(featureFunctions);
+			perEdgeFeatures = features;
+		}
+		return features.indices;
+	}
+	
+	/**
+	 * @return the index of the first feature function that computes
+	 *         the same states as the state computer, or -1 if none does
+	 */
+	private static int findStateComputingFF(List<FeatureFunction> featureFunctions, StateComputer stateComputer) {
+		for (int k = 0; k < featureFunctions.size(); k++) {
+			FeatureFunction ff = featureFunctions.get(k);
+			if (ff instanceof StateComputingFF
+					&& ((StateComputingFF<?>) ff).computesStateOf(stateComputer)) {
+				return k;
+			}
+		}
+		return -1;
+	}
+	
 	public static double computeCombinedTransitionLogP(List<FeatureFunction> featureFunctions, HyperEdge edge, 
 			int i, int j, int sentID){
 		double res = 0;
@@ -1,21 +1,29 @@
 package joshua.decoder.chart_parser;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import joshua.decoder.JoshuaConfiguration;
 import joshua.decoder.ff.FeatureFunction;
 import joshua.decoder.ff.state_maintenance.StateComputer;
 import joshua.decoder.ff.tm.Rule;
 import joshua.decoder.hypergraph.HGNode;
+import joshua.util.LongHashSet;
 
 public class CubePruneCombiner implements Combiner{
 	
 	private List<FeatureFunction> featureFunctions;
 	private List<StateComputer> stateComputers;
 	
+	/* Reused across calls to combine(); a combiner belongs to a
+	 * single chart, so there is no concurrent access. */
+	private final StateHeap combinationHeap = new StateHeap();
+	private final List<CubePruneState> statePool = new ArrayList<CubePruneState>();
+	private final List<HGNode> workingAntNodes = new ArrayList<HGNode>();
+	private static final int MAX_POOLED_STATES = 1024;
+	
 	public CubePruneCombiner(List<FeatureFunction> featureFunctions, List<StateComputer> stateComputers){
 		this.featureFunctions = featureFunctions;
 		this.stateComputers = stateComputers;
@@ -49,16 +57,16 @@ public class CubePruneCombiner implements Combiner{
 	//       the description in Liang'2007 ACL paper
 	public void combine(Chart chart, Cell cell, int i, int j, List<SuperNode> superNodes, List<Rule> rules, int arity, SourcePath srcPath) {
 		
+		if (null == rules || rules.size() <= 0) {
+			return;
+		}
+		
 		//combinations: rules, antecent nodes
 		//in the paper, combinationHeap is called cand[v]
-		PriorityQueue<CubePruneState> combinationHeap =	new PriorityQueue<CubePruneState>();
+		combinationHeap.clear();
 		
 		// rememeber which state has been explored
-		HashMap<String,Integer> cubeStateTbl = new HashMap<String,Integer>();
-		
-		if (null == rules || rules.size() <= 0) {
-			return;
-		}
+		RankSet cubeStateTbl = new RankSet(rules, superNodes);
 		
 		//===== seed the heap with best node
 		Rule currentRule = rules.get(0);
@@ -69,111 +77,134 @@ public class CubePruneCombiner implements Combiner{
 		}
 		ComputeNodeResult result =	new ComputeNodeResult(featureFunctions, currentRule, currentAntNodes, i, j, srcPath, stateComputers, chart.segmentID);
 		
-		int[] ranks = new int[1+superNodes.size()]; // rule, ant items
-		for (int d = 0; d < ranks.length; d++) {
-			ranks[d] = 1;
+		CubePruneState bestState = newState(1 + superNodes.size()); // rule, ant items
+		for (int d = 0; d < bestState.ranks.length; d++) {
+			bestState.ranks[d] = 1;
 		}
-		
-		CubePruneState bestState =	new CubePruneState(result, ranks, currentRule, currentAntNodes);
+		bestState.rule = currentRule;
+		bestState.nodeStatesTbl = result;
 		combinationHeap.add(bestState);
-		cubeStateTbl.put(bestState.getSignature(),1);
-		// cube_state_tbl.put(best_state,1);
+		cubeStateTbl.add(bestState.ranks);
 		
 		//====== extend the heap
-		Rule   oldRule = null;
-		HGNode oldItem = null;
-		int    tem_c   = 0;
 		while (combinationHeap.size() > 0) {
 			
 			//========== decide if the top in the heap should be pruned
-			tem_c++;
 			CubePruneState curState = combinationHeap.poll();
 			currentRule = curState.rule;
-			currentAntNodes = new ArrayList<HGNode>(curState.antNodes); // critical to create a new list
-			//cube_state_tbl.remove(cur_state.get_signature()); // TODO, repeat
-			cell.addHyperEdgeInCell(curState.nodeStatesTbl, curState.rule, i, j, curState.antNodes, srcPath, false); // pre-pruning inside this function
+			
+			// the list ends up in a hyperedge, so it cannot be reused
+			currentAntNodes = new ArrayList<HGNode>(superNodes.size());
+			for (int k = 1; k < curState.ranks.length; k++) {
+				currentAntNodes.add(superNodes.get(k-1).nodes.get(curState.ranks[k]-1));
+			}
+			cell.addHyperEdgeInCell(curState.nodeStatesTbl, curState.rule, i, j, currentAntNodes, srcPath, false); // pre-pruning inside this function
 			
 			//if the best state is pruned, then all the remaining states should be pruned away
 			if (curState.nodeStatesTbl.getExpectedTotalLogP() < cell.beamPruner.getCutoffLogP() - JoshuaConfiguration.fuzz1) {
 				//n_prepruned += heap_cands.size();
 				chart.nPreprunedFuzz1 += combinationHeap.size();
+				recycle(curState);
+				while (combinationHeap.size() > 0) {
+					recycle(combinationHeap.poll());
+				}
 				break;
 			}
 			
 			//========== extend the curState, and add the candidates into the heap
-			for (int k = 0; k < curState.ranks.length; k++) {
+			int[] ranks = curState.ranks;
+			workingAntNodes.clear();
+			workingAntNodes.addAll(currentAntNodes);
+			for (int k = 0; k < ranks.length; k++) {
 				
-				//GET new_ranks
-				int[] newRanks = new int[curState.ranks.length];
-				for (int d = 0; d < curState.ranks.length; d++) {
-					newRanks[d] = curState.ranks[d];
+				if ((k == 0 && ranks[k] + 1 > rules.size())
+				|| (k != 0 && ranks[k] + 1 > superNodes.get(k-1).nodes.size())
+				) {
+					continue;
 				}
-				newRanks[k] = curState.ranks[k] + 1;
 				
-				String new_sig = CubePruneState.getSignature(newRanks);
+				ranks[k]++;
+				boolean explored = ! cubeStateTbl.add(ranks);
+				ranks[k]--;
+				if (explored) { // explored before
+					continue;
+				}
 				
-				if (cubeStateTbl.containsKey(new_sig) // explored before
-				|| (k == 0 && newRanks[k] > rules.size())
-				|| (k != 0 && newRanks[k] > superNodes.get(k-1).nodes.size())
-				) {
+				// the candidate is only kept if the seed state is within the beam
+				// (the other states cannot make it in either); note the seed
+				// state, not the candidate, is checked, as it has always been
+				if (! (result.getExpectedTotalLogP() > cell.beamPruner.getCutoffLogP() - JoshuaConfiguration.fuzz2)) {
+					//n_prepruned += 1;
+					chart.nPreprunedFuzz2 += 1;
 					continue;
 				}
 				
+				Rule newRule = currentRule;
+				HGNode oldItem = null;
 				if (k == 0) { // slide rule
-					oldRule = currentRule;
-					currentRule = rules.get(newRanks[k]-1);
+					newRule = rules.get(ranks[k]);
 				} else { // slide ant
-					oldItem = currentAntNodes.get(k-1); // conside k == 0 is rule
-					currentAntNodes.set(k-1,
-						superNodes.get(k-1).nodes.get(newRanks[k]-1));
+					oldItem = workingAntNodes.get(k-1); // conside k == 0 is rule
+					workingAntNodes.set(k-1,
+						superNodes.get(k-1).nodes.get(ranks[k]));
 				}
 				
-				CubePruneState tState = new CubePruneState(
-						new ComputeNodeResult(featureFunctions, currentRule, 
-								currentAntNodes, i, j, srcPath, stateComputers, chart.segmentID),
-					newRanks, currentRule, currentAntNodes);
+				CubePruneState tState = newState(ranks.length);
+				System.arraycopy(ranks, 0, tState.ranks, 0, ranks.length);
+				tState.ranks[k]++;
+				tState.rule = newRule;
+				tState.nodeStatesTbl = new ComputeNodeResult(featureFunctions, newRule, 
+						workingAntNodes, i, j, srcPath, stateComputers, chart.segmentID);
 				
 				// add state into heap
-				cubeStateTbl.put(new_sig,1);				
-				if (result.getExpectedTotalLogP() > cell.beamPruner.getCutoffLogP() - JoshuaConfiguration.fuzz2) {
-					combinationHeap.add(tState);
-				} else {
-					//n_prepruned += 1;
-					chart.nPreprunedFuzz2 += 1;
-				}
+				combinationHeap.add(tState);
 				
 				// recover
-				if (k == 0) { // rule
-					currentRule = oldRule;
-				} else { // ant
-					currentAntNodes.set(k-1, oldItem);
+				if (k != 0) { // ant
+					workingAntNodes.set(k-1, oldItem);
 				}
 			}
+			
+			recycle(curState);
 		}
 		
 	}
 	
 	
+	/**
+	 * Returns a state with a rank array of the given length, reusing
+	 * a recycled state if there is one.
+	 */
+	private CubePruneState newState(int numRanks) {
+		for (int n = statePool.size() - 1; n >= 0; n--) {
+			if (statePool.get(n).ranks.length == numRanks) {
+				return statePool.remove(n);
+			}
+		}
+		return new CubePruneState(numRanks);
+	}
+	
+	
+	private void recycle(CubePruneState state) {
+		state.rule = null;
+		state.nodeStatesTbl = null;
+		if (statePool.size() < MAX_POOLED_STATES) {
+			statePool.add(state);
+		}
+	}
+	
 
 	
 //	===============================================================
 //	 CubePruneState class
 //	===============================================================
-		private static class CubePruneState implements Comparable<CubePruneState> {
-			int[]             ranks;
+		private static class CubePruneState {
+			final int[]       ranks;
 			ComputeNodeResult nodeStatesTbl;
 			Rule              rule;
-			List<HGNode> antNodes;
 			
-			public CubePruneState(ComputeNodeResult state, int[] ranks, Rule rule, 
-					List<HGNode> antecedents)
-			{
-				this.nodeStatesTbl = state;
-				this.ranks           = ranks;
-				this.rule            = rule;
-				// create a new vector is critical, because
-				// currentAntecedents will change later
-				this.antNodes = new ArrayList<HGNode>(antecedents);
+			public CubePruneState(int numRanks) {
+				this.ranks = new int[numRanks];
 			}
 			
 			
@@ -186,27 +217,129 @@ public class CubePruneCombiner implements Combiner{
 				}
 				return sb.toString();
 			}
+		}
+		
+		
+//	===============================================================
+//	 StateHeap class
+//	===============================================================
+		/**
+		 * Binary max-heap of states keyed by their expected total
+		 * logP, kept in parallel arrays. The sift operations are the
+		 * same as those of java.util.PriorityQueue, so states with
+		 * equal logP come out in the same order as they used to.
+		 */
+		private static class StateHeap {
+			private CubePruneState[] states = new CubePruneState[16];
+			private double[]         logPs  = new double[16];
+			private int              size   = 0;
 			
+			int size() {
+				return size;
+			}
 			
-			private String getSignature() {
-				return getSignature(ranks);
+			void clear() {
+				Arrays.fill(states, 0, size, null);
+				size = 0;
 			}
 			
+			void add(CubePruneState state) {
+				if (size == states.length) {
+					states = Arrays.copyOf(states, 2 * size);
+					logPs  = Arrays.copyOf(logPs, 2 * size);
+				}
+				double logP = state.nodeStatesTbl.getExpectedTotalLogP();
+				
+				// sift up: stop at a parent that is at least as good
+				int k = size++;
+				while (k > 0) {
+					int parent = (k - 1) >>> 1;
+					if (logP <= logPs[parent]) 
+						break;
+					states[k] = states[parent];
+					logPs[k]  = logPs[parent];
+					k = parent;
+				}
+				states[k] = state;
+				logPs[k]  = logP;
+			}
+			
+			CubePruneState poll() {
+				CubePruneState result = states[0];
+				int n = --size;
+				CubePruneState last = states[n];
+				double lastLogP = logPs[n];
+				states[n] = null;
+				
+				// sift down: move the better child up while it beats the last item
+				if (n > 0) {
+					int k = 0;
+					int half = n >>> 1;
+					while (k < half) {
+						int child = (k << 1) + 1;
+						int right = child + 1;
+						if (right < n && logPs[child] < logPs[right]) 
+							child = right;
+						if (lastLogP >= logPs[child]) 
+							break;
+						states[k] = states[child];
+						logPs[k]  = logPs[child];
+						k = child;
+					}
+					states[k] = last;
+					logPs[k]  = lastLogP;
+				}
+				return result;
+			}
+		}
+		
+		
+//	===============================================================
+//	 RankSet class
+//	===============================================================
+		/**
+		 * Set of rank vectors that have been explored. Each rank
+		 * is packed into just enough bits to hold its largest
+		 * possible value, so that a vector becomes a single long;
+		 * in the unlikely case that it does not fit, string
+		 * signatures are used instead.
+		 */
+		private static class RankSet {
+			private final int[] shifts;
+			private final LongHashSet packed;
+			private final HashSet<String> signatures;
+			
+			RankSet(List<Rule> rules, List<SuperNode> superNodes) {
+				this.shifts = new int[1 + superNodes.size()];
+				int bits = 0;
+				for (int d = 0; d < shifts.length; d++) {
+					int max = (d == 0) ? rules.size() : superNodes.get(d-1).nodes.size();
+					shifts[d] = bits;
+					bits += 32 - Integer.numberOfLeadingZeros(max);
+				}
+				
+				if (bits <= 64) {
+					this.packed = new LongHashSet();
+					this.signatures = null;
+				} else {
+					this.packed = null;
+					this.signatures = new HashSet<String>();
+				}
+			}
 			
 			/**
-			 * Compares states by ExpectedTotalLogP, allowing states
-			 * to be sorted according to their inverse order (high-prob first).
+			 * @return <code>true</code> if the ranks had not been added before
 			 */
-			public int compareTo(CubePruneState another) {
-				if (this.nodeStatesTbl.getExpectedTotalLogP() < another.nodeStatesTbl.getExpectedTotalLogP()) {
-					return 1;
-				} else if (this.nodeStatesTbl.getExpectedTotalLogP() == another.nodeStatesTbl.getExpectedTotalLogP()) {
-					return 0;
-				} else {
-					return -1;
+			boolean add(int[] ranks) {
+				if (null == packed) 
+					return signatures.add(CubePruneState.getSignature(ranks));
+				
+				long key = 0;
+				for (int d = 0; d < ranks.length; d++) {
+					key |= ((long) ranks[d]) << shifts[d];
 				}
+				return packed.add(key);
 			}
 		}
-		
 
 }
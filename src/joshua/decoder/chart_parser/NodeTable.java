@@ -0,0 +1,200 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.chart_parser;
+
+import java.util.List;
+
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.hypergraph.HGNode;
+
+/**
+ * Open-addressing hash table of the nodes in a cell, keyed by the
+ * node's recombination signature: its left-hand side plus the state
+ * kept by each state computer. Hash codes and equality of states are
+ * supplied by the state computers, so looking up a node does not
+ * build any signature strings or boxed keys.
+ * <p>
+ * Collisions are resolved by linear probing; removal shifts the
+ * following entries back so that no tombstones are needed.
+ */
+class NodeTable {
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private final StateComputer[] stateComputers;
+	
+	/** Slots of the table; null marks an empty slot. */
+	private HGNode[] nodes;
+	
+	/** Cached hash of the node in the corresponding slot. */
+	private int[] hashes;
+	
+	private int size = 0;
+	
+	
+	/**
+	 * @param stateComputers State computers whose states distinguish
+	 *                       nodes; may be null
+	 */
+	NodeTable(List<StateComputer> stateComputers) {
+		this.stateComputers = (null == stateComputers)
+			? new StateComputer[0]
+			: stateComputers.toArray(new StateComputer[stateComputers.size()]);
+		this.nodes  = new HGNode[INITIAL_CAPACITY];
+		this.hashes = new int[INITIAL_CAPACITY];
+	}
+	
+	
+	int size() {
+		return this.size;
+	}
+	
+	
+	/**
+	 * Returns the node with the same signature as the given node, or
+	 * null if there is none.
+	 */
+	HGNode get(HGNode node) {
+		int hash = hash(node);
+		int mask = nodes.length - 1;
+		for (int slot = hash & mask; nodes[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && sameSignature(nodes[slot], node))
+				return nodes[slot];
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Adds a node, replacing any node with the same signature.
+	 * 
+	 * @return the node that was replaced, or null
+	 */
+	HGNode put(HGNode node) {
+		int hash = hash(node);
+		int mask = nodes.length - 1;
+		int slot = hash & mask;
+		for (; nodes[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && sameSignature(nodes[slot], node)) {
+				HGNode old = nodes[slot];
+				nodes[slot] = node;
+				return old;
+			}
+		}
+		
+		nodes[slot]  = node;
+		hashes[slot] = hash;
+		size++;
+		if (2 * size > nodes.length)
+			resize(2 * nodes.length);
+		return null;
+	}
+	
+	
+	/**
+	 * Removes the node with the same signature as the given node.
+	 * 
+	 * @return the node that was removed, or null
+	 */
+	HGNode remove(HGNode node) {
+		int hash = hash(node);
+		int mask = nodes.length - 1;
+		int slot = hash & mask;
+		for (; nodes[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && sameSignature(nodes[slot], node))
+				break;
+		}
+		
+		HGNode old = nodes[slot];
+		if (null == old)
+			return null;
+		
+		// shift back any following entries that probed past this slot
+		int free = slot;
+		for (int next = (free + 1) & mask; nodes[next] != null; next = (next + 1) & mask) {
+			int home = hashes[next] & mask;
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				nodes[free]  = nodes[next];
+				hashes[free] = hashes[next];
+				free = next;
+			}
+		}
+		nodes[free] = null;
+		size--;
+		return old;
+	}
+	
+	
+	/**
+	 * Returns the nodes in the table, in slot order.
+	 */
+	HGNode[] toArray() {
+		HGNode[] res = new HGNode[size];
+		int k = 0;
+		for (HGNode node : nodes) {
+			if (null != node)
+				res[k++] = node;
+		}
+		return res;
+	}
+	
+	
+	private void resize(int capacity) {
+		HGNode[] oldNodes  = this.nodes;
+		int[]    oldHashes = this.hashes;
+		this.nodes  = new HGNode[capacity];
+		this.hashes = new int[capacity];
+		
+		int mask = capacity - 1;
+		for (int k = 0; k < oldNodes.length; k++) {
+			if (null != oldNodes[k]) {
+				int slot = oldHashes[k] & mask;
+				while (nodes[slot] != null)
+					slot = (slot + 1) & mask;
+				nodes[slot]  = oldNodes[k];
+				hashes[slot] = oldHashes[k];
+			}
+		}
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	private int hash(HGNode node) {
+		int h = node.lhs;
+		for (StateComputer stateComputer : stateComputers) {
+			DPState state = node.getDPState(stateComputer.getStateID());
+			h = 31 * h + stateComputer.stateHashCode(state);
+		}
+		// spread the high bits, since only the low bits pick a slot
+		return h ^ (h >>> 16);
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	private boolean sameSignature(HGNode node1, HGNode node2) {
+		if (node1.lhs != node2.lhs)
+			return false;
+		for (StateComputer stateComputer : stateComputers) {
+			int stateID = stateComputer.getStateID();
+			if (! stateComputer.stateEquals(node1.getDPState(stateID), node2.getDPState(stateID)))
+				return false;
+		}
+		return true;
+	}
+}
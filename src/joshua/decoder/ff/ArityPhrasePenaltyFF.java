@@ -71,5 +71,9 @@ public final class ArityPhrasePenaltyFF extends DefaultStatelessFF {
 			return 0.0;
 		}
 	}
-
+	
+	
+	public boolean isRuleOnly() {
+		return true;
+	}
 }
@@ -20,6 +20,7 @@ package joshua.decoder.ff;
 
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import joshua.decoder.chart_parser.SourcePath;
 import joshua.decoder.ff.state_maintenance.DPState;
@@ -38,6 +39,10 @@ public abstract class DefaultStatelessFF implements FeatureFunction {
 	
 	private int stateID = -1;//invalid id
 	
+	/* incremented whenever the weight of a stateless feature
+	 * changes, so that logPs cached by rules can tell they are stale */
+	private static final AtomicInteger weightVersion = new AtomicInteger();
+	
 	private      double weight = 0.0;
 	private         int featureID;
 	protected final int owner;
@@ -58,6 +63,30 @@ public abstract class DefaultStatelessFF implements FeatureFunction {
 	
 	public final void setWeight(final double weight) {
 		this.weight = weight;
+		weightVersion.incrementAndGet();
+	}
+	
+	/**
+	 * @return a number that changes whenever the weight of any
+	 *         stateless feature does
+	 */
+	public static int getWeightVersion() {
+		return weightVersion.get();
+	}
+	
+	/**
+	 * Returns true if the transition logP of this feature is its
+	 * estimateLogP for the rule, whatever the sentence, span,
+	 * antecedents or source path. The weighted logPs of such
+	 * features are summed once per rule, by
+	 * {@link Rule#getStatelessLogP}, rather than once per edge.
+	 */
+	public boolean isRuleOnly() {
+		return false;
+	}
+	
+	public static boolean isRuleOnly(FeatureFunction ff) {
+		return ff instanceof DefaultStatelessFF && ((DefaultStatelessFF) ff).isRuleOnly();
 	}
 	
 	
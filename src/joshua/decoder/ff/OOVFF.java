@@ -41,4 +41,9 @@ public final class OOVFF extends DefaultStatelessFF {
         else
             return 0.0;
 	}
+	
+	
+	public boolean isRuleOnly() {
+		return true;
+	}
 }
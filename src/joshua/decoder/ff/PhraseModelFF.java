@@ -77,6 +77,11 @@ public final class PhraseModelFF extends DefaultStatelessFF {
 	}
 
 
+	public boolean isRuleOnly() {
+		return true;
+	}
+
+
 	public int getColumnIndex() {
 		return columnIndex;
 	}
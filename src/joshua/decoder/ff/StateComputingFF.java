@@ -0,0 +1,58 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff;
+
+import java.util.List;
+
+import joshua.decoder.chart_parser.SourcePath;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.hypergraph.HGNode;
+
+
+/**
+ * A stateful feature function that can compute the dynamic
+ * programming state of a new node in the same pass over the rule's
+ * target side as its own transition and future logPs. When such a
+ * feature computes the same state as one of the decoder's state
+ * computers, ComputeNodeResult calls
+ * {@link #computeStateAndLogPs} instead of
+ * StateComputer.computeState, transitionLogP and estimateFutureLogP.
+ * The results must be exactly those of the three separate calls.
+ *
+ * @version $LastChangedDate$
+ */
+public interface StateComputingFF<D extends DPState> extends FeatureFunction {
+	
+	/**
+	 * @return true if this feature computes exactly the states
+	 *         that the given state computer would
+	 */
+	boolean computesStateOf(StateComputer<?> stateComputer);
+	
+	
+	/**
+	 * Computes the state of the node built by applying the rule to
+	 * the antecedent nodes. The unweighted transition logP is
+	 * stored in logPs[0], and the unweighted future logP estimate
+	 * of the new state in logPs[1].
+	 */
+	D computeStateAndLogPs(Rule rule, List<HGNode> antNodes, int spanStart, int spanEnd, SourcePath srcPath, int sentID, double[] logPs);
+	
+}
@@ -48,4 +48,9 @@ public final class WordPenaltyFF extends DefaultStatelessFF {
 
 		return OMEGA * (rule.getEnglish().length - rule.getArity());
 	}
+	
+	
+	public boolean isRuleOnly() {
+		return true;
+	}
 }
@@ -34,6 +34,7 @@ import java.util.zip.GZIPInputStream;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.corpus.vocab.Vocabulary;
 import joshua.util.Regex;
+import joshua.util.io.UncheckedIOException;
 import joshua.util.io.LineReader;
 
 /**
@@ -194,7 +195,18 @@ public class ArpaFile implements Iterable<ArpaNgram> {
 
 		Pattern pattern = Pattern.compile("^ngram (\\d+)=\\d+$");
 		if (logger.isLoggable(Level.FINEST)) logger.finest("Pattern is " + pattern.toString());
-		final Scanner scanner = new Scanner(arpaFile);
+		final Scanner scanner;
+		if (arpaFile.getName().endsWith("gz")) {
+			try {
+				scanner = new Scanner(new GZIPInputStream(new FileInputStream(arpaFile)));
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			scanner = new Scanner(arpaFile);
+		}
 
 		int order = 0;
 		
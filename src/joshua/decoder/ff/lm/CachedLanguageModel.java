@@ -0,0 +1,354 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import joshua.decoder.Support;
+
+/**
+ * A language model that remembers the n-gram and backoff
+ * probabilities returned by another language model. It can be put
+ * in front of any NGramLanguageModel, and may be shared by all
+ * decoder threads.
+ * <p>
+ * The cache holds a bounded number of entries. Its slots are split
+ * into stripes, each guarded by its own lock, and within a stripe
+ * every n-gram hashes to a set of WAYS slots. The n-gram ids of an
+ * entry are packed next to each other in a flat int array, so a
+ * lookup allocates nothing. When a set is full, the entry to evict
+ * is chosen with the CLOCK (second chance) policy: the set's hand
+ * skips over, and clears, the reference bit of every recently hit
+ * entry.
+ * <p>
+ * Cached values are exactly those returned by the wrapped model,
+ * so decoding results do not depend on whether the cache is used.
+ *
+ * @version $LastChangedDate$
+ */
+public class CachedLanguageModel implements NGramLanguageModel {
+	
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(CachedLanguageModel.class.getName());
+	
+	/** Number of slots an n-gram may be stored in. */
+	private static final int WAYS = 4;
+	
+	/** Number of independently locked parts of the cache. */
+	private static final int NUM_STRIPES = 16;
+	
+	/* Kinds of requests, kept in the header word of each key */
+	private static final int NGRAM_PROBABILITY = 0;
+	private static final int BACKOFF_STATE     = 1;
+	
+	private final NGramLanguageModel languageModel;
+	
+	/** Longest n-gram that can be cached. */
+	private final int maxLength;
+	
+	private final Stripe[] stripes;
+	
+	
+	/**
+	 * @param languageModel the model whose probabilities are cached
+	 * @param capacity      the maximum number of cached entries
+	 */
+	public CachedLanguageModel(NGramLanguageModel languageModel, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+		this.languageModel = languageModel;
+		this.maxLength = languageModel.getOrder();
+		
+		int setsPerStripe = 1;
+		while (setsPerStripe * WAYS * NUM_STRIPES < capacity) {
+			setsPerStripe <<= 1;
+		}
+		this.stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			this.stripes[i] = new Stripe(setsPerStripe, this.maxLength + 1);
+		}
+		
+		logger.info("Caching up to " + (setsPerStripe * WAYS * NUM_STRIPES) + " LM probabilities");
+	}
+	
+	
+	/** @return the language model whose probabilities are cached */
+	public NGramLanguageModel getLanguageModel() {
+		return this.languageModel;
+	}
+	
+	
+//===============================================================
+// NGramLanguageModel Methods
+//===============================================================
+	
+	public int getOrder() {
+		return this.languageModel.getOrder();
+	}
+	
+	
+	public double sentenceLogProbability(List<Integer> sentence, int order, int startIndex) {
+		return this.languageModel.sentenceLogProbability(sentence, order, startIndex);
+	}
+	
+	
+	public double ngramLogProbability(List<Integer> ngram, int order) {
+		return ngramLogProbability(Support.subIntArray(ngram, 0, ngram.size()), order);
+	}
+	
+	
+	public double ngramLogProbability(int[] ngram, int order) {
+		if (ngram.length > this.maxLength) {
+			return this.languageModel.ngramLogProbability(ngram, order);
+		}
+		int header = header(NGRAM_PROBABILITY, ngram.length, order, 0);
+		int hash = hash(header, ngram);
+		Stripe stripe = this.stripes[hash & (NUM_STRIPES - 1)];
+		
+		double logP = stripe.get(hash, header, ngram);
+		if (Double.isNaN(logP)) {
+			logP = this.languageModel.ngramLogProbability(ngram, order);
+			stripe.put(hash, header, ngram, logP);
+		}
+		return logP;
+	}
+	
+	
+	public double ngramLogProbability(int[] ngram) {
+		return this.languageModel.ngramLogProbability(ngram);
+	}
+	
+	
+	public double logProbOfBackoffState(List<Integer> ngram, int order, int qtyAdditionalBackoffWeight) {
+		return logProbabilityOfBackoffState(Support.subIntArray(ngram, 0, ngram.size()), order, qtyAdditionalBackoffWeight);
+	}
+	
+	
+	public double logProbabilityOfBackoffState(int[] ngram, int order, int qtyAdditionalBackoffWeight) {
+		if (ngram.length > this.maxLength) {
+			return this.languageModel.logProbabilityOfBackoffState(ngram, order, qtyAdditionalBackoffWeight);
+		}
+		int header = header(BACKOFF_STATE, ngram.length, order, qtyAdditionalBackoffWeight);
+		int hash = hash(header, ngram);
+		Stripe stripe = this.stripes[hash & (NUM_STRIPES - 1)];
+		
+		double logP = stripe.get(hash, header, ngram);
+		if (Double.isNaN(logP)) {
+			logP = this.languageModel.logProbabilityOfBackoffState(ngram, order, qtyAdditionalBackoffWeight);
+			stripe.put(hash, header, ngram, logP);
+		}
+		return logP;
+	}
+	
+	
+	public int[] leftEquivalentState(int[] originalState, int order, double[] cost) {
+		return this.languageModel.leftEquivalentState(originalState, order, cost);
+	}
+	
+	
+	public int[] rightEquivalentState(int[] originalState, int order) {
+		return this.languageModel.rightEquivalentState(originalState, order);
+	}
+	
+	
+//===============================================================
+// Statistics
+//===============================================================
+	
+	public long getHits() {
+		long hits = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				hits += stripe.hits;
+			}
+		}
+		return hits;
+	}
+	
+	
+	public long getMisses() {
+		long misses = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				misses += stripe.misses;
+			}
+		}
+		return misses;
+	}
+	
+	
+	public long getEvictions() {
+		long evictions = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				evictions += stripe.evictions;
+			}
+		}
+		return evictions;
+	}
+	
+	
+	/** @return the fraction of lookups that were answered by the cache */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return (0 == lookups) ? 0.0 : (double) hits / lookups;
+	}
+	
+	
+	public void logStatistics() {
+		logger.info(this.toString());
+	}
+	
+	
+	public String toString() {
+		return String.format("LM cache: %d hits, %d misses (hit rate %.3f), %d evictions",
+				getHits(), getMisses(), getHitRate(), getEvictions());
+	}
+	
+	
+//===============================================================
+// Private
+//===============================================================
+	
+	/**
+	 * Packs the kind of request, the n-gram length, the order and
+	 * the number of additional backoff weights into one int.
+	 */
+	private static int header(int kind, int length, int order, int qtyAdditionalBackoffWeight) {
+		return (kind << 30) | ((qtyAdditionalBackoffWeight & 0xFF) << 16) | ((order & 0xFF) << 8) | (length & 0xFF);
+	}
+	
+	
+	private static int hash(int header, int[] ngram) {
+		int h = header;
+		for (int i = 0; i < ngram.length; i++) {
+			h = 31 * h + ngram[i];
+		}
+		// mix the high bits into the low ones, which select the stripe and the set
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+	
+	
+	/**
+	 * One independently locked part of the cache. Slot s of set k
+	 * is slot k*WAYS+s; its key occupies keyWidth ints of keys,
+	 * starting with the header.
+	 */
+	private static class Stripe {
+		
+		private final int keyWidth;
+		private final int setMask;
+		
+		private final int[]     keys;
+		private final double[]  values;
+		private final boolean[] used;
+		private final boolean[] referenced;
+		private final byte[]    hands;
+		
+		long hits;
+		long misses;
+		long evictions;
+		
+		Stripe(int numSets, int keyWidth) {
+			this.keyWidth   = keyWidth;
+			this.setMask    = numSets - 1;
+			this.keys       = new int[numSets * WAYS * keyWidth];
+			this.values     = new double[numSets * WAYS];
+			this.used       = new boolean[numSets * WAYS];
+			this.referenced = new boolean[numSets * WAYS];
+			this.hands      = new byte[numSets];
+		}
+		
+		/** @return the cached value, or NaN if there is none */
+		synchronized double get(int hash, int header, int[] ngram) {
+			int slot = find(setOf(hash), header, ngram);
+			if (slot < 0) {
+				misses++;
+				return Double.NaN;
+			}
+			hits++;
+			referenced[slot] = true;
+			return values[slot];
+		}
+		
+		synchronized void put(int hash, int header, int[] ngram, double value) {
+			int set = setOf(hash);
+			int first = set * WAYS;
+			
+			int slot = find(set, header, ngram);
+			if (slot < 0) {
+				for (int s = first; s < first + WAYS; s++) {
+					if (! used[s]) {
+						slot = s;
+						break;
+					}
+				}
+			}
+			if (slot < 0) {
+				int hand = hands[set];
+				while (referenced[first + hand]) {
+					referenced[first + hand] = false;
+					hand = (hand + 1) % WAYS;
+				}
+				slot = first + hand;
+				hands[set] = (byte) ((hand + 1) % WAYS);
+				evictions++;
+			}
+			
+			int offset = slot * keyWidth;
+			keys[offset] = header;
+			System.arraycopy(ngram, 0, keys, offset + 1, ngram.length);
+			values[slot] = value;
+			used[slot] = true;
+			referenced[slot] = false;
+		}
+		
+		/* the low bits of the hash have already selected the stripe */
+		private int setOf(int hash) {
+			return (hash >>> 4) & setMask;
+		}
+		
+		private int find(int set, int header, int[] ngram) {
+			for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+				if (used[slot] && matches(slot * keyWidth, header, ngram)) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+		
+		private boolean matches(int offset, int header, int[] ngram) {
+			if (keys[offset] != header) {
+				return false;
+			}
+			for (int i = 0; i < ngram.length; i++) {
+				if (keys[offset + 1 + i] != ngram[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -24,8 +24,11 @@ import java.util.logging.Logger;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.chart_parser.SourcePath;
 import joshua.decoder.ff.DefaultStatefulFF;
+import joshua.decoder.ff.StateComputingFF;
 import joshua.decoder.ff.state_maintenance.DPState;
 import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.state_maintenance.NgramStateComputer;
+import joshua.decoder.ff.state_maintenance.StateComputer;
 import joshua.decoder.ff.tm.Rule;
 import joshua.decoder.hypergraph.HGNode;
 
@@ -38,12 +41,15 @@ import joshua.decoder.hypergraph.HGNode;
  * <li> Gets the LM state 
  * <li> Gets the left-side LM state estimation score
  * </ol>
+ * 
+ * During decoding all three are computed in a single pass over
+ * the rule's target side by {@link #computeStateAndLogPs}.
  *
  *
  * @author Zhifei Li, <zhifei.work@gmail.com>
  * @version $LastChangedDate$
  */
-public class LanguageModelFF extends DefaultStatefulFF {
+public class LanguageModelFF extends DefaultStatefulFF implements StateComputingFF<NgramDPState> {
 	
 	/** Logger for this class. */
 	private static final Logger logger = Logger.getLogger(LanguageModelFF.class.getName());
@@ -92,6 +98,13 @@ public class LanguageModelFF extends DefaultStatefulFF {
 	/** Symbol table that maps between Strings and integers. */
 	private final SymbolTable symbolTable;
 	
+	/**
+	 * Whether the future estimate of a state may be computed
+	 * directly from ngramLogProbability, which is what
+	 * DefaultNGramLanguageModel.sentenceLogProbability does.
+	 */
+	private final boolean scoreLeftContextDirectly;
+	
 	
 	/** stateID is any integer exept -1
 	 **/
@@ -101,6 +114,7 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		this.ngramOrder = ngramOrder;
 		this.lmGrammar  = lmGrammar;
 		this.symbolTable = psymbol;
+		this.scoreLeftContextDirectly = scoresSentencesByNgrams(lmGrammar);
 		this.START_SYM_ID = psymbol.addTerminal(START_SYM);
 		this.STOP_SYM_ID = psymbol.addTerminal(STOP_SYM);
 		
@@ -141,6 +155,146 @@ public class LanguageModelFF extends DefaultStatefulFF {
 
 
 
+	public boolean computesStateOf(StateComputer<?> stateComputer) {
+		if (stateComputer instanceof NgramStateComputer) {
+			NgramStateComputer ngramStateComputer = (NgramStateComputer) stateComputer;
+			return ngramStateComputer.getStateID() == this.getStateID()
+				&& ngramStateComputer.getNgramOrder() == this.ngramOrder;
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Does the work of NgramStateComputer.computeState,
+	 * computeTransition and estimateStateLogProb in one walk over
+	 * the target words and antecedent contexts. A single window
+	 * of at most ngramOrder words serves both as the n-gram being
+	 * scored and, once the last word has been added, as the source
+	 * of the right context.
+	 */
+	public NgramDPState computeStateAndLogPs(Rule rule, List<HGNode> antNodes, int spanStart, int spanEnd, SourcePath srcPath, int sentID, double[] logPs) {
+		
+		int contextSize = this.ngramOrder - 1;
+		int[] leftStateSequence = new int[contextSize];
+		int   leftSize = 0;
+		int[] currentNgram = new int[this.ngramOrder];
+		int   ngramSize = 0;
+		double transitionLogP = 0.0;
+		
+		int[] enWords = rule.getEnglish();
+		
+		for (int c = 0; c < enWords.length; c++) {
+			int curID = enWords[c];
+			if (symbolTable.isNonterminal(curID)) {
+				int index = symbolTable.getTargetNonterminalIndex(curID);
+				
+				NgramDPState state = (NgramDPState) antNodes.get(index).getDPState(this.getStateID());
+				int[] leftContext = state.getLeftContext();
+				int[] rightContext = state.getRightContext();
+				if (leftContext.length != rightContext.length ) {
+					throw new RuntimeException("computeStateAndLogPs: left and right contexts have unequal lengths");
+				}
+				
+				//================ left context
+				for (int i = 0; i < leftContext.length; i++) {
+					int t = leftContext[i];
+					currentNgram[ngramSize++] = t;
+					if (leftSize < contextSize) {
+						leftStateSequence[leftSize++] = t;
+					}
+					
+					//always calculate logP for <bo>: additional backoff weight
+					if (t == BACKOFF_LEFT_LM_STATE_SYM_ID) {
+						int numAdditionalBackoffWeight = ngramSize - (i+1);//number of non-state words
+						
+						int[] ngram = new int[ngramSize];
+						System.arraycopy(currentNgram, 0, ngram, 0, ngramSize);
+						transitionLogP += this.lmGrammar.logProbabilityOfBackoffState(ngram, ngramSize, numAdditionalBackoffWeight);
+						
+						if (ngramSize == this.ngramOrder) {
+							ngramSize = dropFirst(currentNgram, ngramSize);
+						}
+					} else if (ngramSize == this.ngramOrder) {
+						transitionLogP += this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
+						ngramSize = dropFirst(currentNgram, ngramSize);
+					}
+				}
+				
+				//================  right context
+				System.arraycopy(rightContext, 0, currentNgram, ngramSize - rightContext.length, rightContext.length);
+				
+			} else {//terminal words
+				currentNgram[ngramSize++] = curID;
+				if (leftSize < contextSize) {
+					leftStateSequence[leftSize++] = curID;
+				}
+				
+				if (ngramSize == this.ngramOrder) {
+					transitionLogP += this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
+					ngramSize = dropFirst(currentNgram, ngramSize);
+				}
+			}
+		}
+		
+		if (leftSize > ngramSize) {
+			throw new RuntimeException("left has a bigger size right; " +
+					"; left=" + leftSize + "; right=" + ngramSize );
+		}
+		
+		int[] left = new int[leftSize];
+		int[] right = new int[leftSize];
+		System.arraycopy(leftStateSequence, 0, left, 0, leftSize);
+		System.arraycopy(currentNgram, ngramSize - leftSize, right, 0, leftSize);
+		NgramDPState newState = new NgramDPState(left, right);
+		
+		logPs[0] = transitionLogP;
+		if (scoreLeftContextDirectly) {
+			logPs[1] = estimateLeftContextLogProb(left);
+		} else {
+			logPs[1] = estimateFutureLogP(rule, newState, sentID);
+		}
+		return newState;
+	}
+	
+	
+	/**
+	 * @return true if the model's sentenceLogProbability is the
+	 *         sum of its ngramLogProbability calls
+	 */
+	private static boolean scoresSentencesByNgrams(NGramLanguageModel lm) {
+		if (lm instanceof CachedLanguageModel) {
+			return scoresSentencesByNgrams(((CachedLanguageModel) lm).getLanguageModel());
+		}
+		return lm instanceof DefaultNGramLanguageModel;
+	}
+	
+	
+	/** Removes the oldest word from the window, returning its new size. */
+	private static int dropFirst(int[] words, int size) {
+		System.arraycopy(words, 1, words, 0, size - 1);
+		return size - 1;
+	}
+	
+	
+	/**
+	 * Same as estimateStateLogProb(state, false, false): the left
+	 * context has fewer than ngramOrder words, so only its partial
+	 * n-grams are scored.
+	 */
+	private double estimateLeftContextLogProb(int[] leftContext) {
+		double res = 0.0;
+		if (leftContext.length > 0) {
+			int startIndex = (leftContext[0] == START_SYM_ID) ? 2 : 1;
+			for (int j = startIndex; j < this.ngramOrder && j <= leftContext.length; j++) {
+				int[] ngram = new int[j];
+				System.arraycopy(leftContext, 0, ngram, 0, j);
+				res += this.lmGrammar.ngramLogProbability(ngram, this.ngramOrder);
+			}
+		}
+		return res;
+	}
+	
 	
 	/**when calculate transition prob: when saw a <bo>, then need to add backoff weights, start from non-state words
 	 * */
@@ -155,15 +309,15 @@ public class LanguageModelFF extends DefaultStatefulFF {
 				int index = symbolTable.getTargetNonterminalIndex(curID);
 			
 				NgramDPState state = (NgramDPState) antNodes.get(index).getDPState(this.getStateID());
-				List<Integer> leftContext = state.getLeftLMStateWords();
-				List<Integer> rightContext = state.getRightLMStateWords();
-				if (leftContext.size() != rightContext.size() ) {
+				int[] leftContext = state.getLeftContext();
+				int[] rightContext = state.getRightContext();
+				if (leftContext.length != rightContext.length ) {
 					throw new RuntimeException("computeTransition: left and right contexts have unequal lengths");
 				}
 				
 				//================ left context
-				for (int i = 0; i < leftContext.size(); i++) {
-					int t = leftContext.get(i);
+				for (int i = 0; i < leftContext.length; i++) {
+					int t = leftContext[i];
 					currentNgram.add(t);
 					
 					//always calculate logP for <bo>: additional backoff weight
@@ -189,9 +343,9 @@ public class LanguageModelFF extends DefaultStatefulFF {
 				//note: left_state_org_wrds will never take words from right context because it is either duplicate or out of range
 				//also, we will never score the right context probablity because they are either duplicate or partional ngram
 				int tSize = currentNgram.size();
-				for (int i = 0; i < rightContext.size(); i++) {
+				for (int i = 0; i < rightContext.length; i++) {
 					// replace context
-					currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i) );
+					currentNgram.set(tSize - rightContext.length + i, rightContext[i] );
 				}
 			
 			} else {//terminal words
@@ -218,10 +372,10 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		
 		double res = 0.0;
 		List<Integer> currentNgram = new ArrayList<Integer>();
-		List<Integer>   leftContext = state.getLeftLMStateWords();		
-		List<Integer>   rightContext = state.getRightLMStateWords();
+		int[]   leftContext = state.getLeftContext();
+		int[]   rightContext = state.getRightContext();
 		
-		if (leftContext.size() != rightContext.size()) {
+		if (leftContext.length != rightContext.length) {
 			throw new RuntimeException(
 				"LMModel.compute_equiv_state_final_transition: left and right contexts have unequal lengths");
 		}
@@ -230,8 +384,8 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		if (addStartAndEndSymbol) 
 			currentNgram.add(START_SYM_ID);
 		
-		for (int i = 0; i < leftContext.size(); i++) {
-			int t = leftContext.get(i);
+		for (int i = 0; i < leftContext.length; i++) {
+			int t = leftContext[i];
 			currentNgram.add(t);
 			
 			if (t == BACKOFF_LEFT_LM_STATE_SYM_ID) {//calculate logP for <bo>: additional backoff weight
@@ -257,8 +411,8 @@ public class LanguageModelFF extends DefaultStatefulFF {
 		//switch context, we will never score the right context probablity because they are either duplicate or partional ngram
 		if(addStartAndEndSymbol){
 			int tSize = currentNgram.size();
-			for (int i = 0; i < rightContext.size(); i++) {//replace context
-				currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i));
+			for (int i = 0; i < rightContext.length; i++) {//replace context
+				currentNgram.set(tSize - rightContext.length + i, rightContext[i]);
 			}
 			
 			currentNgram.add(STOP_SYM_ID);
@@ -307,13 +461,14 @@ public class LanguageModelFF extends DefaultStatefulFF {
 	private double estimateStateLogProb(NgramDPState state, boolean addStart, boolean addEnd) {
 		
 		double res = 0.0;		
-		List<Integer>   leftContext = state.getLeftLMStateWords();
+		int[]   leftContext = state.getLeftContext();
 		
 		if (null != leftContext) {
-			List<Integer> words = new ArrayList<Integer>();;
+			List<Integer> words = new ArrayList<Integer>(leftContext.length + 1);
 			if (addStart == true)
 				words.add(START_SYM_ID);
-			words.addAll(leftContext);
+			for (int t : leftContext)
+				words.add(t);
 			
 			boolean considerIncompleteNgrams = true;
 			boolean skipStart = true;
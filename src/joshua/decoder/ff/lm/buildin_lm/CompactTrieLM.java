@@ -0,0 +1,336 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.buildin_lm;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.AbstractLM;
+import joshua.decoder.ff.lm.ArpaFile;
+import joshua.decoder.ff.lm.ArpaNgram;
+
+/**
+ * Language model stored as a reversed-word-order trie in sorted
+ * primitive arrays.
+ * <p>
+ * This is the same trie as in {@link TrieLM}, and it returns
+ * exactly the same scores, but no node is an object and nothing is
+ * boxed. The nodes at depth <i>k</i> of the trie are stored in
+ * the arrays of level <i>k</i>, grouped by parent and sorted by
+ * word id within each group, so the child of a node is found by
+ * binary search among that node's children. Each node takes
+ * sixteen bytes: its word, the index of its first child, the log
+ * probability of the n-gram it represents, and the backoff weight
+ * of that n-gram used as a context.
+ * <p>
+ * A node at depth <i>k</i> represents the <i>k</i> words on the
+ * path to it, read in reverse. The log probability of word
+ * <i>w</i> given context <i>h</i> is stored at the node for
+ * <i>h w</i>, the backoff weight of <i>h</i> at the node for
+ * <i>h</i>.
+ * <p>
+ * The ARPA file is read once per level, plus once more for the
+ * probabilities, so that only the trie itself is ever held in
+ * memory.
+ *
+ * @see TrieLM
+ */
+public class CompactTrieLM extends AbstractLM {
+	
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(CompactTrieLM.class.getName());
+	
+	/** Index of the root node, the only node of level 0. */
+	private static final int ROOT_NODE_ID = 0;
+	
+	/** Marks a node whose word sequence is not itself an n-gram. */
+	private static final float NO_LOG_PROB = Float.NaN;
+	
+	/** Depth of the deepest level of the trie. */
+	private final int maxLevel;
+	
+	/** For each level, the word of each node. */
+	private final int[][] words;
+	
+	/**
+	 * For each level, the children of node i are the nodes
+	 * firstChild[level][i] up to firstChild[level][i+1] of the
+	 * next level.
+	 */
+	private final int[][] firstChild;
+	
+	/**
+	 * For each level, the log probability of the n-gram each node
+	 * represents, or NO_LOG_PROB.
+	 */
+	private final float[][] logProbs;
+	
+	/** For each level, the backoff weight of each node. */
+	private final float[][] backoffs;
+	
+	
+	public CompactTrieLM(SymbolTable vocab, String file) throws FileNotFoundException {
+		this(new ArpaFile(file,vocab));
+	}
+	
+	
+	/**
+	 * Constructs a language model object from the specified ARPA file.
+	 * 
+	 * @param arpaFile
+	 * @throws FileNotFoundException 
+	 */
+	public CompactTrieLM(ArpaFile arpaFile) throws FileNotFoundException {
+		super(arpaFile.getVocab(), arpaFile.getOrder());
+		
+		int order = 0;
+		for (ArpaNgram ngram : arpaFile) {
+			order = Math.max(order, ngram.order());
+		}
+		this.maxLevel = order;
+		
+		this.words      = new int[maxLevel + 1][];
+		this.firstChild = new int[maxLevel + 1][];
+		this.logProbs   = new float[maxLevel + 1][];
+		this.backoffs   = new float[maxLevel + 1][];
+		this.words[0] = new int[1];
+		
+		for (int level = 1; level <= maxLevel; level++) {
+			buildLevel(arpaFile, level);
+			if (logger.isLoggable(Level.FINE)) 
+				logger.fine("Level " + level + " of the trie has " + words[level].length + " nodes");
+		}
+		
+		for (ArpaNgram ngram : arpaFile) {
+			int[] reversed = reversedWords(ngram);
+			int level = reversed.length;
+			int nodeID = findNode(reversed, 0, level);
+			this.logProbs[level][nodeID] = ngram.getValue();
+			this.backoffs[level][nodeID] = ngram.getBackoff();
+		}
+		
+		long nodes = 0;
+		for (int level = 1; level <= maxLevel; level++) {
+			nodes += words[level].length;
+		}
+		logger.info("Constructed a trie of " + nodes + " nodes for a " + maxLevel + "-gram language model");
+	}
+	
+	
+	/**
+	 * Adds the nodes of the given level. TrieLM creates a node for
+	 * every prefix of each reversed n-gram, and for every prefix of
+	 * each reversed context, so the same is done here. Levels above
+	 * this one must already be complete.
+	 */
+	private void buildLevel(ArpaFile arpaFile, int level) {
+		
+		long[] keys = new long[1024];
+		int size = 0;
+		
+		for (ArpaNgram ngram : arpaFile) {
+			int[] reversed = reversedWords(ngram);
+			
+			// prefixes of the n-gram, then prefixes of its context
+			for (int start = 0; start <= 1; start++) {
+				if (reversed.length - start >= level) {
+					int parent = findNode(reversed, start, level - 1);
+					if (size == keys.length) {
+						keys = Arrays.copyOf(keys, 2 * size);
+					}
+					keys[size++] = key(parent, reversed[start + level - 1]);
+				}
+			}
+		}
+		
+		Arrays.sort(keys, 0, size);
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || keys[i] != keys[unique - 1]) {
+				keys[unique++] = keys[i];
+			}
+		}
+		
+		int numParents = words[level - 1].length;
+		int[] levelWords = new int[unique];
+		int[] parentFirstChild = new int[numParents + 1];
+		for (int i = 0; i < unique; i++) {
+			levelWords[i] = (int) keys[i] ^ Integer.MIN_VALUE;
+			parentFirstChild[(int) (keys[i] >>> 32) + 1]++;
+		}
+		for (int i = 0; i < numParents; i++) {
+			parentFirstChild[i + 1] += parentFirstChild[i];
+		}
+		
+		this.words[level] = levelWords;
+		this.firstChild[level - 1] = parentFirstChild;
+		this.logProbs[level] = new float[unique];
+		Arrays.fill(this.logProbs[level], NO_LOG_PROB);
+		this.backoffs[level] = new float[unique];
+	}
+	
+	
+	/**
+	 * Sort key of a node: its parent, then its word. The sign bit of
+	 * the word is flipped so that unsigned order of the low half of
+	 * the key is the signed order of the words.
+	 */
+	private static long key(int parent, int word) {
+		return ((long) parent << 32) | ((word ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+	
+	
+	/** @return the words of the n-gram, last word first */
+	private static int[] reversedWords(ArpaNgram ngram) {
+		int[] context = ngram.getContext();
+		int[] reversed = new int[context.length + 1];
+		reversed[0] = ngram.getWord();
+		for (int i = 0; i < context.length; i++) {
+			reversed[i + 1] = context[context.length - 1 - i];
+		}
+		return reversed;
+	}
+	
+	
+	/**
+	 * @return the node for the given number of words of the
+	 *         reversed word sequence, starting at start
+	 */
+	private int findNode(int[] reversed, int start, int length) {
+		int nodeID = ROOT_NODE_ID;
+		for (int level = 1; level <= length; level++) {
+			nodeID = findChild(level, nodeID, reversed[start + level - 1]);
+			if (nodeID < 0) {
+				throw new RuntimeException("Missing node at level " + level + " of the trie");
+			}
+		}
+		return nodeID;
+	}
+	
+	
+	/**
+	 * @return the index of the child of node parent (of the previous
+	 *         level) that is at the given level and has the given
+	 *         word, or -1 if there is none
+	 */
+	private int findChild(int level, int parent, int word) {
+		if (level > maxLevel) {
+			return -1;
+		}
+		int[] levelWords = words[level];
+		int low = firstChild[level - 1][parent];
+		int high = firstChild[level - 1][parent + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midWord = levelWords[mid];
+			if (midWord < word) {
+				low = mid + 1;
+			} else if (midWord > word) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	
+	/* Raw trie, for MemoryMappedTrieLM.compile */
+	
+	int getMaxLevel() {
+		return maxLevel;
+	}
+	
+	int[] getWords(int level) {
+		return words[level];
+	}
+	
+	int[] getFirstChild(int level) {
+		return firstChild[level];
+	}
+	
+	float[] getLogProbs(int level) {
+		return logProbs[level];
+	}
+	
+	float[] getBackoffs(int level) {
+		return backoffs[level];
+	}
+	
+	
+	@Override
+	protected double logProbabilityOfBackoffState_helper(
+			int[] ngram, int order, int qtyAdditionalBackoffWeight
+	) {
+		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for CompactTrieLM");
+	}
+	
+	
+	/**
+	 * Walks the trie exactly as TrieLM.ngramLogProbability_helper
+	 * does: along the context, summing backoff weights, and along
+	 * the n-gram itself, where each longer match found resets the
+	 * sum. The float arithmetic is also the same.
+	 */
+	@Override
+	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		
+		float logProb = (float) -JoshuaConfiguration.lm_ceiling_cost;
+		float backoff = 0.0f;
+		
+		int last = ngram.length - 1;
+		int word = ngram[last];
+		
+		int ngramNodeID = findChild(1, ROOT_NODE_ID, word);
+		if (ngramNodeID >= 0 && ! Float.isNaN(logProbs[1][ngramNodeID])) {
+			logProb = logProbs[1][ngramNodeID];
+		}
+		
+		int contextNodeID = ROOT_NODE_ID;
+		for (int level = 1; level <= last; level++) {
+			int contextWord = ngram[last - level];
+			
+			contextNodeID = findChild(level, contextNodeID, contextWord);
+			if (contextNodeID < 0) {
+				break;
+			}
+			backoff += backoffs[level][contextNodeID];
+			
+			if (ngramNodeID >= 0) {
+				ngramNodeID = findChild(level + 1, ngramNodeID, contextWord);
+				if (ngramNodeID >= 0 && ! Float.isNaN(logProbs[level + 1][ngramNodeID])) {
+					logProb = logProbs[level + 1][ngramNodeID];
+					backoff = 0.0f;
+				}
+			}
+		}
+		
+		double result = logProb + backoff;
+		if (result < -JoshuaConfiguration.lm_ceiling_cost) {
+			result = -JoshuaConfiguration.lm_ceiling_cost;
+		}
+		
+		return result;
+	}
+	
+}
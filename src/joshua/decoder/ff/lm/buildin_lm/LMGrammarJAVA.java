@@ -26,7 +26,6 @@ import joshua.util.io.LineReader;
 import joshua.util.Regex;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -75,12 +74,6 @@ public class LMGrammarJAVA extends AbstractLM {
 	boolean g_is_add_prefix_infor   = false;
 	boolean g_is_add_suffix_infor   = false;
 	
-	HashMap<String, int[]> request_cache_prob        = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_backoff     = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_left_equiv  = new HashMap<String, int[]>();//cmd with result
-	HashMap<String, int[]> request_cache_right_equiv = new HashMap<String, int[]>();//cmd with result
-	int cache_size_limit= 250000;
-	
 	
 	private static final Logger logger = 
 		Logger.getLogger(LMGrammarJAVA.class.getName());
@@ -133,26 +126,11 @@ public class LMGrammarJAVA extends AbstractLM {
 	}
 	
 	
-	//	signature of this item: i, j, lhs, states (in fact, we do not need i, j)
-	private String get_signature(int[] words) {
-		StringBuffer s = new StringBuffer(words.length);
-		for (int i = 0; i < words.length; i++) {
-			s.append(' ').append(words[i]);
-		}
-		return s.toString();
-	}
-	
-	
-	
 	/*note: the mismatch between srilm and our java implemtation is in: when unk words used as context, in java it will be replaced with "<unk>", but srilm will not, therefore the 
 	*lm cost by srilm may be smaller than by java, this happens only when the LM file have "<unk>" in backoff state*/
 	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		// repeated requests are cached by CachedLanguageModel
 		Double res;
-		//cache
-		//String sig = get_signature(ngram);
-		//res = (Double)request_cache_prob.get(sig);
-		//if(res!=null)return res;
-		
 		int[] ngram_wrds = replace_with_unk(ngram); // TODO
 		if (ngram_wrds[ngram_wrds.length-1] == UNK_SYM_ID) { // TODO: wrong implementation in hiero
 			res = -JoshuaConfiguration.lm_ceiling_cost;
@@ -188,11 +166,6 @@ public class LMGrammarJAVA extends AbstractLM {
 			}
 			res = prob + bow_sum;
 		}
-		//cache
-		//if(request_cache_prob.size()>cache_size_limit)
-		//	request_cache_prob.clear();
-		//request_cache_prob.put(sig, res);
-		
 		return res;
 	}
 	
@@ -233,13 +206,6 @@ public class LMGrammarJAVA extends AbstractLM {
 			return original_state_in;
 		}
 		int[] res;
-		//cache
-		String sig = get_signature(original_state_in);
-		res = (int[])request_cache_right_equiv.get(sig);
-		if (null != res) {
-			//System.out.println("right cache hit");
-			return res;
-		}
 		
 		// we do not put this statement at the beging to match the SRILM condition (who does not have replace_with_unk)
 		int[] original_state = replace_with_unk(original_state_in);
@@ -256,12 +222,6 @@ public class LMGrammarJAVA extends AbstractLM {
 				break;
 			}
 		}
-		//cache
-		if (request_cache_right_equiv.size() > cache_size_limit) {
-			request_cache_right_equiv.clear();
-		}
-		request_cache_right_equiv.put(sig, res);
-		
 		//System.out.println("right org state: " + Symbol.get_string(original_state) +"; equiv state: " + Symbol.get_string(res));
 		return res;
 	}
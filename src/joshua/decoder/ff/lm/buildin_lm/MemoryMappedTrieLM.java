@@ -0,0 +1,331 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.lm.buildin_lm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.AbstractLM;
+import joshua.decoder.ff.lm.ArpaFile;
+
+/**
+ * Language model that reads the trie of a {@link CompactTrieLM}
+ * from a memory-mapped binary file.
+ * <p>
+ * The binary file is written once, by {@link #compile} (or by
+ * running this class), from an ARPA file. Loading it then only
+ * maps the arrays of the trie read-only and reads the vocabulary,
+ * so the decoder starts without parsing the ARPA file, and all
+ * processes that map the same file share its pages in the
+ * operating system's page cache. Scores are exactly those of
+ * CompactTrieLM and TrieLM.
+ * <p>
+ * The file starts with a header of ints: MAGIC, VERSION, the
+ * order declared by the ARPA file, the number of levels of the
+ * trie, and the number of nodes of each level. For each level
+ * there follow the firstChild array of the level above, then the
+ * words, log probabilities and backoff weights of the level's
+ * nodes. The vocabulary comes last: its size, then each word,
+ * written with writeUTF, in order of the ids used in the trie.
+ *
+ * @see CompactTrieLM
+ */
+public class MemoryMappedTrieLM extends AbstractLM {
+	
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(MemoryMappedTrieLM.class.getName());
+	
+	/** Identifies a binary language model file. */
+	private static final int MAGIC = 0x4A4C4D31;
+	
+	private static final int VERSION = 1;
+	
+	/** Index of the root node, the only node of level 0. */
+	private static final int ROOT_NODE_ID = 0;
+	
+	/** Trie word of any word that the language model does not know. */
+	private static final int UNKNOWN_WORD = Integer.MIN_VALUE;
+	
+	private final int maxLevel;
+	
+	private final IntBuffer[]   words;
+	private final IntBuffer[]   firstChild;
+	private final FloatBuffer[] logProbs;
+	private final FloatBuffer[] backoffs;
+	
+	/** Maps ids of the decoder's symbol table to the words of the trie. */
+	private final int[] trieWords;
+	
+	
+	/**
+	 * Maps the binary language model file written by compile.
+	 * 
+	 * @param symbolTable the decoder's symbol table, to which the
+	 *                    words of the language model are added
+	 * @param binaryFileName
+	 * @throws IOException
+	 */
+	public MemoryMappedTrieLM(SymbolTable symbolTable, String binaryFileName) throws IOException {
+		super(symbolTable, readHeader(binaryFileName)[2]);
+		
+		int[] header = readHeader(binaryFileName);
+		this.maxLevel = header[3];
+		
+		this.words      = new IntBuffer[maxLevel + 1];
+		this.firstChild = new IntBuffer[maxLevel + 1];
+		this.logProbs   = new FloatBuffer[maxLevel + 1];
+		this.backoffs   = new FloatBuffer[maxLevel + 1];
+		
+		RandomAccessFile binaryFile = new RandomAccessFile(binaryFileName, "r");
+		long position = 4 * header.length;
+		try {
+			FileChannel channel = binaryFile.getChannel();
+			
+			int parents = 1;
+			for (int level = 1; level <= maxLevel; level++) {
+				int nodes = header[3 + level];
+				
+				this.firstChild[level - 1] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (parents + 1)).asIntBuffer();
+				position += 4L * (parents + 1);
+				this.words[level] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nodes).asIntBuffer();
+				position += 4L * nodes;
+				this.logProbs[level] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nodes).asFloatBuffer();
+				position += 4L * nodes;
+				this.backoffs[level] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nodes).asFloatBuffer();
+				position += 4L * nodes;
+				
+				parents = nodes;
+			}
+		} finally {
+			// the mappings stay valid after the file is closed
+			binaryFile.close();
+		}
+		
+		// the vocabulary
+		FileInputStream vocabStream = new FileInputStream(binaryFileName);
+		try {
+			vocabStream.getChannel().position(position);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(vocabStream));
+			
+			int vocabSize = in.readInt();
+			int[] symbolIDs = new int[vocabSize + 1];
+			int highestID = 0;
+			for (int trieWord = 1; trieWord <= vocabSize; trieWord++) {
+				symbolIDs[trieWord] = symbolTable.addTerminal(in.readUTF());
+				highestID = Math.max(highestID, symbolIDs[trieWord]);
+			}
+			
+			this.trieWords = new int[highestID + 1];
+			Arrays.fill(this.trieWords, UNKNOWN_WORD);
+			for (int trieWord = 1; trieWord <= vocabSize; trieWord++) {
+				if (symbolIDs[trieWord] >= 0) {
+					this.trieWords[symbolIDs[trieWord]] = trieWord;
+				}
+			}
+		} finally {
+			vocabStream.close();
+		}
+		
+		logger.info("Mapped a " + maxLevel + "-gram language model from " + binaryFileName);
+	}
+	
+	
+	/**
+	 * Reads the header ints of a binary language model file.
+	 */
+	private static int[] readHeader(String binaryFileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFileName)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(binaryFileName + " is not a binary language model file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of binary language model file " + binaryFileName);
+			}
+			int order = in.readInt();
+			int maxLevel = in.readInt();
+			
+			int[] header = new int[4 + maxLevel];
+			header[0] = MAGIC;
+			header[1] = version;
+			header[2] = order;
+			header[3] = maxLevel;
+			for (int level = 1; level <= maxLevel; level++) {
+				header[3 + level] = in.readInt();
+			}
+			return header;
+		} finally {
+			in.close();
+		}
+	}
+	
+	
+	/**
+	 * Writes the trie of the language model in an ARPA file to a
+	 * binary file that this class can map.
+	 */
+	public static void compile(String arpaFileName, String binaryFileName) throws IOException {
+		ArpaFile arpaFile = new ArpaFile(arpaFileName);
+		SymbolTable vocab = arpaFile.getVocab();
+		CompactTrieLM lm = new CompactTrieLM(arpaFile);
+		
+		int maxLevel = lm.getMaxLevel();
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFileName)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(lm.getOrder());
+			out.writeInt(maxLevel);
+			for (int level = 1; level <= maxLevel; level++) {
+				out.writeInt(lm.getWords(level).length);
+			}
+			
+			for (int level = 1; level <= maxLevel; level++) {
+				for (int i : lm.getFirstChild(level - 1)) {
+					out.writeInt(i);
+				}
+				for (int word : lm.getWords(level)) {
+					out.writeInt(word);
+				}
+				for (float logProb : lm.getLogProbs(level)) {
+					out.writeFloat(logProb);
+				}
+				for (float backoff : lm.getBackoffs(level)) {
+					out.writeFloat(backoff);
+				}
+			}
+			
+			// the trie words are the ids of terminals in vocab, 1 to getHighestID()
+			int vocabSize = vocab.getHighestID();
+			out.writeInt(vocabSize);
+			for (int trieWord = 1; trieWord <= vocabSize; trieWord++) {
+				out.writeUTF(vocab.getWord(trieWord));
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	
+	private int trieWord(int symbolID) {
+		return (symbolID >= 0 && symbolID < trieWords.length) ? trieWords[symbolID] : UNKNOWN_WORD;
+	}
+	
+	
+	/** Same as CompactTrieLM.findChild */
+	private int findChild(int level, int parent, int word) {
+		if (level > maxLevel) {
+			return -1;
+		}
+		IntBuffer levelWords = words[level];
+		int low = firstChild[level - 1].get(parent);
+		int high = firstChild[level - 1].get(parent + 1) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midWord = levelWords.get(mid);
+			if (midWord < word) {
+				low = mid + 1;
+			} else if (midWord > word) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	
+	@Override
+	protected double logProbabilityOfBackoffState_helper(
+			int[] ngram, int order, int qtyAdditionalBackoffWeight
+	) {
+		throw new UnsupportedOperationException("probabilityOfBackoffState_helper undefined for MemoryMappedTrieLM");
+	}
+	
+	
+	/** Same as CompactTrieLM.ngramLogProbability_helper */
+	@Override
+	protected double ngramLogProbability_helper(int[] ngram, int order) {
+		
+		float logProb = (float) -JoshuaConfiguration.lm_ceiling_cost;
+		float backoff = 0.0f;
+		
+		int last = ngram.length - 1;
+		int word = trieWord(ngram[last]);
+		
+		int ngramNodeID = findChild(1, ROOT_NODE_ID, word);
+		if (ngramNodeID >= 0 && ! Float.isNaN(logProbs[1].get(ngramNodeID))) {
+			logProb = logProbs[1].get(ngramNodeID);
+		}
+		
+		int contextNodeID = ROOT_NODE_ID;
+		for (int level = 1; level <= last; level++) {
+			int contextWord = trieWord(ngram[last - level]);
+			
+			contextNodeID = findChild(level, contextNodeID, contextWord);
+			if (contextNodeID < 0) {
+				break;
+			}
+			backoff += backoffs[level].get(contextNodeID);
+			
+			if (ngramNodeID >= 0) {
+				ngramNodeID = findChild(level + 1, ngramNodeID, contextWord);
+				if (ngramNodeID >= 0 && ! Float.isNaN(logProbs[level + 1].get(ngramNodeID))) {
+					logProb = logProbs[level + 1].get(ngramNodeID);
+					backoff = 0.0f;
+				}
+			}
+		}
+		
+		double result = logProb + backoff;
+		if (result < -JoshuaConfiguration.lm_ceiling_cost) {
+			result = -JoshuaConfiguration.lm_ceiling_cost;
+		}
+		
+		return result;
+	}
+	
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + MemoryMappedTrieLM.class.getName() + " arpaFile binaryFile");
+			System.exit(1);
+		}
+		
+		logger.info("Compiling " + args[0] + " to " + args[1]);
+		compile(args[0], args[1]);
+		logger.info("Done");
+	}
+	
+}
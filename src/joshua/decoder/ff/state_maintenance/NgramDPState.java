@@ -19,55 +19,73 @@
 package joshua.decoder.ff.state_maintenance;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import joshua.corpus.vocab.SymbolTable;
 
 
 /**
+ * The left and right language model context of a hypothesis.  Both
+ * contexts are kept as int arrays of word ids, and the state supplies
+ * its own equals() and hashCode(), so that two states can be compared
+ * without building their signature strings.
+ * <p>
+ * Instances are immutable; the arrays returned by getLeftContext()
+ * and getRightContext() are shared and must not be modified.
  * 
  * @author Zhifei Li, <zhifei.work@gmail.com>
  * @version $LastChangedDate: 2009-12-29 14:58:42 -0500 (星期二, 29 十二月 2009) $
  */
 public class NgramDPState implements DPState {
 	
-	private List<Integer> leftLMStateWords;
-	private List<Integer> rightLMStateWords;
+	private final int[] leftLMStateWords;
+	private final int[] rightLMStateWords;
+	private final int hash;
 	private String sig = null;
 	
 	private static String SIG_SEP = " -S- "; //seperator for state in signature
 
-	public  NgramDPState(List<Integer> leftLMStateWords, List<Integer> rightLMStateWords) {
+	public  NgramDPState(int[] leftLMStateWords, int[] rightLMStateWords) {
 		this.leftLMStateWords = leftLMStateWords;
 		this.rightLMStateWords = rightLMStateWords;
+		this.hash = 31 * Arrays.hashCode(leftLMStateWords) + Arrays.hashCode(rightLMStateWords);
+	}
+	
+	public  NgramDPState(List<Integer> leftLMStateWords, List<Integer> rightLMStateWords) {
+		this(listToIntArray(leftLMStateWords), listToIntArray(rightLMStateWords));
 	}
 	
 	 
 	
 	//construct an instance from the signature string
 	public  NgramDPState(SymbolTable symbolTable, String sig) {
+		this(symbolTable, sig.split(SIG_SEP)); // TODO: use joshua.util.Regex
 		this.sig = sig;
-		String[] states = sig.split(SIG_SEP); // TODO: use joshua.util.Regex				
-		this.leftLMStateWords = intArrayToList( symbolTable.getIDs(states[0]) );
-		this.rightLMStateWords = intArrayToList( symbolTable.getIDs(states[1]) );
+	}
+	
+	private NgramDPState(SymbolTable symbolTable, String[] states) {
+		this(symbolTable.getIDs(states[0]), symbolTable.getIDs(states[1]));
 	}
 		
 
 	
-	public void setLeftLMStateWords( List<Integer>  words_){
-		this.leftLMStateWords = words_;
+	/** Returns the left context; the array must not be modified. */
+	public int[] getLeftContext() {
+		return this.leftLMStateWords;
 	}
 	
-	public  List<Integer>  getLeftLMStateWords(){
-		return this.leftLMStateWords;
+	/** Returns the right context; the array must not be modified. */
+	public int[] getRightContext() {
+		return this.rightLMStateWords;
 	}
 	
-	public void setRightLMStateWords( List<Integer>  words_){
-		this.rightLMStateWords = words_;
+	public  List<Integer>  getLeftLMStateWords(){
+		return intArrayToList(this.leftLMStateWords);
 	}
 	
 	public  List<Integer>  getRightLMStateWords(){
-		return this.rightLMStateWords;
+		return intArrayToList(this.rightLMStateWords);
 	}
 
 	public String getSignature(boolean forceRecompute) {
@@ -82,9 +100,6 @@ public class NgramDPState implements DPState {
 			StringBuffer sb = new StringBuffer();
 			//sb.append(SIG_PREAMBLE);//TODO: do we really need this
 			
-			/**we can not simply use sb.append(leftLMStateWords), 
-			 * as it will just add the address of leftLMStateWords.
-			 */
 			computeStateSig(symbolTable, leftLMStateWords, sb); 
 			
 			sb.append(SIG_SEP);//TODO: do we really need this
@@ -98,25 +113,37 @@ public class NgramDPState implements DPState {
 	}
 	
 	
+	public int hashCode() {
+		return hash;
+	}
+	
+	
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		} else if (other instanceof NgramDPState) {
+			NgramDPState that = (NgramDPState) other;
+			return this.hash == that.hash
+				&& Arrays.equals(this.leftLMStateWords, that.leftLMStateWords)
+				&& Arrays.equals(this.rightLMStateWords, that.rightLMStateWords);
+		} else {
+			return false;
+		}
+	}
 	
-	private void computeStateSig(SymbolTable symbolTable,  List<Integer>  state, StringBuffer sb) {
+	
+	private void computeStateSig(SymbolTable symbolTable,  int[]  state, StringBuffer sb) {
 		
 		if (null != state) {
-			for (int i = 0; i < state.size(); i++) {
-				if (true
-					//TODO: equivalnce: number of <null> or <bo>?
-					/* states[i]!=Symbol.NULL_RIGHT_LM_STATE_SYM_ID
-					 * && states[i]!=Symbol.NULL_LEFT_LM_STATE_SYM_ID
-					 * && states[i]!=Symbol.LM_STATE_OVERLAP_SYM_ID*/
-				) {
-					if (null != symbolTable) {
-						sb.append(symbolTable.getWord(state.get(i)));
-					} else {
-						sb.append(state.get(i));
-					}
-					if (i < state.size() - 1) {
-						sb.append(' ');
-					}
+			for (int i = 0; i < state.length; i++) {
+				//TODO: equivalnce: number of <null> or <bo>?
+				if (null != symbolTable) {
+					sb.append(symbolTable.getWord(state[i]));
+				} else {
+					sb.append(state[i]);
+				}
+				if (i < state.length - 1) {
+					sb.append(' ');
 				}
 			}
 		} else {
@@ -124,11 +151,18 @@ public class NgramDPState implements DPState {
 		}
 	}
 	
-	private List<Integer> intArrayToList(int[] words){
-		List<Integer> res = new ArrayList<Integer>();
+	private static List<Integer> intArrayToList(int[] words){
+		List<Integer> res = new ArrayList<Integer>(words.length);
 		for(int wrd : words)
 			res.add(wrd);
 		return res;
 	}
+	
+	private static int[] listToIntArray(List<Integer> words){
+		int[] res = new int[words.size()];
+		for (int i = 0; i < res.length; i++)
+			res[i] = words.get(i);
+		return res;
+	}
 
 }
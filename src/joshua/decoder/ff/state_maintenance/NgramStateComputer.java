@@ -1,6 +1,5 @@
 package joshua.decoder.ff.state_maintenance;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -36,6 +35,21 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 	public void setStateID(int stateID) {
 		this.stateID = stateID;
 	}
+	
+	
+	public int getNgramOrder() {
+		return ngramOrder;
+	}
+
+
+	public int stateHashCode(NgramDPState state) {
+		return (null == state) ? 0 : state.hashCode();
+	}
+
+
+	public boolean stateEquals(NgramDPState state1, NgramDPState state2) {
+		return (null == state1) ? null == state2 : state1.equals(state2);
+	}
 
 
 	public NgramDPState computeFinalState(HGNode antNode, int spanStart, int spanEnd, SourcePath srcPath) {
@@ -45,11 +59,17 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 
 
 	public NgramDPState computeState(Rule rule, List<HGNode> antNodes, int spanStart, int spanEnd, SourcePath srcPath){		
-	
-		List<Integer> leftStateSequence = new ArrayList<Integer>();
-		List<Integer> currentNgram   = new ArrayList<Integer>();
 		
-		int hypLen = 0;
+		/* Only the last ngramOrder-1 words of the n-gram being built
+		 * are ever needed, so they are kept in a small array instead
+		 * of a list that has its first element removed on each
+		 * word. */
+		int contextSize = this.ngramOrder - 1;
+		int[] leftStateSequence = new int[contextSize];
+		int   leftSize = 0;
+		int[] currentNgram = new int[contextSize];
+		int   ngramSize = 0;
+		
 		int[] enWords = rule.getEnglish();
 		
 		for (int c = 0; c < enWords.length; c++) {
@@ -59,85 +79,69 @@ public class NgramStateComputer implements StateComputer<NgramDPState> {
 				//== get left- and right-context
 				int index = symbolTable.getTargetNonterminalIndex(curID);								
 				NgramDPState antState = (NgramDPState)antNodes.get(index).getDPState(this.getStateID());//TODO    			    		     	  			
-    			List<Integer> leftContext = antState.getLeftLMStateWords();
-    			List<Integer> rightContext = antState.getRightLMStateWords();
+				int[] leftContext = antState.getLeftContext();
+				int[] rightContext = antState.getRightContext();
 				
-				if (leftContext.size() != rightContext.size()) {
+				if (leftContext.length != rightContext.length) {
 					throw new RuntimeException("NgramStateComputer.computeState: left and right contexts have unequal lengths");
 				}
 				
 				//================ left context
-				for (int i = 0; i < leftContext.size(); i++) {
-					int t = leftContext.get(i);
-					currentNgram.add(t);
-					
-					//always calculate cost for <bo>: additional backoff weight
-					/*
-					if (t == BACKOFF_LEFT_LM_STATE_SYM_ID) {
-						int numAdditionalBackoffWeight = currentNgram.size() - (i+1);//number of non-state words
-						
-						//compute additional backoff weight
-						transitionCost	-= this.lmGrammar.logProbOfBackoffState(currentNgram, currentNgram.size(), numAdditionalBackoffWeight);
-						
-						if (currentNgram.size() == this.ngramOrder) {
-							currentNgram.remove(0);
-						}
-					} else */if (currentNgram.size() == this.ngramOrder) {
-						// compute the current word probablity, and remove it
-						//transitionCost -= this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
-												
-						currentNgram.remove(0);
-					}
+				for (int i = 0; i < leftContext.length; i++) {
+					int t = leftContext[i];
+					ngramSize = shift(currentNgram, ngramSize, t);
 					
-					if (leftStateSequence.size() < this.ngramOrder - 1) {
-						leftStateSequence.add(t);
+					if (leftSize < contextSize) {
+						leftStateSequence[leftSize++] = t;
 					}
 				}
 				
 				//================  right context
 				//note: left_state_org_wrds will never take words from right context because it is either duplicate or out of range
 				//also, we will never score the right context probablity because they are either duplicate or partional ngram
-				int tSize = currentNgram.size();
-				for (int i = 0; i < rightContext.size(); i++) {
-					// replace context
-					currentNgram.set(tSize - rightContext.size() + i, rightContext.get(i));
-				}
+				System.arraycopy(rightContext, 0, currentNgram, ngramSize - rightContext.length, rightContext.length);
 			
 			} else {//terminal words
-				hypLen++;
-				currentNgram.add(curID);
-				if (currentNgram.size() == this.ngramOrder) {
-					// compute the current word probablity, and remove it
-					//transitionCost -= this.lmGrammar.ngramLogProbability(currentNgram, this.ngramOrder);
-					
-					
-					currentNgram.remove(0);
-				}
-				if (leftStateSequence.size() < this.ngramOrder - 1) {
-					leftStateSequence.add(curID);
+				ngramSize = shift(currentNgram, ngramSize, curID);
+				
+				if (leftSize < contextSize) {
+					leftStateSequence[leftSize++] = curID;
 				}
 			}
 		}
 	
+		//left and right should always have the same size    		
+		if (leftSize > ngramSize) {
+			throw new RuntimeException("left has a bigger size right; " +
+					"; left=" + leftSize + "; right=" + ngramSize );
+		}
 		
-		//===== get left euquiv state 
-		//double[] lmLeftCost = new double[2];
-		//int[] equivLeftState = this.lmGrammar.leftEquivalentState(Support.subIntArray(leftLMStateWrds, 0, leftLMStateWrds.size()),	this.ngramOrder, lmLeftCost);
-		
+		int[] left = new int[leftSize];
+		int[] right = new int[leftSize];
+		System.arraycopy(leftStateSequence, 0, left, 0, leftSize);
+		System.arraycopy(currentNgram, ngramSize - leftSize, right, 0, leftSize);
 		
-		//===== trabsition and estimate cost
-		//transitionCost += lmLeftCost[0];//add finalized cost for the left state words
-//		left and right should always have the same size    		
-		List<Integer> rightStateSequence = currentNgram;
-    	if(leftStateSequence.size() > rightStateSequence.size()){
-    		throw new RuntimeException("left has a bigger size right; " +
-					"; left=" + leftStateSequence.size() + "; right="+rightStateSequence.size() );
-    	}
-    	while(rightStateSequence.size()>leftStateSequence.size()){
-    		rightStateSequence.remove(0);//TODO: speed up
-    	}
-    		
-    	return new NgramDPState(leftStateSequence, rightStateSequence);
+		return new NgramDPState(left, right);
+	}
+	
+	
+	/**
+	 * Appends a word to a window of at most words.length words,
+	 * dropping the oldest word if the window is full.
+	 * 
+	 * @return the new number of words in the window
+	 */
+	private static int shift(int[] words, int size, int word) {
+		if (words.length == 0) {
+			return 0;
+		} else if (size == words.length) {
+			System.arraycopy(words, 1, words, 0, size - 1);
+			words[size - 1] = word;
+			return size;
+		} else {
+			words[size] = word;
+			return size + 1;
+		}
 	}
 
 }
@@ -18,4 +18,13 @@ public interface StateComputer<D extends DPState> {
 	
 	D computeFinalState(HGNode antNode, int spanStart, int spanEnd, SourcePath srcPath);
 	
+	/* hash code and equality of states computed by this object; two
+	 * hypotheses whose states are equal for every state computer (and
+	 * which have the same lhs) are recombined in a chart cell.
+	 * stateHashCode must be consistent with stateEquals, and both must
+	 * accept null states
+	 * */
+	int     stateHashCode(D state);
+	boolean stateEquals(D state1, D state2);
+	
 }
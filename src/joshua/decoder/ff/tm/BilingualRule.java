@@ -70,6 +70,7 @@ public class BilingualRule extends MonolingualRule {
 	
 	public final void setEnglish(int[] eng) {
 		this.english = eng;
+		clearStatelessLogP();
 	}
 	
 	public final int[] getEnglish() {
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.logging.Logger;
 
 import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.DefaultStatelessFF;
 import joshua.decoder.ff.FeatureFunction;
 
 /**
@@ -65,6 +66,14 @@ public class MonolingualRule implements Rule {
 	 * cube-pruning
 	 */
 	private float est_cost = 0;
+	
+	/* the weighted logP of the rule-only features in
+	 * statelessLogPFeatures, computed when the weights of stateless
+	 * features were at statelessLogPVersion; the volatile list is
+	 * written last, so a thread that reads it sees the other two */
+	private volatile List<FeatureFunction> statelessLogPFeatures = null;
+	private double statelessLogP;
+	private int    statelessLogPVersion;
 
 //===============================================================
 // Static Fields
@@ -123,17 +132,17 @@ public class MonolingualRule implements Rule {
 // Attributes
 //===============================================================
 	
-	public final void setRuleID(int id) { this.ruleID = id; }
+	public final void setRuleID(int id) { this.ruleID = id; clearStatelessLogP(); }
 	
 	public final int getRuleID() { return this.ruleID; }
 	
 	
-	public final void setArity(int arity) { this.arity = arity; }
+	public final void setArity(int arity) { this.arity = arity; clearStatelessLogP(); }
 	
 	public final int getArity() { return this.arity; }
 	
 	
-	public final void setOwner(int owner) { this.owner = owner; }
+	public final void setOwner(int owner) { this.owner = owner; clearStatelessLogP(); }
 	
 	public final int getOwner() { return this.owner; }
 	
@@ -160,6 +169,7 @@ public class MonolingualRule implements Rule {
 	
 	public final void setFeatureScores(float[] scores) {
 		this.featScores = scores;
+		clearStatelessLogP();
 	}
 	
 	public final float[] getFeatureScores() {
@@ -195,10 +205,43 @@ public class MonolingualRule implements Rule {
 			}
 			
 			this.est_cost = estcost;
+			setStatelessLogP(featureFunctions);
 			return estcost;
 		}
 	}
 	
+	
+	public final double getStatelessLogP(List<FeatureFunction> featureFunctions) {
+		if (featureFunctions == this.statelessLogPFeatures
+				&& this.statelessLogPVersion == DefaultStatelessFF.getWeightVersion()) {
+			return this.statelessLogP;
+		} else {
+			return setStatelessLogP(featureFunctions);
+		}
+	}
+	
+	
+	private double setStatelessLogP(List<FeatureFunction> featureFunctions) {
+		int version = DefaultStatelessFF.getWeightVersion();
+		double logP = 0.0;
+		for (FeatureFunction ff : featureFunctions) {
+			if (DefaultStatelessFF.isRuleOnly(ff)) {
+				logP += ff.getWeight() * ff.estimateLogP(this, -1);
+			}
+		}
+		
+		this.statelessLogP = logP;
+		this.statelessLogPVersion = version;
+		this.statelessLogPFeatures = featureFunctions;
+		return logP;
+	}
+	
+	
+	/** Discards the cached stateless logP after the rule changes. */
+	protected final void clearStatelessLogP() {
+		this.statelessLogPFeatures = null;
+	}
+	
 //===============================================================
 // Methods
 //===============================================================
@@ -206,6 +249,7 @@ public class MonolingualRule implements Rule {
 	public float incrementFeatureScore(int column, double score) {
 		synchronized(this) {
 			featScores[column] += score;
+			clearStatelessLogP();
 			return featScores[column];
 		}
 	}
@@ -214,6 +258,7 @@ public class MonolingualRule implements Rule {
 	public void setFeatureCost(int column, float score) {
 		synchronized(this) {
 			featScores[column] = score;
+			clearStatelessLogP();
 		}
 	}
 	
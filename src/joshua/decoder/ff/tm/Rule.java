@@ -86,6 +86,16 @@ public interface Rule {
 	float estimateRuleCost(List<FeatureFunction> featureFunctions);
 	
 	
+	/**
+	 * Returns the weighted sum of the logPs of the rule-only
+	 * features among the given ones (see
+	 * DefaultStatelessFF.isRuleOnly). It is computed once, and
+	 * recomputed only after the weights of stateless features
+	 * change.
+	 */
+	double getStatelessLogP(List<FeatureFunction> featureFunctions);
+	
+	
 	/**
 	 * In order to provide sorting for cube-pruning, we need
 	 * to provide this Comparator.
@@ -54,7 +54,7 @@ public class MemoryBasedBatchGrammar extends BatchGrammar {
 	private MemoryBasedTrie root = null;
 	
 	//protected ArrayList<FeatureFunction> featureFunctions = null;
-	private int defaultOwner;
+	protected int defaultOwner;
 	
 	private float oovFeatureCost = 100;
 	
@@ -104,13 +104,7 @@ public class MemoryBasedBatchGrammar extends BatchGrammar {
 			int spanLimit,
 			float oovFeatureCost_) throws IOException 
 	{
-		
-		this.symbolTable  = symbolTable;
-		this.defaultOwner = this.symbolTable.addTerminal(defaultOwner);
-		this.defaultLHS   = this.symbolTable.addNonterminal(defaultLHSSymbol);
-		this.spanLimit    = spanLimit;
-		this.oovFeatureCost = oovFeatureCost_;
-		this.root = new MemoryBasedTrie();
+		this(symbolTable, defaultOwner, defaultLHSSymbol, spanLimit, oovFeatureCost_);
 		
 		//==== loading grammar
 		this.modelReader = createReader(formatKeyword, grammarFile, symbolTable);
@@ -127,8 +121,33 @@ public class MemoryBasedBatchGrammar extends BatchGrammar {
 		this.printGrammar();
 	}
 	
+	/**
+	 * Constructs an empty grammar, for subclasses that store
+	 * their rules elsewhere.
+	 */
+	protected MemoryBasedBatchGrammar(
+			SymbolTable symbolTable, 
+			String defaultOwner,
+			String defaultLHSSymbol,
+			int spanLimit,
+			float oovFeatureCost_)
+	{
+		this.symbolTable  = symbolTable;
+		this.defaultOwner = this.symbolTable.addTerminal(defaultOwner);
+		this.defaultLHS   = this.symbolTable.addNonterminal(defaultLHSSymbol);
+		this.spanLimit    = spanLimit;
+		this.oovFeatureCost = oovFeatureCost_;
+		this.root = new MemoryBasedTrie();
+	}
+	
 	protected GrammarReader<BilingualRule> createReader(String formatKeyword,
 			String grammarFile, SymbolTable symbolTable){
+		return newReader(formatKeyword, grammarFile, symbolTable);
+	}
+	
+	/** Creates the reader of a grammar file of the given format, or returns null if the format is unknown. */
+	static GrammarReader<BilingualRule> newReader(String formatKeyword,
+			String grammarFile, SymbolTable symbolTable){
 		
 		if ("hiero".equals(formatKeyword) || "thrax".equals(formatKeyword)) {
 			return new HieroFormatReader(grammarFile, symbolTable);
@@ -0,0 +1,928 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.hiero;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.GrammarReader;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.RuleCollection;
+import joshua.decoder.ff.tm.Trie;
+
+/**
+ * Batch grammar that serves its rules from a memory-mapped binary
+ * file instead of parsing a text grammar.
+ * <p>
+ * The binary file is written once, by {@link #compile} (or by
+ * running this class), from a grammar that
+ * {@link MemoryBasedBatchGrammar} can read. Loading it only maps
+ * its arrays read-only and reads the vocabulary. Trie nodes are
+ * looked up by binary search in the mapped arrays, and the rules
+ * of a node are only turned into {@link BilingualRule}s, and
+ * sorted, the first time they are asked for. The rules, their
+ * ids and their order are those of MemoryBasedBatchGrammar.
+ * Rules that have been turned into objects are kept for the
+ * life of the grammar, and are never evicted; so heap use grows
+ * with the number of trie nodes whose rules decoding asks for.
+ * <p>
+ * The file starts with a header of ints: MAGIC, VERSION, and the
+ * numbers of trie nodes, of stored rules, of rules read from the
+ * grammar, of source tokens, of target tokens and of feature
+ * scores. The trie nodes are numbered breadth first, so the
+ * children of a node are consecutive and sorted by word. Then
+ * follow the int arrays
+ * <ul>
+ *   <li>nodeWords: the word leading to each node</li>
+ *   <li>firstChild, firstRule, firstSource: for each node, and
+ *       one past the last node, the index of its first child, of
+ *       its first rule and of the first token of its source
+ *       side</li>
+ *   <li>sourceTokens: the source sides of nodes with rules</li>
+ *   <li>ruleLHS, ruleArity, ruleIndices: for each rule, its
+ *       left-hand side, its arity, and its position in the
+ *       grammar, from which its rule id is computed</li>
+ *   <li>firstTarget, firstFeature: for each rule, and one past
+ *       the last rule, the index of its first target token and
+ *       of its first feature score</li>
+ *   <li>targetTokens</li>
+ * </ul>
+ * and the float array of feature scores. The vocabulary comes
+ * last: the number of terminals and each terminal, written with
+ * writeUTF, then the same for nonterminals. In the arrays,
+ * terminals are numbered from 1 and nonterminals from -1, in the
+ * order of the vocabulary.
+ */
+public class MemoryMappedGrammar extends MemoryBasedBatchGrammar {
+	
+	/** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(MemoryMappedGrammar.class.getName());
+	
+	/** Identifies a binary grammar file. */
+	private static final int MAGIC = 0x4A544D31;
+	
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 8;
+	
+	private static final int ROOT_NODE_ID = 0;
+	
+	/** Grammar word of any symbol that the grammar does not use. */
+	private static final int UNKNOWN_WORD = 0;
+	
+	private final int qtyRulesRead;
+	
+	private final IntBuffer nodeWords;
+	private final IntBuffer firstChild;
+	private final IntBuffer firstRule;
+	private final IntBuffer firstSource;
+	private final IntBuffer sourceTokens;
+	private final IntBuffer ruleLHS;
+	private final IntBuffer ruleArity;
+	private final IntBuffer ruleIndices;
+	private final IntBuffer firstTarget;
+	private final IntBuffer firstFeature;
+	private final IntBuffer targetTokens;
+	private final FloatBuffer featureScores;
+	
+	/** Maps terminals of the grammar to ids of the decoder's symbol table. */
+	private final int[] terminalIDs;
+	
+	/** Maps nonterminals -1, -2, ... of the grammar to ids of the decoder's symbol table. */
+	private final int[] nonterminalIDs;
+	
+	/** Maps ids of terminals of the decoder's symbol table to the grammar. */
+	private final int[] grammarTerminals;
+	
+	/** Maps ids -1, -2, ... of nonterminals of the decoder's symbol table to the grammar. */
+	private final int[] grammarNonterminals;
+	
+	/** Rule id of the rule before the first rule of this grammar. */
+	private final int firstRuleID;
+	
+	/** Rules of the trie nodes asked for so far, by node. */
+	private final ConcurrentHashMap<Integer,RuleCollection> ruleCollections =
+		new ConcurrentHashMap<Integer,RuleCollection>();
+	
+	/** Feature functions of the last sortGrammar, used to sort rules when they are materialized. */
+	private volatile List<FeatureFunction> models = null;
+	
+	private final Node root = new Node(ROOT_NODE_ID);
+	
+	
+	/**
+	 * Maps the binary grammar file written by compile.
+	 * 
+	 * @param binaryFileName
+	 * @param symbolTable the decoder's symbol table, to which the
+	 *                    symbols of the grammar are added
+	 * @param defaultOwner
+	 * @param defaultLHSSymbol
+	 * @param spanLimit
+	 * @param oovFeatureCost
+	 * @throws IOException
+	 */
+	public MemoryMappedGrammar(
+			String binaryFileName,
+			SymbolTable symbolTable, 
+			String defaultOwner,
+			String defaultLHSSymbol,
+			int spanLimit,
+			float oovFeatureCost) throws IOException
+	{
+		super(symbolTable, defaultOwner, defaultLHSSymbol, spanLimit, oovFeatureCost);
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFileName)));
+		int[] header = new int[HEADER_SIZE];
+		try {
+			for (int i = 0; i < HEADER_SIZE; i++) {
+				header[i] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+		if (header[0] != MAGIC) {
+			throw new IOException(binaryFileName + " is not a binary grammar file");
+		}
+		if (header[1] != VERSION) {
+			throw new IOException("Unsupported version " + header[1] + " of binary grammar file " + binaryFileName);
+		}
+		int qtyNodes = header[2];
+		int qtyRules = header[3];
+		this.qtyRulesRead = header[4];
+		int qtySourceTokens = header[5];
+		int qtyTargetTokens = header[6];
+		int qtyFeatureScores = header[7];
+		
+		RandomAccessFile binaryFile = new RandomAccessFile(binaryFileName, "r");
+		long position = 4L * HEADER_SIZE;
+		try {
+			FileChannel channel = binaryFile.getChannel();
+			
+			this.nodeWords = mapInts(channel, position, qtyNodes);
+			position += 4L * qtyNodes;
+			this.firstChild = mapInts(channel, position, qtyNodes + 1);
+			position += 4L * (qtyNodes + 1);
+			this.firstRule = mapInts(channel, position, qtyNodes + 1);
+			position += 4L * (qtyNodes + 1);
+			this.firstSource = mapInts(channel, position, qtyNodes + 1);
+			position += 4L * (qtyNodes + 1);
+			this.sourceTokens = mapInts(channel, position, qtySourceTokens);
+			position += 4L * qtySourceTokens;
+			
+			this.ruleLHS = mapInts(channel, position, qtyRules);
+			position += 4L * qtyRules;
+			this.ruleArity = mapInts(channel, position, qtyRules);
+			position += 4L * qtyRules;
+			this.ruleIndices = mapInts(channel, position, qtyRules);
+			position += 4L * qtyRules;
+			this.firstTarget = mapInts(channel, position, qtyRules + 1);
+			position += 4L * (qtyRules + 1);
+			this.firstFeature = mapInts(channel, position, qtyRules + 1);
+			position += 4L * (qtyRules + 1);
+			this.targetTokens = mapInts(channel, position, qtyTargetTokens);
+			position += 4L * qtyTargetTokens;
+			this.featureScores = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * qtyFeatureScores).asFloatBuffer();
+			position += 4L * qtyFeatureScores;
+		} finally {
+			// the mappings stay valid after the file is closed
+			binaryFile.close();
+		}
+		
+		// the vocabulary, added to the symbol table in the order
+		// in which reading the text grammar would have added it
+		FileInputStream vocabStream = new FileInputStream(binaryFileName);
+		try {
+			vocabStream.getChannel().position(position);
+			DataInputStream vocabIn = new DataInputStream(new BufferedInputStream(vocabStream));
+			
+			this.terminalIDs = new int[vocabIn.readInt() + 1];
+			int highestID = 0;
+			for (int word = 1; word < terminalIDs.length; word++) {
+				terminalIDs[word] = symbolTable.addTerminal(vocabIn.readUTF());
+				highestID = Math.max(highestID, terminalIDs[word]);
+			}
+			this.grammarTerminals = new int[highestID + 1];
+			for (int word = 1; word < terminalIDs.length; word++) {
+				grammarTerminals[terminalIDs[word]] = word;
+			}
+			
+			this.nonterminalIDs = new int[vocabIn.readInt() + 1];
+			int lowestID = 0;
+			for (int word = 1; word < nonterminalIDs.length; word++) {
+				nonterminalIDs[word] = symbolTable.addNonterminal(vocabIn.readUTF());
+				lowestID = Math.min(lowestID, nonterminalIDs[word]);
+			}
+			this.grammarNonterminals = new int[-lowestID + 1];
+			for (int word = 1; word < nonterminalIDs.length; word++) {
+				grammarNonterminals[-nonterminalIDs[word]] = -word;
+			}
+		} finally {
+			vocabStream.close();
+		}
+		
+		// reserve the rule ids that reading the text grammar would have used
+		this.firstRuleID = ruleIDCount;
+		ruleIDCount += qtyRulesRead;
+		
+		logger.info("Mapped a grammar of " + qtyRulesRead + " rules in " + qtyNodes + " trie nodes from " + binaryFileName);
+	}
+	
+	
+	private static IntBuffer mapInts(FileChannel channel, long position, int size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asIntBuffer();
+	}
+	
+	
+	/**
+	 * Writes a text grammar, as read by MemoryBasedBatchGrammar,
+	 * to a binary file that this class can map. The grammar is
+	 * read with the phrase_owner and default_non_terminal of
+	 * JoshuaConfiguration, which should be those of the decoder
+	 * that maps the binary file.
+	 * <p>
+	 * The rules are streamed: only the vocabulary and a bounded
+	 * buffer of rules are kept in memory. Each rule, and each
+	 * proper prefix of its source side, is sorted into runs on
+	 * disk, by source side length and then by source side, which
+	 * is the breadth first order of the trie nodes. The merged runs
+	 * are then written out one array at a time.
+	 */
+	public static void compile(String formatKeyword, String grammarFileName, String binaryFileName) throws IOException {
+		compile(formatKeyword, grammarFileName, binaryFileName, SORT_BUFFER_SIZE);
+	}
+	
+	
+	/**
+	 * Compiles a grammar, sorting about sortBufferSize bytes of
+	 * rules in memory at a time.
+	 */
+	static void compile(String formatKeyword, String grammarFileName, String binaryFileName, int sortBufferSize) throws IOException {
+		File tempDirectory = new File(binaryFileName).getAbsoluteFile().getParentFile();
+		List<File> tempFiles = new ArrayList<File>();
+		try {
+			// the vocabulary is built in the order in which
+			// MemoryBasedBatchGrammar would build it
+			BuildinSymbol vocab = new BuildinSymbol();
+			vocab.addTerminal(JoshuaConfiguration.phrase_owner);
+			int qtyNonterminals = -vocab.addNonterminal(JoshuaConfiguration.default_non_terminal);
+			GrammarReader<BilingualRule> reader = MemoryBasedBatchGrammar.newReader(formatKeyword, grammarFileName, vocab);
+			if (null == reader) {
+				throw new IOException("Couldn't create a GrammarReader for file " + grammarFileName + " with format " + formatKeyword);
+			}
+			
+			//=== sort the rules, and the trie nodes without rules, into runs
+			List<File> runs = new ArrayList<File>();
+			List<SortRecord> buffer = new ArrayList<SortRecord>();
+			long bufferSize = 0;
+			int qtyRulesRead = 0;
+			buffer.add(new SortRecord(new int[0], 0, null)); // the root
+			reader.initialize();
+			for (BilingualRule rule : reader) {
+				if (null == rule) {
+					continue;
+				}
+				qtyRulesRead++;
+				
+				// as in the trie of MemoryBasedBatchGrammar, nonterminals of the key are cleaned
+				int[] french = rule.getFrench();
+				int[] key = new int[french.length];
+				for (int k = 0; k < french.length; k++) {
+					key[k] = vocab.isNonterminal(french[k]) ? reader.cleanNonTerminal(french[k]) : french[k];
+					qtyNonterminals = Math.max(qtyNonterminals, Math.max(-french[k], -key[k]));
+				}
+				for (int length = 1; length < key.length; length++) {
+					SortRecord prefix = new SortRecord(Arrays.copyOf(key, length), 0, null);
+					buffer.add(prefix);
+					bufferSize += prefix.size();
+				}
+				
+				qtyNonterminals = Math.max(qtyNonterminals, -rule.getLHS());
+				for (int symbolID : rule.getEnglish()) {
+					qtyNonterminals = Math.max(qtyNonterminals, -symbolID);
+				}
+				SortRecord record = new SortRecord(key, qtyRulesRead, encodeRule(rule));
+				buffer.add(record);
+				bufferSize += record.size();
+				
+				if (bufferSize >= sortBufferSize) {
+					runs.add(writeRun(buffer, tempDirectory, tempFiles));
+					buffer.clear();
+					bufferSize = 0;
+				}
+			}
+			runs.add(writeRun(buffer, tempDirectory, tempFiles));
+			buffer = null;
+			
+			//=== walk the trie nodes in order, writing the arrays of nodes and rules
+			File nodeKeysFile = tempFile(tempDirectory, tempFiles);
+			DataOutputStream nodeKeys = tempOutput(nodeKeysFile);
+			
+			// the arrays of the binary file, in its order
+			File[] arrayFiles = new File[12];
+			DataOutputStream[] arrays = new DataOutputStream[arrayFiles.length];
+			for (int i = 0; i < arrayFiles.length; i++) {
+				arrayFiles[i] = tempFile(tempDirectory, tempFiles);
+				arrays[i] = tempOutput(arrayFiles[i]);
+			}
+			DataOutputStream nodeWords = arrays[0];
+			DataOutputStream firstChild = arrays[1]; // written after the walk
+			DataOutputStream firstRule = arrays[2];
+			DataOutputStream firstSource = arrays[3];
+			DataOutputStream sourceTokens = arrays[4];
+			DataOutputStream ruleLHS = arrays[5];
+			DataOutputStream ruleArity = arrays[6];
+			DataOutputStream ruleIndices = arrays[7];
+			DataOutputStream firstTarget = arrays[8];
+			DataOutputStream firstFeature = arrays[9];
+			DataOutputStream targetTokens = arrays[10];
+			DataOutputStream featureScores = arrays[11];
+			
+			int qtyNodes = 0;
+			int qtyRules = 0;
+			int qtySourceTokens = 0;
+			int qtyTargetTokens = 0;
+			int qtyFeatureScores = 0;
+			int[] nodeKey = null;
+			int binArity = -1; // arity of the rules of the current node, -1 until it has one
+			
+			MergedRuns merged = new MergedRuns(runs);
+			try {
+				for (SortRecord record = merged.next(); null != record; record = merged.next()) {
+					if (null == nodeKey || ! Arrays.equals(nodeKey, record.key)) {
+						nodeKey = record.key;
+						qtyNodes++;
+						writeKey(nodeKeys, nodeKey);
+						nodeWords.writeInt((nodeKey.length == 0) ? UNKNOWN_WORD : grammarWord(vocab, nodeKey[nodeKey.length - 1]));
+						firstRule.writeInt(qtyRules);
+						firstSource.writeInt(qtySourceTokens);
+						binArity = -1;
+					}
+					if (null == record.rule) {
+						continue;
+					}
+					
+					DataInputStream rule = new DataInputStream(new ByteArrayInputStream(record.rule));
+					int lhs = rule.readInt();
+					int arity = rule.readInt();
+					int[] french = readKey(rule);
+					if (binArity == -1) {
+						// the first rule of a node gives its source side and arity
+						binArity = arity;
+						for (int symbolID : french) {
+							sourceTokens.writeInt(grammarWord(vocab, symbolID));
+						}
+						qtySourceTokens += french.length;
+					} else if (arity != binArity) {
+						// dropped by MemoryBasedRuleBin.addRule
+						continue;
+					}
+					
+					ruleLHS.writeInt(grammarWord(vocab, lhs));
+					ruleArity.writeInt(arity);
+					ruleIndices.writeInt(record.ruleIndex);
+					firstTarget.writeInt(qtyTargetTokens);
+					firstFeature.writeInt(qtyFeatureScores);
+					int[] english = readKey(rule);
+					for (int symbolID : english) {
+						targetTokens.writeInt(grammarWord(vocab, symbolID));
+					}
+					qtyTargetTokens += english.length;
+					int qtyScores = rule.readInt();
+					for (int i = 0; i < qtyScores; i++) {
+						featureScores.writeFloat(rule.readFloat());
+					}
+					qtyFeatureScores += qtyScores;
+					qtyRules++;
+				}
+			} finally {
+				merged.close();
+			}
+			firstRule.writeInt(qtyRules);
+			firstSource.writeInt(qtySourceTokens);
+			firstTarget.writeInt(qtyTargetTokens);
+			firstFeature.writeInt(qtyFeatureScores);
+			nodeKeys.close();
+			
+			//=== the children of the nodes: as the nodes are in breadth
+			// first order, those of each node follow those of the
+			// previous node, so a second cursor finds them
+			DataInputStream parents = tempInput(nodeKeysFile);
+			DataInputStream children = tempInput(nodeKeysFile);
+			try {
+				readKey(children); // the root
+				int child = 1;
+				int[] childKey = (child < qtyNodes) ? readKey(children) : null;
+				for (int node = 0; node < qtyNodes; node++) {
+					int[] key = readKey(parents);
+					firstChild.writeInt(child);
+					while (null != childKey && isParent(key, childKey)) {
+						child++;
+						childKey = (child < qtyNodes) ? readKey(children) : null;
+					}
+				}
+				firstChild.writeInt(child);
+			} finally {
+				parents.close();
+				children.close();
+			}
+			for (DataOutputStream array : arrays) {
+				array.close();
+			}
+			
+			//=== the binary file
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFileName)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(qtyNodes);
+				out.writeInt(qtyRules);
+				out.writeInt(qtyRulesRead);
+				out.writeInt(qtySourceTokens);
+				out.writeInt(qtyTargetTokens);
+				out.writeInt(qtyFeatureScores);
+				
+				for (File array : arrayFiles) {
+					copy(array, out);
+				}
+				
+				// grammar words of terminals are offsets from the lowest id
+				int qtyTerminals = vocab.getAllIDs().size();
+				for (int word = 1; word <= qtyTerminals; word++) {
+					if (! vocab.getAllIDs().contains(vocab.getLowestID() + word - 1)) {
+						throw new IllegalStateException("The terminal ids of the grammar vocabulary are not contiguous");
+					}
+				}
+				out.writeInt(qtyTerminals);
+				for (int word = 1; word <= qtyTerminals; word++) {
+					out.writeUTF(vocab.getWord(vocab.getLowestID() + word - 1));
+				}
+				out.writeInt(qtyNonterminals);
+				for (int word = 1; word <= qtyNonterminals; word++) {
+					out.writeUTF(vocab.getWord(-word));
+				}
+			} finally {
+				out.close();
+			}
+			
+			logger.info("Compiled " + qtyRulesRead + " rules in " + qtyNodes + " trie nodes, from " + runs.size() + " sorted runs");
+		} finally {
+			for (File file : tempFiles) {
+				file.delete();
+			}
+		}
+	}
+	
+	
+	/** Bytes of rules that compile sorts in memory at a time. */
+	private static final int SORT_BUFFER_SIZE = 64 * 1024 * 1024;
+	
+	
+	/**
+	 * A rule, or a proper prefix of a source side, in the sort of
+	 * compile. Records are ordered by the length of their key, by
+	 * key, and by rule index, prefixes (index 0) first.
+	 */
+	private static class SortRecord implements Comparable<SortRecord> {
+		
+		final int[] key;
+		
+		/** Position of the rule in the grammar, from 1; 0 for a prefix. */
+		final int ruleIndex;
+		
+		/** The encoded rule; null for a prefix. */
+		final byte[] rule;
+		
+		SortRecord(int[] key, int ruleIndex, byte[] rule) {
+			this.key = key;
+			this.ruleIndex = ruleIndex;
+			this.rule = rule;
+		}
+		
+		/** Approximate number of bytes of heap used by this record. */
+		int size() {
+			return 64 + 4 * key.length + ((null == rule) ? 0 : rule.length);
+		}
+		
+		public int compareTo(SortRecord other) {
+			if (key.length != other.key.length) {
+				return (key.length < other.key.length) ? -1 : 1;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != other.key[i]) {
+					return (key[i] < other.key[i]) ? -1 : 1;
+				}
+			}
+			return (ruleIndex < other.ruleIndex) ? -1 : ((ruleIndex == other.ruleIndex) ? 0 : 1);
+		}
+		
+		void write(DataOutputStream out) throws IOException {
+			writeKey(out, key);
+			out.writeInt(ruleIndex);
+			if (null == rule) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(rule.length);
+				out.write(rule);
+			}
+		}
+		
+		static SortRecord read(DataInputStream in) throws IOException {
+			int[] key = readKey(in);
+			int ruleIndex = in.readInt();
+			int length = in.readInt();
+			byte[] rule = null;
+			if (length >= 0) {
+				rule = new byte[length];
+				in.readFully(rule);
+			}
+			return new SortRecord(key, ruleIndex, rule);
+		}
+	}
+	
+	
+	/** The records of several sorted runs, in order. */
+	private static class MergedRuns {
+		
+		private final PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		private final List<Run> runs = new ArrayList<Run>();
+		
+		MergedRuns(List<File> files) throws IOException {
+			for (File file : files) {
+				Run run = new Run(tempInput(file));
+				runs.add(run);
+				if (run.advance()) {
+					queue.add(run);
+				}
+			}
+		}
+		
+		/** Returns the next record, or null after the last one. */
+		SortRecord next() throws IOException {
+			Run run = queue.poll();
+			if (null == run) {
+				return null;
+			}
+			SortRecord record = run.head;
+			if (run.advance()) {
+				queue.add(run);
+			}
+			return record;
+		}
+		
+		void close() throws IOException {
+			for (Run run : runs) {
+				run.in.close();
+			}
+		}
+		
+		private static class Run implements Comparable<Run> {
+			final DataInputStream in;
+			int remaining;
+			SortRecord head;
+			
+			Run(DataInputStream in) throws IOException {
+				this.in = in;
+				this.remaining = in.readInt();
+			}
+			
+			boolean advance() throws IOException {
+				if (remaining == 0) {
+					head = null;
+					return false;
+				}
+				remaining--;
+				head = SortRecord.read(in);
+				return true;
+			}
+			
+			public int compareTo(Run other) {
+				return head.compareTo(other.head);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Sorts the records and writes them to a new temporary file,
+	 * leaving out repeated prefixes.
+	 */
+	private static File writeRun(List<SortRecord> records, File tempDirectory, List<File> tempFiles) throws IOException {
+		Collections.sort(records);
+		List<SortRecord> distinct = new ArrayList<SortRecord>(records.size());
+		SortRecord last = null;
+		for (SortRecord record : records) {
+			if (null == record.rule && null != last && null == last.rule && Arrays.equals(last.key, record.key)) {
+				continue;
+			}
+			distinct.add(record);
+			last = record;
+		}
+		
+		File run = tempFile(tempDirectory, tempFiles);
+		DataOutputStream out = tempOutput(run);
+		try {
+			out.writeInt(distinct.size());
+			for (SortRecord record : distinct) {
+				record.write(out);
+			}
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+	
+	
+	/** Encodes the left-hand side, arity, source side, target side and feature scores of a rule. */
+	private static byte[] encodeRule(Rule rule) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(rule.getLHS());
+		out.writeInt(rule.getArity());
+		writeKey(out, rule.getFrench());
+		writeKey(out, rule.getEnglish());
+		float[] scores = rule.getFeatureScores();
+		out.writeInt(scores.length);
+		for (float score : scores) {
+			out.writeFloat(score);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	
+	private static void writeKey(DataOutputStream out, int[] key) throws IOException {
+		out.writeInt(key.length);
+		for (int symbolID : key) {
+			out.writeInt(symbolID);
+		}
+	}
+	
+	
+	private static int[] readKey(DataInputStream in) throws IOException {
+		int[] key = new int[in.readInt()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = in.readInt();
+		}
+		return key;
+	}
+	
+	
+	/** Whether the child key extends the parent key by one word. */
+	private static boolean isParent(int[] parent, int[] child) {
+		if (child.length != parent.length + 1) {
+			return false;
+		}
+		for (int i = 0; i < parent.length; i++) {
+			if (parent[i] != child[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/** Creates a temporary file of compile, which deletes it when done. */
+	private static File tempFile(File tempDirectory, List<File> tempFiles) throws IOException {
+		File file = File.createTempFile("joshua-grammar", ".tmp", tempDirectory);
+		tempFiles.add(file);
+		return file;
+	}
+	
+	
+	private static DataOutputStream tempOutput(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+	
+	
+	private static DataInputStream tempInput(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	}
+	
+	
+	private static void copy(File file, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				out.write(buffer, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	
+	/** Number of a symbol of the compiled grammar's vocabulary in the binary file. */
+	private static int grammarWord(SymbolTable vocab, int symbolID) {
+		return vocab.isNonterminal(symbolID) ? symbolID : symbolID - vocab.getLowestID() + 1;
+	}
+	
+	
+	/** Number in this grammar of an id of the decoder's symbol table. */
+	private int grammarWord(int symbolID) {
+		if (symbolID < 0) {
+			return (-symbolID < grammarNonterminals.length) ? grammarNonterminals[-symbolID] : UNKNOWN_WORD;
+		} else {
+			return (symbolID < grammarTerminals.length) ? grammarTerminals[symbolID] : UNKNOWN_WORD;
+		}
+	}
+	
+	
+	/** Id in the decoder's symbol table of a word of this grammar. */
+	private int symbolID(int word) {
+		return (word < 0) ? nonterminalIDs[-word] : terminalIDs[word];
+	}
+	
+	
+	private int[] symbolIDs(IntBuffer tokens, int start, int end) {
+		int[] symbolIDs = new int[end - start];
+		for (int i = start; i < end; i++) {
+			symbolIDs[i - start] = symbolID(tokens.get(i));
+		}
+		return symbolIDs;
+	}
+	
+	
+	/**
+	 * Gets the rules of a trie node, turning them into Rules the
+	 * first time they are asked for.
+	 */
+	private RuleCollection getRuleCollection(int nodeID) {
+		RuleCollection rules = ruleCollections.get(nodeID);
+		if (null == rules) {
+			int[] french = symbolIDs(sourceTokens, firstSource.get(nodeID), firstSource.get(nodeID + 1));
+			int first = firstRule.get(nodeID);
+			MemoryBasedRuleBin ruleBin = new MemoryBasedRuleBin(ruleArity.get(first), french);
+			for (int r = first; r < firstRule.get(nodeID + 1); r++) {
+				float[] scores = new float[firstFeature.get(r + 1) - firstFeature.get(r)];
+				for (int i = 0; i < scores.length; i++) {
+					scores[i] = featureScores.get(firstFeature.get(r) + i);
+				}
+				ruleBin.addRule(new BilingualRule(
+					symbolID(ruleLHS.get(r)),
+					french,
+					symbolIDs(targetTokens, firstTarget.get(r), firstTarget.get(r + 1)),
+					scores,
+					ruleArity.get(r),
+					this.defaultOwner,
+					0,
+					firstRuleID + ruleIndices.get(r)));
+			}
+			
+			List<FeatureFunction> sortModels = this.models;
+			if (null != sortModels) {
+				ruleBin.sortRules(sortModels);
+			}
+			
+			rules = ruleCollections.putIfAbsent(nodeID, ruleBin);
+			if (null == rules) {
+				rules = ruleBin;
+			}
+		}
+		return rules;
+	}
+	
+	
+	/**
+	 * Sorts the rules materialized so far, and remembers the
+	 * feature functions to sort the others when they are
+	 * materialized.
+	 */
+	public void sortGrammar(List<FeatureFunction> models) {
+		logger.info("sort grammar");
+		this.models = models;
+		for (RuleCollection rules : ruleCollections.values()) {
+			rules.sortRules(models);
+		}
+		setSorted(true);
+	}
+	
+	
+	public int getNumRules() {
+		return this.qtyRulesRead;
+	}
+	
+	
+	public Trie getTrieRoot() {
+		return this.root;
+	}
+	
+	
+	/** A trie node of the mapped grammar. */
+	private class Node implements Trie {
+		
+		private final int id;
+		
+		Node(int id) {
+			this.id = id;
+		}
+		
+		/* See Javadoc for Trie interface. */
+		public Node matchOne(int symbolID) {
+			int word = grammarWord(symbolID);
+			if (word == UNKNOWN_WORD) {
+				return null;
+			}
+			int low = firstChild.get(id);
+			int high = firstChild.get(id + 1) - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midWord = nodeWords.get(mid);
+				if (midWord < word) {
+					low = mid + 1;
+				} else if (midWord > word) {
+					high = mid - 1;
+				} else {
+					return new Node(mid);
+				}
+			}
+			return null;
+		}
+		
+		/* See Javadoc for Trie interface. */
+		public boolean hasExtensions() {
+			return firstChild.get(id) < firstChild.get(id + 1);
+		}
+		
+		/* See Javadoc for Trie interface. */
+		public Collection<Node> getExtensions() {
+			if (! hasExtensions()) {
+				return null;
+			}
+			List<Node> children = new ArrayList<Node>();
+			for (int child = firstChild.get(id); child < firstChild.get(id + 1); child++) {
+				children.add(new Node(child));
+			}
+			return children;
+		}
+		
+		/* See Javadoc for Trie interface. */
+		public boolean hasRules() {
+			return firstRule.get(id) < firstRule.get(id + 1);
+		}
+		
+		/* See Javadoc for Trie interface. */
+		public RuleCollection getRules() {
+			return hasRules() ? getRuleCollection(id) : null;
+		}
+	}
+	
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + MemoryMappedGrammar.class.getName() + " configFile binaryFile");
+			System.exit(1);
+		}
+		
+		JoshuaConfiguration.readConfigFile(args[0]);
+		logger.info("Compiling " + JoshuaConfiguration.tm_file + " to " + args[1]);
+		compile(JoshuaConfiguration.tm_format, JoshuaConfiguration.tm_file, args[1]);
+		logger.info("Done");
+	}
+	
+}
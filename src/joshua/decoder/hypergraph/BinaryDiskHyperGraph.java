@@ -0,0 +1,968 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.chart_parser.ComputeNodeResult;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Grammar;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+
+
+/**
+ * This class writes and reads hypergraphs in a compact binary
+ * format, which holds the same information as the text format of
+ * DiskHyperGraph, in a single file:
+ * <pre>
+ * header:  MAGIC VERSION
+ * records: one per hypergraph, an int length followed by the hypergraph
+ * vocab:   the words that records and rules refer to
+ * rules:   the regular rules used by the hypergraphs
+ * index:   the sentence id and file offset of each record
+ * trailer: the file offsets of vocab, rules and index, MAGIC
+ * </pre>
+ * Within a record, all ids and counts are varints, and all logPs
+ * are floats:
+ * <pre>
+ * sentID sentLen numNodes numEdges numModelLogPs
+ * per node, bottom-up: i j lhs numEdges state
+ * per edge: bestLogP numAnts (nodeID-antNodeID)* ruleID+1 [OOV lhs and english] modelLogP*
+ * </pre>
+ * Words are referred to by their id in the vocab of the file, and
+ * node ids are local to each record, so that a hypergraph is read
+ * without parsing any text. The file is memory-mapped for reading,
+ * and the index allows reading any hypergraph directly.
+ * <p>
+ * The same encoding is used to keep hypergraphs in the memory of
+ * the process (see initStore), so that they are read many times
+ * but parsed only once.
+ * <p>
+ * As for DiskHyperGraph, the LM feature is assumed to be the only
+ * stateful feature. Once a file is opened for reading (or a store
+ * is finished), readHyperGraph(int) and readHyperGraphOfSentence
+ * may be called from several threads; the other methods are not
+ * thread-safe.
+ *
+ * @version $LastChangedDate$
+ */
+public class BinaryDiskHyperGraph {
+
+//===============================================================
+// Fields
+//===============================================================
+	private int         LMFeatureID          = 0;
+	private SymbolTable symbolTable;
+
+	//when saving the hg, we compute all the model logPs on the fly, unless the edges already have them
+	private List<FeatureFunction> featureFunctions;
+
+	// Whether to store the logPs at each HyperEdge
+	private boolean storeModelLogP = false;
+
+
+	//=== for writing
+	private DataOutputStream  out;
+	private long              outPosition;
+	private Record            record;
+
+	private HashMap<Integer,Integer> symbolToVocabID; // symbol id -> id in the vocab of the file
+	private List<Integer>            vocabSymbols;    // id in the vocab of the file -> symbol id
+
+	//the regular rules used by the saved hypergraphs
+	private HashMap<Integer,Rule> associatedGrammar = new HashMap<Integer, Rule>();
+
+
+	//=== for storing in memory
+	private List<byte[]>      heapRecords;    // the first records, kept on the heap
+	private long              heapBudget;
+	private long              heapSize;
+	private File              spillDirectory;
+	private File              spillFile;      // the other records, if any
+
+	//logPs are doubles in memory, and floats in files
+	private boolean           doublePrecision = false;
+
+
+	//=== for writing and reading
+	private int    numRecords;
+	private int[]  recordSentIDs;
+	private long[] recordOffsets;
+	private long   recordsEnd;      // where the last record ends
+
+
+	//=== for reading
+	private RandomAccessFile  file;
+	private FileChannel       channel;
+	private MappedByteBuffer[] segments;     // the file, mapped in consecutive parts
+	private long              segmentSize = SEGMENT_SIZE;
+
+	private int[]             vocabToSymbol;  // id in the vocab of the file -> symbol id
+	private HashMap<Integer,Integer> sentIDToRecord;
+	private volatile int      nextRecord;
+
+
+//===============================================================
+// Static Fields
+//===============================================================
+	private static final int MAGIC   = 0x4A484742; // "JHGB"
+	private static final int VERSION = 1;
+
+	//length of the trailer: three offsets and MAGIC
+	private static final int TRAILER_LENGTH = 3*8 + 4;
+
+	//size of the parts in which the file is mapped
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private static final int NULL_RULE_ID = -1;
+
+	//FIXME: same hack as in DiskHyperGraph, to create OOV rules
+	private static Grammar pGrammar = new MemoryBasedBatchGrammar();
+
+	private static final Logger logger =
+		Logger.getLogger(BinaryDiskHyperGraph.class.getName());
+
+
+//===============================================================
+// Constructors
+//===============================================================
+	/**
+	 * For saving purpose, one may specify the featureFunctions
+	 * whose logPs are stored; if it is null, the logPs are
+	 * taken from the WithModelLogPsHyperEdges of the hypergraph.
+	 * For reading purpose, one does not need to provide the
+	 * list.
+	 */
+	public BinaryDiskHyperGraph(SymbolTable symbolTable, int LMFeatureID,
+		boolean storeModelLogP, List<FeatureFunction> featureFunctions)
+	{
+		this.symbolTable      = symbolTable;
+		this.LMFeatureID      = LMFeatureID;
+		this.storeModelLogP   = storeModelLogP;
+		this.featureFunctions = featureFunctions;
+	}
+
+
+//===============================================================
+// Writing
+//===============================================================
+
+	public void initWrite(String binaryFile) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 16));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.outPosition = 8;
+
+		this.record = new Record();
+		this.symbolToVocabID = new HashMap<Integer,Integer>();
+		this.vocabSymbols = new ArrayList<Integer>();
+		this.associatedGrammar.clear();
+		this.numRecords = 0;
+		this.recordSentIDs = new int[64];
+		this.recordOffsets = new long[64];
+	}
+
+
+	public void saveHyperGraph(HyperGraph hg) throws IOException {
+		encodeHyperGraph(hg);
+		writeRecord(hg.sentID);
+	}
+
+
+	/** Encodes a hypergraph into this.record. */
+	private void encodeHyperGraph(HyperGraph hg) {
+		CompactHyperGraph graph = new CompactHyperGraph(hg);
+
+		int numModelLogPs = 0;
+		if (this.storeModelLogP) {
+			if (null != this.featureFunctions) {
+				numModelLogPs = this.featureFunctions.size();
+			} else if (graph.getNumEdges() > 0) {
+				numModelLogPs = ((WithModelLogPsHyperEdge) graph.getEdge(0)).modeLogPs.length;
+			}
+		}
+
+		Record r = this.record;
+		r.clear();
+		r.writeVarint(hg.sentID);
+		r.writeVarint(hg.sentLen);
+		r.writeVarint(graph.getNumNodes());
+		r.writeVarint(graph.getNumEdges());
+		r.writeVarint(numModelLogPs);
+
+		for (int v = 0; v < graph.getNumNodes(); v++) {
+			HGNode node = graph.getNode(v);
+			r.writeVarint(node.i);
+			r.writeVarint(node.j);
+			r.writeVarint(vocabID(node.lhs));
+			r.writeVarint(graph.getFirstEdge(v+1) - graph.getFirstEdge(v));
+
+			// Assume LM is the only stateful feature
+			if (null == node.getDPStates()) {
+				r.writeVarint(0);
+			} else {
+				NgramDPState state = (NgramDPState) node.getDPStates().get(this.LMFeatureID);
+				r.writeVarint(1);
+				writeWords(r, state.getLeftContext());
+				writeWords(r, state.getRightContext());
+			}
+
+			for (int e = graph.getFirstEdge(v); e < graph.getFirstEdge(v+1); e++) {
+				writeHyperedge(r, graph, e, numModelLogPs);
+			}
+		}
+	}
+
+
+	/** Appends this.record to the output file, and indexes it. */
+	private void writeRecord(int sentID) throws IOException {
+		Record r = this.record;
+		addToIndex(sentID, this.outPosition);
+		this.out.writeInt(r.size);
+		this.out.write(r.bytes, 0, r.size);
+		this.outPosition += 4 + r.size;
+	}
+
+
+	private void addToIndex(int sentID, long offset) {
+		if (this.numRecords == this.recordOffsets.length) {
+			this.recordSentIDs = Arrays.copyOf(this.recordSentIDs, 2*this.numRecords);
+			this.recordOffsets = Arrays.copyOf(this.recordOffsets, 2*this.numRecords);
+		}
+		this.recordSentIDs[this.numRecords] = sentID;
+		this.recordOffsets[this.numRecords] = offset;
+		this.numRecords++;
+	}
+
+
+	private void writeHyperedge(Record r, CompactHyperGraph graph, int e, int numModelLogPs) {
+		HyperEdge edge = graph.getEdge(e);
+		int v = graph.getEdgeHead(e);
+
+		writeLogP(r, edge.bestDerivationLogP);
+
+		r.writeVarint(graph.getFirstTail(e+1) - graph.getFirstTail(e));
+		for (int t = graph.getFirstTail(e); t < graph.getFirstTail(e+1); t++) {
+			r.writeVarint(v - graph.getTail(t));
+		}
+
+		int ruleID = NULL_RULE_ID;
+		Rule rule = edge.getRule();
+		if (null != rule) {
+			ruleID = rule.getRuleID();
+			if (ruleID != MemoryBasedBatchGrammar.OOV_RULE_ID) {
+				this.associatedGrammar.put(ruleID, rule); //remember used regular rule
+			}
+		}
+		r.writeVarint(ruleID + 1);
+		if (ruleID == MemoryBasedBatchGrammar.OOV_RULE_ID) {
+			r.writeVarint(vocabID(rule.getLHS()));
+			writeWords(r, rule.getEnglish());
+		}
+
+		if (numModelLogPs > 0) {
+			double[] logPs;
+			if (null != this.featureFunctions) {
+				HGNode node = graph.getNode(v);
+				logPs = ComputeNodeResult.computeModelTransitionLogPs(
+						this.featureFunctions, edge, node.i, node.j, graph.getHyperGraph().sentID);
+			} else {
+				logPs = ((WithModelLogPsHyperEdge) edge).modeLogPs;
+			}
+			if (logPs.length != numModelLogPs) {
+				throw new RuntimeException("number of model logPs is not the same at each hyperedge");
+			}
+			for (double logP : logPs) {
+				writeLogP(r, logP);
+			}
+		}
+	}
+
+
+	private void writeLogP(Record r, double logP) {
+		if (this.doublePrecision) {
+			r.writeDouble(logP);
+		} else {
+			r.writeFloat((float) logP);
+		}
+	}
+
+
+	private void writeWords(Record r, int[] words) {
+		r.writeVarint(words.length);
+		for (int word : words) {
+			r.writeVarint(vocabID(word));
+		}
+	}
+
+
+	private int vocabID(int symbol) {
+		Integer id = this.symbolToVocabID.get(symbol);
+		if (null == id) {
+			id = this.vocabSymbols.size();
+			this.vocabSymbols.add(symbol);
+			this.symbolToVocabID.put(symbol, id);
+		}
+		return id;
+	}
+
+
+	/**
+	 * Writes the vocab, the rule table and the index after the
+	 * records, and closes the file.
+	 */
+	public void closeWriter() throws IOException {
+		Record r = this.record;
+
+		//=== rules; this may add words to the vocab, so it goes first
+		r.clear();
+		r.writeVarint(this.associatedGrammar.size());
+		for (Rule rule : this.associatedGrammar.values()) {
+			r.writeVarint(rule.getRuleID());
+			r.writeVarint(vocabID(rule.getOwner()));
+			r.writeVarint(vocabID(rule.getLHS()));
+			writeWords(r, rule.getFrench());
+			writeWords(r, rule.getEnglish());
+			float[] scores = rule.getFeatureScores();
+			r.writeVarint(scores.length);
+			for (float score : scores) {
+				r.writeFloat(score);
+			}
+		}
+		byte[] rules = Arrays.copyOf(r.bytes, r.size);
+
+		//=== vocab
+		long vocabOffset = this.outPosition;
+		r.clear();
+		r.writeVarint(this.vocabSymbols.size());
+		for (int symbol : this.vocabSymbols) {
+			r.writeVarint(this.symbolTable.isNonterminal(symbol) ? 1 : 0);
+			byte[] word = this.symbolTable.getWord(symbol).getBytes("UTF-8");
+			r.writeVarint(word.length);
+			r.write(word);
+		}
+		this.out.write(r.bytes, 0, r.size);
+		this.outPosition += r.size;
+
+		long rulesOffset = this.outPosition;
+		this.out.write(rules);
+		this.outPosition += rules.length;
+
+		//=== index
+		long indexOffset = this.outPosition;
+		this.out.writeInt(this.numRecords);
+		for (int k = 0; k < this.numRecords; k++) {
+			this.out.writeInt(this.recordSentIDs[k]);
+			this.out.writeLong(this.recordOffsets[k]);
+		}
+		this.outPosition += 4 + 12L*this.numRecords;
+
+		this.out.writeLong(vocabOffset);
+		this.out.writeLong(rulesOffset);
+		this.out.writeLong(indexOffset);
+		this.out.writeInt(MAGIC);
+		this.out.close();
+		this.out = null;
+
+		logger.info("wrote " + this.numRecords + " hypergraphs and " + this.associatedGrammar.size() + " rules");
+	}
+
+
+//===============================================================
+// Reading
+//===============================================================
+
+	public void initRead(String binaryFile) throws IOException {
+		this.file = new RandomAccessFile(binaryFile, "r");
+		this.channel = this.file.getChannel();
+
+		//the size is checked before anything is mapped
+		long size = this.channel.size();
+		if (size < 8 + TRAILER_LENGTH) {
+			closeReader();
+			throw new IOException("not a binary hypergraph file: " + binaryFile);
+		}
+		mapSegments();
+
+		ByteBuffer header = map(0, 8);
+		if (header.getInt() != MAGIC) {
+			closeReader();
+			throw new IOException("not a binary hypergraph file: " + binaryFile);
+		}
+		if (header.getInt() != VERSION) {
+			closeReader();
+			throw new IOException("unsupported binary hypergraph version in: " + binaryFile);
+		}
+
+		ByteBuffer trailer = map(size - TRAILER_LENGTH, TRAILER_LENGTH);
+		long vocabOffset = trailer.getLong();
+		long rulesOffset = trailer.getLong();
+		long indexOffset = trailer.getLong();
+		if (trailer.getInt() != MAGIC
+				|| vocabOffset < 8 || vocabOffset > rulesOffset
+				|| rulesOffset > indexOffset || indexOffset > size - TRAILER_LENGTH) {
+			closeReader();
+			throw new IOException("truncated binary hypergraph file: " + binaryFile);
+		}
+
+		//=== vocab
+		ByteBuffer vocab = map(vocabOffset, (int) (rulesOffset - vocabOffset));
+		this.vocabToSymbol = new int[readVarint(vocab)];
+		for (int id = 0; id < this.vocabToSymbol.length; id++) {
+			boolean isNonterminal = (readVarint(vocab) == 1);
+			byte[] word = new byte[readVarint(vocab)];
+			vocab.get(word);
+			String str = new String(word, "UTF-8");
+			this.vocabToSymbol[id] = isNonterminal
+				? this.symbolTable.addNonterminal(str)
+				: this.symbolTable.addTerminal(str);
+		}
+
+		//=== rules
+		this.associatedGrammar.clear();
+		ByteBuffer rules = map(rulesOffset, (int) (indexOffset - rulesOffset));
+		int numRules = readVarint(rules);
+		for (int n = 0; n < numRules; n++) {
+			int ruleID  = readVarint(rules);
+			int owner   = this.vocabToSymbol[readVarint(rules)];
+			int lhs     = this.vocabToSymbol[readVarint(rules)];
+			int[] french  = readWords(rules);
+			int[] english = readWords(rules);
+			float[] scores = new float[readVarint(rules)];
+			for (int k = 0; k < scores.length; k++) {
+				scores[k] = rules.getFloat();
+			}
+			int arity = 0;
+			for (int word : french) {
+				if (this.symbolTable.isNonterminal(word)) arity++;
+			}
+			this.associatedGrammar.put(ruleID,
+				new BilingualRule(lhs, french, english, scores, arity, owner, 0, ruleID));
+		}
+
+		//=== index
+		ByteBuffer index = map(indexOffset, (int) (size - TRAILER_LENGTH - indexOffset));
+		this.numRecords = index.getInt();
+		this.recordSentIDs = new int[this.numRecords];
+		this.recordOffsets = new long[this.numRecords];
+		this.sentIDToRecord = new HashMap<Integer,Integer>();
+		for (int k = 0; k < this.numRecords; k++) {
+			this.recordSentIDs[k] = index.getInt();
+			this.recordOffsets[k] = index.getLong();
+			this.sentIDToRecord.put(this.recordSentIDs[k], k);
+		}
+		this.recordsEnd = vocabOffset;
+		this.nextRecord = 0;
+	}
+
+
+	public HashMap<Integer,Rule> getAssocatedGrammar(){
+		return associatedGrammar;
+	}
+
+	/** @return the number of hypergraphs in the file being read */
+	public int getNumHyperGraphs() {
+		return this.numRecords;
+	}
+
+	/** @return the sentence id of the kth hypergraph in the file */
+	public int getSentID(int k) {
+		return this.recordSentIDs[k];
+	}
+
+	/**
+	 * @return the number of bytes of the kth hypergraph, which
+	 *         is about proportional to its number of hyperedges
+	 */
+	public int getRecordSize(int k) {
+		if (null != this.heapRecords && k < this.heapRecords.size()) {
+			return this.heapRecords.get(k).length;
+		}
+		long end = (k+1 < this.numRecords) ? this.recordOffsets[k+1] : this.recordsEnd;
+		return (int) (end - this.recordOffsets[k] - 4);
+	}
+
+
+	/**
+	 * Reads the hypergraph that follows the last one read.
+	 *
+	 * @return the hypergraph, or null at the end of the file
+	 */
+	public HyperGraph readHyperGraph() {
+		if (this.nextRecord >= this.numRecords)
+			return null;
+		return readHyperGraph(this.nextRecord);
+	}
+
+
+	/**
+	 * Reads the hypergraph of a sentence.
+	 *
+	 * @return the hypergraph, or null if the file does not have it
+	 */
+	public HyperGraph readHyperGraphOfSentence(int sentID) {
+		Integer k = this.sentIDToRecord.get(sentID);
+		return (null == k) ? null : readHyperGraph(k);
+	}
+
+
+	/** Reads the kth hypergraph in the file. */
+	public HyperGraph readHyperGraph(int k) {
+		ByteBuffer r;
+		try {
+			r = recordBuffer(k);
+		} catch (IOException e) {
+			throw new RuntimeException("failed to read hypergraph " + k, e);
+		}
+
+		int sentID        = readVarint(r);
+		int sentLen       = readVarint(r);
+		int numNodes      = readVarint(r);
+		int numEdges      = readVarint(r);
+		int numModelLogPs = readVarint(r);
+		if (this.storeModelLogP && numModelLogPs == 0 && numEdges > 0) {
+			throw new RuntimeException("model logPs are not stored for sentence " + sentID);
+		}
+
+		HGNode[] nodes = new HGNode[numNodes];
+		for (int v = 0; v < numNodes; v++) {
+			int i   = readVarint(r);
+			int j   = readVarint(r);
+			int lhs = this.vocabToSymbol[readVarint(r)];
+			int qtyEdges = readVarint(r);
+
+			HashMap<Integer,DPState> dpStates = null;
+			if (readVarint(r) != 0) {
+				dpStates = new HashMap<Integer,DPState>();
+				dpStates.put(this.LMFeatureID, new NgramDPState(readWords(r), readWords(r)));
+			}
+
+			List<HyperEdge> edges = null;
+			HyperEdge bestEdge = null;
+			double bestLogP = Double.NEGATIVE_INFINITY;
+			if (qtyEdges > 0) {
+				edges = new ArrayList<HyperEdge>(qtyEdges);
+				for (int t = 0; t < qtyEdges; t++) {
+					HyperEdge edge = readHyperedge(r, nodes, v, numModelLogPs);
+					edges.add(edge);
+					if (edge.bestDerivationLogP > bestLogP) {//semiring plus
+						bestLogP = edge.bestDerivationLogP;
+						bestEdge = edge;
+					}
+				}
+			}
+			nodes[v] = new HGNode(i, j, lhs, edges, bestEdge, dpStates);
+		}
+
+		if (0 == numNodes) {
+			throw new RuntimeException("no goal item");
+		}
+		return new HyperGraph(nodes[numNodes-1], numNodes, numEdges, sentID, sentLen);
+	}
+
+
+	private HyperEdge readHyperedge(ByteBuffer r, HGNode[] nodes, int v, int numModelLogPs) {
+		double bestLogP = readLogP(r);
+
+		ArrayList<HGNode> antecedentItems = null;
+		int qtyAntecedents = readVarint(r);
+		if (qtyAntecedents > 0) {
+			antecedentItems = new ArrayList<HGNode>(qtyAntecedents);
+			for (int t = 0; t < qtyAntecedents; t++) {
+				antecedentItems.add(nodes[v - readVarint(r)]);
+			}
+		}
+
+		Rule rule = null;
+		int ruleID = readVarint(r) - 1;
+		if (ruleID != NULL_RULE_ID) {
+			if (ruleID != MemoryBasedBatchGrammar.OOV_RULE_ID) {
+				rule = this.associatedGrammar.get(ruleID);
+				if (null == rule) {
+					throw new RuntimeException("rule is null but id is " + ruleID);
+				}
+			} else {
+				int lhs = this.vocabToSymbol[readVarint(r)];
+				int[] english = readWords(r);
+				rule = pGrammar.constructOOVRule(1, english[0], english[0], false);
+
+				/**This is a hack. as the pGrammar does not set defaultLHS properly*/
+				rule.setLHS(lhs);
+			}
+		} else {
+			// Do nothing: goal item has null rule
+		}
+
+		HyperEdge hyperEdge;
+		if (numModelLogPs > 0 && this.storeModelLogP) {
+			double[] logPs = new double[numModelLogPs];
+			for (int k = 0; k < numModelLogPs; k++) {
+				logPs[k] = readLogP(r);
+			}
+			hyperEdge = new WithModelLogPsHyperEdge(rule, bestLogP, null, antecedentItems, logPs, null);
+		} else {
+			r.position(r.position() + (this.doublePrecision ? 8 : 4)*numModelLogPs);
+			hyperEdge = new HyperEdge(rule, bestLogP, null, antecedentItems, null);
+		}
+		hyperEdge.getTransitionLogP(true); // to set the transition logP
+		return hyperEdge;
+	}
+
+
+	private double readLogP(ByteBuffer r) {
+		return this.doublePrecision ? r.getDouble() : r.getFloat();
+	}
+
+
+	private int[] readWords(ByteBuffer r) {
+		int[] words = new int[readVarint(r)];
+		for (int k = 0; k < words.length; k++) {
+			words[k] = this.vocabToSymbol[readVarint(r)];
+		}
+		return words;
+	}
+
+
+	/**
+	 * Returns the bytes of the kth record. Records are read
+	 * through views of the mapped file, so that threads can
+	 * read them concurrently.
+	 */
+	private ByteBuffer recordBuffer(int k) throws IOException {
+		this.nextRecord = k + 1;
+		if (null != this.heapRecords && k < this.heapRecords.size()) {
+			return ByteBuffer.wrap(this.heapRecords.get(k));
+		}
+		long offset = this.recordOffsets[k];
+		int length = map(offset, 4).getInt();
+		return map(offset + 4, length);
+	}
+
+
+	/**
+	 * Maps the whole file, in consecutive segments of segmentSize
+	 * bytes, which stay mapped until the reader is closed.
+	 */
+	private void mapSegments() throws IOException {
+		long size = this.channel.size();
+		this.segments = new MappedByteBuffer[(int) ((size + this.segmentSize - 1) / this.segmentSize)];
+		for (int s = 0; s < this.segments.length; s++) {
+			long start = s * this.segmentSize;
+			this.segments[s] = this.channel.map(FileChannel.MapMode.READ_ONLY,
+					start, Math.min(this.segmentSize, size - start));
+		}
+	}
+
+
+	/**
+	 * Returns a read-only view of part of the file. The view
+	 * is a duplicate of the segment that holds the part, or a
+	 * copy if the part spans two or more segments.
+	 */
+	private ByteBuffer map(long offset, int length) throws IOException {
+		int s = (int) (offset / this.segmentSize);
+		int start = (int) (offset % this.segmentSize);
+		if (length <= this.segments[s].capacity() - start) {
+			ByteBuffer res = this.segments[s].duplicate();
+			res.limit(start + length);
+			res.position(start);
+			return res.slice();
+		}
+
+		byte[] bytes = new byte[length];
+		int copied = 0;
+		while (copied < length) {
+			ByteBuffer segment = this.segments[s].duplicate();
+			segment.position(start);
+			int n = Math.min(length - copied, segment.remaining());
+			segment.get(bytes, copied, n);
+			copied += n;
+			s++;
+			start = 0;
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+
+	/**
+	 * Sets the size of the segments in which files are mapped,
+	 * for the following calls to initRead and finishStore.
+	 */
+	void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+
+	public void closeReader() {
+		try {
+			if (null != this.file)
+				this.file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		this.file = null;
+		this.channel = null;
+		this.segments = null;
+	}
+
+
+//===============================================================
+// Storing in memory
+//===============================================================
+
+	/**
+	 * Opens a store of the hypergraphs of this process, instead
+	 * of a file. Records are kept on the heap until their total
+	 * size exceeds heapBudget bytes; the following ones are written
+	 * to a temporary file, which is memory-mapped for reading. The
+	 * vocab and the rules are shared with the process, so they are
+	 * not written, and logPs are kept as doubles.
+	 * <p>
+	 * The hypergraphs are added with storeHyperGraph, and can be
+	 * read once finishStore is called.
+	 *
+	 * @param heapBudget the maximum number of bytes of records
+	 *        kept on the heap
+	 * @param spillDirectory the directory of the temporary file,
+	 *        or null for the default temporary directory
+	 */
+	public void initStore(long heapBudget, File spillDirectory) {
+		this.heapRecords = new ArrayList<byte[]>();
+		this.heapBudget = heapBudget;
+		this.heapSize = 0;
+		this.spillDirectory = spillDirectory;
+		this.spillFile = null;
+		this.outPosition = 0;
+		this.doublePrecision = true;
+
+		this.record = new Record();
+		this.symbolToVocabID = new HashMap<Integer,Integer>();
+		this.vocabSymbols = new ArrayList<Integer>();
+		this.associatedGrammar.clear();
+		this.numRecords = 0;
+		this.recordSentIDs = new int[64];
+		this.recordOffsets = new long[64];
+	}
+
+
+	public void storeHyperGraph(HyperGraph hg) throws IOException {
+		encodeHyperGraph(hg);
+		if (null == this.spillFile && this.heapSize + this.record.size <= this.heapBudget) {
+			addToIndex(hg.sentID, -1);
+			this.heapRecords.add(Arrays.copyOf(this.record.bytes, this.record.size));
+			this.heapSize += this.record.size;
+		} else {
+			if (null == this.spillFile) {
+				this.spillFile = File.createTempFile("joshua-hypergraphs", ".bin", this.spillDirectory);
+				this.spillFile.deleteOnExit();
+				this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.spillFile), 1 << 16));
+				this.outPosition = 0;
+				logger.info("heap budget of " + this.heapBudget + " bytes exceeded after "
+						+ this.numRecords + " hypergraphs, storing the others in " + this.spillFile);
+			}
+			writeRecord(hg.sentID);
+		}
+	}
+
+
+	/** Makes the stored hypergraphs readable. */
+	public void finishStore() throws IOException {
+		if (null != this.out) {
+			this.out.close();
+			this.out = null;
+			this.file = new RandomAccessFile(this.spillFile, "r");
+			this.channel = this.file.getChannel();
+			mapSegments();
+		}
+		this.recordsEnd = this.outPosition;
+
+		this.vocabToSymbol = new int[this.vocabSymbols.size()];
+		for (int id = 0; id < this.vocabToSymbol.length; id++) {
+			this.vocabToSymbol[id] = this.vocabSymbols.get(id);
+		}
+
+		this.sentIDToRecord = new HashMap<Integer,Integer>();
+		for (int k = 0; k < this.numRecords; k++) {
+			this.sentIDToRecord.put(this.recordSentIDs[k], k);
+		}
+		this.nextRecord = 0;
+
+		logger.info("stored " + this.numRecords + " hypergraphs: " + this.heapSize + " bytes on the heap, "
+				+ ((null == this.spillFile) ? 0 : this.outPosition) + " bytes on disk");
+	}
+
+
+	/** @return the number of bytes of the records kept on the heap */
+	public long getNumBytesOnHeap() {
+		return this.heapSize;
+	}
+
+
+	/** Releases the stored hypergraphs, and deletes the temporary file. */
+	public void closeStore() {
+		closeReader();
+		this.heapRecords = null;
+		if (null != this.spillFile) {
+			this.spillFile.delete();
+			this.spillFile = null;
+		}
+	}
+
+
+//===============================================================
+// Conversion
+//===============================================================
+
+	/**
+	 * Converts hypergraphs from the text format of DiskHyperGraph
+	 * to the binary format.
+	 *
+	 * @return the number of hypergraphs converted
+	 */
+	public static int convertFromText(SymbolTable symbolTable, int LMFeatureID, boolean storeModelLogP,
+			String itemsFile, String rulesFile, String binaryFile) throws IOException {
+
+		DiskHyperGraph textHG = new DiskHyperGraph(symbolTable, LMFeatureID, storeModelLogP, null);
+		textHG.initRead(itemsFile, rulesFile, null);
+
+		BinaryDiskHyperGraph binaryHG = new BinaryDiskHyperGraph(symbolTable, LMFeatureID, storeModelLogP, null);
+		binaryHG.initWrite(binaryFile);
+
+		int numHGs = 0;
+		HyperGraph hg;
+		while (null != (hg = textHG.readHyperGraph())) {
+			binaryHG.saveHyperGraph(hg);
+			numHGs++;
+		}
+
+		//rules that none of the hypergraphs use are kept as well
+		for (Map.Entry<Integer,Rule> entry : textHG.getAssocatedGrammar().entrySet()) {
+			binaryHG.associatedGrammar.put(entry.getKey(), entry.getValue());
+		}
+
+		binaryHG.closeWriter();
+		textHG.closeReaders();
+		return numHGs;
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || args.length > 5) {
+			System.out.println("Usage: java " + BinaryDiskHyperGraph.class.getName()
+					+ " items_file rules_file binary_file [store_model_logPs (default true)] [lm_feature_id (default 0)]");
+			System.exit(1);
+		}
+
+		boolean storeModelLogP = (args.length > 3) ? Boolean.valueOf(args[3]) : true;
+		int LMFeatureID = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+
+		int numHGs = convertFromText(new BuildinSymbol(), LMFeatureID, storeModelLogP, args[0], args[1], args[2]);
+		System.out.println("converted " + numHGs + " hypergraphs into " + args[2]);
+	}
+
+
+//===============================================================
+// Encoding
+//===============================================================
+
+	/** A growable buffer in which a record is encoded. */
+	private static class Record {
+		byte[] bytes = new byte[1 << 16];
+		int size = 0;
+
+		void clear() {
+			size = 0;
+		}
+
+		private void ensure(int n) {
+			if (size + n > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(2*bytes.length, size + n));
+		}
+
+		/** Writes a non-negative int, 7 bits per byte, low bits first. */
+		void writeVarint(int value) {
+			if (value < 0) {
+				throw new IllegalArgumentException("negative value cannot be written as a varint: " + value);
+			}
+			ensure(5);
+			while (value >= 0x80) {
+				bytes[size++] = (byte) (value | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		/** Writes a double in the byte order of ByteBuffer. */
+		void writeDouble(double value) {
+			ensure(8);
+			long bits = Double.doubleToLongBits(value);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[size++] = (byte) (bits >>> shift);
+			}
+		}
+
+		/** Writes a float in the byte order of ByteBuffer. */
+		void writeFloat(float value) {
+			ensure(4);
+			int bits = Float.floatToIntBits(value);
+			bytes[size++] = (byte) (bits >>> 24);
+			bytes[size++] = (byte) (bits >>> 16);
+			bytes[size++] = (byte) (bits >>> 8);
+			bytes[size++] = (byte) bits;
+		}
+
+		void write(byte[] b) {
+			ensure(b.length);
+			System.arraycopy(b, 0, bytes, size, b.length);
+			size += b.length;
+		}
+	}
+
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
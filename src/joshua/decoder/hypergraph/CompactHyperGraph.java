@@ -0,0 +1,292 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import joshua.decoder.chart_parser.ComputeNodeResult;
+import joshua.decoder.ff.FeatureFunction;
+
+/**
+ * A frozen, array-based view of the part of a hypergraph that
+ * is reachable from its goal node.
+ * <p>
+ * Nodes are numbered in topological order: the antecedents of
+ * every hyperedge come before its head, so the goal node has the
+ * highest id. Hyperedges are numbered by head node, in the order
+ * of HGNode.hyperedges, so that the hyperedges of node v are
+ * getFirstEdge(v) to getFirstEdge(v+1)-1. The antecedents of
+ * hyperedge e are getTail(getFirstTail(e)) to
+ * getTail(getFirstTail(e+1)-1), in the order of
+ * HyperEdge.getAntNodes().
+ * <p>
+ * Bottom-up passes (inside, Viterbi) are then a loop over
+ * increasing node ids, and top-down passes (outside) a loop over
+ * decreasing node ids, with per-node and per-edge values kept in
+ * arrays indexed by id, instead of a recursion that memoizes into
+ * hash tables. The view is built once, without recursion, and
+ * does not change the hypergraph; if the topology of the
+ * hypergraph changes, a new view must be built.
+ *
+ * @version $LastChangedDate$
+ */
+public class CompactHyperGraph {
+
+	private final HyperGraph hg;
+
+	private final HGNode[] nodes;//in topological order
+	private final HyperEdge[] edges;
+
+	private final int[] firstEdge;//numNodes+1 offsets into edges
+	private final int[] edgeHead;//the node id of the head of each edge
+	private final int[] firstTail;//numEdges+1 offsets into tails
+	private final int[] tails;//node ids of the antecedents of each edge
+
+	private final IdentityHashMap<HGNode,Integer> nodeIDs;
+
+
+	public CompactHyperGraph(HyperGraph hg) {
+		this.hg = hg;
+		this.nodeIDs = new IdentityHashMap<HGNode,Integer>();
+
+		HGNode[] order = topologicalSort(hg.goalNode, nodeIDs);
+		this.nodes = order;
+
+		int numEdges = 0;
+		int numTails = 0;
+		for (HGNode node : nodes) {
+			if (null != node.hyperedges) {
+				for (HyperEdge edge : node.hyperedges) {
+					numEdges++;
+					if (null != edge.getAntNodes())
+						numTails += edge.getAntNodes().size();
+				}
+			}
+		}
+
+		this.edges = new HyperEdge[numEdges];
+		this.firstEdge = new int[nodes.length+1];
+		this.edgeHead = new int[numEdges];
+		this.firstTail = new int[numEdges+1];
+		this.tails = new int[numTails];
+
+		int e = 0;
+		int t = 0;
+		for (int v = 0; v < nodes.length; v++) {
+			firstEdge[v] = e;
+			if (null == nodes[v].hyperedges)
+				continue;
+			for (HyperEdge edge : nodes[v].hyperedges) {
+				edges[e] = edge;
+				edgeHead[e] = v;
+				firstTail[e] = t;
+				if (null != edge.getAntNodes()) {
+					for (HGNode antNode : edge.getAntNodes()) {
+						tails[t++] = nodeIDs.get(antNode);
+					}
+				}
+				e++;
+			}
+		}
+		firstEdge[nodes.length] = e;
+		firstTail[numEdges] = t;
+	}
+
+
+	/**
+	 * Numbers the nodes reachable from the goal node in
+	 * post-order, with an explicit stack instead of recursion.
+	 */
+	private static HGNode[] topologicalSort(HGNode goalNode, IdentityHashMap<HGNode,Integer> nodeIDs) {
+		if (null == goalNode)
+			return new HGNode[0];
+
+		HGNode[] order = new HGNode[16];
+		int numNodes = 0;
+
+		//each stack frame is a node, and the position of the next antecedent to visit
+		HGNode[] stackNodes = new HGNode[16];
+		int[] stackEdges = new int[16];
+		int[] stackAnts = new int[16];
+		int depth = 0;
+
+		stackNodes[depth++] = goalNode;
+		nodeIDs.put(goalNode, -1);//-1: on the stack
+
+		while (depth > 0) {
+			int top = depth-1;
+			HGNode node = stackNodes[top];
+			HGNode next = null;
+
+			while (null != node.hyperedges && stackEdges[top] < node.hyperedges.size()) {
+				List<HGNode> antNodes = node.hyperedges.get(stackEdges[top]).getAntNodes();
+				if (null == antNodes || stackAnts[top] >= antNodes.size()) {
+					stackEdges[top]++;
+					stackAnts[top] = 0;
+					continue;
+				}
+				HGNode antNode = antNodes.get(stackAnts[top]++);
+				Integer id = nodeIDs.get(antNode);
+				if (null == id) {
+					next = antNode;
+					break;
+				} else if (id < 0) {
+					throw new RuntimeException("the hypergraph has a cycle, must be wrong");
+				}
+			}
+
+			if (null != next) {
+				if (depth == stackNodes.length) {
+					stackNodes = Arrays.copyOf(stackNodes, 2*depth);
+					stackEdges = Arrays.copyOf(stackEdges, 2*depth);
+					stackAnts = Arrays.copyOf(stackAnts, 2*depth);
+				}
+				stackNodes[depth] = next;
+				stackEdges[depth] = 0;
+				stackAnts[depth] = 0;
+				depth++;
+				nodeIDs.put(next, -1);
+			} else {
+				if (numNodes == order.length)
+					order = Arrays.copyOf(order, 2*numNodes);
+				nodeIDs.put(node, numNodes);
+				order[numNodes++] = node;
+				stackNodes[top] = null;
+				depth--;
+			}
+		}
+
+		return Arrays.copyOf(order, numNodes);
+	}
+
+
+	//================ structure ================
+	public HyperGraph getHyperGraph() {
+		return hg;
+	}
+
+	public int getNumNodes() {
+		return nodes.length;
+	}
+
+	public int getNumEdges() {
+		return edges.length;
+	}
+
+	/** @return the id of the goal node, or -1 if the hypergraph is empty */
+	public int getGoalID() {
+		return nodes.length-1;
+	}
+
+	public HGNode getNode(int v) {
+		return nodes[v];
+	}
+
+	/** @return the id of a node, or -1 if it is not in the view */
+	public int getNodeID(HGNode node) {
+		Integer id = nodeIDs.get(node);
+		return (null == id) ? -1 : id;
+	}
+
+	public HyperEdge getEdge(int e) {
+		return edges[e];
+	}
+
+	public int getFirstEdge(int v) {
+		return firstEdge[v];
+	}
+
+	public int getEdgeHead(int e) {
+		return edgeHead[e];
+	}
+
+	public int getFirstTail(int e) {
+		return firstTail[e];
+	}
+
+	public int getTail(int t) {
+		return tails[t];
+	}
+
+
+	//================ per-edge values ================
+	/**
+	 * @return the transition logP of each hyperedge, indexed
+	 *         by edge id
+	 */
+	public double[] getTransitionLogPs() {
+		double[] res = new double[edges.length];
+		for (int e = 0; e < edges.length; e++) {
+			res[e] = edges[e].getTransitionLogP(false);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the unweighted logP of each feature function at
+	 *         each hyperedge, as one flat array in which the
+	 *         logPs of hyperedge e start at
+	 *         e*featureFunctions.size()
+	 */
+	public double[] getModelTransitionLogPs(List<FeatureFunction> featureFunctions) {
+		int numFeatures = featureFunctions.size();
+		double[] res = new double[edges.length*numFeatures];
+		for (int e = 0; e < edges.length; e++) {
+			HGNode head = nodes[edgeHead[e]];
+			double[] logPs = ComputeNodeResult.computeModelTransitionLogPs(
+					featureFunctions, edges[e], head.i, head.j, hg.sentID);
+			System.arraycopy(logPs, 0, res, e*numFeatures, numFeatures);
+		}
+		return res;
+	}
+
+
+	//================ passes ================
+	/**
+	 * Recomputes the best derivation of every node, in the
+	 * hypergraph itself, from new transition logPs: sets the
+	 * transitionLogP and bestDerivationLogP of each hyperedge, and
+	 * the bestHyperedge of each node, as HGNode.semiringPlus does.
+	 *
+	 * @param transitionLogPs the transition logP of each hyperedge
+	 * @return the number of nodes whose best hyperedge changed
+	 */
+	public int viterbi(double[] transitionLogPs) {
+		int numChanged = 0;
+		for (int v = 0; v < nodes.length; v++) {
+			HGNode node = nodes[v];
+			HyperEdge oldBestHyperedge = node.bestHyperedge;
+			node.bestHyperedge = null;
+			for (int e = firstEdge[v]; e < firstEdge[v+1]; e++) {
+				HyperEdge edge = edges[e];
+				double logP = 0;
+				for (int t = firstTail[e]; t < firstTail[e+1]; t++) {
+					logP += nodes[tails[t]].bestHyperedge.bestDerivationLogP;
+				}
+				edge.setTransitionLogP(transitionLogPs[e]);
+				edge.bestDerivationLogP = logP + transitionLogPs[e];
+				node.semiringPlus(edge);
+			}
+			if (node.bestHyperedge != oldBestHyperedge)
+				numChanged++;
+		}
+		return numChanged;
+	}
+}
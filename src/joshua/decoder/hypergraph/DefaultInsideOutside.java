@@ -19,7 +19,7 @@ package joshua.decoder.hypergraph;
 
 import joshua.decoder.hypergraph.HyperGraph;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 
 /**
@@ -48,23 +48,12 @@ public abstract class DefaultInsideOutside {
 	double ONE_IN_SEMIRING = 0;//log-domain
 	double scaling_factor ; //try to scale the original distribution: smooth or winner-take-all
 	
-	private HashMap<HGNode,Double> tbl_inside_prob =  new HashMap<HGNode,Double>();//remember inside prob of each item: 
-	private HashMap<HGNode,Double> tbl_outside_prob =  new HashMap<HGNode,Double>();//remember outside prob of each item
+	//the hypergraph of the last run, and the inside and outside prob of each of its items, indexed by item id
+	private CompactHyperGraph graph = null;
+	private double[] insideProbs = null;
+	private double[] outsideProbs = null;
 	double normalizationConstant = ONE_IN_SEMIRING;
 	
-	/**
-	 * for each item, remember how many deductions pointering
-	 * to me, this is needed for outside estimation during
-	 * outside estimation, an item will recursive call its
-	 * deductions to do outside-estimation only after it itself
-	 * is done with outside estimation, this is necessary
-	 * because the outside estimation of the items under its
-	 * deductions require the item's outside value
-	 */
-	private HashMap<HGNode,Integer> tbl_num_parent_deductions = new HashMap<HGNode,Integer>();
-	
-	private HashMap<HGNode,Integer> tbl_for_sanity_check = null;
-	
 	//get feature-set specific **log probability** for each hyperedge
 	protected abstract double getHyperedgeLogProb(HyperEdge dt, HGNode parent_it);
 	
@@ -72,27 +61,33 @@ public abstract class DefaultInsideOutside {
 		return getHyperedgeLogProb(dt, parent_it)*scaling_factor;
 	}
 	
-	//the results are stored in tbl_inside_prob and tbl_outside_prob
+	//the results are stored in insideProbs and outsideProbs
 	public void runInsideOutside(HyperGraph hg, int add_mode, int semiring, double scaling_factor_){//add_mode||| 0: sum; 1: viterbi-min, 2: viterbi-max
 		
 		setup_semiring(semiring, add_mode);
 		scaling_factor = scaling_factor_;
+		graph = new CompactHyperGraph(hg);
+		
+		//the edge probs are needed by both passes, so get them only once
+		double[] edgeProbs = new double[graph.getNumEdges()];
+		for (int e = 0; e < edgeProbs.length; e++) {
+			edgeProbs[e] = getHyperedgeLogProb(graph.getEdge(e), graph.getNode(graph.getEdgeHead(e)), this.scaling_factor);//feature-set specific
+		}
 		
 		//System.out.println("outside estimation");
-		inside_estimation_hg(hg);
+		inside_estimation_hg(edgeProbs);
 		//System.out.println("inside estimation");
-		outside_estimation_hg(hg);
-		normalizationConstant = tbl_inside_prob.get(hg.goalNode);
+		outside_estimation_hg(edgeProbs);
+		normalizationConstant = insideProbs[graph.getGoalID()];
 		System.out.println("normalization constant is " + normalizationConstant);
-		tbl_num_parent_deductions.clear();
 		sanityCheckHG(hg);
 	}
 	
 	//to save memory, external class should call this method
 	public  void clearState(){
-		tbl_num_parent_deductions.clear();
-		tbl_inside_prob.clear();
-		tbl_outside_prob.clear();
+		graph = null;
+		insideProbs = null;
+		outsideProbs = null;
 	}
 
 	//######### use of inside-outside probs ##########################
@@ -104,13 +99,13 @@ public abstract class DefaultInsideOutside {
 	//this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability), without normalization
 	public double getEdgeUnormalizedPosteriorLogProb(HyperEdge dt, HGNode parent){
 		//### outside of parent
-		double outside = (Double)tbl_outside_prob.get(parent);
+		double outside = outsideProbs[getNodeID(parent)];
 		
 		//### get inside prob of all my ant-items
 		double inside = ONE_IN_SEMIRING;
 		if(dt.getAntNodes()!=null){
 			for(HGNode ant_it : dt.getAntNodes())
-				inside = multi_in_semiring(inside,(Double)tbl_inside_prob.get(ant_it));
+				inside = multi_in_semiring(inside, insideProbs[getNodeID(ant_it)]);
 		}
 		
 		//### add deduction/rule specific prob
@@ -136,8 +131,9 @@ public abstract class DefaultInsideOutside {
 //	this is the log of expected/posterior prob (i.e., LogP, where P is the posterior probability), without normalization
 	public double getNodeUnnormalizedPosteriorLogProb(HGNode node){
 		//### outside of parent
-		double inside =  (Double)tbl_inside_prob.get(node);
-		double outside = (Double)tbl_outside_prob.get(node);
+		int id = getNodeID(node);
+		double inside =  insideProbs[id];
+		double outside = outsideProbs[id];
 		return multi_in_semiring(inside, outside);
 	}	
 	
@@ -155,158 +151,83 @@ public abstract class DefaultInsideOutside {
 		}
 	}
 	
+	private int getNodeID(HGNode node){
+		int id = graph.getNodeID(node);
+		if (id < 0) {
+			throw new RuntimeException("item is not in the hypergraph of the last run, must be wrong");
+		}
+		return id;
+	}
+	
 	/*Originally, to see if the sum of the posterior probabilities of all the hyperedges sum to one
 	 * However, this won't work! The sum should be greater than 1.
 	 * */
 	public void sanityCheckHG(HyperGraph hg){	
-		tbl_for_sanity_check = new HashMap<HGNode,Integer>();
 		//System.out.println("num_dts: " + hg.goal_item.l_deductions.size());
-		sanity_check_item(hg.goalNode);
-		System.out.println("survied sanity check!!!!");
-	}
-	
-	private void sanity_check_item(HGNode it){		
-		if(tbl_for_sanity_check.containsKey(it))return;
-		tbl_for_sanity_check.put(it,1);
-		double prob_sum=0;
-		//### recursive call on each deduction
-		for(HyperEdge dt : it.hyperedges){
-			prob_sum += getEdgePosteriorProb(dt,it);
-			sanity_check_deduction(dt);//deduction-specifc operation
-		}
-		double supposed_sum = getNodePosteriorProb(it);
-		if (Math.abs(prob_sum-supposed_sum) > 1e-3) {
-			throw new RuntimeException("prob_sum=" + prob_sum + "; supposed_sum=" + supposed_sum + "; sanity check fail!!!!");
-		}
-		//### item-specific operation
-	}
-	
-	private void sanity_check_deduction(HyperEdge dt){
-		//### recursive call on each ant item
-		if (null != dt.getAntNodes()) {
-			for (HGNode ant_it : dt.getAntNodes()) {
-				sanity_check_item(ant_it);
+		for (int v = 0; v < graph.getNumNodes(); v++) {
+			HGNode it = graph.getNode(v);
+			double prob_sum=0;
+			for(HyperEdge dt : it.hyperedges){
+				prob_sum += getEdgePosteriorProb(dt,it);
+			}
+			double supposed_sum = getNodePosteriorProb(it);
+			if (Math.abs(prob_sum-supposed_sum) > 1e-3) {
+				throw new RuntimeException("prob_sum=" + prob_sum + "; supposed_sum=" + supposed_sum + "; sanity check fail!!!!");
 			}
 		}
-		
-		//### deduction-specific operation
-		
+		System.out.println("survied sanity check!!!!");
 	}
 	//################## end use of inside-outside probs
 	
 	
 	
 //############ bottomn-up insdide estimation ##########################
-	private void inside_estimation_hg(HyperGraph hg) {
-		tbl_inside_prob.clear(); 
-		tbl_num_parent_deductions.clear();
-		inside_estimation_item(hg.goalNode);
-	}
-	
-	private double inside_estimation_item(HGNode it) {
-		//### get number of deductions that point to me
-		Integer num_called = (Integer)tbl_num_parent_deductions.get(it);
-		if (null == num_called) {
-			tbl_num_parent_deductions.put(it, 1);
-		} else {
-			tbl_num_parent_deductions.put(it, num_called+1);
-		}
-		
-		if (tbl_inside_prob.containsKey(it)) {
-			return (Double) tbl_inside_prob.get(it);
-		}
-		double inside_prob = ZERO_IN_SEMIRING;
-		
-		//### recursive call on each deduction
-		for (HyperEdge dt : it.hyperedges) {
-			double v_dt = inside_estimation_deduction(dt, it);//deduction-specifc operation
-			inside_prob = add_in_semiring(inside_prob, v_dt);
-		}
-		//### item-specific operation, but all the prob should be factored into each deduction
-		
-		tbl_inside_prob.put(it,inside_prob);
-		return inside_prob;
-	}
-	
-	private double inside_estimation_deduction(HyperEdge dt, HGNode parent_item){
-		double inside_prob = ONE_IN_SEMIRING; 
-		//### recursive call on each ant item
-		if(dt.getAntNodes()!=null)
-			for(HGNode ant_it : dt.getAntNodes()){
-				double v_item = inside_estimation_item(ant_it);
-				inside_prob =  multi_in_semiring(inside_prob, v_item);				
+	//items are in topological order, so the ant-items of an item are done before it
+	private void inside_estimation_hg(double[] edgeProbs) {
+		insideProbs = new double[graph.getNumNodes()];
+		for (int v = 0; v < insideProbs.length; v++) {
+			double inside_prob = ZERO_IN_SEMIRING;
+			for (int e = graph.getFirstEdge(v); e < graph.getFirstEdge(v+1); e++) {
+				double v_dt = ONE_IN_SEMIRING;
+				for (int t = graph.getFirstTail(e); t < graph.getFirstTail(e+1); t++) {
+					v_dt = multi_in_semiring(v_dt, insideProbs[graph.getTail(t)]);
+				}
+				v_dt = multi_in_semiring(v_dt, edgeProbs[e]);
+				inside_prob = add_in_semiring(inside_prob, v_dt);
 			}
-				
-		//### deduction operation
-		double deduct_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);//feature-set specific	
-		inside_prob =  multi_in_semiring(inside_prob, deduct_prob);	
-		return inside_prob;
+			insideProbs[v] = inside_prob;
+		}
 	}
 //########### end inside estimation	
 
 //############ top-downn outside estimation ##########################
-	
-	private void outside_estimation_hg(HyperGraph hg){	
-		tbl_outside_prob.clear(); 
-		tbl_outside_prob.put(hg.goalNode, ONE_IN_SEMIRING);//initialize
-		for(HyperEdge dt : hg.goalNode.hyperedges)
-			outside_estimation_deduction(dt, hg.goalNode);	
-	}
-	
-	private void outside_estimation_item(HGNode cur_it, HGNode upper_item, HyperEdge parent_dt, double parent_deduct_prob){
-		Integer num_called = (Integer)tbl_num_parent_deductions.get(cur_it);
-		if (null == num_called || 0 == num_called) {
-			throw new RuntimeException("un-expected call, must be wrong");
-		}
-		tbl_num_parent_deductions.put(cur_it, num_called-1);
-		
-		double old_outside_prob = ZERO_IN_SEMIRING;
-		if (tbl_outside_prob.containsKey(cur_it)) {
-			old_outside_prob = (Double) tbl_outside_prob.get(cur_it);
-		}
-		
-		double additional_outside_prob = ONE_IN_SEMIRING;
-		
-		//### add parent deduction prob
-		additional_outside_prob =  multi_in_semiring(additional_outside_prob, parent_deduct_prob);
-		
-		//### sibing specifc
-		if(parent_dt.getAntNodes()!=null && parent_dt.getAntNodes().size()>1)
-			for(HGNode ant_it : parent_dt.getAntNodes()){
-				if(ant_it != cur_it){
-					double inside_prob_item =(Double)tbl_inside_prob.get(ant_it);//inside prob
-					additional_outside_prob =  multi_in_semiring(additional_outside_prob, inside_prob_item);
-				}				
-			}
-				
-		//### upper item
-		double outside_prob_item = (Double)tbl_outside_prob.get(upper_item);//outside prob
-		additional_outside_prob =  multi_in_semiring(additional_outside_prob, outside_prob_item);
-		
-		//#### add to old prob 
-		additional_outside_prob = add_in_semiring(additional_outside_prob, old_outside_prob);		
-		
-		tbl_outside_prob.put(cur_it, additional_outside_prob);
-		
-		//### recursive call on each deduction
-		if( num_called-1<=0){//i am done
-			for(HyperEdge dt : cur_it.hyperedges){
-				//TODO: potentially, we can collect the feature expection in each hyperedge here, to avoid another pass of the hypergraph to get the counts
-				outside_estimation_deduction(dt, cur_it);
-			}
-		}
-	}
-	
-	
-	private void outside_estimation_deduction(HyperEdge dt, HGNode parent_item){
-		//we do not need to outside prob if no ant items
-		if(dt.getAntNodes()!=null){
-			//### deduction specific prob
-			double deduction_prob = getHyperedgeLogProb(dt, parent_item, this.scaling_factor);//feature-set specific
-			
-			//### recursive call on each ant item
-			for(HGNode ant_it : dt.getAntNodes()){
-				outside_estimation_item(ant_it, parent_item, dt, deduction_prob);
+	//items are visited in inverse topological order, so all the upper items of an item are done before it
+	private void outside_estimation_hg(double[] edgeProbs){	
+		outsideProbs = new double[graph.getNumNodes()];
+		Arrays.fill(outsideProbs, ZERO_IN_SEMIRING);
+		outsideProbs[graph.getGoalID()] = ONE_IN_SEMIRING;//initialize
+		for (int v = outsideProbs.length-1; v >= 0; v--) {
+			double outside_prob_item = outsideProbs[v];//outside prob of the upper item
+			for (int e = graph.getFirstEdge(v); e < graph.getFirstEdge(v+1); e++) {
+				int first = graph.getFirstTail(e);
+				int last = graph.getFirstTail(e+1);
+				for (int t = first; t < last; t++) {
+					//### add parent deduction prob
+					double additional_outside_prob =  multi_in_semiring(ONE_IN_SEMIRING, edgeProbs[e]);
+					
+					//### sibing specifc
+					for (int s = first; s < last; s++) {
+						if (s != t)
+							additional_outside_prob =  multi_in_semiring(additional_outside_prob, insideProbs[graph.getTail(s)]);
+					}
+					
+					//### upper item
+					additional_outside_prob =  multi_in_semiring(additional_outside_prob, outside_prob_item);
+					
+					//#### add to old prob
+					int cur_it = graph.getTail(t);
+					outsideProbs[cur_it] = add_in_semiring(additional_outside_prob, outsideProbs[cur_it]);
+				}
 			}
 		}
 	}
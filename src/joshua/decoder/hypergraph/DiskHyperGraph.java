@@ -437,6 +437,10 @@ public class DiskHyperGraph {
 			line = FileUtility.read_line_lzf(this.itemsReader);
 		}
 		
+		if (null == line) { // end of file
+			return null;
+		}
+		
 		if (! line.startsWith(SENTENCE_TAG)) {
 			throw new RuntimeException("wrong sent tag line: " + line);
 		}
@@ -65,6 +65,12 @@ public class KBestExtractor {
 		Logger.getLogger(KBestExtractor.class.getName());
 	
 	private final HashMap<HGNode,VirtualNode> virtualNodesTbl = new HashMap<HGNode,VirtualNode>();
+	
+	/* when a whole hypergraph is extracted from, its compact view,
+	 * and the virtual nodes of its nodes, indexed by node id; the
+	 * table above then only holds nodes that are not in the view */
+	private CompactHyperGraph graph = null;
+	private VirtualNode[] virtualNodes = null;
 
 	
 	private final SymbolTable symbolTable;
@@ -132,6 +138,7 @@ public class KBestExtractor {
 			System.exit(1);
 		} 
 		resetState();
+		seedVirtualNodes(inHG);
 		
 		List<HyperGraph> hgs = new ArrayList<HyperGraph>();
 		int nextN = 0;
@@ -268,6 +275,87 @@ public class KBestExtractor {
 		}
 		
 
+	/**
+	 * Extracts the k-best derivations of a hypergraph as
+	 * candidates, each with its yield and its feature values,
+	 * instead of as formatted n-best lines.
+	 * 
+	 * @param hg Hypergraph to extract from
+	 * @param featureFunctions Feature functions whose values are
+	 *                         computed for each candidate
+	 * @param topN Maximum number of candidates
+	 * @param sentID Id of the sentence the hypergraph is for
+	 * @param coit Receives the candidates, best first
+	 */
+	public void lazyKBestExtractCandidates(
+		HyperGraph hg, 
+		List<FeatureFunction> featureFunctions, 
+		int topN,
+		int sentID, 
+		CoIterator<Candidate> coit) {
+		
+		this.sentID = sentID;
+		resetState();
+		
+		try {
+			if (null == hg.goalNode) 
+				return;
+			seedVirtualNodes(hg);
+			
+			VirtualNode goal = addVirtualNode(hg.goalNode);
+			for (int k = 1; k <= topN; k++) {
+				DerivationState cur = goal.lazyKBestExtractOnNode(symbolTable, this, k);
+				if (null == cur)
+					break;
+				
+				double[] modelCost = new double[featureFunctions.size()];
+				String strHypNumeric = cur.getHypothesis(symbolTable, this, false, modelCost, featureFunctions, null);
+				checkCost(cur, featureFunctions, modelCost);
+				
+				double[] featureValues = new double[modelCost.length];
+				for (int i = 0; i < modelCost.length; i++) {
+					featureValues[i] = - modelCost[i];
+				}
+				coit.coNext(new Candidate(convertYield(strHypNumeric), featureValues, - cur.cost));
+			}
+		} finally {
+			coit.finish();
+		}
+	}
+	
+	
+	/**
+	 * A derivation extracted from a hypergraph: its yield, the
+	 * values of the feature functions on it, and its model score.
+	 */
+	public static class Candidate {
+		private final String words;
+		private final double[] featureValues;
+		private final double score;
+		
+		public Candidate(String words, double[] featureValues, double score) {
+			this.words = words;
+			this.featureValues = featureValues;
+			this.score = score;
+		}
+		
+		/** Gets the target words, separated by single spaces. */
+		public String getWords() {
+			return words;
+		}
+		
+		/** Gets the value of each feature function, in order. */
+		public double[] getFeatureValues() {
+			return featureValues;
+		}
+		
+		/** Gets the weighted sum of the feature values. */
+		public double getScore() {
+			return score;
+		}
+	}
+	
+	
 	private void lazyKBestExtractOnHG(
 		HyperGraph hg, 
 		List<FeatureFunction> featureFunctions, 
@@ -280,6 +368,7 @@ public class KBestExtractor {
 		
 		if (null == hg.goalNode) 
 			return;
+		seedVirtualNodes(hg);
 		
 		//VirtualItem virtual_goal_item = add_virtual_item(hg.goal_item);
 		try {
@@ -301,6 +390,22 @@ public class KBestExtractor {
 	
 	public void resetState() {
 		virtualNodesTbl.clear();
+		graph = null;
+		virtualNodes = null;
+	}
+	
+	
+	/* get the 1best at every node of the hypergraph bottom-up, in
+	 * topological order, so that the 1best at the children of a node
+	 * is always ready, instead of recursively going down from the goal
+	 * node; getting a k-best at a node then only goes down to the
+	 * children for which a new rank is needed */
+	private void seedVirtualNodes(HyperGraph hg) {
+		graph = new CompactHyperGraph(hg);
+		virtualNodes = new VirtualNode[graph.getNumNodes()];
+		for (int v = 0; v < graph.getNumNodes(); v++) {
+			addVirtualNode(v).lazyKBestExtractOnNode(symbolTable, this, 1);
+		}
 	}
 	
 	
@@ -359,31 +464,11 @@ public class KBestExtractor {
 		//####individual model cost, and final transition cost
 		if (null != modelCost) {
 			strHyp.append(" |||");
-			double temSum = 0.0;
 			for (int k = 0; k < modelCost.length; k++) {
 				strHyp.append(String.format(" %.3f", - modelCost[k]));
-				temSum += modelCost[k]*models.get(k).getWeight();
-				
-//				System.err.println("tem_sum: " + tem_sum + " += " + model_cost[k] + " * " + l_models.get(k).getWeight());
 			}
 			
-			int x = 0;
-			x++;
-			
-			//sanity check
-//			if (false) {
-			if (performSanityCheck) {
-				if (Math.abs(cur.cost - temSum) > 1e-2) {
-					StringBuilder error = new StringBuilder();
-					error.append("\nIn nbest extraction, Cost does not match; cur.cost: " + cur.cost + "; temsum: " +temSum + "\n");
-					//System.out.println("In nbest extraction, Cost does not match; cur.cost: " + cur.cost + "; temsum: " +tem_sum);
-					for (int k = 0; k < modelCost.length; k++) {
-						error.append("model weight: " + models.get(k).getWeight() + "; cost: " +modelCost[k]+ "\n");
-						//System.out.println("model weight: " + l_models.get(k).getWeight() + "; cost: " +model_cost[k]);
-					}
-					throw new RuntimeException(error.toString());
-				}
-			}
+			checkCost(cur, models, modelCost);
 		}
 		
 		//####combined model cost
@@ -397,6 +482,39 @@ public class KBestExtractor {
 	}
 
 
+	/* the words of a hypothesis extracted without tree format */
+	private String convertYield(String strHypNumeric) {
+		String[] tem = Regex.spaces.split(strHypNumeric);
+		StringBuffer strHyp = new StringBuffer();
+		for (int t = 0; t < tem.length; t++) {
+			strHyp.append(escapeTerminalForTree(this.symbolTable.getWord(Integer.parseInt(tem[t].trim()))));
+			if (t < tem.length-1) {
+				strHyp.append(' ');
+			}
+		}
+		return strHyp.toString();
+	}
+	
+	
+	//sanity check: the feature costs must add up to the cost of the derivation
+	private void checkCost(DerivationState cur, List<FeatureFunction> models, double[] modelCost) {
+		if (performSanityCheck) {
+			double temSum = 0.0;
+			for (int k = 0; k < modelCost.length; k++) {
+				temSum += modelCost[k]*models.get(k).getWeight();
+			}
+			if (Math.abs(cur.cost - temSum) > 1e-2) {
+				StringBuilder error = new StringBuilder();
+				error.append("\nIn nbest extraction, Cost does not match; cur.cost: " + cur.cost + "; temsum: " +temSum + "\n");
+				for (int k = 0; k < modelCost.length; k++) {
+					error.append("model weight: " + models.get(k).getWeight() + "; cost: " +modelCost[k]+ "\n");
+				}
+				throw new RuntimeException(error.toString());
+			}
+		}
+	}
+	
+	
 	private String escapeTerminalForTree(String terminal) {
 		if(JoshuaConfiguration.escape_trees) {
 			// any paren that is not part of the tree structure
@@ -408,13 +526,38 @@ public class KBestExtractor {
 		
 	
 	private VirtualNode addVirtualNode(HGNode it) {
+		if (null != graph) {
+			int v = graph.getNodeID(it);
+			if (v >= 0) 
+				return addVirtualNode(v);
+		}
 		VirtualNode res = virtualNodesTbl.get(it);
 		if (null == res) {
-			res = new VirtualNode(it);
+			res = new VirtualNode(it, -1);
 			virtualNodesTbl.put(it, res);
 		}
 		return res;
 	}
+	
+	private VirtualNode addVirtualNode(int v) {
+		VirtualNode res = virtualNodes[v];
+		if (null == res) {
+			res = new VirtualNode(graph.getNode(v), v);
+			virtualNodes[v] = res;
+		}
+		return res;
+	}
+	
+	/* the virtual node of the id-th ant node of a hyperedge, which is at
+	 * edgePos in the hyperedges of the parent node; if the parent node
+	 * is in the compact view, the child is found by position */
+	private VirtualNode getChildVirtualNode(int parentID, HyperEdge edge, int edgePos, int id) {
+		if (parentID >= 0) {
+			int e = graph.getFirstEdge(parentID) + edgePos;
+			return addVirtualNode(graph.getTail(graph.getFirstTail(e) + id));
+		}
+		return addVirtualNode(edge.getAntNodes().get(id));
+	}
 
 	
 //=========================== class VirtualNode ===========================
@@ -428,9 +571,11 @@ public class KBestExtractor {
 		private HashMap<String, Integer>  derivationTbl = null; // rememeber which DerivationState has been explored; why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 
 		private HashMap<String, Integer> nbestStrTbl = null; //reember unique *string* at each item, used for unique-nbest-string extraction 
 		HGNode pNode = null;
+		int nodeID = -1; //id of pNode in the compact view, or -1 if it is not in one
 		
-		public VirtualNode(HGNode it) {
+		public VirtualNode(HGNode it, int nodeID) {
 			this.pNode = it;
+			this.nodeID = nodeID;
 		}
 		
 		//return: the k-th hyp or null; k is started from one
@@ -492,8 +637,7 @@ public class KBestExtractor {
 				return;
 			}
 			for (int i = 0; i < last.edge.getAntNodes().size(); i++) { // slide the ant item
-				HGNode it = (HGNode) last.edge.getAntNodes().get(i);
-				VirtualNode virtualIT = kbestExtator.addVirtualNode(it);
+				VirtualNode virtualIT = kbestExtator.getChildVirtualNode(last.parentID, last.edge, last.edgePos, i);
 				int[] newRanks = new int[last.ranks.length];
 				for (int c = 0; c < newRanks.length;c++) {
 					newRanks[c] = last.ranks[c];
@@ -510,7 +654,7 @@ public class KBestExtractor {
 				if (newRanks[i] <= virtualIT.nbests.size() // exist the new_ranks[i] derivation
 				  /*&& "t" is not in heap_cands*/) { // already checked before, check this condition
 					double cost = last.cost - virtualIT.nbests.get(last.ranks[i]-1).cost + virtualIT.nbests.get(newRanks[i]-1).cost;
-					DerivationState t = new DerivationState(last.parentNode, last.edge, newRanks, cost, last.edgePos);
+					DerivationState t = new DerivationState(last.parentNode, last.parentID, last.edge, newRanks, cost, last.edgePos);
 					candHeap.add(t);
 					derivationTbl.put(newSig,1);
 				}
@@ -531,7 +675,7 @@ public class KBestExtractor {
 			}
 			int pos = 0;
 			for (HyperEdge edge : pNode.hyperedges) {
-				DerivationState t = getBestDerivation(symbolTbl, kbestExtator, pNode, edge, pos);
+				DerivationState t = getBestDerivation(symbolTbl, kbestExtator, pNode, nodeID, edge, pos);
 //				why duplicate, e.g., 1 2 + 1 0 == 2 1 + 0 1 , but here we should not get duplicate
 				if (!derivationTbl.containsKey(t.getSignature())) {
 					candHeap.add(t);
@@ -557,7 +701,7 @@ public class KBestExtractor {
 		}
 		
 		//get my best derivation, and recursively add 1best for all my children, used by get_candidates only
-		private DerivationState getBestDerivation(SymbolTable symbolTbl, KBestExtractor kbestExtator, HGNode parentNode, HyperEdge hyperEdge, int edgePos){
+		private DerivationState getBestDerivation(SymbolTable symbolTbl, KBestExtractor kbestExtator, HGNode parentNode, int parentID, HyperEdge hyperEdge, int edgePos){
 			int[] ranks;
 			double cost=0;
 			if(hyperEdge.getAntNodes()==null){//axiom
@@ -567,13 +711,12 @@ public class KBestExtractor {
 				ranks = new int[hyperEdge.getAntNodes().size()];					
 				for(int i=0; i < hyperEdge.getAntNodes().size();i++){//make sure the 1best at my children is ready
 					ranks[i]=1;//rank start from one									
-					HGNode child_it = (HGNode) hyperEdge.getAntNodes().get(i);//add the 1best for my children
-					VirtualNode virtual_child_it = kbestExtator.addVirtualNode(child_it);
+					VirtualNode virtual_child_it = kbestExtator.getChildVirtualNode(parentID, hyperEdge, edgePos, i);//add the 1best for my children
 					virtual_child_it.lazyKBestExtractOnNode(symbolTbl, kbestExtator,  ranks[i]);
 				}
 				cost = - hyperEdge.bestDerivationLogP;//seeding
 			}				
-			DerivationState t = new DerivationState(parentNode, hyperEdge, ranks, cost, edgePos );
+			DerivationState t = new DerivationState(parentNode, parentID, hyperEdge, ranks, cost, edgePos );
 			return t;
 		}
 	};
@@ -590,14 +733,16 @@ public class KBestExtractor {
 	private class DerivationState implements Comparable<DerivationState> 
 	{
 		HGNode parentNode;//the parentNode of the edge
+		int parentID;//the id of parentNode in the compact view, or -1
 		HyperEdge edge;//in the paper, it is "e"		
 		//**lesson: once we define this as a static variable, which cause big trouble
 		int edgePos; //this is my position in my parent's Item.l_hyperedges, used for signature calculation
 		int[] ranks;//in the paper, it is "j", which is a ArrayList of size |e|
 		double cost;//the cost of this hypthesis
 		
-		public DerivationState(HGNode pa, HyperEdge e, int[] r, double c ,int pos){
+		public DerivationState(HGNode pa, int paID, HyperEdge e, int[] r, double c ,int pos){
 			parentNode = pa;
+			parentID = paID;
 			edge =e ;
 			ranks = r;
 			cost=c;
@@ -734,8 +879,7 @@ public class KBestExtractor {
 		*/
 		
 		private DerivationState getChildDerivationState(KBestExtractor kbestExtator, HyperEdge edge, int id){
-			HGNode child = edge.getAntNodes().get(id);
-			VirtualNode virtualChild = kbestExtator.addVirtualNode(child);
+			VirtualNode virtualChild = kbestExtator.getChildVirtualNode(parentID, edge, edgePos, id);
 			return virtualChild.nbests.get(ranks[id]-1);
 		}
 		
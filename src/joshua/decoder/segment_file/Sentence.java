@@ -94,6 +94,10 @@ public class Sentence {
         return id;
     }
 
+    public int sequenceId() {
+        return sequenceId;
+    }
+
     public String sentence() {
         return sentence;
     }
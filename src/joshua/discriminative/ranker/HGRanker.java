@@ -4,7 +4,6 @@ package joshua.discriminative.ranker;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -14,6 +13,7 @@ import joshua.corpus.vocab.SymbolTable;
 import joshua.decoder.JoshuaConfiguration;
 import joshua.decoder.chart_parser.ComputeNodeResult;
 import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.hypergraph.CompactHyperGraph;
 import joshua.decoder.hypergraph.DiskHyperGraph;
 import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
@@ -33,7 +33,6 @@ import joshua.discriminative.feature_related.feature_function.EdgeTblBasedBaseli
 
 public class HGRanker {
 	
-	private HashSet<HGNode> processedNodesTbl =  new HashSet<HGNode>();	
 	private List<FeatureFunction> featFunctions;
 	
 	private int numChangedBestHyperedge = 0;
@@ -49,9 +48,16 @@ public class HGRanker {
 	 */
 	public void rankHG(HyperGraph hg){
 		resetState();
-		rankHGNode(hg.goalNode);
+		CompactHyperGraph graph = new CompactHyperGraph(hg);
+		double[] transLogPs = new double[graph.getNumEdges()];
+		for(int e=0; e<transLogPs.length; e++){
+			transLogPs[e] = getTransitionLogP(graph.getNode(graph.getEdgeHead(e)), graph.getEdge(e));
+		}
+		/**Due to diskHG precision, the behavior may not be precise
+		 **/
+		numChangedBestHyperedge = graph.viterbi(transLogPs);
 		//logger.info("number of nodes whose best hyperedge changes is " + numChangedBestHyperedge 
-		//		+ " among total number of nodes " + processedNodesTbl.size() );
+		//		+ " among total number of nodes " + graph.getNumNodes() );
 		resetState();		
 	}
 	
@@ -63,50 +69,12 @@ public class HGRanker {
 	
 	
 	public void resetState(){
-		processedNodesTbl.clear();
 		numChangedBestHyperedge = 0;
 	}
 	
  
 	
 	
-	private  void rankHGNode(HGNode it ){
-		if(processedNodesTbl.contains(it))	
-			return;
-		processedNodesTbl.add(it);
-		
-		//==== recursively call my children deductions, change pointer for bestHyperedge
-		HyperEdge oldBestHyperedge = it.bestHyperedge;
-		
-		it.bestHyperedge=null;
-		for(HyperEdge dt : it.hyperedges){					
-			rankHyperEdge(it, dt );
-			it.semiringPlus(dt);
-		}	
-		
-		/**Due to diskHG precision, the behavior may not be precise
-		 **/
-		if(it.bestHyperedge!=oldBestHyperedge){
-			numChangedBestHyperedge++;
-		}
-	}
-
-	private void rankHyperEdge(HGNode parentNode, HyperEdge dt){
-		
-		dt.bestDerivationLogP = 0;
-		if(dt.getAntNodes()!=null){
-			for(HGNode antNode : dt.getAntNodes()){
-				rankHGNode(antNode);
-				dt.bestDerivationLogP += antNode.bestHyperedge.bestDerivationLogP;//semiring times
-			}
-		}
-		double transLogP = getTransitionLogP(parentNode, dt);		
-		dt.setTransitionLogP(transLogP);		
-		dt.bestDerivationLogP += transLogP;
-		
-	}	
-	
-	
 	private double getTransitionLogP(HGNode parentNode, HyperEdge dt ){
 		return ComputeNodeResult.computeCombinedTransitionLogP(
 				this.featFunctions, dt, parentNode.i, parentNode.j, -1);
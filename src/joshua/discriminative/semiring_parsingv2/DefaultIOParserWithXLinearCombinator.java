@@ -67,7 +67,9 @@ extends DefaultInsideOutsideSemiringParser<K> {
 	/**this will run outside, 
 	 * and collect posterior counts*/
 	@Override
-	final protected void outsideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode, K parentNodeOutsideWeight){
+	final protected void outsideEstimationOverHyperedge(int e, int parentID, K parentNodeOutsideWeight){
+		HyperEdge dt = graph.getEdge(e);
+		HGNode parentNode = graph.getNode(parentID);
 	
 		//==== compute the exclusive weight in the P-semiring
 		K exclusiveKWeight =  createNewKWeight();//\overline{k_e}
@@ -79,10 +81,10 @@ extends DefaultInsideOutsideSemiringParser<K> {
 			//=== deduction specific prob
 			K edgeWeight = getEdgeKWeight(dt, parentNode);
 			
-			//=== recursive call on each ant node
-			for(HGNode antNode : dt.getAntNodes()){
-				exclusiveKWeight.multi( insideSemiringWeightsTable.get(antNode) );
-				outsideEstimationOverNode(antNode, parentNodeOutsideWeight, dt, edgeWeight);
+			//=== each ant node
+			for(int t=graph.getFirstTail(e); t<graph.getFirstTail(e+1); t++){
+				exclusiveKWeight.multi( insideSemiringWeights[graph.getTail(t)] );
+				outsideEstimationOverNode(e, t, parentNodeOutsideWeight, edgeWeight);
 			}
 		}
 		
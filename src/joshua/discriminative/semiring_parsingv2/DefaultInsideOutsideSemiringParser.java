@@ -1,8 +1,5 @@
 package joshua.discriminative.semiring_parsingv2;
 
-import java.util.HashMap;
-
-import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
 import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 
@@ -18,27 +15,12 @@ import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 public abstract class DefaultInsideOutsideSemiringParser<K extends Semiring<K>> 
 extends DefaultInsideSemiringParser<K> {
 	
-	private HashMap<HGNode, K> outsideSemiringWeightsTable ;	
-	
-	/**
-	 * for each node, remember how many hyperedges pointering
-	 * to me, this is needed for outside estimation. 
-	 * An node will recursive call its incoming
-	 * hyperedges to do outside-estimation only after it itself
-	 * is done with outside estimation, this is necessary
-	 * because the outside estimation of the node's incoding edges 
-	 * require the node's outside value.
-	 * 
-	 * TODO: A better approach is to first get topological order of the hypergraph
-	 * and then run inside in topological order, and outside in inverse-topological
-	 * order.
-	 */
-	private HashMap<HGNode,Integer> numParentHyperedgesTable;
+	/**the outside weight of each node, indexed by node id*/
+	private K[] outsideSemiringWeights;
 	
 	public DefaultInsideOutsideSemiringParser() {
 		super();
-		outsideSemiringWeightsTable =  new HashMap<HGNode, K>();
-		numParentHyperedgesTable = new HashMap<HGNode,Integer>();
+		outsideSemiringWeights = null;
 	}
 	
 	/**for correctness and saving memory, 
@@ -46,101 +28,79 @@ extends DefaultInsideSemiringParser<K> {
 	@Override
 	public  void clearState(){
 		super.clearState();
-		outsideSemiringWeightsTable.clear();
-		numParentHyperedgesTable.clear();
-	}
-
-	@Override
-	protected K insideEstimationOverNode(HGNode it){	
-		rememberNumParentHyperedges(it);
-		return super.insideEstimationOverNode(it);
+		outsideSemiringWeights = null;
 	}
 	
 //	=============================== top-downn outside estimation ====================== 
+	/**The nodes are visited in inverse topological order, 
+	 * so that the outside weight of a node is complete, 
+	 * i.e., all its parent hyperedges have been visited, 
+	 * before it is passed down to its own hyperedges.
+	 */
+	@SuppressWarnings("unchecked")
 	public void outsideEstimationOverHG(){	
-		outsideSemiringWeightsTable.clear(); 
+		outsideSemiringWeights = (K[]) new Semiring[graph.getNumNodes()];
 		
 		K initWeight = createNewKWeight();
 		initWeight.setToOne();
-		outsideSemiringWeightsTable.put(hg.goalNode, initWeight);//initialize
+		outsideSemiringWeights[graph.getGoalID()] = initWeight;//initialize
 		
-		for(HyperEdge dt : hg.goalNode.hyperedges)
-			outsideEstimationOverHyperedge(dt, hg.goalNode, initWeight);	
+		for(int v=graph.getGoalID(); v>=0; v--){
+			K nodeOutsideWeight = outsideSemiringWeights[v];
+			if(nodeOutsideWeight==null)
+				throw new RuntimeException("node is not reached by the outside estimation, must be wrong");
+			for(int e=graph.getFirstEdge(v); e<graph.getFirstEdge(v+1); e++)
+				outsideEstimationOverHyperedge(e, v, nodeOutsideWeight);
+		}
 	}
 	
-	final protected void outsideEstimationOverNode(HGNode node, K parentNodeOutsideWeight, HyperEdge parentEdge, K parentEdgeWeight){
-		
-		Integer numCalled = numParentHyperedgesTable.get(node);
-		if (null == numCalled || 0 == numCalled) {
-			System.out.println("num_called="+numCalled);
-			throw new RuntimeException("un-expected call (the number of calls is greater than the number of parent hyperedges), must be wrong");
-		}
-		numParentHyperedgesTable.put(node, numCalled-1);
+	/**adds the outside weight that the t-th tail node of hyperedge e gets from e*/
+	final protected void outsideEstimationOverNode(int e, int t, K parentNodeOutsideWeight, K parentEdgeWeight){
 		
 		//====== compute: outside(v) * k_e * product of inside prob of sibling nodes
 		K additionalOutsideProb = createNewKWeight();
 		additionalOutsideProb.setToOne();	
 		
 		//=== upper item's outside weight
-		//K outsideProbNode = outsideSemiringWeightsTable.get(parentNode);//outside prob
 		additionalOutsideProb.multi(parentNodeOutsideWeight);//outside(v)
 		
 		//=== parent hyperedge weight
 		additionalOutsideProb.multi(parentEdgeWeight);//k_e
 		
 		//=== sibing specifc inside weights
-		if(parentEdge.getAntNodes()!=null && parentEdge.getAntNodes().size()>1)
-			for(HGNode antNode : parentEdge.getAntNodes()){
-				if(antNode != node){
-					K nodeInsideProb = insideSemiringWeightsTable.get(antNode);//inside prob
-					additionalOutsideProb.multi(nodeInsideProb);
-				}				
-			}
+		for(int s=graph.getFirstTail(e); s<graph.getFirstTail(e+1); s++){
+			if(s != t){
+				K nodeInsideProb = insideSemiringWeights[graph.getTail(s)];//inside prob
+				additionalOutsideProb.multi(nodeInsideProb);
+			}				
+		}
 				
 		//=== add to old prob 
-		K oldOutsideProb  = outsideSemiringWeightsTable.get(node);
+		int node = graph.getTail(t);
+		K oldOutsideProb  = outsideSemiringWeights[node];
 		if (oldOutsideProb == null) {
 			oldOutsideProb =  createNewKWeight();
 			oldOutsideProb.setToZero();
+			outsideSemiringWeights[node] = oldOutsideProb;
 		}		
 		
 		oldOutsideProb.add(additionalOutsideProb);		
-		
-		outsideSemiringWeightsTable.put(node, oldOutsideProb);
-		
-		//=== recursive call on each deduction
-		if( numCalled-1<=0){//i am done
-			for(HyperEdge dt : node.hyperedges){
-				outsideEstimationOverHyperedge(dt, node, oldOutsideProb);
-			}
-		}
 	}
 	
-	protected void outsideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode, K parentNodeOutsideWeight){
+	/**passes the outside weight of node parentID down through its hyperedge e*/
+	protected void outsideEstimationOverHyperedge(int e, int parentID, K parentNodeOutsideWeight){
+		HyperEdge dt = graph.getEdge(e);
 	
 		//we do not need to compute outside prob if no ant items
 		if(dt.getAntNodes()!=null){
 			//=== deduction specific prob
-			K edgeWeight = getEdgeKWeight(dt, parentNode);
+			K edgeWeight = getEdgeKWeight(dt, graph.getNode(parentID));
 			
-			//=== recursive call on each ant item
-			for(HGNode antNode : dt.getAntNodes()){
-				outsideEstimationOverNode(antNode, parentNodeOutsideWeight, dt, edgeWeight);
+			//=== each ant item
+			for(int t=graph.getFirstTail(e); t<graph.getFirstTail(e+1); t++){
+				outsideEstimationOverNode(e, t, parentNodeOutsideWeight, edgeWeight);
 			}
 		}
 	}
 	//=============================== end outside estimation	
-	
-	//================ get number of hyperedges that point to me
-	/**This function will be used to get the number of parent hyperedges, 
-	 * which in turn will be used for outside estimation*/
-	final private void rememberNumParentHyperedges(HGNode node){
-		//System.out.println("called");
-		Integer numCalled = (Integer)numParentHyperedgesTable.get(node);
-		if (null == numCalled) {
-			numParentHyperedgesTable.put(node, 1);
-		} else {
-			numParentHyperedgesTable.put(node, numCalled+1);
-		}
-	}
 }
@@ -1,7 +1,6 @@
 package joshua.discriminative.semiring_parsingv2;
 
-import java.util.HashMap;
-
+import joshua.decoder.hypergraph.CompactHyperGraph;
 import joshua.decoder.hypergraph.HGNode;
 import joshua.decoder.hypergraph.HyperEdge;
 import joshua.decoder.hypergraph.HyperGraph;
@@ -21,19 +20,24 @@ import joshua.discriminative.semiring_parsingv2.semiring.Semiring;
 
 public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 
-	protected HashMap<HGNode, K> insideSemiringWeightsTable ;
+	/**the inside weight of each node, indexed by node id in graph*/
+	protected K[] insideSemiringWeights;
 
 	protected HyperGraph hg;
 	
+	/**the array-based view of hg, in which the nodes are in topological order*/
+	protected CompactHyperGraph graph;
+	
 
 	public DefaultInsideSemiringParser(){
-		insideSemiringWeightsTable =  new HashMap<HGNode, K>();
+		insideSemiringWeights = null;
 	}
 	
 
 	public void setHyperGraph(HyperGraph hg_){
 		this.clearState();
 		this.hg = hg_;
+		this.graph = new CompactHyperGraph(hg_);
 	}
 	
 	
@@ -41,7 +45,7 @@ public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 	/**for correctness and saving memory, 
 	 * external class should call this method*/
 	public  void clearState(){
-		insideSemiringWeightsTable.clear();
+		insideSemiringWeights = null;
 	}
 	
 	
@@ -57,47 +61,38 @@ public abstract class DefaultInsideSemiringParser<K extends Semiring<K>> {
 //================== bottomn-up insdide estimation ===============	
 
 	public  K getGoalK(){
-		return insideSemiringWeightsTable.get(hg.goalNode);	
+		return insideSemiringWeights[graph.getGoalID()];	
 	}
 	
+	/**the nodes are in topological order, 
+	 * so the inside weights of the ant nodes of a node are ready before it*/
+	@SuppressWarnings("unchecked")
 	public void insideEstimationOverHG(){
-		insideSemiringWeightsTable.clear(); 		
-		insideEstimationOverNode(hg.goalNode);
-	}
-	
-	protected K insideEstimationOverNode(HGNode it){
+		insideSemiringWeights = (K[]) new Semiring[graph.getNumNodes()];
 		
-		if(insideSemiringWeightsTable.containsKey(it))
-			return  insideSemiringWeightsTable.get(it);
-		
-		K res = createNewKWeight();
-		res.setToZero();
-		
-		//=== recursive call on each hyperedge
-		for(HyperEdge edge : it.hyperedges){
-			K edgeWeight = insideEstimationOverHyperedge(edge, it);
-			res.add(edgeWeight);
-		}		
-
-		insideSemiringWeightsTable.put(it,res);
-		return res;
-	}
-
-	private K insideEstimationOverHyperedge(HyperEdge dt, HGNode parentNode){
-		K res = createNewKWeight();
-		res.setToOne();
-		 
-		//=== recursive call on each ant item
-		if(dt.getAntNodes()!=null)
-			for(HGNode antNode : dt.getAntNodes()){
-				K nodeWeight = insideEstimationOverNode(antNode);
-				res.multi(nodeWeight);				
-			}
+		for(int v=0; v<graph.getNumNodes(); v++){
+			HGNode node = graph.getNode(v);
+			K res = createNewKWeight();
+			res.setToZero();
+			
+			for(int e=graph.getFirstEdge(v); e<graph.getFirstEdge(v+1); e++){
+				K edgeRes = createNewKWeight();
+				edgeRes.setToOne();
 				
-		//=== hyperedge operation
-		K edgeWeight = getEdgeKWeight(dt, parentNode);
-		res.multi(edgeWeight);	
-		return res;
+				//=== ant nodes
+				for(int t=graph.getFirstTail(e); t<graph.getFirstTail(e+1); t++){
+					edgeRes.multi(insideSemiringWeights[graph.getTail(t)]);
+				}
+				
+				//=== hyperedge operation
+				K edgeWeight = getEdgeKWeight(graph.getEdge(e), node);
+				edgeRes.multi(edgeWeight);
+				
+				res.add(edgeRes);
+			}
+			
+			insideSemiringWeights[v] = res;
+		}
 	}
 //=================== end inside estimation	
 
@@ -4,19 +4,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import joshua.corpus.vocab.SymbolTable;
 import joshua.discriminative.feature_related.feature_template.FeatureTemplate;
-import joshua.discriminative.training.expbleu.parallel.GradientConsumer;
-import joshua.discriminative.training.parallel.ProducerConsumerModel;
+import joshua.discriminative.training.expbleu.parallel.GradientWorker;
+import joshua.discriminative.training.parallel.ParallelGradientEngine;
 import joshua.discriminative.training.risk_annealer.GradientComputer;
 import joshua.discriminative.training.risk_annealer.hypergraph.HGAndReferences;
 import joshua.discriminative.training.risk_annealer.hypergraph.HyperGraphFactory;
 import joshua.discriminative.training.risk_annealer.hypergraph.MRConfig;
-import joshua.discriminative.training.risk_annealer.hypergraph.parallel.HGProducer;
 import joshua.util.Regex;
 
 public class ExpbleuGradientComputer extends GradientComputer {
@@ -34,7 +32,6 @@ public class ExpbleuGradientComputer extends GradientComputer {
 	private  double sumGain = 0; //negative risk
 
 	int numCalls = 0;	    
-	int maxNumHGInQueue = 100;
 	int numThreads = 5;
 	
 	//constant 
@@ -55,19 +52,18 @@ public class ExpbleuGradientComputer extends GradientComputer {
 	double [] ngramMatches = new double[5];
 	private double minlen = 0; 
 	ArrayList<ArrayList<Double>> ngramMatchesGradients = new ArrayList<ArrayList<Double>>(); 
-	private int consumed = 0;
+	private final AtomicInteger consumed = new AtomicInteger(0);
 	/** Logger for this class. */
 	static final private Logger logger = 
 		Logger.getLogger(ExpbleuGradientComputer.class.getSimpleName());
 	public ExpbleuGradientComputer(int numFeatures, double gainFactor,
 			double scalingFactor, double temperature,
-			boolean shouldComputeGradientForScalingFactor, boolean useSemiringV2, int numSentence, HyperGraphFactory hgFactory,  SymbolTable symbolTbl, HashMap<String, Integer> featureStringToIntegerMap, List<FeatureTemplate> featTemplates, boolean haveRefereces, int maxNumHGInQueue, int numThreads) {
+			boolean shouldComputeGradientForScalingFactor, boolean useSemiringV2, int numSentence, HyperGraphFactory hgFactory,  SymbolTable symbolTbl, HashMap<String, Integer> featureStringToIntegerMap, List<FeatureTemplate> featTemplates, boolean haveRefereces, int numThreads) {
 		super(numFeatures, gainFactor, scalingFactor, temperature,
 				shouldComputeGradientForScalingFactor);
 		this.useSemiringV2 = useSemiringV2;
 		this.numSentence = numSentence;
 		this.hgFactory = hgFactory;
-		this.maxNumHGInQueue = maxNumHGInQueue;
 		this.numThreads = numThreads;
 		// System.out.println("use HGRiskGradientComputer====");
 
@@ -111,23 +107,11 @@ public class ExpbleuGradientComputer extends GradientComputer {
 		if(this.numThreads == 1){
 			reComputeFunctionValueAndGradientNonparellel(theta);
 		} else{
-			BlockingQueue<HGAndReferences> queue = new ArrayBlockingQueue<HGAndReferences>(maxNumHGInQueue);
 			this.hgFactory.startLoop();
 			System.out.println("Compute function value and gradients for expbleu");
 			System.out.print("[");
-			HGProducer producer = new HGProducer(hgFactory, queue, numThreads, numSentence);
-			List<GradientConsumer> consumers = new ArrayList<GradientConsumer>();
-			for(int i = 0; i < this.numThreads; ++i){
-				GradientConsumer consumer = new GradientConsumer(
-						queue, this.featTemplates, this.featureStringToIntegerMap, theta, this.symbolTbl,this);
-				consumers.add(consumer);
-			}
-			//== create model, and start parallel computing
-			ProducerConsumerModel<HGAndReferences, HGProducer, GradientConsumer> 
-			model =	new ProducerConsumerModel<HGAndReferences, HGProducer, GradientConsumer>(queue, producer, consumers);
-
-			model.runParallel();
-			this.consumed = 0;
+			reComputeFunctionValueAndGradientParallel(theta);
+			this.consumed.set(0);
 			System.out.print("]\n");
 			this.hgFactory.endLoop();
 		}
@@ -177,7 +161,7 @@ public class ExpbleuGradientComputer extends GradientComputer {
 		System.out.println("Compute function value and gradients for expbleu");
 		System.out.print("[");
 		for(int cursent = 0; cursent < this.numSentence; ++ cursent){
-			HGAndReferences hgres = this.hgFactory.nextHG();
+			HGAndReferences hgres = nextHG();
 			int minlenForOne = 10000;
 			for(String ref : hgres.referenceSentences){
 				String [] words = Regex.spaces.split(ref);
@@ -213,19 +197,50 @@ public class ExpbleuGradientComputer extends GradientComputer {
 
 	}
 	
-	public synchronized void accumulate(ArrayList<ArrayList<Double>> ngramMatchesGradients, double [] matchs, double minlen){
+	/**return the next hypergraph, failing if there are fewer than
+	 * the training sentences*/
+	private HGAndReferences nextHG(){
+		HGAndReferences res = this.hgFactory.nextHG();
+		if(res.hg == null)
+			throw new IllegalStateException("there are fewer hypergraphs than the " + this.numSentence + " training sentences");
+		return res;
+	}
+
+	private void reComputeFunctionValueAndGradientParallel(final double[] theta){
+		//once the hypergraphs are cached, or if they are in a binary file,
+		//they are read in any order, largest first
+		final boolean randomAccess = this.hgFactory.hasRandomAccess();
+		long[] sizes = randomAccess ? this.hgFactory.getHGSizes() : null;
+
+		ParallelGradientEngine engine = ParallelGradientEngine.getSharedEngine(this.numThreads);
+		engine.run(this.numSentence, sizes, new ParallelGradientEngine.Task<GradientWorker>() {
+
+			public GradientWorker createAccumulator() {
+				return new GradientWorker(featTemplates, featureStringToIntegerMap, theta, symbolTbl);
+			}
+
+			public void compute(int sentID, GradientWorker worker) {
+				worker.compute(randomAccess ? hgFactory.getHG(sentID) : nextHG());
+				if(consumed.incrementAndGet() % 100 == 0){
+					System.out.print(".");
+				}
+			}
+
+			public void reduce(GradientWorker worker) {
+				accumulate(worker.getNgramMatchesGradients(), worker.getNgramMatches(), worker.getRefLen());
+			}
+		});
+	}
+
+	private void accumulate(double[][] ngramMatchesGradients, double [] matchs, double minlen){
 		for(int i = 0; i < 5; ++i){
 			this.ngramMatches[i] += matchs[i];
 			for(int j = 0; j < this.numFeats; ++j){
 				this.ngramMatchesGradients.get(i).set(j, 
-							this.ngramMatchesGradients.get(i).get(j) + ngramMatchesGradients.get(i).get(j));
+							this.ngramMatchesGradients.get(i).get(j) + ngramMatchesGradients[i][j]);
 			}
 		}
 		this.minlen += minlen;
-		consumed ++;
-		if(consumed % 100 == 0){
-			System.out.print(".");
-		}
 	}
 	
 	private double myexp(double x){
@@ -253,6 +253,9 @@ public class HGMaxExpbleu extends AbstractMinRiskMERT {
 				decodingTestSet(null, curHypFilePrefix);
 				System.out.println("Decoded: " + curHypFilePrefix);
 			}
+
+			// ==== the passes of the optimizer read the hypergraphs from a binary file
+			HyperGraphFactory.convertToBinary(curHypFilePrefix, MRConfig.ngramStateID, symbolTbl);
       	Map<String, Integer>  ruleStringToIDTable = DiskHyperGraph.obtainRuleStringToIDTable(curHypFilePrefix+".hg.rules");
         	
         	//try to abbrevate the featuers if possible
@@ -272,7 +275,7 @@ public class HGMaxExpbleu extends AbstractMinRiskMERT {
          	GradientComputer gradientComputer = new HGRiskGradientComputer(MRConfig.useSemiringV2,
     				numTrainingSentence, numPara, MRConfig.gainFactor, 1.0, 0.0, true,
         			MRConfig.fixFirstFeature, hgFactory,
-        			MRConfig.maxNumHGInQueue, MRConfig.numThreads,
+        			MRConfig.numThreads,
         			
         			MRConfig.ngramStateID,  MRConfig.baselineLMOrder, symbolTbl,
         			featureStringToIntegerMap, featTemplates,
@@ -293,6 +296,8 @@ public class HGMaxExpbleu extends AbstractMinRiskMERT {
         		System.exit(0);
         	}*/
         	HyperGraphFactory hgFactory = new HyperGraphFactory(curHypFilePrefix, referenceFiles, MRConfig.ngramStateID,  symbolTbl, this.haveRefereces);
+        	if(MRConfig.saveHGInMemory)//read and parse the hypergraphs once, instead of at every function evaluation
+        		hgFactory.useForestCache(MRConfig.forestCacheHeapMB*1024L*1024L);
         	
         	
         	
@@ -315,12 +320,12 @@ public class HGMaxExpbleu extends AbstractMinRiskMERT {
         			this.featureStringToIntegerMap, 
         			this.featTemplates, 
         			haveRefereces, 
-        			MRConfig.maxNumHGInQueue, 
         			MRConfig.numThreads);
 //        	comp.reComputeFunctionValueAndGradient(lastWeightVector);
         	GradientOptimizer lbfgsRunner = new GradientOptimizer(this.numPara, lastWeightVector, false, comp, 
         			MRConfig.useL2Regula, MRConfig.varianceForL2, MRConfig.useModelDivergenceRegula, MRConfig.lambda, MRConfig.printFirstN);
         	lastWeightVector = lbfgsRunner.runLBFGS();
+        	hgFactory.clearForestCache();
 		}
 
 		//final output
@@ -8,6 +8,7 @@ import java.util.logging.Logger;
 import joshua.decoder.BLEU;
 import joshua.discriminative.FileUtilityOld;
 import joshua.discriminative.training.expbleu.ExpbleuGradientComputer;
+import joshua.discriminative.training.parallel.ParallelGradientEngine;
 import joshua.discriminative.training.risk_annealer.GradientComputer;
 import joshua.discriminative.training.risk_annealer.hypergraph.MRConfig;
 import joshua.util.Regex;
@@ -22,8 +23,11 @@ public class NbestExpbleuGradientComputer extends GradientComputer {
 	private ArrayList<ArrayList<String>> nbestlines;
 	private ArrayList<ArrayList<String>> refs; 
 	private double minLen;
+	private double closestLen;//sum of the closest reference lengths, of the last pass
 	private double N = 1000;
 	private int numRefs = 4;
+	private int numThreads = 1;
+	private long[] nbestSizes;//the number of hypotheses of each sentence
 	static final private Logger logger = 
 		Logger.getLogger(ExpbleuGradientComputer.class.getSimpleName());
 
@@ -35,10 +39,12 @@ public class NbestExpbleuGradientComputer extends GradientComputer {
 			double scalingFactor, 
 			double temperature,
 			boolean shouldComputeGradientForScalingFactor, 
-			int numSentence) {
+			int numSentence,
+			int numThreads) {
 		super(numFeatures, gainFactor, scalingFactor, temperature,
 				shouldComputeGradientForScalingFactor);
 		this.numSentence = numSentence;
+		this.numThreads = numThreads;
 		// System.out.println("use HGRiskGradientComputer====");
 		
 		this.numRefs = refFiles.length;
@@ -96,6 +102,10 @@ public class NbestExpbleuGradientComputer extends GradientComputer {
 			for(int i = 0; i < this.numSentence; ++i){
 				this.minLen += minLens.get(i);
 			}
+			this.nbestSizes = new long[this.numSentence];
+			for(int i = 0; i < this.numSentence; ++i){
+				this.nbestSizes[i] = this.nbestlines.get(i).size();
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -123,84 +133,113 @@ public class NbestExpbleuGradientComputer extends GradientComputer {
 		for(int j = 0; j < this.numFeats; ++j){
 			this.gradientsForTheta[j] = 0;
 		}
+		this.closestLen = 0;
 		
-		double [] matches = new double[5];
-		double Z = 0;
-		double [] dz = new double[this.numFeats];
-		for(int j = 0; j < this.numFeats; ++j){
-			dz[j] = 0;
-		}
-		ArrayList<ArrayList<Double>> dm = new ArrayList<ArrayList<Double>>(5);
-		for(int i = 0; i < 5; ++i){
-			matches[i] = 0;
-			ArrayList<Double> row = new ArrayList<Double>(this.numFeats);
-			for(int j = 0; j < this.numFeats; ++j){
-				row.add(0.0);
+		final double [] weights = theta;
+		ParallelGradientEngine engine = ParallelGradientEngine.getSharedEngine(this.numThreads);
+		engine.run(this.numSentence, this.nbestSizes, new ParallelGradientEngine.Task<NbestSums>() {
+
+			public NbestSums createAccumulator() {
+				return new NbestSums(numFeats);
+			}
+
+			public void compute(int sentID, NbestSums sums) {
+				computeSentence(sentID, weights, sums);
 			}
-			dm.add(row);
-		}
-		double closestLen = 0;
-		for(int i = 0; i < this.numSentence; ++i){
-			String [] sentRefs = new String[refFiles.length];
-			
-			this.refs.get(i).toArray(sentRefs);
-			for(String nbestline : this.nbestlines.get(i)){
-				String fds [] = nbestline.split("\\s+\\|{3}\\s+");
-				String [] feats = fds[2].split("\\s+");
-				double score = 0; 
-				for(int j = 0; j < this.numFeats; ++j){
-					score += Double.valueOf(feats[j]) * theta[j];
-				}
-				double p =  myexp(score);
-				Z += p;
-				int[] hypNgramMatches = BLEU.computeNgramMatches(sentRefs, fds[1]);
 
+			public void reduce(NbestSums sums) {
 				for(int j = 0; j < 5; ++j){
-					matches[j] += hypNgramMatches[j] * p;
-					for(int k = 0; k < this.numFeats; ++k){
-						dm.get(j).set(k, dm.get(j).get(k) + Double.valueOf(feats[k]) * p * hypNgramMatches[j]);
+					ngramMatches[j] += sums.ngramMatches[j];
+					for(int k = 0; k < numFeats; ++k){
+						ngramMatchesGradients.get(j).set(k, ngramMatchesGradients.get(j).get(k) + sums.ngramMatchesGradients[j][k]);
 					}
 				}
-			
-				for(int j = 0; j < this.numFeats; ++j){
-					dz[j] += Double.valueOf(feats[j]) * p;
-				}
-				
+				closestLen += sums.closestLen;
 			}
-			if(Z == 0){
-				continue;
-			}			
-			double lengthExp = matches[0]/Z;
-			for(int j = 0; j < 5; ++j){
-				this.ngramMatches[j] += matches[j]/Z;
+		});
+		this.minLen = this.closestLen; // use closest length, instead of the minimum length to compute the length penalty; 
+		finalizeFunAndGradients();
+	}
 
-						
+	/**the sums over the sentences computed by one thread, and its
+	 * scratch space for the expectations of one sentence*/
+	private static class NbestSums {
+		double [] ngramMatches = new double[5];
+		double [][] ngramMatchesGradients;
+		double closestLen = 0;
+
+		double [] matches = new double[5];
+		double [][] dm;
+		double [] dz;
+
+		NbestSums(int numFeats){
+			ngramMatchesGradients = new double[5][numFeats];
+			dm = new double[5][numFeats];
+			dz = new double[numFeats];
+		}
+	}
+
+	private void computeSentence(int i, double[] theta, NbestSums sums){
+		double [] matches = sums.matches;
+		double [][] dm = sums.dm;
+		double [] dz = sums.dz;
+		double Z = 0;
+		String [] sentRefs = new String[refFiles.length];
+		
+		this.refs.get(i).toArray(sentRefs);
+		for(String nbestline : this.nbestlines.get(i)){
+			String fds [] = nbestline.split("\\s+\\|{3}\\s+");
+			String [] feats = fds[2].split("\\s+");
+			double score = 0; 
+			for(int j = 0; j < this.numFeats; ++j){
+				score += Double.valueOf(feats[j]) * theta[j];
+			}
+			double p =  myexp(score);
+			Z += p;
+			int[] hypNgramMatches = BLEU.computeNgramMatches(sentRefs, fds[1]);
+
+			for(int j = 0; j < 5; ++j){
+				matches[j] += hypNgramMatches[j] * p;
 				for(int k = 0; k < this.numFeats; ++k){
-					double grad = (dm.get(j).get(k)*Z - matches[j] * dz[k])/Z/Z;
-					this.ngramMatchesGradients.get(j).set(k, this.ngramMatchesGradients.get(j).get(k) + grad);
-					dm.get(j).set(k, 0.0);
-				}
-				matches[j] = 0;
-			}
-			double closestLenForOneSent = 0; 
-			double minDiff = 10000;
-			for(int k = 0; k < numRefs; ++k){
-				String[] wds = Regex.spaces.split(sentRefs[k]);
-				double diff = Math.abs(wds.length - lengthExp);
-				if( diff < minDiff){
-					minDiff = diff;
-					closestLenForOneSent = wds.length;
+					dm[j][k] += Double.valueOf(feats[k]) * p * hypNgramMatches[j];
 				}
-					
 			}
-			closestLen += closestLenForOneSent;
-			Z = 0; 
+		
 			for(int j = 0; j < this.numFeats; ++j){
-				dz[j] = 0; 
+				dz[j] += Double.valueOf(feats[j]) * p;
 			}
+			
+		}
+		if(Z == 0){
+			return;
+		}			
+		double lengthExp = matches[0]/Z;
+		for(int j = 0; j < 5; ++j){
+			sums.ngramMatches[j] += matches[j]/Z;
+
+					
+			for(int k = 0; k < this.numFeats; ++k){
+				double grad = (dm[j][k]*Z - matches[j] * dz[k])/Z/Z;
+				sums.ngramMatchesGradients[j][k] += grad;
+				dm[j][k] = 0;
+			}
+			matches[j] = 0;
+		}
+		double closestLenForOneSent = 0; 
+		double minDiff = 10000;
+		for(int k = 0; k < numRefs; ++k){
+			String[] wds = Regex.spaces.split(sentRefs[k]);
+			double diff = Math.abs(wds.length - lengthExp);
+			if( diff < minDiff){
+				minDiff = diff;
+				closestLenForOneSent = wds.length;
+			}
+				
+		}
+		sums.closestLen += closestLenForOneSent;
+		for(int j = 0; j < this.numFeats; ++j){
+			dz[j] = 0; 
 		}
-		this.minLen = closestLen; // use closest length, instead of the minimum length to compute the length penalty; 
-		finalizeFunAndGradients();
 	}
 	private void finalizeFunAndGradients() {
 		// TODO Auto-generated method stub
@@ -358,7 +358,7 @@ public class NbestMaxExpbleu extends AbstractMinRiskMERT {
          	GradientComputer gradientComputer = new HGRiskGradientComputer(MRConfig.useSemiringV2,
     				numTrainingSentence, numPara, MRConfig.gainFactor, 1.0, 0.0, true,
         			MRConfig.fixFirstFeature, hgFactory,
-        			MRConfig.maxNumHGInQueue, MRConfig.numThreads,
+        			MRConfig.numThreads,
         			
         			MRConfig.ngramStateID,  MRConfig.baselineLMOrder, symbolTbl,
         			featureStringToIntegerMap, featTemplates,
@@ -395,7 +395,8 @@ public class NbestMaxExpbleu extends AbstractMinRiskMERT {
         			MRConfig.gainFactor,
         			1.0, 0.0,
         			false, 
-        			this.numTrainingSentence);
+        			this.numTrainingSentence,
+        			MRConfig.numThreads);
         	//        	comp.reComputeFunctionValueAndGradient(lastWeightVector);
         	GradientOptimizer lbfgsRunner = new GradientOptimizer(this.numPara, lastWeightVector, false, comp, 
         			MRConfig.useL2Regula, MRConfig.varianceForL2, MRConfig.useModelDivergenceRegula, MRConfig.lambda, MRConfig.printFirstN);
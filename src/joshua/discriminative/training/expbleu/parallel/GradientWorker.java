@@ -0,0 +1,75 @@
+package joshua.discriminative.training.expbleu.parallel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import joshua.corpus.vocab.SymbolTable;
+import joshua.discriminative.feature_related.feature_template.FeatureTemplate;
+import joshua.discriminative.training.expbleu.ExpbleuSemiringParser;
+import joshua.discriminative.training.risk_annealer.hypergraph.HGAndReferences;
+import joshua.util.Regex;
+
+/**The state of one thread of ExpbleuGradientComputer: the sums of
+ * the expected n-gram matches and their gradients over the sentences
+ * that it computed, which are reduced at the end of the pass.
+ * */
+public class GradientWorker {
+
+	private List<FeatureTemplate> featTemplates;
+	private HashMap<String,Integer> featureStringToIntegerMap;
+	private double [] theta;
+	private SymbolTable symbolTbl;
+	private int numFeats;
+
+	//== sums over the sentences computed by this thread
+	private double [] ngramMatches = new double[5];
+	private double [][] ngramMatchesGradients;
+	private double refLen = 0;
+
+	public GradientWorker(List<FeatureTemplate> featTemplates, HashMap<String, Integer> featureStringToIntegerMap, double[] theta, SymbolTable symbolTbl) {
+		this.featTemplates = featTemplates;
+		this.theta = theta;
+		this.symbolTbl = symbolTbl;
+		this.featureStringToIntegerMap = featureStringToIntegerMap;
+		this.numFeats = featureStringToIntegerMap.size();
+		this.ngramMatchesGradients = new double[5][this.numFeats];
+	}
+
+	public void compute(HGAndReferences x) {
+		ExpbleuSemiringParser parser =  new ExpbleuSemiringParser(
+				x.referenceSentences,
+				this.featTemplates,
+				this.featureStringToIntegerMap,
+				theta,
+				new HashSet<String>(this.featureStringToIntegerMap.keySet()),
+				this.symbolTbl);
+		parser.setHyperGraph(x.hg);
+		parser.parseOverHG();
+		double [] matches = parser.getNgramMatches();
+		for(int i = 0; i < 5; ++i){
+			this.ngramMatches[i] += matches[i];
+			double [] gradientsForNgramMatches = parser.getGradients(i);
+			for(int j = 0; j < this.numFeats; ++j){
+				this.ngramMatchesGradients[i][j] += gradientsForNgramMatches[j];
+			}
+		}
+		String ref = x.referenceSentences[0];
+		String [] wds = Regex.spaces.split(ref);
+		this.refLen += wds.length;
+	}
+
+	public double[] getNgramMatches() {
+		return ngramMatches;
+	}
+
+	public double[][] getNgramMatchesGradients() {
+		return ngramMatchesGradients;
+	}
+
+	/**return the sum of the lengths of the first reference of each sentence*/
+	public double getRefLen() {
+		return refLen;
+	}
+
+}
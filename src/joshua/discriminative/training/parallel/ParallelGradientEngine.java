@@ -0,0 +1,215 @@
+package joshua.discriminative.training.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**This runs a per-sentence computation (e.g., the gradient and
+ * function value of each training sentence) over a corpus, on a pool
+ * of threads that is reused by all the passes.
+ *
+ * <p>The sentences are handed out one at a time, largest first, and
+ * each thread takes the next one as soon as it is done with its own.
+ * So threads that get small sentences keep working while the others
+ * finish large ones, instead of idling until the end of the pass.
+ *
+ * <p>Each thread accumulates into its own buffer, and the buffers
+ * are reduced once the pass is done, so no lock is taken per sentence.
+ * */
+
+public final class ParallelGradientEngine {
+
+	/**The computation of a pass, parameterized by the class of the
+	 * per-thread buffers.*/
+	public interface Task<A> {
+
+		/**return a new buffer, for one thread*/
+		A createAccumulator();
+
+		/**compute the contribution of one sentence into the buffer of the current thread*/
+		void compute(int sentID, A accumulator);
+
+		/**add the buffer of one thread into the result of the pass;
+		 * this is called once per buffer, by the thread that runs the pass*/
+		void reduce(A accumulator);
+	}
+
+
+	private final int numThreads;
+	private final ExecutorService executor;//null if only one thread
+
+	private static final HashMap<Integer,ParallelGradientEngine> sharedEngines =
+		new HashMap<Integer,ParallelGradientEngine>();//by number of threads
+
+	 /** Logger for this class. */
+	private static final Logger logger =
+		Logger.getLogger(ParallelGradientEngine.class.getName());
+
+
+	public ParallelGradientEngine(int numThreads){
+		if(numThreads<=0){
+			throw new IllegalArgumentException("has zero threads, must be wrong!");
+		}
+		this.numThreads = numThreads;
+
+		if(numThreads==1){
+			this.executor = null;
+		}else{
+			this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				private final AtomicInteger numCreated = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gradient-" + numCreated.incrementAndGet());
+					t.setDaemon(true);//the pool must not keep the JVM alive
+					return t;
+				}
+			});
+		}
+	}
+
+
+	/**return the engine shared by all the gradient computers that
+	 * ask for this number of threads; the engines are never shut down,
+	 * since one may be running a pass for another computer*/
+	public static synchronized ParallelGradientEngine getSharedEngine(int numThreads){
+		ParallelGradientEngine engine = sharedEngines.get(numThreads);
+		if(engine==null){
+			engine = new ParallelGradientEngine(numThreads);
+			sharedEngines.put(numThreads, engine);
+			logger.info("created a gradient engine with " + numThreads + " threads");
+		}
+		return engine;
+	}
+
+
+	public int getNumThreads(){
+		return numThreads;
+	}
+
+
+	/**Run the task on each of the sentences 0, ..., numSentences-1,
+	 * and reduce the buffers of the threads.
+	 *
+	 * @param sizes the relative cost of each sentence (e.g., the
+	 *        size of its forest), or null if unknown, in which case
+	 *        the sentences are handed out in order
+	 * @throws IllegalArgumentException if there are fewer sizes than sentences
+	 **/
+	public <A> void run(int numSentences, long[] sizes, final Task<A> task){
+		if(sizes!=null && sizes.length<numSentences){
+			throw new IllegalArgumentException("has the sizes of " + sizes.length
+					+ " sentences, but " + numSentences + " sentences to compute");
+		}
+
+		final int[] order = sortBySize(numSentences, sizes);
+		final AtomicInteger next = new AtomicInteger(0);
+
+		if(executor==null || numSentences<=1){
+			task.reduce(work(order, next, task));
+			return;
+		}
+
+		Callable<A> worker = new Callable<A>() {
+			public A call() {
+				return work(order, next, task);
+			}
+		};
+
+		int numWorkers = Math.min(numThreads, numSentences);
+		List<Future<A>> futures = new ArrayList<Future<A>>(numWorkers);
+		for(int i=0; i<numWorkers; i++){
+			futures.add(executor.submit(worker));
+		}
+
+		try {
+			for(Future<A> future : futures){
+				task.reduce(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while waiting for the gradient threads", e);
+		} catch (ExecutionException e) {
+			//a failure in one thread fails the whole pass; the other threads
+			//stop after their current sentence, and the pass only returns
+			//once they have, so that none is left running into the next pass
+			awaitAll(futures);
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+
+	/**take sentences until none is left*/
+	private static <A> A work(int[] order, AtomicInteger next, Task<A> task){
+		A accumulator = task.createAccumulator();
+		boolean done = false;
+		int k;
+		try {
+			while((k=next.getAndIncrement()) < order.length){
+				task.compute(order[k], accumulator);
+			}
+			done = true;
+		} finally {
+			if(!done)
+				next.set(order.length);//the other threads stop too
+		}
+		return accumulator;
+	}
+
+
+	/**wait for the workers of a failed pass, ignoring their results*/
+	private static void awaitAll(List<? extends Future<?>> futures){
+		for(Future<?> future : futures){
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				//the failure of this pass is already being reported
+			}
+		}
+	}
+
+
+	private static int[] sortBySize(int numSentences, final long[] sizes){
+		int[] order = new int[numSentences];
+		if(sizes==null){
+			for(int i=0; i<numSentences; i++)
+				order[i] = i;
+			return order;
+		}
+
+		Integer[] ids = new Integer[numSentences];
+		for(int i=0; i<numSentences; i++)
+			ids[i] = i;
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if(sizes[a]!=sizes[b])
+					return (sizes[a] > sizes[b]) ? -1 : 1;//largest first
+				return a.compareTo(b);
+			}
+		});
+		for(int i=0; i<numSentences; i++)
+			order[i] = ids[i];
+		return order;
+	}
+
+
+	public void shutdown(){
+		if(executor!=null)
+			executor.shutdown();
+	}
+}
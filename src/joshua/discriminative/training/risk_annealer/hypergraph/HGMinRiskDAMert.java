@@ -198,6 +198,9 @@ public class HGMinRiskDAMert extends AbstractMinRiskMERT {
 				}
         	}
         	
+        	//==== the passes of the annealer read the hypergraphs from a binary file
+        	HyperGraphFactory.convertToBinary(curHypFilePrefix, MRConfig.ngramStateID, symbolTbl);
+        	
         	Map<String, Integer>  ruleStringToIDTable = DiskHyperGraph.obtainRuleStringToIDTable(curHypFilePrefix+".hg.rules");
         	
         	//try to abbrevate the featuers if possible
@@ -214,10 +217,12 @@ public class HGMinRiskDAMert extends AbstractMinRiskMERT {
         	
         	//==== run DA annealer to obtain optimal weight vector using the hypergraphs as training data 	
         	HyperGraphFactory hgFactory = new HyperGraphFactory(curHypFilePrefix, referenceFiles, MRConfig.ngramStateID,  symbolTbl, this.haveRefereces);   
+        	if(MRConfig.saveHGInMemory)//read and parse the hypergraphs once, instead of at every function evaluation
+        		hgFactory.useForestCache(MRConfig.forestCacheHeapMB*1024L*1024L);
          	GradientComputer gradientComputer = new HGRiskGradientComputer(MRConfig.useSemiringV2,
     				numTrainingSentence, numPara, MRConfig.gainFactor, 1.0, 0.0, true,
         			MRConfig.fixFirstFeature, hgFactory,
-        			MRConfig.maxNumHGInQueue, MRConfig.numThreads,
+        			MRConfig.numThreads,
         			
         			MRConfig.ngramStateID,  MRConfig.baselineLMOrder, symbolTbl,
         			featureStringToIntegerMap, featTemplates,
@@ -237,6 +242,7 @@ public class HGMinRiskDAMert extends AbstractMinRiskMERT {
         		logger.severe("unsorported anneal mode, " + MRConfig.annealingMode);
         		System.exit(0);
         	}
+        	hgFactory.clearForestCache();
         	
         	
         	//=====re-compute onebest BLEU
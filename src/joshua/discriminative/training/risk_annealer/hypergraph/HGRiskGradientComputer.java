@@ -1,19 +1,14 @@
 package joshua.discriminative.training.risk_annealer.hypergraph;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 import joshua.corpus.vocab.SymbolTable;
 import joshua.discriminative.feature_related.feature_template.FeatureTemplate;
-import joshua.discriminative.training.parallel.ProducerConsumerModel;
+import joshua.discriminative.training.parallel.ParallelGradientEngine;
 import joshua.discriminative.training.risk_annealer.GradientComputer;
-import joshua.discriminative.training.risk_annealer.hypergraph.parallel.GradientConsumer;
-import joshua.discriminative.training.risk_annealer.hypergraph.parallel.HGProducer;
+import joshua.discriminative.training.risk_annealer.hypergraph.parallel.GradientWorker;
 
 
 public class HGRiskGradientComputer extends GradientComputer {
@@ -29,7 +24,6 @@ public class HGRiskGradientComputer extends GradientComputer {
    
     int numCalls = 0;
     
- 	int maxNumHGInQueue = 100;
  	int numThreads = 5;
  	
  	boolean useSemiringV2 = false;
@@ -56,7 +50,7 @@ public class HGRiskGradientComputer extends GradientComputer {
     public HGRiskGradientComputer(boolean useSemiringV2, int numSentence, 
             int numFeatures, double gainFactor, double scale, double temperature, boolean computeScalingGradient, 
             boolean fixFirstFeature, HyperGraphFactory hgFactory,
-            int maxNumHGInQueue, int numThreads,
+            int numThreads,
             
             //== feature and risk related
             int ngramStateID, int baselineLMOrder, SymbolTable symbolTbl,
@@ -69,7 +63,6 @@ public class HGRiskGradientComputer extends GradientComputer {
         this.numSentence = numSentence;
         this.fixFirstFeature = fixFirstFeature;
         this.hgFactory = hgFactory;
-        this.maxNumHGInQueue = maxNumHGInQueue;
         this.numThreads = numThreads;
        // System.out.println("use HGRiskGradientComputer====");
         
@@ -161,59 +154,69 @@ public class HGRiskGradientComputer extends GradientComputer {
     }
 
     
-    private void reComputeFunctionValueAndGradientHelper(double[] weightsForTheta){
+    private void reComputeFunctionValueAndGradientHelper(final double[] weightsForTheta){
 		
-	 	//== queue
-    	//System.out.println("maxNumHGInQueue=" + maxNumHGInQueue);
-	 	BlockingQueue<HGAndReferences> queue = new ArrayBlockingQueue<HGAndReferences>(maxNumHGInQueue);
+	 	/*once the hypergraphs are cached, or if they are in a binary file,
+	 	 * they are read in any order, largest first; otherwise, the threads
+	 	 * read them in turn from disk*/
+	 	final boolean randomAccess = hgFactory.hasRandomAccess();
+	 	long[] sizes = randomAccess ? hgFactory.getHGSizes() : null;
 	 	
-	 	//== producer
-	 	HGProducer producer = new HGProducer(hgFactory, queue, numThreads, numSentence);
-	    
-	 	//== consumers
-	 	List<GradientConsumer> consumers = new ArrayList<GradientConsumer>();
-	 	for(int i=0; i<numThreads; i++){
+	 	ParallelGradientEngine engine = ParallelGradientEngine.getSharedEngine(numThreads);
+	 	engine.run(numSentence, sizes, new ParallelGradientEngine.Task<GradientWorker>() {
 	 		
-	 		RiskAndFeatureAnnotationOnLMHG riskAnnotatorNoEquiv = new RiskAndFeatureAnnotationOnLMHG(
-	 				this.baselineLMOrder, this.ngramStateID, this.linearCorpusGainThetas, this.symbolTbl,
-					this.featureStringToIntegerMap, this.featTemplates, this.haveRefereces);
-	 			 		
+	 		public GradientWorker createAccumulator() {
+	 			RiskAndFeatureAnnotationOnLMHG riskAnnotatorNoEquiv = new RiskAndFeatureAnnotationOnLMHG(
+	 					baselineLMOrder, ngramStateID, linearCorpusGainThetas, symbolTbl,
+	 					featureStringToIntegerMap, featTemplates, haveRefereces);
+	 			
+	 			return new GradientWorker(useSemiringV2, weightsForTheta,
+	 					riskAnnotatorNoEquiv, temperature, scalingFactor, shouldComputeGradientForScalingFactor);
+	 		}
 	 		
-	 		GradientConsumer c = new GradientConsumer(this.useSemiringV2, this, queue, weightsForTheta,
-	 				riskAnnotatorNoEquiv, this.temperature, this.scalingFactor, this.shouldComputeGradientForScalingFactor);
+	 		public void compute(int sentID, GradientWorker worker) {
+	 			worker.compute(randomAccess ? hgFactory.getHG(sentID) : nextHG());
+	 		}
 	 		
-	 		consumers.add(c);
-	 	}
-	 	
-	 	//== create model, and start parallel computing
-	 	ProducerConsumerModel<HGAndReferences, HGProducer, GradientConsumer> 
-	 		model =	new ProducerConsumerModel<HGAndReferences, HGProducer, GradientConsumer>(queue, producer, consumers);
-	 	
-	 	model.runParallel();
+	 		public void reduce(GradientWorker worker) {
+	 			accumulateGradient(worker);
+	 		}
+	 	});
 	}
     
     
     
-   /**GradientConsumer is going to calll this function ot accumate gradient
+    /**return the next hypergraph, failing if there are fewer than
+     * the training sentences*/
+    private HGAndReferences nextHG(){
+    	HGAndReferences res = hgFactory.nextHG();
+    	if(res.hg==null)
+    		throw new IllegalStateException("there are fewer hypergraphs than the " + numSentence + " training sentences");
+    	return res;
+    }
+    
+    
+   /**The sums of each thread are added in this function, after the pass
     **/
     
     /**The inputs are for risk-T*entropy*/
-    public synchronized void  accumulateGradient(HashMap<Integer, Double> gradients, double gradientForScalingFactor, double funcVal, double risk, double entropy){
+    private void  accumulateGradient(GradientWorker worker){
     	
-    	for(Map.Entry<Integer, Double> feature : gradients.entrySet()){
-			gradientsForTheta[feature.getKey()] += minFactor*feature.getValue(); //we are maximizing, instead of minizing
+    	double[] gradients = worker.getGradientsForTheta();
+    	for(int i=0; i<gradients.length; i++){
+			gradientsForTheta[i] += minFactor*gradients[i]; //we are maximizing, instead of minizing
 		}
 		
 		if(shouldComputeGradientForScalingFactor)
-			this.gradientForScalingFactor +=  minFactor*gradientForScalingFactor;//we are maximizing, instead of minizing
+			this.gradientForScalingFactor +=  minFactor*worker.getGradientForScalingFactor();//we are maximizing, instead of minizing
 		
 		if(this.fixFirstFeature)//do not tune the baseline feature
 			gradientsForTheta[0]=0;
 		
 		//== compute function value	
-		functionValue +=  minFactor*funcVal;//we are maximizing, instead of minizing
-		sumGain +=  -1.0 * risk;
-		sumEntropy += entropy;
+		functionValue +=  minFactor*worker.getFuncVal();//we are maximizing, instead of minizing
+		sumGain +=  -1.0 * worker.getRisk();
+		sumEntropy += worker.getEntropy();
 		
     }
 
@@ -1,9 +1,14 @@
 package joshua.discriminative.training.risk_annealer.hypergraph;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.hypergraph.BinaryDiskHyperGraph;
 import joshua.decoder.hypergraph.DiskHyperGraph;
 import joshua.decoder.hypergraph.HyperGraph;
 import joshua.discriminative.FileUtilityOld;
@@ -17,6 +22,8 @@ public class HyperGraphFactory {
 	 private int ngramStateID;
 	    
 	 private DiskHyperGraph diskHG = null;
+	 private BinaryDiskHyperGraph binaryDiskHG = null;//used instead of diskHG if a binary file exists
+	 private boolean binaryRandomAccess = false;//whether the hypergraphs are read from binaryDiskHG by index
 	 private String diskHGFilePrefix;
 
 	 private String[] referenceFiles; 
@@ -24,6 +31,14 @@ public class HyperGraphFactory {
 	
 	 boolean readReferences = true;
 	 
+	 //=== forest cache: the hypergraphs and references are read from disk in the first loop only
+	 private boolean useForestCache = false;
+	 private long forestCacheHeapBudget;
+	 private BinaryDiskHyperGraph forestCache = null;
+	 private List<String[]> cachedReferences = null;//also holds the references of binaryDiskHG, with binaryRandomAccess
+	 private boolean forestCacheIsReady = false;
+	 private int curCachedHG = 0;
+	 
 	 /** Logger for this class. */
 	private static final Logger logger = 
 		Logger.getLogger(HyperGraphFactory.class.getName());
@@ -39,17 +54,150 @@ public class HyperGraphFactory {
 	 }
 	 
 	 
+	 /**
+	  * Converts the text hypergraphs of a prefix (.hg.items and
+	  * .hg.rules) into a binary file (.hg.bin), which the factories
+	  * of the prefix then read instead, unless the binary file is
+	  * already up to date. This is meant to be called right after
+	  * the hypergraphs are decoded or merged, so that training does
+	  * not parse the text files at each pass.
+	  */
+	 public static void convertToBinary(String diskHGFilePrefix, int ngramStateID, SymbolTable symbolTbl){
+		 if(binaryIsCurrent(diskHGFilePrefix))
+			 return;
+		 String binaryFile = diskHGFilePrefix+".hg.bin";
+		 try {
+			 int numHGs = BinaryDiskHyperGraph.convertFromText(symbolTbl, ngramStateID, true, //have model costs stored
+					 diskHGFilePrefix+".hg.items", diskHGFilePrefix+".hg.rules", binaryFile);
+			 logger.info("converted " + numHGs + " hypergraphs into " + binaryFile);
+		 } catch (IOException e) {
+			 throw new RuntimeException("failed to convert the hypergraphs of " + diskHGFilePrefix, e);
+		 }
+	 }
+	 
+	 /**return whether the binary file of a prefix exists, and is at
+	  * least as new as its text files, if any; otherwise, it may be
+	  * left from hypergraphs decoded earlier*/
+	 private static boolean binaryIsCurrent(String diskHGFilePrefix){
+		 File binaryFile = new File(diskHGFilePrefix+".hg.bin");
+		 if(!binaryFile.exists())
+			 return false;
+		 for(String suffix : new String[]{".hg.items", ".hg.rules"}){
+			 File textFile = new File(diskHGFilePrefix+suffix);
+			 if(textFile.exists() && textFile.lastModified() > binaryFile.lastModified())
+				 return false;
+		 }
+		 return true;
+	 }
+	 
+	 
+	 /**
+	  * Keeps the hypergraphs and references read in the first loop
+	  * in memory, in the compact form of BinaryDiskHyperGraph, so
+	  * that the following loops (e.g., one per function evaluation
+	  * of the optimizer) neither read nor parse the disk files. The
+	  * hypergraphs beyond heapBudget bytes are spilled to a temporary
+	  * file, which is memory-mapped.
+	  */
+	 public void useForestCache(long heapBudget){
+		 this.useForestCache = true;
+		 this.forestCacheHeapBudget = heapBudget;
+	 }
+	 
+	 /** Releases the forest cache, and its temporary file if any. */
+	 public void clearForestCache(){
+		 if(forestCache!=null){
+			 forestCache.closeStore();
+			 forestCache = null;
+		 }
+		 cachedReferences = null;
+		 forestCacheIsReady = false;
+	 }
+	 
 	 public void startLoop(){
-       	initDiskReading();       
+		 curCachedHG = 0;
+		 if(forestCacheIsReady)
+			 return;
+		 
+		 initDiskReading();
+		 if(useForestCache){
+			 forestCache = new BinaryDiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
+			 forestCache.initStore(forestCacheHeapBudget, null);
+			 cachedReferences = new ArrayList<String[]>();
+		 }
 	 }
 
-	 public void endLoop(){		 
+	 public void endLoop(){
+		 if(forestCacheIsReady)
+			 return;
+		 
 		 finalizeDiskReading();
+		 if(useForestCache){
+			 try {
+				 forestCache.finishStore();
+			 } catch (IOException e) {
+				 throw new RuntimeException("failed to store hypergraphs", e);
+			 }
+			 forestCacheIsReady = true;
+		 }
 	 }
 	 
 
-	 public HGAndReferences nextHG(){	    
-	    return  new HGAndReferences(readOneHGFromDisk(), readReferencesFromDisk() );	    
+	 /**return whether the hypergraphs can be read in any order,
+	  * with getHG; this is the case once the forest cache is filled,
+	  * or, without the forest cache, if the hypergraphs are read from
+	  * a binary file*/
+	 public boolean hasRandomAccess(){
+		 return forestCacheIsReady || binaryRandomAccess;
+	 }
+	 
+	 private BinaryDiskHyperGraph randomAccessHGs(){
+		 return forestCacheIsReady ? forestCache : binaryDiskHG;
+	 }
+	 
+	 public int getNumHGs(){
+		 return randomAccessHGs().getNumHyperGraphs();
+	 }
+	 
+	 /**return the kth hypergraph and its references; this can be
+	  * called from several threads at a time*/
+	 public HGAndReferences getHG(int k){
+		 return new HGAndReferences(randomAccessHGs().readHyperGraph(k), cachedReferences.get(k));
+	 }
+	 
+	 /**return the size of each hypergraph, as a relative cost of
+	  * computing over it*/
+	 public long[] getHGSizes(){
+		 BinaryDiskHyperGraph hgs = randomAccessHGs();
+		 long[] sizes = new long[hgs.getNumHyperGraphs()];
+		 for(int k=0; k<sizes.length; k++)
+			 sizes[k] = hgs.getRecordSize(k);
+		 return sizes;
+	 }
+	 
+	 /**return the next hypergraph and its references; this is
+	  * synchronized, so that several threads can read the hypergraphs
+	  * in turn*/
+	 public synchronized HGAndReferences nextHG(){
+		 if(hasRandomAccess()){
+			 if(curCachedHG>=getNumHGs())
+				 return new HGAndReferences(null, null);
+			 HGAndReferences res = getHG(curCachedHG);
+			 curCachedHG++;
+			 return res;
+		 }
+		 
+		 HyperGraph hg = readOneHGFromDisk();
+		 String[] referenceSentences = readReferencesFromDisk();
+		 if(useForestCache && hg!=null){
+			 try {
+				 forestCache.storeHyperGraph(hg);
+			 } catch (IOException e) {
+				 throw new RuntimeException("failed to store hypergraph " + hg.sentID, e);
+			 }
+			 cachedReferences.add(referenceSentences);
+		 }
+		 return  new HGAndReferences(hg, referenceSentences);	    
 	 }
 	 
 	 
@@ -69,8 +217,25 @@ public class HyperGraphFactory {
 	 private void initDiskReading(){
 		logger.info("initialize reading hypergraphss..............");
 		 
-		diskHG = new DiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
-        diskHG.initRead(diskHGFilePrefix+".hg.items", diskHGFilePrefix+".hg.rules", null);
+		String binaryFile = diskHGFilePrefix+".hg.bin";
+		if (binaryIsCurrent(diskHGFilePrefix)) {
+			logger.info("reading hypergraphs from " + binaryFile);
+			binaryDiskHG = new BinaryDiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
+			try {
+				binaryDiskHG.initRead(binaryFile);
+			} catch (IOException e) {
+				throw new RuntimeException("failed to read " + binaryFile, e);
+			}
+			//the file is mapped, so the hypergraphs are read by index,
+			//unless they are read once to fill the forest cache
+			binaryRandomAccess = !useForestCache;
+		} else {
+			if (new File(binaryFile).exists())
+				logger.warning(binaryFile + " is older than the text hypergraphs, so it is not used");
+			logger.info("reading hypergraphs from " + diskHGFilePrefix + ".hg.items");
+			diskHG = new DiskHyperGraph(symbolTbl, ngramStateID, true, null); //have model costs stored
+			diskHG.initRead(diskHGFilePrefix+".hg.items", diskHGFilePrefix+".hg.rules", null);
+		}
         
         //=== references files, they are needed only when we want annote the hypergraph with risk   
         if(this.readReferences){
@@ -78,11 +243,27 @@ public class HyperGraphFactory {
 			for(int i=0; i<referenceFiles.length; i++)
 				refFileReaders[i] = FileUtilityOld.getReadFileStream(referenceFiles[i],"UTF-8");
 		}
+        
+        //=== the references of the hypergraphs read by index are all read first
+        if(binaryRandomAccess){
+        	cachedReferences = new ArrayList<String[]>();
+        	for(int k=0; k<binaryDiskHG.getNumHyperGraphs(); k++)
+        		cachedReferences.add(readReferencesFromDisk());
+        }
 	 }
 	 
 	 private void finalizeDiskReading(){
 		 logger.info("finalize reading hypergraphss..............");
-		 diskHG.closeReaders();
+		 if (null != binaryDiskHG) {
+			 binaryDiskHG.closeReader();
+			 binaryDiskHG = null;
+			 if(binaryRandomAccess){
+				 binaryRandomAccess = false;
+				 cachedReferences = null;
+			 }
+		 } else {
+			 diskHG.closeReaders();
+		 }
 		 
 	     //=== references files
 	     if(this.readReferences){
@@ -95,6 +276,8 @@ public class HyperGraphFactory {
 	 private HyperGraph readOneHGFromDisk(){
 		 		
 		//=== disk hypergraph
+		if (null != binaryDiskHG)
+			return binaryDiskHG.readHyperGraph();
 		return  diskHG.readHyperGraph();
 	 }
 	 
@@ -17,9 +17,10 @@ public class MRConfig {
 	public static boolean oneTimeHGRerank = false;
 	public static int maxNumIter = 5;
 	public static boolean useSemiringV2 = true;	
-	public static int maxNumHGInQueue = 100;
+	public static int maxNumHGInQueue = 100;//no longer used, still parsed for old config files
 	public static int numThreads = 4;
 	public static boolean saveHGInMemory;
+	public static int forestCacheHeapMB = 1024;//when saveHGInMemory, hypergraphs beyond this are memory-mapped from a temporary file
 
 	//==disk hg related
 	public static int baselineLMOrder;	
@@ -262,6 +263,10 @@ public class MRConfig {
 					saveHGInMemory = new Boolean(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
 						logger.finest(String.format("saveHGInMemory: %s", saveHGInMemory));					
+				} else if ("forestCacheHeapMB".equals(fds[0])) {
+					forestCacheHeapMB = new Integer(fds[1].trim());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest(String.format("forestCacheHeapMB: %s", forestCacheHeapMB));					
 				} else if ("fixFirstFeature".equals(fds[0])) {
 					fixFirstFeature = new Boolean(fds[1].trim());
 					if (logger.isLoggable(Level.FINEST))
@@ -8,6 +8,7 @@ import java.util.List;
 import joshua.decoder.BLEU;
 import joshua.decoder.NbestMinRiskReranker;
 import joshua.discriminative.FileUtilityOld;
+import joshua.discriminative.training.parallel.ParallelGradientEngine;
 import joshua.discriminative.training.risk_annealer.GradientComputer;
 
 /** 
@@ -48,6 +49,9 @@ public class NbestRiskGradientComputer extends GradientComputer {
 	//### nums
 	private int totalNumSent;
 	
+	private int numThreads = 1;
+	private long[] nbestSizes;//size: number of source sentences
+	
 
 	private double expectedGainSum;
 	private double entropySum;
@@ -66,11 +70,18 @@ public class NbestRiskGradientComputer extends GradientComputer {
 	 */
 	public NbestRiskGradientComputer(String nbesFile, String[] refFiles, boolean useShortestRefLen, int totalNumSent,  
 			int numFeatures, double gainFactor, double annealingScale, double coolingTemperature, boolean computeScalingGradient, double[] linearCorpusGainThetas){
+		this(nbesFile, refFiles, useShortestRefLen, totalNumSent, numFeatures, gainFactor, annealingScale, coolingTemperature, computeScalingGradient, linearCorpusGainThetas, 1);
+	}
+	
+	public NbestRiskGradientComputer(String nbesFile, String[] refFiles, boolean useShortestRefLen, int totalNumSent,  
+			int numFeatures, double gainFactor, double annealingScale, double coolingTemperature, boolean computeScalingGradient, double[] linearCorpusGainThetas,
+			int numThreads){
 		super( numFeatures, gainFactor, annealingScale, coolingTemperature, computeScalingGradient);
 		this.nbesFile = nbesFile;
 		this.refFiles = refFiles;
 		this.useShortestRefLen = useShortestRefLen;
 		this.totalNumSent = totalNumSent;
+		this.numThreads = numThreads;
 		
 		this.linearCorpusGainThetas = linearCorpusGainThetas;
 		if(this.linearCorpusGainThetas!=null){
@@ -80,6 +91,10 @@ public class NbestRiskGradientComputer extends GradientComputer {
 			this.useGoogleLinearCorpusGain = false;
 		
 		preprocessCorpus(this.nbesFile, this.refFiles);
+		
+		this.nbestSizes = new long[this.totalNumSent];
+		for(int i=0; i<this.totalNumSent; i++)
+			this.nbestSizes[i] = endPoss.get(i) - startPoss.get(i);
 	}
 	
 	/*use the latest weights, annealing_scale, and cooling_temperature
@@ -106,14 +121,8 @@ public class NbestRiskGradientComputer extends GradientComputer {
 			gradientForScalingFactor = 0;
 		functionValue = 0;
 		
-		//### preprocessing and inference on the nbests
-		redoCorpusInference(weights2, scalingFactor);
-		
-		//### compute gradient
-		computeCorpusGradient(weights2, gradientsForTheta, temperature, scalingFactor);
-		
-		//### compute function value
-		computeCorpusFuncVal(temperature);
+		//### inference, gradient and function value on the nbests; the sentences are independent
+		computeCorpus(weights2, temperature, scalingFactor);
 		
 		//printLastestStatistics();
 		//System.exit(1);
@@ -233,15 +242,53 @@ public class NbestRiskGradientComputer extends GradientComputer {
 	}
 		
 	
-//=================Inference: based on current weight vector, scaling_factor
-//	change l_hyp_probability and l_expected_feature_value, optional: l_hyp_final_score and l_expected_feature_value
-	private void redoCorpusInference(double[] weights, double scaling_factor){
-		for(int i=0; i<totalNumSent; i++){
-			redoSentInference(i, weights, scaling_factor);
+//=================the sums over the sentences computed by one thread
+	private static class CorpusSums {
+		double[] gradients;
+		double gradientForScalingFactor = 0;
+		double functionValue = 0;
+		double expectedGainSum = 0;
+		double entropySum = 0;
+		
+		CorpusSums(int numFeatures){
+			gradients = new double[numFeatures];
 		}
-		//System.exit(1);
-	}	
+	}
 	
+	private void computeCorpus(final double[] weights, final double temperature, final double scale){
+		functionValue = 0;
+		expectedGainSum = 0;
+		entropySum = 0;
+		
+		//each sentence only writes its own range of hypProbs and expectedFeatureValues
+		ParallelGradientEngine engine = ParallelGradientEngine.getSharedEngine(numThreads);
+		engine.run(totalNumSent, nbestSizes, new ParallelGradientEngine.Task<CorpusSums>() {
+			
+			public CorpusSums createAccumulator() {
+				return new CorpusSums(numFeatures);
+			}
+			
+			public void compute(int sentID, CorpusSums sums) {
+				redoSentInference(sentID, weights, scale);
+				accumulateSentGradient(sentID, temperature, weights, sums, scale);
+				computeSentFuncVal(sentID, temperature, sums);
+			}
+			
+			public void reduce(CorpusSums sums) {
+				for(int j=0; j<numFeatures; j++)
+					gradientsForTheta[j] += sums.gradients[j];
+				if(shouldComputeGradientForScalingFactor)
+					gradientForScalingFactor += sums.gradientForScalingFactor;
+				functionValue += sums.functionValue;
+				expectedGainSum += sums.expectedGainSum;
+				entropySum += sums.entropySum;
+			}
+		});
+	}
+	
+	
+//=================Inference: based on current weight vector, scaling_factor
+//	change l_hyp_probability and l_expected_feature_value, optional: l_hyp_final_score and l_expected_feature_value
 	private void redoSentInference(int sent_id, double[] weights, double scaling_factor){
 		int start_pos = startPoss.get(sent_id);
 		int end_pos = endPoss.get(sent_id);
@@ -290,14 +337,8 @@ public class NbestRiskGradientComputer extends GradientComputer {
 	
 	
 //=================compute Gradient
-	private void computeCorpusGradient(double[] weights, double[] gradients, double temperature, double scale){	
-		for(int i=0; i<totalNumSent; i++){
-			accumulateSentGradient(i, temperature, weights, gradients, scale);
-		}
-	}
-	
-	//accumulate sentence gradient into gradients
-	private void accumulateSentGradient(int sentID, double temperature,  double[] weights, double[] gradients, double scale){
+	//accumulate sentence gradient into sums
+	private void accumulateSentGradient(int sentID, double temperature,  double[] weights, CorpusSums sums, double scale){
 		int start_pos = startPoss.get(sentID);
 		int end_pos = endPoss.get(sentID);
 		List<Double> nbestProbs = hypProbs.subList(start_pos, end_pos);
@@ -325,7 +366,7 @@ public class NbestRiskGradientComputer extends GradientComputer {
 				hypFinalScore += hypFeatVal*weights[j];
 				double common = scale*prob*(hypFeatVal-expectedFeatureValues.get(j));
 				double sentGradient = common * (gain+entropyFactor);
-				gradients[j] += sentGradient;
+				sums.gradients[j] += sentGradient;
 				anotherSentGradientForScaling += sentGradient*weights[j];
 			}
 			
@@ -335,7 +376,7 @@ public class NbestRiskGradientComputer extends GradientComputer {
 			if(shouldComputeGradientForScalingFactor){
 				double common = prob*(hypFinalScore-expectedHypFinalScore);	
 				double sentGradientForScaling = common * (gain+entropyFactor);
-				gradientForScalingFactor += sentGradientForScaling;
+				sums.gradientForScalingFactor += sentGradientForScaling;
 				
 				//another way to compute the gradient for scaling factor
 				//====== sanity check
@@ -347,18 +388,7 @@ public class NbestRiskGradientComputer extends GradientComputer {
 		}
 	}
 	
-	private void computeCorpusFuncVal(double temperature){
-		functionValue = 0;
-		expectedGainSum = 0;
-		entropySum = 0;
-			
-		for(int i=0; i<totalNumSent; i++){
-			computeSentFuncVal(i, temperature);
-		}
-		//return func_val;
-	}
-	
-	private void computeSentFuncVal(int sentID, double temperature){
+	private void computeSentFuncVal(int sentID, double temperature, CorpusSums sums){
 		int start_pos = startPoss.get(sentID);
 		int end_pos = endPoss.get(sentID);
 		List<Double> nbestGains = gainsWithRespectToRef.subList(start_pos, end_pos);
@@ -367,9 +397,9 @@ public class NbestRiskGradientComputer extends GradientComputer {
 		
 		double entropy = computeEntropy(nbestProbs);//compute it always, though may not be used in the objective
 		
-		expectedGainSum += expectedGain;
-		entropySum += entropy;
-		functionValue +=  expectedGain*gainFactor+entropy*temperature;//maximize function
+		sums.expectedGainSum += expectedGain;
+		sums.entropySum += entropy;
+		sums.functionValue +=  expectedGain*gainFactor+entropy*temperature;//maximize function
 	}
 //=================compute Gradient: END	
 
@@ -96,6 +96,7 @@ public class ExtractRules {
 	
 	private boolean keepTree = true;
 	private int ruleSampleSize = 300;
+	private int ruleExtractionThreads = 1;
 	private boolean printPrefixTree = false;
 	
 	private int maxTestSentences = Integer.MAX_VALUE;
@@ -161,7 +162,11 @@ public class ExtractRules {
 		
 		this.commonVocabFileName = joshDir + File.separator + "common.vocab";
 
-		this.lexCountsFileName = joshDir + File.separator + "lexicon.counts";
+		if (new File(joshDir + File.separator + "lexprobs.bin").exists()) {
+			this.lexCountsFileName = joshDir + File.separator + "lexprobs.bin";
+		} else {
+			this.lexCountsFileName = joshDir + File.separator + "lexicon.counts";
+		}
 
 		this.sourceSuffixesFileName = joshDir + File.separator + "source.suffixes";
 		this.targetSuffixesFileName = joshDir + File.separator + "target.suffixes";
@@ -210,6 +215,10 @@ public class ExtractRules {
 		this.ruleSampleSize = ruleSampleSize;
 	}
 	
+	public void setRuleExtractionThreads(int ruleExtractionThreads) {
+		this.ruleExtractionThreads = ruleExtractionThreads;
+	}
+	
 	public void setPrintPrefixTree(boolean printPrefixTree) {
 		this.printPrefixTree = printPrefixTree;
 	}
@@ -359,6 +368,7 @@ public class ExtractRules {
 			if (logger.isLoggable(Level.INFO)) logger.info("Constructing lexical translation probabilities from parallel corpus"); 
 			parallelCorpus = new ParallelCorpusGrammarFactory(sourceSuffixArray, targetSuffixArray, alignments, null, ruleSampleSize, maxPhraseSpan, maxPhraseLength, maxNonterminals, minNonterminalSpan, Float.MIN_VALUE, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal, JoshuaConfiguration.oov_feature_cost);
 		}
+		parallelCorpus.setRuleExtractionThreads(ruleExtractionThreads);
 		return parallelCorpus;
 	}
 
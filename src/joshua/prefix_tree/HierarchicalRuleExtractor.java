@@ -174,8 +174,10 @@ public class HierarchicalRuleExtractor implements RuleExtractor {
 			
 		Cache<Pattern,List<Rule>> cache = sourceSuffixArray.getCachedRules();
 		
-		if (cache.containsKey(sourcePattern)) {
-			return cache.get(sourcePattern);
+		List<Rule> cachedRules = cache.get(sourcePattern);
+		
+		if (cachedRules != null) {
+			return cachedRules;
 		} else {
 			
 			ArrayList<HierarchicalPhrase> translations = getTranslations(sourceHierarchicalPhrases);
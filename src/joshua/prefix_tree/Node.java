@@ -126,12 +126,10 @@ public class Node implements Comparable<Node>, Trie {
 		
 		Cache<Pattern,List<Rule>> ruleCache = parallelCorpus.getSuffixArray().getCachedRules();
 		
-		List<Rule> results;
+		// The rules from the cache are guaranteed to be sorted.
+		List<Rule> results = ruleCache.get(sourcePattern);
 		
-		if (ruleCache.containsKey(sourcePattern)) {
-			results = ruleCache.get(sourcePattern);
-			// The rules from the cache are guaranteed to be sorted.
-		} else {
+		if (results == null) {
 			results = parallelCorpus.getRuleExtractor().extractRules(getMatchedPhrases());
 			// The above list of rules extracted is guaranteed to be sorted.
 			ruleCache.put(sourcePattern, results);
@@ -36,6 +36,7 @@ import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
 import joshua.util.Cache;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -44,6 +45,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -192,6 +197,23 @@ public class PrefixTree extends AbstractGrammar {
 	
 	private final float oovFeatureCost;
 	
+	/**
+	 * Threads that extract rules while this tree is built, or
+	 * <code>null</code> if rules are extracted by the thread
+	 * that builds the tree.
+	 */
+	private final ExecutorService ruleExtractionPool;
+	
+	/** Number of threads that extract rules. */
+	private final int ruleExtractionThreads;
+	
+	/**
+	 * Rules being extracted by the rule extraction threads
+	 * during the current call to add, in the order in which
+	 * they were requested.
+	 */
+	private List<PendingRules> pendingRules = null;
+	
 	/**
 	 * Constructs a new prefix tree with suffix links using the
 	 * GENERATE_PREFIX_TREE algorithm from Lopez (2008) PhD
@@ -218,6 +240,8 @@ public class PrefixTree extends AbstractGrammar {
 		this.ruleOwner = vocab.getID(parallelCorpus.getRuleOwner());
 		this.defaultLHS = vocab.getID(parallelCorpus.getDefaultLHSSymbol());
 		this.oovFeatureCost = parallelCorpus.getOovFeatureCost();
+		this.ruleExtractionPool = parallelCorpus.getRuleExtractionPool();
+		this.ruleExtractionThreads = parallelCorpus.getRuleExtractionThreads();
 		
 		this.root = new RootNode(this,ROOT_NODE_ID);
 		Node bot = new BotNode(parallelCorpus, root);
@@ -310,6 +334,10 @@ public class PrefixTree extends AbstractGrammar {
 		
 		long startTime = System.nanoTime();
 		
+		if (ruleExtractionPool != null) {
+			pendingRules = new ArrayList<PendingRules>();
+		}
+		
 		int START_OF_SENTENCE = 0;
 		int END_OF_SENTENCE = sentence.length - 1;
 		
@@ -467,10 +495,18 @@ public class PrefixTree extends AbstractGrammar {
 
 		}
 
+		if (pendingRules != null) {
+			// Nodes are printed in the order in which their rules were requested
+			for (PendingRules pending : pendingRules) {
+				storeResults(pending.node, pending.phrases, pending.getRules());
+			}
+			pendingRules = null;
+		}
+
 		long endTime = System.nanoTime();
 		long microseconds = (endTime - startTime) / 1000;
 		float milliseconds = microseconds / 1000.0f;
-		logger.info("Sentence total extraction time:\t"+ milliseconds + " milliseconds");
+		logger.info("Sentence total extraction time:\t"+ milliseconds + " milliseconds with " + ruleExtractionThreads + " rule extraction threads");
 		
 		
 		if (logger.isLoggable(Level.FINER)) {
@@ -592,9 +628,8 @@ public class PrefixTree extends AbstractGrammar {
 		}
 		
 		// 17: Return M_a_alpha_b
-		List<Rule> rules = ruleExtractor.extractRules(result);
 //		node.storeResults(result, rules);
-		storeResults(node, result, rules);
+		extractRules(node, result);
 		
 		if (logger.isLoggable(Level.FINE)) {
 			long elapsedTime = System.nanoTime() - finalQueryTime;
@@ -607,6 +642,37 @@ public class PrefixTree extends AbstractGrammar {
 
 	}
 	
+	/**
+	 * Extracts the rules for the phrases matched by a node,
+	 * and stores the phrases in the node.
+	 * <p>
+	 * During a call to add with rule extraction threads, the
+	 * phrases are stored at once, because the queries for the
+	 * node's children need them, while the rules are extracted
+	 * by the pool and printed once the whole tree is built.
+	 * Nothing that builds the tree depends on extracted rules.
+	 * 
+	 * @param node Node in the prefix tree
+	 * @param result Phrases matched by the node's pattern
+	 */
+	private void extractRules(Node node, final MatchedHierarchicalPhrases result) {
+		if (ruleExtractor == null) {
+			storeResults(node, result, Collections.<Rule>emptyList());
+		} else if (pendingRules == null) {
+			storeResults(node, result, ruleExtractor.extractRules(result));
+		} else {
+			if (printedNodes==null || !printedNodes.contains(node.objectID)) {
+				node.storeResults(result, null);
+			}
+			Future<List<Rule>> rules = ruleExtractionPool.submit(new Callable<List<Rule>>() {
+				public List<Rule> call() {
+					return ruleExtractor.extractRules(result);
+				}
+			});
+			pendingRules.add(new PendingRules(node, result, rules));
+		}
+	}
+	
 	@SuppressWarnings("deprecation")
 	private void storeResults(Node node, MatchedHierarchicalPhrases result, List<Rule> rules) {
 		if (printedNodes==null || !printedNodes.contains(node.objectID)) {
@@ -627,6 +693,30 @@ public class PrefixTree extends AbstractGrammar {
 		}
 	}
 	
+	/** Rules for the phrases of a node, being extracted by another thread. */
+	private static class PendingRules {
+		final Node node;
+		final MatchedHierarchicalPhrases phrases;
+		final Future<List<Rule>> rules;
+		
+		PendingRules(Node node, MatchedHierarchicalPhrases phrases, Future<List<Rule>> rules) {
+			this.node = node;
+			this.phrases = phrases;
+			this.rules = rules;
+		}
+		
+		/** Waits for the rules to be extracted. */
+		List<Rule> getRules() {
+			try {
+				return rules.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while extracting rules for " + phrases.getPattern(), e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Error extracting rules for " + phrases.getPattern(), e.getCause());
+			}
+		}
+	}
+	
 	/**
 	 * Implements Function EXTEND_QUEUE from Lopez (2008) PhD
 	 * Thesis, Algorithm 2, p 76
@@ -720,11 +810,8 @@ public class PrefixTree extends AbstractGrammar {
 						}
 					}	
 					
-					List<Rule> rules = (ruleExtractor==null) ? 
-								Collections.<Rule>emptyList() : 
-								ruleExtractor.extractRules(phrasesWithFinalX);
 					//xNode.storeResults(phrasesWithFinalX, rules);
-					storeResults(xNode, phrasesWithFinalX, rules);
+					extractRules(xNode, phrasesWithFinalX);
 				}
 			
 				if (logger.isLoggable(Level.FINEST)) logger.finest("Alpha pattern is " + pattern);
@@ -817,6 +904,8 @@ public class PrefixTree extends AbstractGrammar {
 		this.ruleOwner = Integer.MIN_VALUE;
 		this.defaultLHS = Integer.MIN_VALUE;
 		this.oovFeatureCost = Float.NaN;
+		this.ruleExtractionPool = null;
+		this.ruleExtractionThreads = 1;
 	}
 	
 	/**
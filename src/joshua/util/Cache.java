@@ -18,17 +18,38 @@
 package joshua.util;
 
 // Imports
-import java.util.LinkedHashMap;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Cache is a class that implements a least recently used cache.
- * It is a straightforward extension of java.util.LinkedHashMap
- * with its removeEldestEntry method overridden, so that stale
- * entries are deleted once we reach the specified capacity of the
- * Cache.
+ * Cache is a class that implements a bounded cache, which evicts
+ * entries that have not been used recently once it reaches its
+ * capacity.
+ * <p>
+ * A Cache may be shared by many threads. Entries are kept in a
+ * ConcurrentHashMap, so get and containsKey take no lock. Each
+ * entry has a reference bit, set when it is returned by get, and
+ * entries are queued in insertion order. When a put takes the
+ * cache over its capacity, the entry to evict is chosen with the
+ * CLOCK (second chance) policy: entries at the head of the queue
+ * whose reference bit is set have the bit cleared and go back to
+ * the tail, and the first one without it is evicted. Only
+ * eviction is serialized.
+ * <p>
+ * Because another thread may evict an entry at any time, callers
+ * should call get once and test the result for null, rather than
+ * call containsKey and then get. Cache does not store null
+ * values.
  * <p>
  * This class is quite useful for storing the results of computations
  * that we would do many times over in the FeatureFunctions.
@@ -37,7 +58,7 @@ import java.util.logging.Logger;
  * @since  14 April 2005
  *
  */
-public class Cache<K,V> extends LinkedHashMap<K,V> {
+public class Cache<K,V> extends AbstractMap<K,V> {
 
 	/** Logger for this class. */
 	private static Logger logger =
@@ -59,11 +80,11 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 	/** Default load factor of the cache. */
 	public static final float LOAD_FACTOR = 0.75f;
 	
-	/**
-	 * By default, ordering mode of the cache is access order
-	 * (true).
-	 */
-	public static final boolean ACCESS_ORDER = true;
+	/** Number of threads expected to update the cache at once. */
+	public static final int CONCURRENCY_LEVEL = 16;
+	
+	/** Number of removed entries below which the clock is never purged. */
+	private static final int INITIAL_PURGE_THRESHOLD = 1024;
 	
 	
 //===============================================================
@@ -72,6 +93,30 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 
 	/** Maximum number of items that the cache can contain. */ 
 	int maxCapacity;
+	
+	/** Entries of the cache, by key. */
+	private final ConcurrentHashMap<K,CachedValue<K,V>> entries;
+	
+	/** 
+	 * Entries in the order in which the CLOCK hand visits them.
+	 * Each entry is queued once, when its key is inserted. May
+	 * also hold entries that have since been removed; these are
+	 * skipped, and purged once they outnumber the live entries.
+	 */
+	private final ConcurrentLinkedQueue<CachedValue<K,V>> clock;
+	
+	/** Number of entries in the cache. */
+	private final AtomicInteger size = new AtomicInteger();
+	
+	/** Number of removed entries that may still be in the clock. */
+	private final AtomicInteger removed = new AtomicInteger();
+	
+	private final AtomicLong hits      = new AtomicLong();
+	private final AtomicLong misses    = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/** Lock held while evicting entries. */
+	private final Object evictionLock = new Object();
  
 //===============================================================
 // Constructor(s)
@@ -83,9 +128,11 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 	 * @param maxCapacity the maximum capacity of the cache.
 	 */
 	public Cache(int maxCapacity) {
-		super(  (maxCapacity < INITIAL_CAPACITY) ? maxCapacity : INITIAL_CAPACITY, 
+		this.entries = new ConcurrentHashMap<K,CachedValue<K,V>>(
+				(maxCapacity < INITIAL_CAPACITY) ? maxCapacity : INITIAL_CAPACITY, 
 				LOAD_FACTOR, 
-				ACCESS_ORDER);
+				CONCURRENCY_LEVEL);
+		this.clock = new ConcurrentLinkedQueue<CachedValue<K,V>>();
 		this.maxCapacity = maxCapacity;
 	}
 
@@ -110,7 +157,18 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 		if (logger.isLoggable(Level.FINEST)) {
 			logger.finest("Cache get   key:	" + key.toString());
 		}
-		return super.get(key);
+		
+		CachedValue<K,V> entry = entries.get(key);
+		if (null == entry) {
+			misses.incrementAndGet();
+			return null;
+		} else {
+			if (! entry.referenced) {
+				entry.referenced = true;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
 	}
 	
 	
@@ -121,15 +179,128 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 			logger.finest("Cache put   key:	" + key.toString());
 		}
 		
-		return super.put(key, value);
+		if (null == value) {
+			throw new NullPointerException("Cache does not store null values");
+		}
+		
+		CachedValue<K,V> entry = new CachedValue<K,V>(key, value);
+		for (;;) {
+			CachedValue<K,V> previous = entries.putIfAbsent(key, entry);
+			
+			if (null == previous) {
+				// only new keys join the clock
+				clock.offer(entry);
+				if (size.incrementAndGet() > maxCapacity) {
+					evict();
+				}
+				return null;
+			} else {
+				// the entry keeps its place in the clock
+				V previousValue = previous.replaceValue(value);
+				if (entries.get(key) == previous) {
+					return previousValue;
+				}
+				// removed meanwhile; insert it again
+			}
+		}
 	}
+	
+	
+	@Override
+	public V remove(Object key) {
+		CachedValue<K,V> entry = entries.remove(key);
+		if (null == entry) {
+			return null;
+		} else {
+			size.decrementAndGet();
+			if (removed.incrementAndGet() > Math.max(size.get(), INITIAL_PURGE_THRESHOLD)) {
+				purgeClock();
+			}
+			return entry.value;
+		}
+	}
+	
+	
+	/**
+	 * Removes all entries from the cache. This method should not
+	 * be called while other threads put entries in the cache.
+	 */
+	@Override
+	public void clear() {
+		synchronized (evictionLock) {
+			clock.clear();
+			entries.clear();
+			size.set(0);
+			removed.set(0);
+		}
+	}
+	
+	
+	@Override
+	public int size() {
+		return size.get();
+	}
+	
+	
+	/**
+	 * Gets a snapshot of the entries of the cache. Changes to the
+	 * cache are not reflected in the returned set, which cannot
+	 * be modified.
+	 */
+	@Override
+	public Set<Map.Entry<K,V>> entrySet() {
+		Map<K,V> snapshot = new HashMap<K,V>();
+		for (CachedValue<K,V> entry : entries.values()) {
+			snapshot.put(entry.key, entry.value);
+		}
+		return Collections.unmodifiableMap(snapshot).entrySet();
+	}
+	
+	
+	/** @return the number of calls to get that found their key */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	
+	/** @return the number of calls to get that did not find their key */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	
+	/** @return the number of entries evicted to respect the capacity */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	
+	/** @return the fraction of calls to get that found their key */
+	public double getHitRate() {
+		long lookups = getHits() + getMisses();
+		return (lookups == 0) ? 0.0 : (double) getHits() / lookups;
+	}
+	
+	
+	/**
+	 * Logs the hit, miss and eviction counts of this cache.
+	 * 
+	 * @param name name of the cache in the log message
+	 */
+	public void logStatistics(String name) {
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info(String.format("%s cache: %d entries, %d hits, %d misses (hit rate %.3f), %d evictions",
+					name, size(), getHits(), getMisses(), getHitRate(), getEvictions()));
+		}
+	}
+	
 	//===========================================================
 	// Methods
 	//===========================================================
 
 	@Override
 	public boolean containsKey(Object key) {
-		boolean contains = super.containsKey(key);
+		boolean contains = entries.containsKey(key);
 		
 		if (logger.isLoggable(Level.FINEST)) {
 			String message = (contains) ?
@@ -151,33 +322,81 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 	//===============================================================
 
     /**
-	 * This method is invoked by put and putAll after inserting
-	 * a new entry into the map. Once we reach the capacity of
-	 * the  cache, we remove the oldest entry each time a new
-	 * entry is added. This reduces memory consumption by
+	 * This method is invoked by put after inserting a new entry
+	 * into the cache. While the cache is over its capacity, the
+	 * CLOCK hand gives every recently used entry a second chance
+	 * and evicts the first entry that has not been used since the
+	 * hand last passed it. This reduces memory consumption by
 	 * deleting stale entries.
-	 *
-	 * @param eldest the eldest entry
-	 * @return true if the capacity is greater than the maximum
-	 *         capacity
      */
-	protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
-		boolean removing = size() > maxCapacity;
-        
-		if (removing && logger.isLoggable(Level.FINEST)) {
-			logger.finest("Cache loses key:	" + eldest.getKey().toString());
+	protected void evict() {
+		synchronized (evictionLock) {
+			while (size.get() > maxCapacity) {
+				CachedValue<K,V> entry = clock.poll();
+				if (null == entry) {
+					break;
+				} else if (entries.get(entry.key) != entry) {
+					// removed since it was queued
+					removed.decrementAndGet();
+					continue;
+				} else if (entry.referenced) {
+					entry.referenced = false;
+					clock.offer(entry);
+				} else if (entries.remove(entry.key, entry)) {
+					size.decrementAndGet();
+					evictions.incrementAndGet();
+					
+					if (logger.isLoggable(Level.FINEST)) {
+						logger.finest("Cache loses key:	" + entry.key.toString());
+					}
+				}
+			}
 		}
-		
-		return removing;
     }
 
+	
+	/** @return the number of entries in the clock, removed ones included */
+	int getClockSize() {
+		return clock.size();
+	}
+
 //===============================================================
 // Private 
 //===============================================================
 	
-	//===============================================================
-	// Methods
-	//===============================================================
+	/** Drops the removed entries from the clock. */
+	private void purgeClock() {
+		synchronized (evictionLock) {
+			Iterator<CachedValue<K,V>> iterator = clock.iterator();
+			while (iterator.hasNext()) {
+				CachedValue<K,V> entry = iterator.next();
+				if (entries.get(entry.key) != entry) {
+					iterator.remove();
+				}
+			}
+			removed.set(0);
+		}
+	}
+	
+	
+	/** A cached value, and its reference bit. */
+	private static class CachedValue<K,V> {
+		final K key;
+		volatile V value;
+		volatile boolean referenced = false;
+		
+		CachedValue(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+		
+		/** Sets the value, and returns the previous one. */
+		synchronized V replaceValue(V value) {
+			V previous = this.value;
+			this.value = value;
+			return previous;
+		}
+	}
 	
 	
 //===============================================================
@@ -190,4 +409,3 @@ public class Cache<K,V> extends LinkedHashMap<K,V> {
 //===============================================================
 
 }
-
@@ -0,0 +1,131 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.util;
+
+import java.util.Arrays;
+
+/**
+ * Memory-efficient set of long values, using open addressing with
+ * linear probing over a primitive array. No objects are allocated
+ * when adding or looking up values.
+ */
+public final class LongHashSet {
+
+	private static final int INITIAL_CAPACITY = 16;
+	
+	/** Marks an empty slot; the value itself is tracked separately. */
+	private static final long EMPTY = 0L;
+	
+	private long[] keys;
+	private int size;
+	private boolean containsEmpty;
+	
+	public LongHashSet() {
+		this(INITIAL_CAPACITY);
+	}
+	
+	/**
+	 * @param expectedSize Number of values the set should hold
+	 *                     without growing
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < 2 * expectedSize) 
+			capacity <<= 1;
+		this.keys = new long[capacity];
+		this.size = 0;
+		this.containsEmpty = false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean contains(long key) {
+		if (key == EMPTY) 
+			return containsEmpty;
+		
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) 
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a value to the set.
+	 * 
+	 * @return <code>true</code> if the value was not already in the set
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) {
+			if (containsEmpty) 
+				return false;
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+		
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) 
+				return false;
+		}
+		keys[slot] = key;
+		size++;
+		
+		if (2 * size > keys.length) 
+			resize(2 * keys.length);
+		return true;
+	}
+	
+	/**
+	 * Removes all values, keeping the allocated capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		containsEmpty = false;
+	}
+	
+	private void resize(int capacity) {
+		long[] oldKeys = this.keys;
+		this.keys = new long[capacity];
+		int mask = capacity - 1;
+		for (long key : oldKeys) {
+			if (key != EMPTY) {
+				int slot = hash(key) & mask;
+				while (keys[slot] != EMPTY) 
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+			}
+		}
+	}
+	
+	/** Mixes the bits of a key (the finalizer of MurmurHash3). */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
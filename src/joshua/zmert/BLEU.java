@@ -18,18 +18,40 @@
 
 package joshua.zmert;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 public class BLEU extends EvaluationMetric
 {
 	private static final Logger logger = Logger.getLogger(BLEU.class.getName());
 	
+  // runs the ranges of a batch in suffStats(String[],int[]); shared by all
+  // BLEU objects and kept for the whole run, so that each batch does not
+  // start and stop its own threads.  The threads are daemons, so the pool
+  // needs no shutdown, and idle ones are let go after a minute.
+  private static final ExecutorService statsPool =
+    Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "BLEU.suffStats");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+	
   protected int maxGramLength;
   protected EffectiveLengthMethod effLengthMethod;
     // 1: closest, 2: shortest, 3: average
 //  protected HashMap[][] maxNgramCounts;
   protected HashMap<String,Integer>[] maxNgramCounts;
   protected int[][] refWordCount;
+  protected ReferenceNgrams refNgrams;
+    // integer n-gram tables used by suffStats(); null in subclasses that
+    // set maxNgramCounts[] differently
   protected double[] weights;
 
   public BLEU()
@@ -138,6 +160,8 @@ public class BLEU extends EvaluationMetric
       }
     }
 
+    refNgrams = new ReferenceNgrams(refSentences,numSentences,refsPerSen,maxGramLength);
+
   }
 
 
@@ -145,24 +169,88 @@ public class BLEU extends EvaluationMetric
   {
     int[] stats = new int[suffStatsCount];
 
-//int wordCount = words.length;
-//for (int j = 0; j < wordCount; ++j) { words[j] = words[j].intern(); }
+    int wordCount = set_prec_suffStats(stats,cand_str,i);
+    stats[suffStatsCount-2] = wordCount;
+    stats[suffStatsCount-1] = effLength(wordCount,i);
 
-    if (!cand_str.equals("")) {
-      String[] words = cand_str.split("\\s+");
-      set_prec_suffStats(stats,words,i);
-      stats[suffStatsCount-2] = words.length;
-      stats[suffStatsCount-1] = effLength(words.length,i);
-    } else {
-      String[] words = new String[0];
-      set_prec_suffStats(stats,words,i);
-      stats[suffStatsCount-2] = 0;
-      stats[suffStatsCount-1] = effLength(0,i);
+    return stats;
+  }
+
+  public int[][] suffStats(String[] cand_strings, int[] cand_indices)
+  {
+    int candCount = cand_strings.length;
+    if (numThreads == 1 || candCount < 2 || cand_indices.length != candCount) {
+      return super.suffStats(cand_strings,cand_indices);
+    }
+
+    // calculate the sufficient statistics of numThreads contiguous
+    // ranges of candidates, in parallel
+    final String[] cands = cand_strings;
+    final int[] indices = cand_indices;
+    final int[][] stats = new int[candCount][];
+
+    int rangeCount = Math.min(numThreads,candCount);
+    List<Callable<Void>> ranges = new ArrayList<Callable<Void>>(rangeCount);
+
+    for (int t = 0; t < rangeCount; ++t) {
+      final int from = (int)((long)candCount*t/rangeCount);
+      final int to = (int)((long)candCount*(t+1)/rangeCount);
+      ranges.add(new Callable<Void>() {
+        public Void call()
+        {
+          for (int d = from; d < to; ++d) {
+            stats[d] = suffStats(cands[d],indices[d]);
+          }
+          return null;
+        }
+      });
+    }
+
+    try {
+      // invokeAll() returns once every range is done, and a range
+      // that failed rethrows its exception here, in the caller
+      for (Future<Void> range : statsPool.invokeAll(ranges)) {
+        range.get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    } catch(java.lang.InterruptedException e) {
+      System.err.println("InterruptedException in BLEU.suffStats(String[],int[]): " + e.getMessage());
+      System.exit(99906);
     }
 
     return stats;
   }
 
+  /**
+   * Sets the n-gram precision statistics of a candidate for the ith
+   * sentence, and returns the number of words in the candidate.
+   * Where the reference n-grams were interned, the candidate is
+   * matched against them without being split into words.
+   */
+  protected int set_prec_suffStats(int[] stats, String cand_str, int i)
+  {
+    if (refNgrams != null && refNgrams.covers(i)) {
+      return refNgrams.set_prec_suffStats(stats,cand_str,i);
+    }
+
+    String[] words;
+    if (!cand_str.equals("")) {
+      words = cand_str.split("\\s+");
+    } else {
+      words = new String[0];
+    }
+    set_prec_suffStats(stats,words,i);
+    return words.length;
+  }
+
   public void set_prec_suffStats(int[] stats, String[] words, int i)
   {
     HashMap<String,Integer>[] candCountsArray = getNgramCountsArray(words);
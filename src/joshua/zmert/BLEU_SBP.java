@@ -30,25 +30,19 @@ public class BLEU_SBP extends BLEU
   public int[] suffStats(String cand_str, int i)
   {
     int[] stats = new int[suffStatsCount];
-    stats[0] = 1;
 
-    String[] words = cand_str.split("\\s+");
-
-//int wordCount = words.length;
-//for (int j = 0; j < wordCount; ++j) { words[j] = words[j].intern(); }
-
-    set_prec_suffStats(stats,words,i);
+    int wordCount = set_prec_suffStats(stats,cand_str,i);
 
 // the only place where BLEU_SBP differs from BLEU /* ~~~ */
 /* ~~~ */
-//    stats[maxGramLength+1] = words.length;
-//    stats[maxGramLength+2] = effLength(words.length,i);
+//    stats[suffStatsCount-2] = wordCount;
+//    stats[suffStatsCount-1] = effLength(wordCount,i);
 /* ~~~ */
 
 /* ~~~ */
-    int effectiveLength = effLength(words.length,i);
-    stats[maxGramLength+1] = Math.min(words.length,effectiveLength);
-    stats[maxGramLength+2] = effectiveLength;
+    int effectiveLength = effLength(wordCount,i);
+    stats[suffStatsCount-2] = Math.min(wordCount,effectiveLength);
+    stats[suffStatsCount-1] = effectiveLength;
 /* ~~~ */
 
     return stats;
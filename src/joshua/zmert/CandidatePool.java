@@ -0,0 +1,255 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package joshua.zmert;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The merged candidate pool of an in-process Z-MERT run.  For each
+ * sentence, it holds every distinct candidate translation produced
+ * so far, along with its feature values and sufficient statistics,
+ * so that candidates from previous iterations need not be re-read
+ * from temp files.
+ * <p>
+ * Feature values and sufficient statistics are kept in flat
+ * primitive arrays, one pair per sentence.  Whenever they take up
+ * more than the memory cap, the arrays of every sentence are appended
+ * to a binary spill file and emptied; they are read back from there
+ * by {@link #read(int, double[], int[])}.  The candidate strings,
+ * which are needed to recognize repeated candidates, always stay in
+ * memory.
+ * <p>
+ * A candidate keeps the feature values with which it was first
+ * produced.
+ */
+class CandidatePool
+{
+  private final int numSentences;
+  private final int numParams; // feature values per candidate
+  private final int suffStatsCount; // sufficient statistics per candidate
+  private final int bytesPerCandidate;
+  private final long memoryCap; // in bytes; 0 means no cap
+  private final String spillFileName;
+
+  private final HashMap<String,Integer>[] candIndex;
+    // candIndex[i] maps the candidates of sentence i to their index
+  private final int[] size; // number of candidates of each sentence
+  private final int[][] enteredIt;
+    // iteration since which a candidate has been produced in every window
+    // of prevMERTIterations iterations; see seen()
+  private final int[][] lastIt; // last iteration a candidate was produced in
+
+  private final double[][] featVals;
+  private final int[][] suffStats;
+    // feature values and sufficient statistics of the candidates of
+    // sentence i that are held in memory, i.e. those from spilled[i] on
+  private final int[] spilled;
+  private long memoryUsed; // bytes of featVals and suffStats in use
+
+  private RandomAccessFile spillFile; // null until the first spill
+  private long spillFileLength;
+  private final long[][] segmentOffset;
+  private final int[][] segmentEnd;
+  private final int[] numSegments;
+    // the kth spilled segment of sentence i starts at segmentOffset[i][k]
+    // in the spill file, and holds the candidates up to segmentEnd[i][k]
+
+  @SuppressWarnings("unchecked")
+  public CandidatePool(
+      int in_numSentences, int in_numParams, int in_suffStatsCount,
+      long in_memoryCap, String in_spillFileName)
+  {
+    numSentences = in_numSentences;
+    numParams = in_numParams;
+    suffStatsCount = in_suffStatsCount;
+    bytesPerCandidate = 8*numParams + 4*suffStatsCount;
+    memoryCap = in_memoryCap;
+    spillFileName = in_spillFileName;
+
+    candIndex = new HashMap[numSentences];
+    size = new int[numSentences];
+    enteredIt = new int[numSentences][];
+    lastIt = new int[numSentences][];
+    featVals = new double[numSentences][];
+    suffStats = new int[numSentences][];
+    spilled = new int[numSentences];
+    segmentOffset = new long[numSentences][];
+    segmentEnd = new int[numSentences][];
+    numSegments = new int[numSentences];
+
+    for (int i = 0; i < numSentences; ++i) {
+      candIndex[i] = new HashMap<String,Integer>();
+      enteredIt[i] = new int[16];
+      lastIt[i] = new int[16];
+      featVals[i] = new double[16*numParams];
+      suffStats[i] = new int[16*suffStatsCount];
+      segmentOffset[i] = new long[4];
+      segmentEnd[i] = new int[4];
+    }
+
+    memoryUsed = 0;
+    spillFile = null;
+    spillFileLength = 0;
+  }
+
+  /**
+   * Returns the index of a candidate of the ith sentence, or -1 if it
+   * is not in the pool.
+   */
+  public int indexOf(int i, String cand_str)
+  {
+    Integer k = candIndex[i].get(cand_str);
+    return (k == null) ? -1 : k;
+  }
+
+  /**
+   * Records that the kth candidate of the ith sentence was produced
+   * again in iteration it.  If it was not produced in any iteration
+   * since firstIt, it now counts as new to the current window.
+   */
+  public void seen(int i, int k, int it, int firstIt)
+  {
+    if (lastIt[i][k] < firstIt) {
+      enteredIt[i][k] = it;
+    }
+    lastIt[i][k] = it;
+  }
+
+  /**
+   * Adds a candidate to the ith sentence, and returns its index.  The
+   * feature values are indexed from 1, as in MertCore.
+   */
+  public int add(int i, String cand_str, double[] featVal, int[] stats, int it)
+      throws IOException
+  {
+    int k = size[i];
+    if (k == lastIt[i].length) {
+      enteredIt[i] = Arrays.copyOf(enteredIt[i],2*k);
+      lastIt[i] = Arrays.copyOf(lastIt[i],2*k);
+    }
+
+    int t = k - spilled[i];
+    if ((t+1)*numParams > featVals[i].length || (t+1)*suffStatsCount > suffStats[i].length) {
+      featVals[i] = Arrays.copyOf(featVals[i],2*(t+1)*numParams);
+      suffStats[i] = Arrays.copyOf(suffStats[i],2*(t+1)*suffStatsCount);
+    }
+
+    System.arraycopy(featVal,1,featVals[i],t*numParams,numParams);
+    System.arraycopy(stats,0,suffStats[i],t*suffStatsCount,suffStatsCount);
+    enteredIt[i][k] = it;
+    lastIt[i][k] = it;
+    candIndex[i].put(cand_str,k);
+    size[i] = k+1;
+
+    memoryUsed += bytesPerCandidate;
+    if (memoryCap > 0 && memoryUsed > memoryCap) {
+      spill();
+    }
+
+    return k;
+  }
+
+  public int size(int i) { return size[i]; }
+
+  public int enteredIteration(int i, int k) { return enteredIt[i][k]; }
+
+  public int lastIteration(int i, int k) { return lastIt[i][k]; }
+
+  /**
+   * Copies the feature values and sufficient statistics of all the
+   * candidates of the ith sentence into featVal_out and stats_out,
+   * candidate after candidate.  The arrays must hold at least size(i)
+   * candidates.
+   */
+  public void read(int i, double[] featVal_out, int[] stats_out) throws IOException
+  {
+    int from = 0;
+    for (int s = 0; s < numSegments[i]; ++s) {
+      int count = segmentEnd[i][s] - from;
+      byte[] bytes = new byte[count*bytesPerCandidate];
+      spillFile.seek(segmentOffset[i][s]);
+      spillFile.readFully(bytes);
+
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      buffer.asDoubleBuffer().get(featVal_out,from*numParams,count*numParams);
+      buffer.position(8*count*numParams);
+      buffer.asIntBuffer().get(stats_out,from*suffStatsCount,count*suffStatsCount);
+
+      from = segmentEnd[i][s];
+    }
+
+    int count = size[i] - spilled[i];
+    System.arraycopy(featVals[i],0,featVal_out,from*numParams,count*numParams);
+    System.arraycopy(suffStats[i],0,stats_out,from*suffStatsCount,count*suffStatsCount);
+  }
+
+  /**
+   * Appends the in-memory feature values and sufficient statistics of
+   * every sentence to the spill file, and releases them.
+   */
+  private void spill() throws IOException
+  {
+    if (spillFile == null) {
+      spillFile = new RandomAccessFile(spillFileName,"rw");
+      spillFile.setLength(0);
+    }
+
+    for (int i = 0; i < numSentences; ++i) {
+      int count = size[i] - spilled[i];
+      if (count == 0) continue;
+
+      ByteBuffer buffer = ByteBuffer.allocate(count*bytesPerCandidate);
+      buffer.asDoubleBuffer().put(featVals[i],0,count*numParams);
+      buffer.position(8*count*numParams);
+      buffer.asIntBuffer().put(suffStats[i],0,count*suffStatsCount);
+
+      spillFile.seek(spillFileLength);
+      spillFile.write(buffer.array());
+
+      int s = numSegments[i];
+      if (s == segmentEnd[i].length) {
+        segmentOffset[i] = Arrays.copyOf(segmentOffset[i],2*s);
+        segmentEnd[i] = Arrays.copyOf(segmentEnd[i],2*s);
+      }
+      segmentOffset[i][s] = spillFileLength;
+      segmentEnd[i][s] = size[i];
+      numSegments[i] = s+1;
+      spillFileLength += buffer.capacity();
+
+      spilled[i] = size[i];
+      featVals[i] = new double[16*numParams];
+      suffStats[i] = new int[16*suffStatsCount];
+    }
+
+    memoryUsed = 0;
+  }
+
+  /**
+   * Closes and deletes the spill file, if there is one.
+   */
+  public void close() throws IOException
+  {
+    if (spillFile != null) {
+      spillFile.close();
+      spillFile = null;
+      new File(spillFileName).delete();
+    }
+  }
+}
@@ -32,6 +32,9 @@ public abstract class EvaluationMetric
   protected final static DecimalFormat f0 = new DecimalFormat("###0");
   protected final static DecimalFormat f4 = new DecimalFormat("###0.0000");
   protected static String tmpDirPrefix;
+  protected static int numThreads = 1;
+    // number of threads across which metrics that support it calculate
+    // the sufficient statistics of a batch of candidates
 
   /* non-static data members */
   protected int suffStatsCount; // number of sufficient statistics
@@ -99,6 +102,7 @@ public abstract class EvaluationMetric
   public static void set_numDocuments(int x) { numDocuments = x; }
   public static void set_refsPerSen(int x) { refsPerSen = x; }
   public static void set_tmpDirPrefix(String S) { tmpDirPrefix = S; }
+  public static void set_numThreads(int x) { numThreads = x; }
   public static void set_refSentences(String[][] refs)
   {
     refSentences = new String[numSentences][refsPerSen];
@@ -20,7 +20,11 @@ package joshua.zmert;
 import java.util.*;
 import java.io.*;
 import java.text.DecimalFormat;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -39,6 +43,13 @@ public class IntermediateOptimizer implements Runnable
   private int[] candCount;
   private double[][][] featVal_array;
   private ConcurrentHashMap<Integer,int[]>[] suffStats_array;
+  private int[][] suffStats_merged;
+    // if not null, holds the contents of the temp.stats.merged file:
+    // the statistics of the kth candidate of sentence i start at
+    // suffStats_merged[i][k*suffStatsCount]
+  private ExecutorService paramPool;
+    // runs the per-parameter steps of each iteration in parallel;
+    // null if numParamThreads is 1
 
   /* static data members */
   private final static DecimalFormat f4 = new DecimalFormat("###0.0000");
@@ -63,13 +74,14 @@ public class IntermediateOptimizer implements Runnable
   private static int suffStatsCount;
   private static String tmpDirPrefix;
   private static int verbosity;
+  private static int numParamThreads; // threads each optimization spreads its parameters across
 
   public static void set_MERTparams(
       int in_numSentences, int in_numDocuments, int[] in_docOfSentence, int[] in_docSubsetInfo,
       int in_numParams, double[] in_normalizationOptions,
       boolean[] in_isOptimizable, double[] in_minThValue, double[] in_maxThValue,
       boolean in_oneModificationPerIteration, EvaluationMetric in_evalMetric,
-      String in_tmpDirPrefix, int in_verbosity)
+      String in_tmpDirPrefix, int in_verbosity, int in_numParamThreads)
   {
     numSentences = in_numSentences;
     numDocuments = in_numDocuments;
@@ -93,13 +105,14 @@ public class IntermediateOptimizer implements Runnable
     suffStatsCount = evalMetric.get_suffStatsCount();
     tmpDirPrefix = in_tmpDirPrefix;
     verbosity = in_verbosity;
+    numParamThreads = in_numParamThreads;
   }
 
   public IntermediateOptimizer(
       int in_j, Semaphore in_blocker, Vector<String> in_threadOutput,
       double[] in_initialLambda, double[] in_finalLambda, int[][] in_best1Cand_suffStats,
       double[] in_finalScore, int[] in_candCount, double[][][] in_featVal_array,
-      ConcurrentHashMap<Integer,int[]>[] in_suffStats_array)
+      ConcurrentHashMap<Integer,int[]>[] in_suffStats_array, int[][] in_suffStats_merged)
   {
     j = in_j;
     blocker = in_blocker;
@@ -113,12 +126,12 @@ public class IntermediateOptimizer implements Runnable
     candCount = in_candCount;
     featVal_array = in_featVal_array;
     suffStats_array = in_suffStats_array;
+    suffStats_merged = in_suffStats_merged;
   }
 
 //  private TreeMap<Double,TreeMap> thresholdsForParam(int c, int[] candCount, double[][][] featVal_array, double[] currLambda, TreeSet<Integer>[] indicesOfInterest)
-  private void set_thresholdsForParam(
-      TreeMap<Double,TreeMap<Integer,int[]>> thresholdsAll, int c,
-      double[] currLambda, TreeSet<Integer>[] indicesOfInterest)
+  private Thresholds thresholdsForParam(
+      int c, double[] currLambda, TreeSet<Integer>[] indicesOfInterest, TaskOutput out)
   {
 /*
     TreeMap[] thresholds = new TreeMap[numSentences];
@@ -136,7 +149,12 @@ public class IntermediateOptimizer implements Runnable
 
     // Find threshold points
 //    TreeMap<Double,TreeMap> thresholdsAll = new TreeMap<Double,TreeMap>();
-    thresholdsAll.clear();
+    double[] ips = new double[numSentences];
+    int[] ipSentences = new int[numSentences];
+    int[] ipNewIndices = new int[numSentences];
+    int count = 0;
+      // the (in-range) intersection points, in the order they are found,
+      // along with the sentence and the new_k of the 1-best switch at each
 
     int ipCount = 0;
     for (int i = 0; i < numSentences; ++i) {
@@ -287,27 +305,20 @@ public class IntermediateOptimizer implements Runnable
 
         if (nearestIntersectionPoint > minThValue[c] && nearestIntersectionPoint < maxThValue[c]) {
 
-          int[] th_info = {currIndex,nearestIntersectingLineIndex};
           last_new_k = nearestIntersectingLineIndex;
 
           indicesOfInterest[i].add(currIndex); // old_k
 //          indicesOfInterest_all[i].add(currIndex); // old_k   ***/
 
-          if (!thresholdsAll.containsKey(nearestIntersectionPoint)) {
-            TreeMap<Integer,int[]> A = new TreeMap<Integer,int[]>();
-            A.put(i,th_info);
-            thresholdsAll.put(nearestIntersectionPoint,A);
-          } else {
-            TreeMap<Integer,int[]> A = thresholdsAll.get(nearestIntersectionPoint);
-            if (!A.containsKey(i)) {
-              A.put(i,th_info);
-            } else {
-              int[] old_th_info = A.get(i);
-              old_th_info[1] = th_info[1]; // replace the existing new_k
-              A.put(i,th_info);
-            }
-            thresholdsAll.put(nearestIntersectionPoint,A);
+          if (count == ips.length) {
+            ips = Arrays.copyOf(ips,2*count);
+            ipSentences = Arrays.copyOf(ipSentences,2*count);
+            ipNewIndices = Arrays.copyOf(ipNewIndices,2*count);
           }
+          ips[count] = nearestIntersectionPoint;
+          ipSentences[count] = i;
+          ipNewIndices[count] = nearestIntersectingLineIndex;
+          ++count;
 /*
           if (!thresholds.containsKey(nearestIntersectionPoint)) {
             thresholds.put(nearestIntersectionPoint,th_info);
@@ -390,38 +401,34 @@ public class IntermediateOptimizer implements Runnable
 
     } // for (i)
 
+    Thresholds thresholdsAll = new Thresholds(ips,ipSentences,ipNewIndices,count,maxThValue[c]);
+
     // now thresholdsAll has the values for lambda_c at which score changes
     // based on the candidates for *all* the sentences (that satisfy
     // range constraints).
-    // Each lambda_c value maps to a Vector of th_info.  An overwhelming majority
-    // of these Vectors are of size 1.
+    // Each lambda_c value has a list of 1-best switches.  An overwhelming majority
+    // of these lists are of size 1.
 
     // indicesOfInterest[i] tells us which candidates for the ith sentence need
     // to be read from the merged decoder output file.
 
-    if (thresholdsAll.size() != 0) {
-      double smallest_th = thresholdsAll.firstKey();
-      double largest_th = thresholdsAll.lastKey();
-      println("# extracted thresholds: " + thresholdsAll.size(),2);
-      println("Smallest extracted threshold: " + smallest_th,2);
-      println("Largest extracted threshold: " + largest_th,2);
-
-      if (maxThValue[c] != PosInf) {
-        thresholdsAll.put(maxThValue[c],null);
-      } else {
-        thresholdsAll.put((thresholdsAll.lastKey() + 0.1),null);
-      }
+    if (thresholdsAll.numThresholds != 0) {
+      double smallest_th = thresholdsAll.points[0];
+      double largest_th = thresholdsAll.points[thresholdsAll.numThresholds-1];
+      out.println("# extracted thresholds: " + thresholdsAll.numThresholds,2);
+      out.println("Smallest extracted threshold: " + smallest_th,2);
+      out.println("Largest extracted threshold: " + largest_th,2);
     }
 
-//    return thresholdsAll;
+    return thresholdsAll;
 
-  } // TreeMap<Double,TreeMap> thresholdsForParam (int c)
+  } // Thresholds thresholdsForParam (int c)
 
   private double[] line_opt(
-      TreeMap<Double,TreeMap<Integer,int[]>> thresholdsAll, int[] indexOfCurrBest,
-      int c, double[] lambda)
+      Thresholds thresholdsAll, int[] indexOfCurrBest,
+      int c, double[] lambda, TaskOutput out)
   {
-    println("Line-optimizing lambda[" + c + "]...",3);
+    out.println("Line-optimizing lambda[" + c + "]...",3);
 
     double[] bestScoreInfo = new double[2];
       // to be returned: [0] will store the best lambda, and [1] will store its score
@@ -429,7 +436,7 @@ public class IntermediateOptimizer implements Runnable
     if (thresholdsAll.size() == 0) {
       // no thresholds extracted!  Possible in theory...
       // simply return current value for this parameter
-      println("No thresholds extracted!  Returning this parameter's current value...",2);
+      out.println("No thresholds extracted!  Returning this parameter's current value...",2);
 
       bestScoreInfo[0] = lambda[c];
       bestScoreInfo[1] = evalMetric.worstPossibleScore();
@@ -437,10 +444,10 @@ public class IntermediateOptimizer implements Runnable
       return bestScoreInfo;
     }
 
-    double smallest_th = thresholdsAll.firstKey();
-    double largest_th = thresholdsAll.lastKey();
-    println("Minimum threshold: " + smallest_th,3);
-    println("Maximum threshold: " + largest_th,3);
+    double smallest_th = thresholdsAll.points[0];
+    double largest_th = thresholdsAll.points[thresholdsAll.size()-1];
+    out.println("Minimum threshold: " + smallest_th,3);
+    out.println("Maximum threshold: " + largest_th,3);
 
     double[] temp_lambda = new double[1+numParams];
     System.arraycopy(lambda,1,temp_lambda,1,numParams);
@@ -492,28 +499,22 @@ public class IntermediateOptimizer implements Runnable
     else bestScore = evalMetric.score(suffStats_doc);
     double bestLambdaVal = temp_lambda[c];
     double nextLambdaVal = bestLambdaVal;
-    println("At lambda[" + c + "] = " + bestLambdaVal + ","
+    out.println("At lambda[" + c + "] = " + bestLambdaVal + ","
           + "\t" + metricName_display + " = " + bestScore + " (*)",3);
 
-    Iterator<Double> It = (thresholdsAll.keySet()).iterator();
-    if (It.hasNext()) { ip_curr = It.next(); }
+    ip_curr = thresholdsAll.points[0];
 
-    while (It.hasNext()) {
+    for (int p = 1; p < thresholdsAll.size(); ++p) {
       ip_prev = ip_curr;
-      ip_curr = It.next();
+      ip_curr = thresholdsAll.points[p];
       nextLambdaVal = (ip_prev + ip_curr)/2.0;
 
-      TreeMap<Integer,int[]> th_info_M = thresholdsAll.get(ip_prev);
-      Iterator<Integer> It2 = (th_info_M.keySet()).iterator();
-      while (It2.hasNext()) {
-        int i = It2.next();
+      for (int e = thresholdsAll.first[p-1]; e < thresholdsAll.first[p]; ++e) {
+        int i = thresholdsAll.sentence[e];
           // i.e. the 1-best for the i'th sentence changes at this threshold value
         int docOf_i = docOfSentence[i];
 
-        int[] th_info = th_info_M.get(i);
-        @SuppressWarnings("unused")
-        int old_k = th_info[0]; // should be equal to indexOfCurrBest[i]
-        int new_k = th_info[1];
+        int new_k = thresholdsAll.newIndex[e];
 
         for (int s = 0; s < suffStatsCount; ++s) {
           suffStats_doc[docOf_i][s] -= suffStats[i][s]; // subtract stats for candidate old_k
@@ -532,20 +533,20 @@ public class IntermediateOptimizer implements Runnable
       if (optimizeSubset) nextTestScore = evalMetric.score(suffStats_doc,docSubset_firstRank,docSubset_lastRank);
       else nextTestScore = evalMetric.score(suffStats_doc);
 
-      print("At lambda[" + c + "] = " + nextLambdaVal + ","
+      out.print("At lambda[" + c + "] = " + nextLambdaVal + ","
           + "\t" + metricName_display + " = " + nextTestScore,3);
 
       if (evalMetric.isBetter(nextTestScore,bestScore)) {
         bestScore = nextTestScore;
         bestLambdaVal = nextLambdaVal;
-        print(" (*)",3);
+        out.print(" (*)",3);
       }
 
-      println("",3);
+      out.println("",3);
 
-    } // while (It.hasNext())
+    } // for (p)
 
-    println("",3);
+    out.println("",3);
 
     // what is the purpose of this block of code ?????????????????????
 /*
@@ -579,6 +580,17 @@ public class IntermediateOptimizer implements Runnable
           + "for " + candsOfInterestCount + " candidates of interest.",2);
 //    println("(*_all: " + candsOfInterestCount_all + ")",2); *****/
 
+    if (suffStats_merged != null) {
+      for (int i = 0; i < numSentences; ++i) {
+        for (int nextIndex : indicesOfInterest[i]) {
+          int[] suffStats = new int[suffStatsCount];
+          System.arraycopy(suffStats_merged[i],nextIndex*suffStatsCount,suffStats,0,suffStatsCount);
+          suffStats_array[i].put(nextIndex,suffStats);
+        }
+      }
+      return;
+    }
+
 
     try {
 
@@ -690,7 +702,7 @@ public class IntermediateOptimizer implements Runnable
 
   } // int[] initial_indexOfCurrBest (int c)
 
-  private double[] bestParamToChange(TreeMap<Double,TreeMap<Integer,int[]>>[] thresholdsAll, int lastChanged_c, double[] currLambda)
+  private double[] bestParamToChange(final Thresholds[] thresholdsAll, final int lastChanged_c, final double[] currLambda)
   {
     int c_best = 0; // which parameter to change?
     double bestLambdaVal = 0.0;
@@ -719,46 +731,36 @@ public class IntermediateOptimizer implements Runnable
       }
 //    }
 
-    int[][] indexOfCurrBest = new int[1+numParams][numSentences];
+    final int[][] indexOfCurrBest = new int[1+numParams][numSentences];
+
+    // the thresholds of the parameters are extracted in parallel, and
+    // their output is then printed in order of parameter
+    final TaskOutput[] output = new TaskOutput[1+numParams];
+    final TreeSet<Integer>[] allIndicesOfInterest = indicesOfInterest;
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
 
     for (int c = 1; c <= numParams; ++c) {
+      output[c] = new TaskOutput();
       if (!isOptimizable[c]) {
-        println("Not investigating lambda[j=" + j + "][" + c + "].",2);
+        output[c].println("Not investigating lambda[j=" + j + "][" + c + "].",2);
+        output[c].println("",2);
       } else {
-        if (c != lastChanged_c) {
-          println("Investigating lambda[j=" + j + "][" + c + "]...",2);
-//          thresholdsAll[c] = thresholdsForParam(c,candCount,featVal_array,currLambda,indicesOfInterest);
-          set_thresholdsForParam(
-            thresholdsAll[c],c,currLambda,indicesOfInterest);
-        } else {
-          println("Keeping thresholds for lambda[j=" + j + "][" + c + "] from previous step.",2);
-        }
-        // now thresholdsAll has the values for lambda_c at which score changes
-        // based on the candidates for *all* the sentences (that satisfy
-        // range constraints).
-        // Each lambda_c value maps to a Vector of th_info.  An overwhelming majority
-        // of these Vectors are of size 1.
-
-        if (thresholdsAll[c].size() != 0) {
-
-          double[] temp_lambda = new double[1+numParams];
-          System.arraycopy(currLambda,1,temp_lambda,1,numParams);
-
-          double smallest_th = thresholdsAll[c].firstKey();
-
-          if (minThValue[c] != NegInf) {
-            temp_lambda[c] = (minThValue[c] + smallest_th) / 2.0;
-          } else {
-            temp_lambda[c] = smallest_th - 0.05;
+        final int param = c;
+        tasks.add(new Callable<Void>() {
+          public Void call()
+          {
+            set_lineInfo(param,lastChanged_c,currLambda,thresholdsAll,indexOfCurrBest,
+                         allIndicesOfInterest,output[param]);
+            return null;
           }
-
-          indexOfCurrBest[c] =
-            initial_indexOfCurrBest(temp_lambda,indicesOfInterest);
-        }
+        });
       }
+    }
 
-      println("",2);
+    runTasks(tasks);
 
+    for (int c = 1; c <= numParams; ++c) {
+      print(output[c]);
     }
 
 
@@ -771,16 +773,34 @@ public class IntermediateOptimizer implements Runnable
 
 
 
-    for (int c = 1; c <= numParams; ++c) {
-    // investigate currLambda[j][c]
+    // investigate each currLambda[j][c], in parallel
+    final double[][] bestScoreInfo = new double[1+numParams][];
+    tasks.clear();
 
+    for (int c = 1; c <= numParams; ++c) {
+      output[c] = new TaskOutput();
       if (isOptimizable[c]) {
-        double[] bestScoreInfo_c =
-          line_opt(thresholdsAll[c],indexOfCurrBest[c],c,currLambda);
-          // get best score and its lambda value
+        final int param = c;
+        tasks.add(new Callable<Void>() {
+          public Void call()
+          {
+            bestScoreInfo[param] =
+              line_opt(thresholdsAll[param],indexOfCurrBest[param],param,currLambda,output[param]);
+              // get best score and its lambda value
+            return null;
+          }
+        });
+      }
+    }
+
+    runTasks(tasks);
 
-        double bestLambdaVal_c = bestScoreInfo_c[0];
-        double bestScore_c = bestScoreInfo_c[1];
+    for (int c = 1; c <= numParams; ++c) {
+      print(output[c]);
+
+      if (isOptimizable[c]) {
+        double bestLambdaVal_c = bestScoreInfo[c][0];
+        double bestScore_c = bestScoreInfo[c][1];
 
         if (evalMetric.isBetter(bestScore_c,bestScore)) {
           c_best = c;
@@ -825,6 +845,72 @@ public class IntermediateOptimizer implements Runnable
 
   } // double[] bestParamToChange(int j, double[] currLambda)
 
+  private void set_lineInfo(
+      int c, int lastChanged_c, double[] currLambda, Thresholds[] thresholdsAll,
+      int[][] indexOfCurrBest, TreeSet<Integer>[] indicesOfInterest, TaskOutput out)
+  {
+    // the candidates of interest found for this parameter are collected
+    // separately, then added to indicesOfInterest
+    @SuppressWarnings("unchecked")
+    TreeSet<Integer>[] paramIndicesOfInterest = new TreeSet[numSentences];
+    for (int i = 0; i < numSentences; ++i) {
+      paramIndicesOfInterest[i] = new TreeSet<Integer>();
+    }
+
+    if (c != lastChanged_c) {
+      out.println("Investigating lambda[j=" + j + "][" + c + "]...",2);
+      thresholdsAll[c] = thresholdsForParam(c,currLambda,paramIndicesOfInterest,out);
+    } else {
+      out.println("Keeping thresholds for lambda[j=" + j + "][" + c + "] from previous step.",2);
+    }
+    // now thresholdsAll has the values for lambda_c at which score changes
+    // based on the candidates for *all* the sentences (that satisfy
+    // range constraints).
+
+    if (thresholdsAll[c].size() != 0) {
+
+      double[] temp_lambda = new double[1+numParams];
+      System.arraycopy(currLambda,1,temp_lambda,1,numParams);
+
+      double smallest_th = thresholdsAll[c].points[0];
+
+      if (minThValue[c] != NegInf) {
+        temp_lambda[c] = (minThValue[c] + smallest_th) / 2.0;
+      } else {
+        temp_lambda[c] = smallest_th - 0.05;
+      }
+
+      indexOfCurrBest[c] =
+        initial_indexOfCurrBest(temp_lambda,paramIndicesOfInterest);
+    }
+
+    out.println("",2);
+
+    synchronized (indicesOfInterest) {
+      for (int i = 0; i < numSentences; ++i) {
+        indicesOfInterest[i].addAll(paramIndicesOfInterest[i]);
+      }
+    }
+  }
+
+  private void runTasks(List<Callable<Void>> tasks)
+  {
+    try {
+      if (paramPool == null) {
+        for (Callable<Void> task : tasks) {
+          task.call();
+        }
+      } else {
+        for (Future<Void> result : paramPool.invokeAll(tasks)) {
+          result.get(); // rethrows any exception of the task
+        }
+      }
+    } catch (Exception e) {
+      System.err.println("Exception in IntermediateOptimizer.runTasks(List): " + e.getMessage());
+      System.exit(99905);
+    }
+  }
+
   private void normalizeLambda(double[] origLambda)
   {
     // private String[] normalizationOptions;
@@ -885,12 +971,11 @@ public class IntermediateOptimizer implements Runnable
   }
 
   private void real_run() {
-    @SuppressWarnings("unchecked")
-    TreeMap<Double,TreeMap<Integer,int[]>>[] thresholdsAll = new TreeMap[1+numParams];
+    Thresholds[] thresholdsAll = new Thresholds[1+numParams];
     thresholdsAll[0] = null;
     for (int c = 1; c <= numParams; ++c) {
       if (isOptimizable[c]) {
-        thresholdsAll[c] = new TreeMap<Double,TreeMap<Integer,int[]>>();
+        thresholdsAll[c] = new Thresholds(new double[0],new int[0],new int[0],0,maxThValue[c]);
       } else {
         thresholdsAll[c] = null;
       }
@@ -983,11 +1068,16 @@ public class IntermediateOptimizer implements Runnable
   }
 
   public void run() {
+    if (numParamThreads > 1) {
+      paramPool = Executors.newFixedThreadPool(numParamThreads);
+    }
     try {
       real_run();
     } catch (Exception e) {
       System.err.println("Exception in IntermediateOptimizer.run(): " + e.getMessage());
       System.exit(99905);
+    } finally {
+      if (paramPool != null) paramPool.shutdown();
     }
     if (!strToPrint.equals("")) {
       threadOutput.add(strToPrint);
@@ -1000,6 +1090,12 @@ public class IntermediateOptimizer implements Runnable
   private void println(String str) { threadOutput.add(strToPrint + str); strToPrint = ""; }
   private void print(String str) { strToPrint += str; }
 
+  private void print(TaskOutput out)
+  {
+    for (String str : out.lines) { println(str); }
+    print(out.strToPrint);
+  }
+
   private String lambdaToString(double[] lambdaA)
   {
     String retStr = "{";
@@ -1010,5 +1106,128 @@ public class IntermediateOptimizer implements Runnable
 
     return retStr;
   }
+
+  /**
+   * Output of a step that runs alongside the same step for other
+   * parameters, kept aside until it can be printed in order.
+   */
+  private static class TaskOutput
+  {
+    private final Vector<String> lines = new Vector<String>();
+    private String strToPrint = "";
+
+    void println(String str, int priority)
+    {
+      if (priority <= verbosity) { lines.add(strToPrint + str); strToPrint = ""; }
+    }
+
+    void print(String str, int priority)
+    {
+      if (priority <= verbosity) { strToPrint += str; }
+    }
+  }
+
+  /**
+   * The thresholds extracted for a parameter: the values at which the
+   * 1-best candidate of some sentence changes, in increasing order.
+   * The changes at points[p] are stored by increasing sentence from
+   * first[p] up to first[p+1], in sentence[] and newIndex[] (the new_k
+   * of each).  Unless there are no thresholds at all, an extra point
+   * follows the last threshold, marking the end of the last interval;
+   * there are no changes at it.
+   */
+  private static class Thresholds
+  {
+    final double[] points;
+    final int[] first;
+    final int[] sentence;
+    final int[] newIndex;
+    final int numThresholds; // points, not counting the extra one
+
+    /**
+     * Builds the thresholds from count intersection points, found
+     * sentence after sentence.  If a sentence has several changes at
+     * the same point, only the last one found is kept.
+     */
+    Thresholds(double[] ips, int[] ipSentences, int[] ipNewIndices, int count, double maxThValue)
+    {
+      int[] order = sortedOrder(ips,count);
+
+      double[] pointsTemp = new double[count+1];
+      int[] firstTemp = new int[count+2];
+      int[] sentenceTemp = new int[count];
+      int[] newIndexTemp = new int[count];
+      int numPoints = 0;
+      int numChanges = 0;
+
+      for (int a = 0; a < count; ++a) {
+        int e = order[a];
+        if (numPoints == 0 || Double.compare(ips[e],pointsTemp[numPoints-1]) != 0) {
+          pointsTemp[numPoints] = ips[e];
+          firstTemp[numPoints] = numChanges;
+          ++numPoints;
+        } else if (sentenceTemp[numChanges-1] == ipSentences[e]) {
+          newIndexTemp[numChanges-1] = ipNewIndices[e]; // replace the existing new_k
+          continue;
+        }
+        sentenceTemp[numChanges] = ipSentences[e];
+        newIndexTemp[numChanges] = ipNewIndices[e];
+        ++numChanges;
+      }
+
+      numThresholds = numPoints;
+
+      if (numPoints > 0) {
+        double end;
+        if (maxThValue != PosInf) {
+          end = maxThValue;
+        } else {
+          end = pointsTemp[numPoints-1] + 0.1;
+        }
+        if (Double.compare(end,pointsTemp[numPoints-1]) != 0) {
+          pointsTemp[numPoints] = end;
+          firstTemp[numPoints] = numChanges;
+          ++numPoints;
+        }
+      }
+      firstTemp[numPoints] = numChanges;
+
+      points = Arrays.copyOf(pointsTemp,numPoints);
+      first = Arrays.copyOf(firstTemp,numPoints+1);
+      sentence = Arrays.copyOf(sentenceTemp,numChanges);
+      newIndex = Arrays.copyOf(newIndexTemp,numChanges);
+    }
+
+    int size() { return points.length; }
+
+    /**
+     * Returns the indices of the first count values, in increasing
+     * order of value; indices of equal values keep their order.
+     */
+    private static int[] sortedOrder(double[] values, int count)
+    {
+      int[] order = new int[count];
+      for (int a = 0; a < count; ++a) order[a] = a;
+      int[] temp = new int[count];
+
+      // bottom-up merge sort
+      for (int width = 1; width < count; width *= 2) {
+        for (int lo = 0; lo < count; lo += 2*width) {
+          int mid = Math.min(lo+width,count);
+          int hi = Math.min(lo+2*width,count);
+          int a = lo, b = mid, t = lo;
+          while (a < mid && b < hi) {
+            if (Double.compare(values[order[b]],values[order[a]]) < 0) temp[t++] = order[b++];
+            else temp[t++] = order[a++];
+          }
+          while (a < mid) temp[t++] = order[a++];
+          while (b < hi) temp[t++] = order[b++];
+        }
+        int[] swap = order; order = temp; temp = swap;
+      }
+
+      return order;
+    }
+  }
 }
 
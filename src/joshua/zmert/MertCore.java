@@ -18,6 +18,8 @@
 
 package joshua.zmert;
 import joshua.decoder.*;
+import joshua.decoder.hypergraph.KBestExtractor;
+import joshua.util.CoIterator;
 import java.util.*;
 import java.io.*;
 import java.util.zip.*;
@@ -154,6 +156,16 @@ public class MertCore
     // size of N-best list generated by decoder at each iteration
     // (aka simply N, but N is a bad variable name)
 
+  private int candPoolMemory;
+    // when Joshua runs as an internal decoder, the candidates are kept in
+    // memory rather than in temp files; this is the amount of memory (in MB)
+    // their feature values and sufficient statistics may take up before
+    // they are spilled to disk.  If 0, they are never spilled.
+
+  private CandidatePool candidatePool;
+    // the candidates of all iterations so far; null unless Joshua runs as an
+    // internal decoder within a single run_MERT() call
+
   private long seed;
     // seed used to create random number generators
 
@@ -358,6 +370,7 @@ public class MertCore
     EvaluationMetric.set_refsPerSen(refsPerSen);
     EvaluationMetric.set_refSentences(refSentences);
     EvaluationMetric.set_tmpDirPrefix(tmpDirPrefix);
+    EvaluationMetric.set_numThreads(numOptThreads);
 
     evalMetric = EvaluationMetric.getMetric(metricName,metricOptions);
 
@@ -368,7 +381,10 @@ public class MertCore
                                          numParams, normalizationOptions,
                                          isOptimizable, minThValue, maxThValue,
                                          oneModificationPerIteration, evalMetric,
-                                         tmpDirPrefix, verbosity);
+                                         tmpDirPrefix, verbosity,
+                                         Math.max(1,numOptThreads/initsPerIt));
+      // threads not needed to run the initsPerIt optimizations side by side
+      // are used by each optimization to process its parameters in parallel
 
 
 
@@ -437,10 +453,7 @@ println(docSubsetInfo[6] + "}",1);
 
 
     if (decoderCommand == null && fakeFileNameTemplate == null) {
-      println("Loading Joshua decoder...",1);
-      myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
-      println("...finished loading @ " + (new Date()),1);
-      println("");
+      loadDecoder();
     } else {
       myDecoder = null;
     }
@@ -511,6 +524,13 @@ println(docSubsetInfo[6] + "}",1);
     int earlyStop = 0;
       // number of consecutive iteration an early stopping criterion was satisfied
 
+    if (myDecoder != null) {
+      // the decoder lives as long as this run, and so can the candidates
+      candidatePool = new CandidatePool(numSentences, numParams, suffStatsCount,
+                                        candPoolMemory * 1024L * 1024L,
+                                        tmpDirPrefix+"temp.pool");
+    }
+
     for (int iteration = 1; ; ++iteration) {
 
       double[] A = run_single_iteration(iteration, minIts, maxIts, prevIts, earlyStop, maxIndex);
@@ -524,6 +544,15 @@ println(docSubsetInfo[6] + "}",1);
 
     } // for (iteration)
 
+    if (candidatePool != null) {
+      try {
+        candidatePool.close();
+      } catch (IOException e) {
+        System.err.println("IOException in MertCore.run_MERT(int,int,int): " + e.getMessage());
+      }
+      candidatePool = null;
+    }
+
     println("",1);
 
     println("----------------------------------------------------",1);
@@ -618,29 +647,37 @@ public double[] run_single_iteration(
         println("Redecoding using weight vector " + lambdaToString(lambda),1);
       }
 
-      String[] decRunResult = run_decoder(iteration); // iteration passed in case fake decoder will be used
-        // [0] name of file to be processed
-        // [1] indicates how the output file was obtained:
-        //   1: external decoder
-        //   2: fake decoder
-        //   3: internal decoder
+      String[] decRunResult = null;
 
-      if (!decRunResult[1].equals("2")) {
+      if (candidatePool != null) {
+        decodeIntoPool(iteration, Math.max(1,iteration-prevIts));
         println("...finished decoding @ " + (new Date()),1);
-      }
+      } else {
+        decRunResult = run_decoder(iteration); // iteration passed in case fake decoder will be used
+          // [0] name of file to be processed
+          // [1] indicates how the output file was obtained:
+          //   1: external decoder
+          //   2: fake decoder
+          //   3: internal decoder
+
+        if (!decRunResult[1].equals("2")) {
+          println("...finished decoding @ " + (new Date()),1);
+        }
 
-      checkFile(decRunResult[0]);
+        checkFile(decRunResult[0]);
 
-      println("Producing temp files for iteration "+iteration,3);
+        println("Producing temp files for iteration "+iteration,3);
 
-      produceTempFiles(decRunResult[0], iteration);
+        produceTempFiles(decRunResult[0], iteration);
+      }
 
       if (saveInterFiles == 1 || saveInterFiles == 3) { // make copy of intermediate config file
         if (!copyFile(decoderConfigFileName,decoderConfigFileName+".ZMERT.it"+iteration)) {
           println("Warning: attempt to make copy of decoder config file (to create" + decoderConfigFileName+".ZMERT.it"+iteration + ") was unsuccessful!",1);
         }
       }
-      if (saveInterFiles == 2 || saveInterFiles == 3) { // make copy of intermediate decoder output file...
+      if ((saveInterFiles == 2 || saveInterFiles == 3) && decRunResult != null) { // make copy of intermediate decoder output file...
+        // (there is none if the candidates went straight into candidatePool)
 
         if (!decRunResult[1].equals("2")) { // ...but only if no fake decoder
           if (!decRunResult[0].endsWith(".gz")) {
@@ -713,472 +750,485 @@ public double[] run_single_iteration(
 
 
 
-      try {
+      int[][] suffStats_merged = null;
+        // if the candidates are in candidatePool, suffStats_merged[i] holds
+        // the sufficient statistics of the candidates of sentence i, i.e.
+        // the ith sentence's portion of the temp.stats.merged file
 
-        // each inFile corresponds to the output of an iteration
-        // (index 0 is not used; no corresponding index for the current iteration)
-        BufferedReader[] inFile_sents = new BufferedReader[iteration];
-        BufferedReader[] inFile_feats = new BufferedReader[iteration];
-        BufferedReader[] inFile_stats = new BufferedReader[iteration];
+      if (candidatePool != null) {
+        suffStats_merged = readCandidatePool(
+            firstIt, initialLambda, best1Score, best1Cand_suffStats,
+            featVal_array, candCount, lastUsedIndex, maxIndex, newCandidatesAdded);
+      } else {
+        try {
 
-        for (int it = firstIt; it < iteration; ++it) {
-          InputStream inStream_sents, inStream_feats, inStream_stats;
+          // each inFile corresponds to the output of an iteration
+          // (index 0 is not used; no corresponding index for the current iteration)
+          BufferedReader[] inFile_sents = new BufferedReader[iteration];
+          BufferedReader[] inFile_feats = new BufferedReader[iteration];
+          BufferedReader[] inFile_stats = new BufferedReader[iteration];
+
+          for (int it = firstIt; it < iteration; ++it) {
+            InputStream inStream_sents, inStream_feats, inStream_stats;
+            if (compressFiles == 0) {
+              inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
+              inStream_feats = new FileInputStream(tmpDirPrefix+"temp.feats.it"+it);
+              inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
+            } else {
+              inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
+              inStream_feats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+it+".gz"));
+              inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
+            }
+
+            inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
+            inFile_feats[it] = new BufferedReader(new InputStreamReader(inStream_feats, "utf8"));
+            inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
+          }
+
+
+          InputStream inStream_sentsCurrIt, inStream_featsCurrIt, inStream_statsCurrIt;
           if (compressFiles == 0) {
-            inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
-            inStream_feats = new FileInputStream(tmpDirPrefix+"temp.feats.it"+it);
-            inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
+            inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
+            inStream_featsCurrIt = new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration);
           } else {
-            inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
-            inStream_feats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+it+".gz"));
-            inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
+            inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
+            inStream_featsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration+".gz"));
           }
 
-          inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
-          inFile_feats[it] = new BufferedReader(new InputStreamReader(inStream_feats, "utf8"));
-          inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
-        }
+          BufferedReader inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
+          BufferedReader inFile_featsCurrIt = new BufferedReader(new InputStreamReader(inStream_featsCurrIt, "utf8"));
+
+          BufferedReader inFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to true
+          PrintWriter outFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to false
+          boolean statsCurrIt_exists = false;
+          if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration)) {
+            inStream_statsCurrIt = new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration);
+            inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
+            statsCurrIt_exists = true;
+            copyFile(tmpDirPrefix+"temp.stats.it"+iteration,tmpDirPrefix+"temp.stats.it"+iteration+".copy");
+          } else if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration+".gz")) {
+            inStream_statsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration+".gz"));
+            inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
+            statsCurrIt_exists = true;
+            copyFile(tmpDirPrefix+"temp.stats.it"+iteration+".gz",tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz");
+          } else {
+            outFile_statsCurrIt = new PrintWriter(tmpDirPrefix+"temp.stats.it"+iteration);
+          }
 
+          PrintWriter outFile_statsMerged = new PrintWriter(tmpDirPrefix+"temp.stats.merged");
+            // write sufficient statistics from all the sentences
+            // from the output files into a single file
+          PrintWriter outFile_statsMergedKnown = new PrintWriter(tmpDirPrefix+"temp.stats.mergedKnown");
+            // write sufficient statistics from all the sentences
+            // from the output files into a single file
 
-        InputStream inStream_sentsCurrIt, inStream_featsCurrIt, inStream_statsCurrIt;
-        if (compressFiles == 0) {
-          inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
-          inStream_featsCurrIt = new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration);
-        } else {
-          inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
-          inStream_featsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.feats.it"+iteration+".gz"));
-        }
+          FileOutputStream outStream_unknownCands = new FileOutputStream(tmpDirPrefix+"temp.currIt.unknownCands", false);
+          OutputStreamWriter outStreamWriter_unknownCands = new OutputStreamWriter(outStream_unknownCands, "utf8");
+          BufferedWriter outFile_unknownCands = new BufferedWriter(outStreamWriter_unknownCands);
 
-        BufferedReader inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
-        BufferedReader inFile_featsCurrIt = new BufferedReader(new InputStreamReader(inStream_featsCurrIt, "utf8"));
-
-        BufferedReader inFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to true
-        PrintWriter outFile_statsCurrIt = null; // will only be used if statsCurrIt_exists below is set to false
-        boolean statsCurrIt_exists = false;
-        if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration)) {
-          inStream_statsCurrIt = new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration);
-          inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
-          statsCurrIt_exists = true;
-          copyFile(tmpDirPrefix+"temp.stats.it"+iteration,tmpDirPrefix+"temp.stats.it"+iteration+".copy");
-        } else if (fileExists(tmpDirPrefix+"temp.stats.it"+iteration+".gz")) {
-          inStream_statsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+iteration+".gz"));
-          inFile_statsCurrIt = new BufferedReader(new InputStreamReader(inStream_statsCurrIt, "utf8"));
-          statsCurrIt_exists = true;
-          copyFile(tmpDirPrefix+"temp.stats.it"+iteration+".gz",tmpDirPrefix+"temp.stats.it"+iteration+".copy.gz");
-        } else {
-          outFile_statsCurrIt = new PrintWriter(tmpDirPrefix+"temp.stats.it"+iteration);
-        }
+          PrintWriter outFile_unknownIndices = new PrintWriter(tmpDirPrefix+"temp.currIt.unknownIndices");
 
-        PrintWriter outFile_statsMerged = new PrintWriter(tmpDirPrefix+"temp.stats.merged");
-          // write sufficient statistics from all the sentences
-          // from the output files into a single file
-        PrintWriter outFile_statsMergedKnown = new PrintWriter(tmpDirPrefix+"temp.stats.mergedKnown");
-          // write sufficient statistics from all the sentences
-          // from the output files into a single file
 
-        FileOutputStream outStream_unknownCands = new FileOutputStream(tmpDirPrefix+"temp.currIt.unknownCands", false);
-        OutputStreamWriter outStreamWriter_unknownCands = new OutputStreamWriter(outStream_unknownCands, "utf8");
-        BufferedWriter outFile_unknownCands = new BufferedWriter(outStreamWriter_unknownCands);
+          String sents_str, feats_str, stats_str;
 
-        PrintWriter outFile_unknownIndices = new PrintWriter(tmpDirPrefix+"temp.currIt.unknownIndices");
+          // BUG: this assumes a candidate string cannot be produced for two
+          //      different source sentences, which is not necessarily true
+          //   (It's not actually a bug, but only because existingCandStats gets
+          //    cleared before moving to the next source sentence.)
+          // FIX: should be made an array, indexed by i
+          HashMap<String,String> existingCandStats = new HashMap<String,String>();
+            // Stores precalculated sufficient statistics for candidates, in case
+            // the same candidate is seen again. (SS stored as a String.)
+            // Q: Why do we care?  If we see the same candidate again, aren't we going
+            //    to ignore it?  So, why do we care about the SS of this repeat candidate?
+            // A: A "repeat" candidate may not be a repeat candidate in later
+            //    iterations if the user specifies a value for prevMERTIterations
+            //    that causes MERT to skip candidates from early iterations.
+          double[] currFeatVal = new double[1+numParams];
+          String[] featVal_str;
 
 
-        String sents_str, feats_str, stats_str;
 
-        // BUG: this assumes a candidate string cannot be produced for two
-        //      different source sentences, which is not necessarily true
-        //   (It's not actually a bug, but only because existingCandStats gets
-        //    cleared before moving to the next source sentence.)
-        // FIX: should be made an array, indexed by i
-        HashMap<String,String> existingCandStats = new HashMap<String,String>();
-          // Stores precalculated sufficient statistics for candidates, in case
-          // the same candidate is seen again. (SS stored as a String.)
-          // Q: Why do we care?  If we see the same candidate again, aren't we going
-          //    to ignore it?  So, why do we care about the SS of this repeat candidate?
-          // A: A "repeat" candidate may not be a repeat candidate in later
-          //    iterations if the user specifies a value for prevMERTIterations
-          //    that causes MERT to skip candidates from early iterations.
-        double[] currFeatVal = new double[1+numParams];
-        String[] featVal_str;
+          int[] sizeUnknown_currIt = new int[numSentences];
 
-        int totalCandidateCount = 0;
 
 
+          for (int i = 0; i < numSentences; ++i) {
 
-        int[] sizeUnknown_currIt = new int[numSentences];
+            for (int j = 1; j <= initsPerIt; ++j) {
+              best1Score[j][i] = NegInf;
+            }
 
+            for (int it = firstIt; it < iteration; ++it) {
+            // Why up to but *excluding* iteration?
+            // Because the last iteration is handled a little differently, since
+            // the SS must be claculated (and the corresponding file created),
+            // which is not true for previous iterations.
 
+              for (int n = 0; n <= sizeOfNBest; ++n) {
+              // Why up to and *including* sizeOfNBest?
+              // So that it would read the "||||||" separator even if there is
+              // a complete list of sizeOfNBest candidates.
 
-        for (int i = 0; i < numSentences; ++i) {
+                // for the nth candidate for the ith sentence, read the sentence, feature values,
+                // and sufficient statistics from the various temp files
 
-          for (int j = 1; j <= initsPerIt; ++j) {
-            best1Score[j][i] = NegInf;
-          }
+                sents_str = inFile_sents[it].readLine();
+                feats_str = inFile_feats[it].readLine();
+                stats_str = inFile_stats[it].readLine();
 
-          for (int it = firstIt; it < iteration; ++it) {
-          // Why up to but *excluding* iteration?
-          // Because the last iteration is handled a little differently, since
-          // the SS must be claculated (and the corresponding file created),
-          // which is not true for previous iterations.
+                if (sents_str.equals("||||||")) {
+                  n = sizeOfNBest+1;
+                } else if (!existingCandStats.containsKey(sents_str)) {
 
-            for (int n = 0; n <= sizeOfNBest; ++n) {
-            // Why up to and *including* sizeOfNBest?
-            // So that it would read the "||||||" separator even if there is
-            // a complete list of sizeOfNBest candidates.
+                  outFile_statsMergedKnown.println(stats_str);
 
-              // for the nth candidate for the ith sentence, read the sentence, feature values,
-              // and sufficient statistics from the various temp files
+                  featVal_str = feats_str.split("\\s+");
 
-              sents_str = inFile_sents[it].readLine();
-              feats_str = inFile_feats[it].readLine();
-              stats_str = inFile_stats[it].readLine();
+                  for (int c = 1; c <= numParams; ++c) {
+                    currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
+  //                  print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
+                  }
+  //                println("",4);
 
-              if (sents_str.equals("||||||")) {
-                n = sizeOfNBest+1;
-              } else if (!existingCandStats.containsKey(sents_str)) {
 
-                outFile_statsMergedKnown.println(stats_str);
+                  for (int j = 1; j <= initsPerIt; ++j) {
+                    double score = 0; // i.e. score assigned by decoder
+                    for (int c = 1; c <= numParams; ++c) {
+                      score += initialLambda[j][c] * currFeatVal[c];
+                    }
+                    if (score > best1Score[j][i]) {
+                      best1Score[j][i] = score;
+                      String[] tempStats = stats_str.split("\\s+");
+                      for (int s = 0; s < suffStatsCount; ++s)
+                        best1Cand_suffStats[j][i][s] = Integer.parseInt(tempStats[s]);
+                    }
+                  } // for (j)
 
-                featVal_str = feats_str.split("\\s+");
+                  existingCandStats.put(sents_str,stats_str);
 
-                for (int c = 1; c <= numParams; ++c) {
-                  currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
-//                  print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
-                }
-//                println("",4);
+                  setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
+                  candCount[i] += 1;
 
+                  newCandidatesAdded[it] += 1;
 
-                for (int j = 1; j <= initsPerIt; ++j) {
-                  double score = 0; // i.e. score assigned by decoder
-                  for (int c = 1; c <= numParams; ++c) {
-                    score += initialLambda[j][c] * currFeatVal[c];
-                  }
-                  if (score > best1Score[j][i]) {
-                    best1Score[j][i] = score;
-                    String[] tempStats = stats_str.split("\\s+");
-                    for (int s = 0; s < suffStatsCount; ++s)
-                      best1Cand_suffStats[j][i][s] = Integer.parseInt(tempStats[s]);
-                  }
-                } // for (j)
+                } // if unseen candidate
 
-                existingCandStats.put(sents_str,stats_str);
+              } // for (n)
 
-                setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
-                candCount[i] += 1;
+            } // for (it)
 
-                newCandidatesAdded[it] += 1;
+            outFile_statsMergedKnown.println("||||||");
 
-              } // if unseen candidate
 
-            } // for (n)
+            // now process the candidates of the current iteration
+            // now determine the new candidates of the current iteration
+
+            /* remember:
+                 BufferedReader inFile_sentsCurrIt
+                 BufferedReader inFile_featsCurrIt
+                 PrintWriter outFile_statsCurrIt
+            */
 
-          } // for (it)
+            String[] sentsCurrIt_currSrcSent = new String[sizeOfNBest+1];
 
-          outFile_statsMergedKnown.println("||||||");
+            Vector<String> unknownCands_V = new Vector<String>();
+              // which candidates (of the i'th source sentence) have not been seen before
+              // this iteration?
 
+            for (int n = 0; n <= sizeOfNBest; ++n) {
+            // Why up to and *including* sizeOfNBest?
+            // So that it would read the "||||||" separator even if there is
+            // a complete list of sizeOfNBest candidates.
 
-          // now process the candidates of the current iteration
-          // now determine the new candidates of the current iteration
+              // for the nth candidate for the ith sentence, read the sentence,
+              // and store it in the sentsCurrIt_currSrcSent array
 
-          /* remember:
-               BufferedReader inFile_sentsCurrIt
-               BufferedReader inFile_featsCurrIt
-               PrintWriter outFile_statsCurrIt
-          */
+              sents_str = inFile_sentsCurrIt.readLine();
+              sentsCurrIt_currSrcSent[n] = sents_str; // Note: possibly "||||||"
 
-          String[] sentsCurrIt_currSrcSent = new String[sizeOfNBest+1];
+              if (sents_str.equals("||||||")) {
+                n = sizeOfNBest+1;
+              } else if (!existingCandStats.containsKey(sents_str)) {
+                unknownCands_V.add(sents_str);
+                writeLine(sents_str,outFile_unknownCands);
+                outFile_unknownIndices.println(i);
+                newCandidatesAdded[iteration] += 1;
+                existingCandStats.put(sents_str,"U"); // i.e. unknown
+                // we add sents_str to avoid duplicate entries in unknownCands_V
+              }
 
-          Vector<String> unknownCands_V = new Vector<String>();
-            // which candidates (of the i'th source sentence) have not been seen before
-            // this iteration?
+            } // for (n)
 
-          for (int n = 0; n <= sizeOfNBest; ++n) {
-          // Why up to and *including* sizeOfNBest?
-          // So that it would read the "||||||" separator even if there is
-          // a complete list of sizeOfNBest candidates.
 
-            // for the nth candidate for the ith sentence, read the sentence,
-            // and store it in the sentsCurrIt_currSrcSent array
 
-            sents_str = inFile_sentsCurrIt.readLine();
-            sentsCurrIt_currSrcSent[n] = sents_str; // Note: possibly "||||||"
+            // now unknownCands_V has the candidates for which we need to calculate
+            // sufficient statistics (for the i'th source sentence)
+            int sizeUnknown = unknownCands_V.size();
+            sizeUnknown_currIt[i] = sizeUnknown;
 
-            if (sents_str.equals("||||||")) {
-              n = sizeOfNBest+1;
-            } else if (!existingCandStats.containsKey(sents_str)) {
-              unknownCands_V.add(sents_str);
-              writeLine(sents_str,outFile_unknownCands);
-              outFile_unknownIndices.println(i);
-              newCandidatesAdded[iteration] += 1;
-              existingCandStats.put(sents_str,"U"); // i.e. unknown
-              // we add sents_str to avoid duplicate entries in unknownCands_V
+            /*********************************************/
+  /*
+            String[] unknownCands = new String[sizeUnknown];
+            unknownCands_V.toArray(unknownCands);
+            int[] indices = new int[sizeUnknown];
+            for (int d = 0; d < sizeUnknown; ++d) {
+              existingCandStats.remove(unknownCands[d]);
+              // remove the (unknownCands[d],"U") entry from existingCandStats
+              // (we had added it while constructing unknownCands_V to avoid duplicate entries)
+              indices[d] = i;
             }
+  */
+            /*********************************************/
 
-          } // for (n)
+            existingCandStats.clear();
 
+          } // for (i)
 
+  /*
+            int[][] newSuffStats = null;
+            if (!statsCurrIt_exists && sizeUnknown > 0) {
+              newSuffStats = evalMetric.suffStats(unknownCands, indices);
+            }
+  */
 
-          // now unknownCands_V has the candidates for which we need to calculate
-          // sufficient statistics (for the i'th source sentence)
-          int sizeUnknown = unknownCands_V.size();
-          sizeUnknown_currIt[i] = sizeUnknown;
+          outFile_statsMergedKnown.close();
+          outFile_unknownCands.close();
+          outFile_unknownIndices.close();
 
-          /*********************************************/
-/*
-          String[] unknownCands = new String[sizeUnknown];
-          unknownCands_V.toArray(unknownCands);
-          int[] indices = new int[sizeUnknown];
-          for (int d = 0; d < sizeUnknown; ++d) {
-            existingCandStats.remove(unknownCands[d]);
-            // remove the (unknownCands[d],"U") entry from existingCandStats
-            // (we had added it while constructing unknownCands_V to avoid duplicate entries)
-            indices[d] = i;
-          }
-*/
-          /*********************************************/
 
-          existingCandStats.clear();
+          for (int it = firstIt; it < iteration; ++it) {
+            inFile_sents[it].close();
+            inFile_stats[it].close();
 
-        } // for (i)
+            InputStream inStream_sents, inStream_stats;
+            if (compressFiles == 0) {
+              inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
+              inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
+            } else {
+              inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
+              inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
+            }
 
-/*
-          int[][] newSuffStats = null;
-          if (!statsCurrIt_exists && sizeUnknown > 0) {
-            newSuffStats = evalMetric.suffStats(unknownCands, indices);
+            inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
+            inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
           }
-*/
-
-        outFile_statsMergedKnown.close();
-        outFile_unknownCands.close();
-        outFile_unknownIndices.close();
-
 
-        for (int it = firstIt; it < iteration; ++it) {
-          inFile_sents[it].close();
-          inFile_stats[it].close();
-
-          InputStream inStream_sents, inStream_stats;
+          inFile_sentsCurrIt.close();
           if (compressFiles == 0) {
-            inStream_sents = new FileInputStream(tmpDirPrefix+"temp.sents.it"+it);
-            inStream_stats = new FileInputStream(tmpDirPrefix+"temp.stats.it"+it);
+            inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
           } else {
-            inStream_sents = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+it+".gz"));
-            inStream_stats = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.stats.it"+it+".gz"));
+            inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
           }
+          inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
 
-          inFile_sents[it] = new BufferedReader(new InputStreamReader(inStream_sents, "utf8"));
-          inFile_stats[it] = new BufferedReader(new InputStreamReader(inStream_stats, "utf8"));
-        }
 
-        inFile_sentsCurrIt.close();
-        if (compressFiles == 0) {
-          inStream_sentsCurrIt = new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration);
-        } else {
-          inStream_sentsCurrIt = new GZIPInputStream(new FileInputStream(tmpDirPrefix+"temp.sents.it"+iteration+".gz"));
-        }
-        inFile_sentsCurrIt = new BufferedReader(new InputStreamReader(inStream_sentsCurrIt, "utf8"));
 
+          // calculate SS for unseen candidates and write them to file
+          FileInputStream inStream_statsCurrIt_unknown = null;
+          BufferedReader inFile_statsCurrIt_unknown = null;
 
+          if (!statsCurrIt_exists && newCandidatesAdded[iteration] > 0) {
+            // create the file...
+            evalMetric.createSuffStatsFile(tmpDirPrefix+"temp.currIt.unknownCands", tmpDirPrefix+"temp.currIt.unknownIndices", tmpDirPrefix+"temp.stats.unknown", sizeOfNBest*numOptThreads);
 
-        // calculate SS for unseen candidates and write them to file
-        FileInputStream inStream_statsCurrIt_unknown = null;
-        BufferedReader inFile_statsCurrIt_unknown = null;
-
-        if (!statsCurrIt_exists && newCandidatesAdded[iteration] > 0) {
-          // create the file...
-          evalMetric.createSuffStatsFile(tmpDirPrefix+"temp.currIt.unknownCands", tmpDirPrefix+"temp.currIt.unknownIndices", tmpDirPrefix+"temp.stats.unknown", sizeOfNBest);
-
-          // ...and open it
-          inStream_statsCurrIt_unknown = new FileInputStream(tmpDirPrefix+"temp.stats.unknown");
-          inFile_statsCurrIt_unknown = new BufferedReader(new InputStreamReader(inStream_statsCurrIt_unknown, "utf8"));
-        }
+            // ...and open it
+            inStream_statsCurrIt_unknown = new FileInputStream(tmpDirPrefix+"temp.stats.unknown");
+            inFile_statsCurrIt_unknown = new BufferedReader(new InputStreamReader(inStream_statsCurrIt_unknown, "utf8"));
+          }
 
-        // OPEN mergedKnown file
-        FileInputStream instream_statsMergedKnown = new FileInputStream(tmpDirPrefix+"temp.stats.mergedKnown");
-        BufferedReader inFile_statsMergedKnown = new BufferedReader(new InputStreamReader(instream_statsMergedKnown, "utf8"));
+          // OPEN mergedKnown file
+          FileInputStream instream_statsMergedKnown = new FileInputStream(tmpDirPrefix+"temp.stats.mergedKnown");
+          BufferedReader inFile_statsMergedKnown = new BufferedReader(new InputStreamReader(instream_statsMergedKnown, "utf8"));
 
 
-        for (int i = 0; i < numSentences; ++i) {
+          for (int i = 0; i < numSentences; ++i) {
 
-          // reprocess candidates from previous iterations
-          for (int it = firstIt; it < iteration; ++it) {
-            for (int n = 0; n <= sizeOfNBest; ++n) {
+            // reprocess candidates from previous iterations
+            for (int it = firstIt; it < iteration; ++it) {
+              for (int n = 0; n <= sizeOfNBest; ++n) {
 
-              sents_str = inFile_sents[it].readLine();
-              stats_str = inFile_stats[it].readLine();
+                sents_str = inFile_sents[it].readLine();
+                stats_str = inFile_stats[it].readLine();
 
-              if (sents_str.equals("||||||")) {
-                n = sizeOfNBest+1;
-              } else if (!existingCandStats.containsKey(sents_str)) {
-                existingCandStats.put(sents_str,stats_str);
-              } // if unseen candidate
+                if (sents_str.equals("||||||")) {
+                  n = sizeOfNBest+1;
+                } else if (!existingCandStats.containsKey(sents_str)) {
+                  existingCandStats.put(sents_str,stats_str);
+                } // if unseen candidate
 
-            } // for (n)
-          } // for (it)
-
-          // copy relevant portion from mergedKnown to the merged file
-          String line_mergedKnown = inFile_statsMergedKnown.readLine();
-          while (!line_mergedKnown.equals("||||||")) {
-            outFile_statsMerged.println(line_mergedKnown);
-            line_mergedKnown = inFile_statsMergedKnown.readLine();
-          }
+              } // for (n)
+            } // for (it)
 
+            // copy relevant portion from mergedKnown to the merged file
+            String line_mergedKnown = inFile_statsMergedKnown.readLine();
+            while (!line_mergedKnown.equals("||||||")) {
+              outFile_statsMerged.println(line_mergedKnown);
+              line_mergedKnown = inFile_statsMergedKnown.readLine();
+            }
 
-          int d = -1;
 
+            int d = -1;
 
-          int[] stats = new int[suffStatsCount];
 
-          for (int n = 0; n <= sizeOfNBest; ++n) {
-          // Why up to and *including* sizeOfNBest?
-          // So that it would read the "||||||" separator even if there is
-          // a complete list of sizeOfNBest candidates.
+            int[] stats = new int[suffStatsCount];
 
-            // for the nth candidate for the ith sentence, read the sentence, feature values,
-            // and sufficient statistics from the various temp files
+            for (int n = 0; n <= sizeOfNBest; ++n) {
+            // Why up to and *including* sizeOfNBest?
+            // So that it would read the "||||||" separator even if there is
+            // a complete list of sizeOfNBest candidates.
 
-            sents_str = inFile_sentsCurrIt.readLine();
-            feats_str = inFile_featsCurrIt.readLine();
+              // for the nth candidate for the ith sentence, read the sentence, feature values,
+              // and sufficient statistics from the various temp files
 
-            if (sents_str.equals("||||||")) {
-              n = sizeOfNBest+1;
-            } else if (!existingCandStats.containsKey(sents_str)) {
+              sents_str = inFile_sentsCurrIt.readLine();
+              feats_str = inFile_featsCurrIt.readLine();
 
-              ++d;
+              if (sents_str.equals("||||||")) {
+                n = sizeOfNBest+1;
+              } else if (!existingCandStats.containsKey(sents_str)) {
 
-              if (!statsCurrIt_exists) {
-                stats_str = inFile_statsCurrIt_unknown.readLine();
+                ++d;
 
-                String[] temp_stats = stats_str.split("\\s+");
-                for (int s = 0; s < suffStatsCount; ++s) {
-                  stats[s] = Integer.parseInt(temp_stats[s]);
-                }
+                if (!statsCurrIt_exists) {
+                  stats_str = inFile_statsCurrIt_unknown.readLine();
 
-/*
-                stats_str = "";
-                for (int s = 0; s < suffStatsCount-1; ++s) {
-                  stats[s] = newSuffStats[d][s];
-                  stats_str += (stats[s] + " ");
-                }
-                stats[suffStatsCount-1] = newSuffStats[d][suffStatsCount-1];
-                stats_str += stats[suffStatsCount-1];
-*/
+                  String[] temp_stats = stats_str.split("\\s+");
+                  for (int s = 0; s < suffStatsCount; ++s) {
+                    stats[s] = Integer.parseInt(temp_stats[s]);
+                  }
 
-                outFile_statsCurrIt.println(stats_str);
-              } else {
-                stats_str = inFile_statsCurrIt.readLine();
-                String[] temp_stats = stats_str.split("\\s+");
-                for (int s = 0; s < suffStatsCount; ++s) {
-                  stats[s] = Integer.parseInt(temp_stats[s]);
+  /*
+                  stats_str = "";
+                  for (int s = 0; s < suffStatsCount-1; ++s) {
+                    stats[s] = newSuffStats[d][s];
+                    stats_str += (stats[s] + " ");
+                  }
+                  stats[suffStatsCount-1] = newSuffStats[d][suffStatsCount-1];
+                  stats_str += stats[suffStatsCount-1];
+  */
+
+                  outFile_statsCurrIt.println(stats_str);
+                } else {
+                  stats_str = inFile_statsCurrIt.readLine();
+                  String[] temp_stats = stats_str.split("\\s+");
+                  for (int s = 0; s < suffStatsCount; ++s) {
+                    stats[s] = Integer.parseInt(temp_stats[s]);
+                  }
                 }
-              }
 
-              outFile_statsMerged.println(stats_str);
-
-              featVal_str = feats_str.split("\\s+");
-
-              for (int c = 1; c <= numParams; ++c) {
-                currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
-//                print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
-              }
-//              println("",4);
+                outFile_statsMerged.println(stats_str);
 
+                featVal_str = feats_str.split("\\s+");
 
-              for (int j = 1; j <= initsPerIt; ++j) {
-                double score = 0; // i.e. score assigned by decoder
                 for (int c = 1; c <= numParams; ++c) {
-                  score += initialLambda[j][c] * currFeatVal[c];
-                }
-                if (score > best1Score[j][i]) {
-                  best1Score[j][i] = score;
-                  for (int s = 0; s < suffStatsCount; ++s)
-                    best1Cand_suffStats[j][i][s] = stats[s];
+                  currFeatVal[c] = Double.parseDouble(featVal_str[c-1]);
+  //                print("fV[" + c + "]=" + currFeatVal[c] + " ",4);
                 }
-              } // for (j)
+  //              println("",4);
 
-              existingCandStats.put(sents_str,stats_str);
 
-              setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
-              candCount[i] += 1;
+                for (int j = 1; j <= initsPerIt; ++j) {
+                  double score = 0; // i.e. score assigned by decoder
+                  for (int c = 1; c <= numParams; ++c) {
+                    score += initialLambda[j][c] * currFeatVal[c];
+                  }
+                  if (score > best1Score[j][i]) {
+                    best1Score[j][i] = score;
+                    for (int s = 0; s < suffStatsCount; ++s)
+                      best1Cand_suffStats[j][i][s] = stats[s];
+                  }
+                } // for (j)
 
-//              newCandidatesAdded[iteration] += 1;
-              // moved to code above detecting new candidates
+                existingCandStats.put(sents_str,stats_str);
 
-            } else {
-              if (statsCurrIt_exists)
-                inFile_statsCurrIt.readLine();
-              else {
-                // write SS to outFile_statsCurrIt
-                stats_str = existingCandStats.get(sents_str);
-                outFile_statsCurrIt.println(stats_str);
+                setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
+                candCount[i] += 1;
+
+  //              newCandidatesAdded[iteration] += 1;
+                // moved to code above detecting new candidates
+
+              } else {
+                if (statsCurrIt_exists)
+                  inFile_statsCurrIt.readLine();
+                else {
+                  // write SS to outFile_statsCurrIt
+                  stats_str = existingCandStats.get(sents_str);
+                  outFile_statsCurrIt.println(stats_str);
+                }
               }
-            }
 
-          } // for (n)
+            } // for (n)
 
-          // now d = sizeUnknown_currIt[i] - 1
+            // now d = sizeUnknown_currIt[i] - 1
 
-          if (statsCurrIt_exists)
-            inFile_statsCurrIt.readLine();
-          else
-            outFile_statsCurrIt.println("||||||");
+            if (statsCurrIt_exists)
+              inFile_statsCurrIt.readLine();
+            else
+              outFile_statsCurrIt.println("||||||");
 
-          existingCandStats.clear();
-          totalCandidateCount += candCount[i];
+            existingCandStats.clear();
 
-          if ((i+1) % 500 == 0) { print((i+1) + "\n" + "            ",1); }
-          else if ((i+1) % 100 == 0) { print("+",1); }
-          else if ((i+1) % 25 == 0) { print(".",1); }
+            if ((i+1) % 500 == 0) { print((i+1) + "\n" + "            ",1); }
+            else if ((i+1) % 100 == 0) { print("+",1); }
+            else if ((i+1) % 25 == 0) { print(".",1); }
 
-        } // for (i)
+          } // for (i)
 
-        outFile_statsMerged.close();
+          outFile_statsMerged.close();
 
 
 
 
-        println("",1); // finish progress line
+          println("",1); // finish progress line
 
-        for (int it = firstIt; it < iteration; ++it) {
-          inFile_sents[it].close();
-          inFile_feats[it].close();
-          inFile_stats[it].close();
-        }
+          for (int it = firstIt; it < iteration; ++it) {
+            inFile_sents[it].close();
+            inFile_feats[it].close();
+            inFile_stats[it].close();
+          }
 
-        inFile_sentsCurrIt.close();
-        inFile_featsCurrIt.close();
-        if (statsCurrIt_exists)
-          inFile_statsCurrIt.close();
-        else
-          outFile_statsCurrIt.close();
+          inFile_sentsCurrIt.close();
+          inFile_featsCurrIt.close();
+          if (statsCurrIt_exists)
+            inFile_statsCurrIt.close();
+          else
+            outFile_statsCurrIt.close();
 
-        if (compressFiles == 1 && !statsCurrIt_exists) {
-          gzipFile(tmpDirPrefix+"temp.stats.it"+iteration);
-        }
+          if (compressFiles == 1 && !statsCurrIt_exists) {
+            gzipFile(tmpDirPrefix+"temp.stats.it"+iteration);
+          }
 
-        deleteFile(tmpDirPrefix+"temp.currIt.unknownCands");
-        deleteFile(tmpDirPrefix+"temp.currIt.unknownIndices");
-        deleteFile(tmpDirPrefix+"temp.stats.unknown");
-        deleteFile(tmpDirPrefix+"temp.stats.mergedKnown");
+          deleteFile(tmpDirPrefix+"temp.currIt.unknownCands");
+          deleteFile(tmpDirPrefix+"temp.currIt.unknownIndices");
+          deleteFile(tmpDirPrefix+"temp.stats.unknown");
+          deleteFile(tmpDirPrefix+"temp.stats.mergedKnown");
 
-//        cleanupMemory();
+  //        cleanupMemory();
 
-        println("Processed " + totalCandidateCount + " distinct candidates "
-              + "(about " + totalCandidateCount/numSentences + " per sentence):",1);
-        for (int it = firstIt; it <= iteration; ++it) {
-          println("newCandidatesAdded[it=" + it + "] = " + newCandidatesAdded[it]
-                + " (about " + newCandidatesAdded[it]/numSentences + " per sentence)",1);
+        } catch (FileNotFoundException e) {
+          System.err.println("FileNotFoundException in MertCore.run_single_iteration(6): " + e.getMessage());
+          System.exit(99901);
+        } catch (IOException e) {
+          System.err.println("IOException in MertCore.run_single_iteration(6): " + e.getMessage());
+          System.exit(99902);
         }
+      }
 
-        println("",1);
+      int totalCandidateCount = 0;
+      for (int i = 0; i < numSentences; ++i) {
+        totalCandidateCount += candCount[i];
+      }
 
-      } catch (FileNotFoundException e) {
-        System.err.println("FileNotFoundException in MertCore.run_single_iteration(6): " + e.getMessage());
-        System.exit(99901);
-      } catch (IOException e) {
-        System.err.println("IOException in MertCore.run_single_iteration(6): " + e.getMessage());
-        System.exit(99902);
+      println("Processed " + totalCandidateCount + " distinct candidates "
+            + "(about " + totalCandidateCount/numSentences + " per sentence):",1);
+      for (int it = firstIt; it <= iteration; ++it) {
+        println("newCandidatesAdded[it=" + it + "] = " + newCandidatesAdded[it]
+              + " (about " + newCandidatesAdded[it]/numSentences + " per sentence)",1);
       }
 
+      println("",1);
+
 
       if (newCandidatesAdded[iteration] == 0) {
         if (!oneModificationPerIteration) {
@@ -1201,7 +1251,8 @@ public double[] run_single_iteration(
         threadOutput[j] = new Vector<String>();
         pool.execute(new IntermediateOptimizer(j, blocker, threadOutput[j],
                              initialLambda[j], finalLambda[j], best1Cand_suffStats[j],
-                             finalScore, candCount, featVal_array, suffStats_array));
+                             finalScore, candCount, featVal_array, suffStats_array,
+                             suffStats_merged));
       }
 
       pool.shutdown();
@@ -1331,6 +1382,34 @@ public double[] run_single_iteration(
     return retStr;
   }
 
+  private void loadDecoder()
+  {
+    println("Loading Joshua decoder...",1);
+    try {
+      JoshuaConfiguration.readConfigFile(decoderConfigFileName+".ZMERT.orig");
+    } catch (IOException e) {
+      System.err.println("IOException in MertCore.loadDecoder(): " + e.getMessage());
+      System.exit(99902);
+    }
+    JoshuaConfiguration.topN = sizeOfNBest;
+    myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
+    println("...finished loading @ " + (new Date()),1);
+    println("");
+  }
+
+  private void run_internalDecoder(CoIterator<Translation> translations, boolean candidates)
+  {
+    println("Running Joshua decoder on source file " + sourceFileName + "...",1);
+    double[] zeroBased_lambda = new double[numParams];
+    System.arraycopy(lambda,1,zeroBased_lambda,0,numParams);
+    myDecoder.changeBaselineFeatureWeights(zeroBased_lambda);
+    if (candidates) {
+      myDecoder.decodeCandidates(sourceFileName, translations);
+    } else {
+      myDecoder.decodeTestSet(sourceFileName, translations);
+    }
+  }
+
   private String[] run_decoder(int iteration)
   {
     String[] retSA = new String[2];
@@ -1357,18 +1436,30 @@ public double[] run_single_iteration(
     } else if (decoderCommand == null) {
 
       if (myDecoder == null) {
-        println("Loading Joshua decoder...",1);
-        myDecoder = new JoshuaDecoder(decoderConfigFileName+".ZMERT.orig");
-        println("...finished loading @ " + (new Date()),1);
-        println("");
+        loadDecoder();
       }
 
-      println("Running Joshua decoder on source file " + sourceFileName + "...",1);
-//      myDecoder.initialize(decoderConfigFileName);
-      double[] zeroBased_lambda = new double[numParams];
-      System.arraycopy(lambda,1,zeroBased_lambda,0,numParams);
-      myDecoder.changeBaselineFeatureWeights(zeroBased_lambda);
-      myDecoder.decodeTestSet(sourceFileName, decoderOutFileName);
+      try {
+        // written as the decoder would print it to standard output
+        final OutputStream outFile_nbest = new BufferedOutputStream(new FileOutputStream(decoderOutFileName));
+
+        run_internalDecoder(new CoIterator<Translation>() {
+          public void coNext(Translation translation) {
+            try {
+              translation.print(outFile_nbest);
+            } catch (IOException e) {
+              System.err.println("IOException in MertCore.run_decoder(int): " + e.getMessage());
+              System.exit(99902);
+            }
+          }
+          public void finish() {}
+        }, false);
+
+        outFile_nbest.close();
+      } catch (IOException e) {
+        System.err.println("IOException in MertCore.run_decoder(int): " + e.getMessage());
+        System.exit(99902);
+      }
 
       retSA[0] = decoderOutFileName;
       retSA[1] = "3";
@@ -1514,6 +1605,162 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
 
   }
 
+  private void decodeIntoPool(final int iteration, final int firstIt)
+  {
+    // the decoding threads extract the n-best lists from the hypergraphs as
+    // candidates with their feature values, so nothing is formatted or parsed;
+    // the sufficient statistics of new candidates are calculated in the
+    // decoder's output thread, in batches spanning several sentences (so
+    // that the metric can process the sentences of a batch in parallel)
+    run_internalDecoder(new CoIterator<Translation>() {
+      private final int maxBatchSize = sizeOfNBest*numOptThreads;
+      private final ArrayList<String> batchCands = new ArrayList<String>();
+      private final ArrayList<Integer> batchIndices = new ArrayList<Integer>();
+      private final ArrayList<double[]> batchFeatVals = new ArrayList<double[]>();
+      private final HashSet<String> newCands = new HashSet<String>();
+        // new candidates of the current sentence
+
+      public void coNext(Translation translation) {
+        int i = translation.getSourceSentence().sequenceId();
+        newCands.clear();
+
+        try {
+          for (KBestExtractor.Candidate candidate : translation.candidates()) {
+            String candidate_str = normalize(candidate.getWords(),textNormMethod);
+
+            int k = candidatePool.indexOf(i,candidate_str);
+            if (k >= 0) {
+              candidatePool.seen(i,k,iteration,firstIt);
+            } else if (newCands.add(candidate_str)) {
+              double[] featVals = candidate.getFeatureValues();
+              double[] currFeatVal = new double[1+numParams];
+              for (int c = 1; c <= numParams; ++c) {
+                currFeatVal[c] = featVals[c-1];
+              }
+
+              batchCands.add(candidate_str);
+              batchIndices.add(i);
+              batchFeatVals.add(currFeatVal);
+            }
+          }
+
+          if (batchCands.size() >= maxBatchSize) {
+            addBatch();
+          }
+        } catch (IOException e) {
+          System.err.println("IOException in MertCore.decodeIntoPool(int,int): " + e.getMessage());
+          System.exit(99902);
+        }
+      }
+
+      public void finish() {
+        try {
+          addBatch();
+        } catch (IOException e) {
+          System.err.println("IOException in MertCore.decodeIntoPool(int,int): " + e.getMessage());
+          System.exit(99902);
+        }
+      }
+
+      private void addBatch() throws IOException {
+        int size = batchCands.size();
+        if (size == 0) return;
+
+        String[] cand_strings = new String[size];
+        int[] cand_indices = new int[size];
+        for (int d = 0; d < size; ++d) {
+          cand_strings[d] = batchCands.get(d);
+          cand_indices[d] = batchIndices.get(d);
+        }
+
+        int[][] SS = evalMetric.suffStats(cand_strings,cand_indices);
+        for (int d = 0; d < size; ++d) {
+          candidatePool.add(cand_indices[d],cand_strings[d],batchFeatVals.get(d),SS[d],iteration);
+        }
+
+        batchCands.clear();
+        batchIndices.clear();
+        batchFeatVals.clear();
+      }
+    }, true);
+  }
+
+  private int[][] readCandidatePool(
+    int firstIt, double[][] initialLambda, double[][] best1Score, int[][][] best1Cand_suffStats,
+    double[][][] featVal_array, int[] candCount, int[] lastUsedIndex, int[] maxIndex,
+    int[] newCandidatesAdded)
+  {
+    // the in-memory counterpart of reading the temp files in run_single_iteration:
+    // the candidates produced in iterations firstIt and on are processed in the
+    // order they were first produced in
+
+    int[][] suffStats_merged = new int[numSentences][];
+    double[] featVals = new double[0];
+    int[] stats = new int[0];
+    double[] currFeatVal = new double[1+numParams];
+
+    try {
+
+      for (int i = 0; i < numSentences; ++i) {
+
+        for (int j = 1; j <= initsPerIt; ++j) {
+          best1Score[j][i] = NegInf;
+        }
+
+        int size = candidatePool.size(i);
+        if (featVals.length < size*numParams) {
+          featVals = new double[2*size*numParams];
+          stats = new int[2*size*suffStatsCount];
+        }
+        candidatePool.read(i,featVals,stats);
+
+        int[] merged = new int[size*suffStatsCount];
+
+        for (int k = 0; k < size; ++k) {
+          if (candidatePool.lastIteration(i,k) < firstIt) continue;
+
+          for (int c = 1; c <= numParams; ++c) {
+            currFeatVal[c] = featVals[k*numParams+c-1];
+          }
+
+          for (int j = 1; j <= initsPerIt; ++j) {
+            double score = 0; // i.e. score assigned by decoder
+            for (int c = 1; c <= numParams; ++c) {
+              score += initialLambda[j][c] * currFeatVal[c];
+            }
+            if (score > best1Score[j][i]) {
+              best1Score[j][i] = score;
+              System.arraycopy(stats,k*suffStatsCount,best1Cand_suffStats[j][i],0,suffStatsCount);
+            }
+          } // for (j)
+
+          System.arraycopy(stats,k*suffStatsCount,merged,candCount[i]*suffStatsCount,suffStatsCount);
+
+          setFeats(featVal_array,i,lastUsedIndex,maxIndex,currFeatVal);
+          candCount[i] += 1;
+
+          newCandidatesAdded[Math.max(firstIt,candidatePool.enteredIteration(i,k))] += 1;
+
+        } // for (k)
+
+        suffStats_merged[i] = merged;
+
+        if ((i+1) % 500 == 0) { print((i+1) + "\n" + "            ",1); }
+        else if ((i+1) % 100 == 0) { print("+",1); }
+        else if ((i+1) % 25 == 0) { print(".",1); }
+
+      } // for (i)
+
+    } catch (IOException e) {
+      System.err.println("IOException in MertCore.readCandidatePool(...): " + e.getMessage());
+      System.exit(99902);
+    }
+
+    println("",1); // finish progress line
+
+    return suffStats_merged;
+  }
+
   private void createConfigFile(double[] params, String cfgFileName, String templateFileName)
   {
     try {
@@ -2060,6 +2307,7 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
 	validDecoderExitValue = 0;
 	decoderConfigFileName = "dec_cfg.txt";
 	sizeOfNBest = 100;
+	candPoolMemory = 512;
 	fakeFileNameTemplate = null;
 	fakeFileNamePrefix = null;
 	fakeFileNameSuffix = null;
@@ -2269,6 +2517,12 @@ i ||| words of candidate translation . ||| feat-1_val feat-2_val ... feat-numPar
 				println("N must be positive.");
 				System.exit(10);
 			}
+		} else if (option.equals("-poolMem")) {
+			candPoolMemory = Integer.parseInt(args[i+1]);
+			if (candPoolMemory < 0) {
+				println("candPoolMemory must be non-negative.");
+				System.exit(10);
+			}
 		}
 		// Output specs
 		else if (option.equals("-v")) {
@@ -0,0 +1,272 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package joshua.zmert;
+import java.util.*;
+
+/**
+ * The reference n-grams of each sentence, interned as integers, from
+ * which BLEU-style n-gram precision statistics are calculated without
+ * splitting the candidate or building n-gram strings.
+ * <p>
+ * Each sentence has its own vocabulary, made up of the words of its
+ * references.  A candidate word is looked up directly in the
+ * candidate string; a word that is not in the vocabulary cannot be
+ * part of a matching n-gram.  The words of an n-gram are encoded
+ * as the digits of a number in base V, where V is the size of the
+ * vocabulary, so that n-gram keys are exact.  For each gram length,
+ * the keys of the reference n-grams are kept sorted, along with the
+ * highest count of each in any one reference, i.e. the count at which
+ * candidate counts are clipped.
+ * <p>
+ * Candidates are tokenized as by <code>split("\\s+")</code>.  Once
+ * constructed, an object of this class is read-only, and can be used
+ * by several threads at once.
+ */
+class ReferenceNgrams
+{
+  private final int maxGramLength;
+
+  private final String[][] vocab; // vocab[i][id] is the word with that id in sentence i
+  private final int[][] slots;
+    // open-addressing hash table over vocab[i]; each slot holds
+    // an id plus 1, or 0 if it is empty
+  private final long[][][] keys; // keys[i][n]: sorted keys of the reference n-grams
+  private final int[][][] maxCounts; // maxCounts[i][n][k]: clipping count of keys[i][n][k]
+
+  public ReferenceNgrams(String[][] refSentences, int numSentences, int refsPerSen, int in_maxGramLength)
+  {
+    maxGramLength = in_maxGramLength;
+    vocab = new String[numSentences][];
+    slots = new int[numSentences][];
+    keys = new long[numSentences][][];
+    maxCounts = new int[numSentences][][];
+
+    for (int i = 0; i < numSentences; ++i) {
+      set_sentence(i,refSentences[i],refsPerSen);
+    }
+  }
+
+  private void set_sentence(int i, String[] refs, int refsPerSen)
+  {
+    // assign ids to the reference words
+    HashMap<String,Integer> wordIDs = new HashMap<String,Integer>();
+    int[][] refIDs = new int[refsPerSen][];
+
+    for (int r = 0; r < refsPerSen; ++r) {
+      String[] words = refs[r].equals("") ? new String[0] : refs[r].split("\\s+");
+      refIDs[r] = new int[words.length];
+      for (int w = 0; w < words.length; ++w) {
+        Integer id = wordIDs.get(words[w]);
+        if (id == null) {
+          id = wordIDs.size();
+          wordIDs.put(words[w],id);
+        }
+        refIDs[r][w] = id;
+      }
+    }
+
+    int V = wordIDs.size();
+    vocab[i] = new String[V];
+    for (Map.Entry<String,Integer> entry : wordIDs.entrySet()) {
+      vocab[i][entry.getValue()] = entry.getKey();
+    }
+
+    int tableSize = 4;
+    while (tableSize < 2*V) tableSize *= 2;
+    slots[i] = new int[tableSize];
+    for (int id = 0; id < V; ++id) {
+      String word = vocab[i][id];
+      int s = slot(hash(word,0,word.length()),tableSize);
+      while (slots[i][s] != 0) s = (s+1) & (tableSize-1);
+      slots[i][s] = id+1;
+    }
+
+    // the keys of n-grams of the longest length must not overflow;
+    // otherwise, the sentence is left to the string-based calculation
+    long maxKey = 1;
+    for (int n = 1; n <= maxGramLength; ++n) {
+      if (V > 0 && maxKey > Long.MAX_VALUE / V) return;
+      maxKey *= V;
+    }
+
+    keys[i] = new long[1+maxGramLength][];
+    maxCounts[i] = new int[1+maxGramLength][];
+
+    for (int n = 1; n <= maxGramLength; ++n) {
+      HashMap<Long,Integer> maxCount = new HashMap<Long,Integer>();
+
+      for (int r = 0; r < refsPerSen; ++r) {
+        HashMap<Long,Integer> count = new HashMap<Long,Integer>();
+        int[] ids = refIDs[r];
+        for (int st = 0; st+n <= ids.length; ++st) {
+          long key = 0;
+          for (int w = st; w < st+n; ++w) key = key*V + ids[w];
+          Integer c = count.get(key);
+          count.put(key,(c == null) ? 1 : c+1);
+        }
+
+        for (Map.Entry<Long,Integer> entry : count.entrySet()) {
+          Integer c = maxCount.get(entry.getKey());
+          if (c == null || c < entry.getValue()) {
+            maxCount.put(entry.getKey(),entry.getValue());
+          }
+        }
+      } // for (r)
+
+      long[] sortedKeys = new long[maxCount.size()];
+      int k = 0;
+      for (long key : maxCount.keySet()) sortedKeys[k++] = key;
+      Arrays.sort(sortedKeys);
+
+      keys[i][n] = sortedKeys;
+      maxCounts[i][n] = new int[sortedKeys.length];
+      for (k = 0; k < sortedKeys.length; ++k) {
+        maxCounts[i][n][k] = maxCount.get(sortedKeys[k]);
+      }
+    } // for (n)
+  }
+
+  /**
+   * Returns whether the n-grams of the ith sentence were interned;
+   * if not, set_prec_suffStats() may not be called for it.
+   */
+  public boolean covers(int i)
+  {
+    return keys[i] != null;
+  }
+
+  /**
+   * Sets the n-gram precision statistics of a candidate for the ith
+   * sentence, in the layout of BLEU.set_prec_suffStats(), and returns
+   * the number of words in the candidate.
+   */
+  public int set_prec_suffStats(int[] stats, String cand_str, int i)
+  {
+    int[] ids = new int[cand_str.length()+1];
+    int len = tokenize(cand_str,i,ids);
+    long V = vocab[i].length;
+
+    long[] gramKeys = new long[len];
+      // key of the n-gram starting at each position, or -1 if it
+      // contains a word that is not in the references
+    long[] candKeys = new long[len];
+
+    for (int n = 1; n <= maxGramLength; ++n) {
+      int count = 0;
+      for (int st = 0; st+n <= len; ++st) {
+        long key;
+        if (n == 1) {
+          key = ids[st];
+        } else if (gramKeys[st] < 0 || ids[st+n-1] < 0) {
+          key = -1;
+        } else {
+          key = gramKeys[st]*V + ids[st+n-1];
+        }
+        gramKeys[st] = key;
+        if (key >= 0) candKeys[count++] = key;
+      }
+      Arrays.sort(candKeys,0,count);
+
+      // walk the candidate n-gram types alongside the reference ones
+      long[] refKeys = keys[i][n];
+      int[] refCounts = maxCounts[i][n];
+      int correctGramCount = 0;
+      int r = 0;
+      for (int a = 0; a < count; ) {
+        long key = candKeys[a];
+        int b = a+1;
+        while (b < count && candKeys[b] == key) ++b;
+        while (r < refKeys.length && refKeys[r] < key) ++r;
+        if (r < refKeys.length && refKeys[r] == key) {
+          correctGramCount += Math.min(b-a,refCounts[r]);
+        }
+        a = b;
+      }
+
+      stats[2*(n-1)] = correctGramCount;
+      stats[2*(n-1)+1] = Math.max(len-(n-1),0); // total gram count
+    } // for (n)
+
+    return len;
+  }
+
+  /**
+   * Looks up the words of a candidate in the vocabulary of the ith
+   * sentence, writing their ids, or -1 for unknown words, into ids[],
+   * and returns the number of words.  Words are delimited as by
+   * <code>split("\\s+")</code>, which yields an empty first word if
+   * the string starts with whitespace, and no words at all if it is
+   * blank.
+   */
+  private int tokenize(String cand_str, int i, int[] ids)
+  {
+    int length = cand_str.length();
+    int pos = 0;
+    while (pos < length && isSpace(cand_str.charAt(pos))) ++pos;
+    if (pos == length) return 0;
+
+    int len = 0;
+    if (pos > 0) {
+      ids[len++] = lookup(cand_str,0,0,i);
+    }
+
+    while (pos < length) {
+      int start = pos;
+      while (pos < length && !isSpace(cand_str.charAt(pos))) ++pos;
+      ids[len++] = lookup(cand_str,start,pos,i);
+      while (pos < length && isSpace(cand_str.charAt(pos))) ++pos;
+    }
+
+    return len;
+  }
+
+  private int lookup(String str, int start, int end, int i)
+  {
+    int[] table = slots[i];
+    int s = slot(hash(str,start,end),table.length);
+    int wordLength = end-start;
+    while (table[s] != 0) {
+      String word = vocab[i][table[s]-1];
+      if (word.length() == wordLength && str.regionMatches(start,word,0,wordLength)) {
+        return table[s]-1;
+      }
+      s = (s+1) & (table.length-1);
+    }
+    return -1;
+  }
+
+  private static int hash(String str, int start, int end)
+  {
+    int h = 0;
+    for (int p = start; p < end; ++p) h = 31*h + str.charAt(p);
+    return h;
+  }
+
+  private static int slot(int hash, int tableSize)
+  {
+    hash ^= (hash >>> 16);
+    return (hash * 0x9E3779B1) & (tableSize-1);
+  }
+
+  private static boolean isSpace(char c)
+  {
+    // the characters matched by \s
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
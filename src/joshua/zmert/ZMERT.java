@@ -103,7 +103,7 @@ public class ZMERT
       println("  -minIt minMERTIts: number of iterations before considering an early exit\n    [[default: 5]]");
       println("  -stopIt stopMinIts: some early stopping criterion must be satisfied in\n    stopMinIts *consecutive* iterations before an early exit\n    [[default: 3]]");
       println("  -stopSig sigValue: early MERT exit if no weight changes by more than sigValue\n    [[default: -1 (i.e. this criterion is never investigated)]]");
-      println("  -thrCnt threadCount: number of threads to run in parallel when optimizing\n    [[default: 1]]");
+      println("  -thrCnt threadCount: number of threads to run in parallel when optimizing\n    and when calculating BLEU sufficient statistics\n    [[default: 1]]");
       println("  -save saveInter: save intermediate cfg files (1) or decoder outputs (2)\n    or both (3) or neither (0)\n    [[default: 3]]");
       println("  -compress compressFiles: should Z-MERT compress the files it produces (1)\n    or not (0)\n    [[default: 0]]");
       println("  -ipi initsPerIt: number of intermediate initial points per iteration\n    [[default: 20]]");
@@ -119,6 +119,7 @@ public class ZMERT
       println("  -decExit validExit: value returned by decoder to indicate success\n    [[default: 0]]");
       println("  -dcfg decConfigFile: name of decoder config file\n    [[default: dec_cfg.txt]]");
       println("  -N N: size of N-best list (per sentence) generated in each MERT iteration\n    [[default: 100]]");
+      println("  -poolMem candPoolMemory: memory (in MB) that candidates may take up before\n    they are spilled to disk, if the decoder is a JoshuaDecoder object (0 for no limit)\n    [[default: 512]]");
       println("");
       println("Output specs:");
       println("  -v verbosity: Z-MERT verbosity level (0-2; higher value => more verbose)\n    [[default: 1]]");
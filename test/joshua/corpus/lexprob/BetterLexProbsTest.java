@@ -17,8 +17,12 @@
  */
 package joshua.corpus.lexprob;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
@@ -40,6 +44,7 @@ import joshua.corpus.vocab.SymbolTable;
 import joshua.corpus.vocab.Vocabulary;
 import joshua.prefix_tree.PrefixTree;
 import joshua.util.Counts;
+import joshua.util.Pair;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -609,4 +614,46 @@ public class BetterLexProbsTest {
 		Assert.assertEquals(lexProbs.targetGivenSource(targetVocab.getID("und"), sourceVocab.getID("yet")), 1.0f);
 		
 	}
+	
+	@Test(dependsOnMethods={"setup"})
+	public void testMemoryMappedLexProbs() throws IOException, ClassNotFoundException {
+		
+		File binaryFile = File.createTempFile("lexprobs", ".bin");
+		binaryFile.deleteOnExit();
+		MemoryMappedLexProbs.write(lexProbs, binaryFile.getAbsolutePath());
+		
+		Assert.assertTrue(MemoryMappedLexProbs.isBinaryFile(binaryFile.getAbsolutePath()));
+		MemoryMappedLexProbs mappedLexProbs = new MemoryMappedLexProbs(parallelCorpus, binaryFile.getAbsolutePath());
+		Assert.assertEquals(mappedLexProbs.getFloorProbability(), lexProbs.getFloorProbability());
+		
+		// Every counted pair, including those with NULL, has the same probabilities
+		int pairs = 0;
+		for (Pair<Integer,Integer> pair : lexProbs.getCounts()) {
+			Assert.assertEquals(mappedLexProbs.sourceGivenTarget(pair.first, pair.second), lexProbs.sourceGivenTarget(pair.first, pair.second));
+			Assert.assertEquals(mappedLexProbs.targetGivenSource(pair.second, pair.first), lexProbs.targetGivenSource(pair.second, pair.first));
+			pairs++;
+		}
+		Assert.assertEquals(mappedLexProbs.toString().split("\n").length, pairs);
+		
+		// Unseen pairs get the floor probability
+		Assert.assertEquals(mappedLexProbs.sourceGivenTarget(sourceVocab.getID("him"), targetVocab.getID("und")), lexProbs.getFloorProbability());
+		Assert.assertEquals(mappedLexProbs.targetGivenSource(targetVocab.getID("und"), sourceVocab.getID("him")), lexProbs.getFloorProbability());
+		
+		MemoryMappedLexProbs flooredLexProbs = new MemoryMappedLexProbs(parallelCorpus, binaryFile.getAbsolutePath(), 0.5f);
+		Assert.assertEquals(flooredLexProbs.sourceGivenTarget(sourceVocab.getID("him"), targetVocab.getID("und")), 0.5f);
+		Assert.assertEquals(flooredLexProbs.targetGivenSource(targetVocab.getID("es"), sourceVocab.getID("it")), 0.75f);
+		
+		// The table survives a round trip through an object stream
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		mappedLexProbs.writeExternal(out);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		flooredLexProbs.readExternal(in);
+		in.close();
+		Assert.assertEquals(flooredLexProbs.getFloorProbability(), lexProbs.getFloorProbability());
+		Assert.assertEquals(flooredLexProbs.toString(), mappedLexProbs.toString());
+		
+		Assert.assertFalse(MemoryMappedLexProbs.isBinaryFile(binaryFile.getAbsolutePath() + ".missing"));
+	}
 }
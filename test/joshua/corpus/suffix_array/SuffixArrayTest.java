@@ -18,6 +18,9 @@
 package joshua.corpus.suffix_array;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
 
 import joshua.corpus.CorpusArray;
 import joshua.corpus.MatchedHierarchicalPhrases;
@@ -162,5 +165,59 @@ public class SuffixArrayTest {
 		Assert.assertEquals(bounds[0], expectedSuffixArrayStartIndex);
 		Assert.assertEquals(bounds[1], expectedSuffixArrayEndIndex);
 	}
+	
+	
+	@Test
+	public void sortSuffixes() {
+		
+		Random random = new Random(0);
+		
+		for (int length : new int[] {1, 2, 7, 100, 1000}) {
+			for (int alphabet : new int[] {1, 2, 5, 50}) {
+				
+				// Random text and a periodic text, each ending in a
+				// unique word so that no suffix is a prefix of another
+				int[] randomText = new int[length];
+				int[] periodicText = new int[length];
+				for (int i = 0; i < length - 1; i++) {
+					randomText[i] = 1 + random.nextInt(alphabet);
+					periodicText[i] = 1 + (i % alphabet);
+				}
+				randomText[length - 1] = alphabet + 1;
+				periodicText[length - 1] = alphabet + 1;
+				
+				assertSorted(randomText);
+				assertSorted(periodicText);
+			}
+		}
+	}
+	
+	private void assertSorted(final int[] text) {
+		
+		CorpusArray corpusArray = new CorpusArray(text, new int[] {0}, new Vocabulary());
+		SuffixArray suffixes = new SuffixArray(corpusArray);
+		
+		// Naive sort, comparing whole suffixes
+		Integer[] expected = new Integer[text.length];
+		for (int i = 0; i < text.length; i++) {
+			expected[i] = i;
+		}
+		Arrays.sort(expected, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				for (int i = a, j = b; i < text.length && j < text.length; i++, j++) {
+					if (text[i] != text[j]) return text[i] - text[j];
+				}
+				return b - a;
+			}
+		});
+		
+		Assert.assertEquals(suffixes.size(), text.length);
+		for (int i = 0; i < text.length; i++) {
+			Assert.assertEquals(suffixes.getCorpusIndex(i), expected[i].intValue());
+			if (i > 0) {
+				Assert.assertTrue(corpusArray.compareSuffixes(suffixes.getCorpusIndex(i - 1), suffixes.getCorpusIndex(i), Suffixes.MAX_COMPARISON_LENGTH) <= 0);
+			}
+		}
+	}
 
 }
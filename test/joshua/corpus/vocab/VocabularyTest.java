@@ -21,6 +21,10 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import joshua.corpus.vocab.Vocabulary;
 
@@ -181,4 +185,68 @@ public class VocabularyTest {
 		
 		Assert.assertEquals(vocab, vocab2);
 	}
+	
+	/**
+	 * Adds overlapping sets of words from several threads,
+	 * and checks that each word got exactly one id, 
+	 * that the ids are dense, and that they map back to their words.
+	 */
+	private void addConcurrently(final SymbolTable symbolTable, int firstID) throws Exception {
+		
+		final int numThreads = 4;
+		final int numWords = 5000;
+		
+		ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+		Future<?>[] results = new Future<?>[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int offset = t * numWords / 2;
+			results[t] = threadPool.submit(new Callable<int[]>() {
+				public int[] call() {
+					int[] ids = new int[numWords];
+					for (int i = 0; i < numWords; i++) {
+						String word = "word" + (offset + i);
+						ids[i] = symbolTable.addTerminal(word);
+						Assert.assertEquals(symbolTable.getWord(ids[i]), word);
+					}
+					return ids;
+				}
+			});
+		}
+		
+		HashSet<Integer> ids = new HashSet<Integer>();
+		for (Future<?> result : results) {
+			for (int id : (int[]) result.get()) {
+				ids.add(id);
+			}
+		}
+		threadPool.shutdown();
+		
+		int numUniqueWords = (numThreads + 1) * numWords / 2;
+		Assert.assertEquals(ids.size(), numUniqueWords);
+		for (int id = firstID; id < firstID + numUniqueWords; id++) {
+			Assert.assertTrue(ids.contains(id));
+			Assert.assertEquals(symbolTable.getID(symbolTable.getWord(id)), id);
+		}
+	}
+	
+	@Test
+	public void addTerminalsConcurrently() throws Exception {
+		addConcurrently(new Vocabulary(), numBuiltInTerminals + 1);
+	}
+	
+	@Test
+	public void addTerminalsConcurrentSymbol() throws Exception {
+		ConcurrentSymbol symbolTable = new ConcurrentSymbol();
+		addConcurrently(symbolTable, symbolTable.getLowestID());
+		
+		// Same ids as the single-threaded symbol table
+		BuildinSymbol buildinSymbol = new BuildinSymbol();
+		ConcurrentSymbol concurrentSymbol = new ConcurrentSymbol();
+		for (int i = 0; i < 3000; i++) {
+			Assert.assertEquals(concurrentSymbol.addTerminal("word" + i), buildinSymbol.addTerminal("word" + i));
+		}
+		
+		Assert.assertEquals(concurrentSymbol.getUnknownWord(), SymbolTable.UNKNOWN_WORD_STRING);
+		Assert.assertEquals(concurrentSymbol.getUnknownWordID(), SymbolTable.UNKNOWN_WORD);
+	}
 }
@@ -0,0 +1,98 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.chart_parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.state_maintenance.NgramStateComputer;
+import joshua.decoder.ff.state_maintenance.StateComputer;
+import joshua.decoder.hypergraph.HGNode;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for NodeTable, checked against a map keyed by node
+ * signature strings.
+ */
+public class NodeTableTest {
+
+	private final int stateID = 0;
+	
+	private HGNode node(int lhs, int[] left, int[] right) {
+		HashMap<Integer,DPState> states = new HashMap<Integer,DPState>();
+		states.put(stateID, new NgramDPState(left, right));
+		return new HGNode(0, 1, lhs, states, null, 0.0);
+	}
+	
+	@Test
+	public void recombination() {
+		List<StateComputer> stateComputers = new ArrayList<StateComputer>();
+		stateComputers.add(new NgramStateComputer(null, 3, stateID));
+		NodeTable table = new NodeTable(stateComputers);
+		
+		HGNode a = node(-1, new int[]{4, 5}, new int[]{6, 7});
+		HGNode b = node(-1, new int[]{4, 5}, new int[]{6, 7});
+		HGNode c = node(-2, new int[]{4, 5}, new int[]{6, 7});
+		HGNode d = node(-1, new int[]{4}, new int[]{7});
+		
+		Assert.assertNull(table.put(a));
+		Assert.assertSame(table.get(b), a);
+		Assert.assertNull(table.get(c));
+		Assert.assertNull(table.get(d));
+		
+		Assert.assertSame(table.put(b), a);
+		Assert.assertEquals(table.size(), 1);
+		Assert.assertSame(table.remove(a), b);
+		Assert.assertEquals(table.size(), 0);
+		Assert.assertNull(table.get(b));
+	}
+	
+	@Test
+	public void randomOperations() {
+		List<StateComputer> stateComputers = new ArrayList<StateComputer>();
+		stateComputers.add(new NgramStateComputer(null, 3, stateID));
+		NodeTable table = new NodeTable(stateComputers);
+		Map<String,HGNode> expected = new HashMap<String,HGNode>();
+		
+		Random random = new Random(12345);
+		for (int n = 0; n < 20000; n++) {
+			HGNode node = node(-1 - random.nextInt(3),
+				new int[]{random.nextInt(20)}, new int[]{random.nextInt(20)});
+			String sig = node.getSignature();
+			
+			if (random.nextInt(3) == 0) {
+				Assert.assertSame(table.remove(node), expected.remove(sig));
+			} else {
+				Assert.assertSame(table.put(node), expected.put(sig, node));
+			}
+			Assert.assertEquals(table.size(), expected.size());
+		}
+		
+		for (HGNode node : table.toArray()) {
+			Assert.assertSame(expected.get(node.getSignature()), node);
+			Assert.assertSame(table.get(node), node);
+		}
+	}
+}
@@ -17,6 +17,9 @@
  */
 package joshua.decoder.ff;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import joshua.decoder.ff.tm.BilingualRule;
 import joshua.decoder.ff.tm.MonolingualRule;
 import joshua.decoder.ff.tm.Rule;
@@ -60,4 +63,36 @@ public class ArityPhrasePenaltyFFTest {
 		
 	}
 	
+	@Test
+	public void statelessLogP() {
+		
+		int owner = MonolingualRule.DUMMY_OWNER;
+		ArityPhrasePenaltyFF arityPenalty = new ArityPhrasePenaltyFF(0, 0.5, owner, 1, 5);
+		PhraseModelFF phraseModel = new PhraseModelFF(1, 2.0, owner, 1);
+		SourcePathFF sourcePath = new SourcePathFF(2, 3.0);
+		
+		List<FeatureFunction> featureFunctions = new ArrayList<FeatureFunction>();
+		featureFunctions.add(arityPenalty);
+		featureFunctions.add(phraseModel);
+		featureFunctions.add(sourcePath);
+		
+		int[] sourceRHS = {24, -1, 42, 738};
+		int[] targetRHS = {-1, 7, 8};
+		float[] featureScores = {-2.35f, -1.78f, -0.52f};
+		Rule dummyRule = new BilingualRule(-1, sourceRHS, targetRHS, featureScores, 1);
+		
+		// the source path feature is not rule-only, so it is left out
+		Assert.assertEquals(dummyRule.getStatelessLogP(featureFunctions),
+				0.5 * ArityPhrasePenaltyFF.ALPHA + 2.0 * 1.78f, 1e-9);
+		
+		// changing a weight or a feature score must not leave a stale value
+		phraseModel.setWeight(1.0);
+		Assert.assertEquals(dummyRule.getStatelessLogP(featureFunctions),
+				0.5 * ArityPhrasePenaltyFF.ALPHA + 1.78f, 1e-9);
+		
+		dummyRule.setFeatureCost(1, 1.0f);
+		Assert.assertEquals(dummyRule.getStatelessLogP(featureFunctions),
+				0.5 * ArityPhrasePenaltyFF.ALPHA - 1.0, 1e-9);
+	}
+	
 }
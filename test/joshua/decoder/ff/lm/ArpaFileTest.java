@@ -27,6 +27,8 @@ import java.util.Map;
 import joshua.corpus.vocab.SymbolTable;
 import joshua.corpus.vocab.Vocabulary;
 import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.lm.buildin_lm.CompactTrieLM;
+import joshua.decoder.ff.lm.buildin_lm.MemoryMappedTrieLM;
 import joshua.decoder.ff.lm.buildin_lm.TrieLM;
 
 import org.testng.Assert;
@@ -209,4 +211,53 @@ public class ArpaFileTest {
 //		//Assert.assertEquals(lm.ngramLogProbability(vocab.getIDs("of the parliament")), -3.875917f + -0.05237135f, 0.000001f);
 		
 	}
+	
+	@Test(dependsOnMethods={"setup","testTrie"})
+	public void testCompactTrie() throws FileNotFoundException {
+		ArpaFile arpaFile = new ArpaFile(arpaFileName, vocab);
+		
+		TrieLM trieLM = new TrieLM(arpaFile);
+		CompactTrieLM compactLM = new CompactTrieLM(arpaFile);
+		
+		String[] words = { "a", "because", "boycott", "of", "parliament", "potato", "resumption", "the", "banana" };
+		
+		// Every unigram, bigram and trigram over the vocabulary must score the same
+		for (String w1 : words) {
+			Assert.assertEquals(compactLM.ngramLogProbability(vocab.getIDs(w1)), trieLM.ngramLogProbability(vocab.getIDs(w1)));
+			for (String w2 : words) {
+				int[] bigram = vocab.getIDs(w1 + " " + w2);
+				Assert.assertEquals(compactLM.ngramLogProbability(bigram), trieLM.ngramLogProbability(bigram));
+				for (String w3 : words) {
+					int[] trigram = vocab.getIDs(w1 + " " + w2 + " " + w3);
+					Assert.assertEquals(compactLM.ngramLogProbability(trigram), trieLM.ngramLogProbability(trigram));
+				}
+			}
+		}
+	}
+	
+	@Test(dependsOnMethods={"setup","testTrie"})
+	public void testMemoryMappedTrie() throws IOException {
+		File binaryFile = File.createTempFile("testLM", "bin");
+		binaryFile.deleteOnExit();
+		MemoryMappedTrieLM.compile(arpaFileName, binaryFile.getAbsolutePath());
+		
+		TrieLM trieLM = new TrieLM(new ArpaFile(arpaFileName, vocab));
+		MemoryMappedTrieLM mappedLM = new MemoryMappedTrieLM(vocab, binaryFile.getAbsolutePath());
+		
+		Assert.assertEquals(mappedLM.getOrder(), trieLM.getOrder());
+		
+		String[] words = { "a", "because", "boycott", "of", "parliament", "potato", "resumption", "the", "banana" };
+		
+		for (String w1 : words) {
+			Assert.assertEquals(mappedLM.ngramLogProbability(vocab.getIDs(w1)), trieLM.ngramLogProbability(vocab.getIDs(w1)));
+			for (String w2 : words) {
+				int[] bigram = vocab.getIDs(w1 + " " + w2);
+				Assert.assertEquals(mappedLM.ngramLogProbability(bigram), trieLM.ngramLogProbability(bigram));
+				for (String w3 : words) {
+					int[] trigram = vocab.getIDs(w1 + " " + w2 + " " + w3);
+					Assert.assertEquals(mappedLM.ngramLogProbability(trigram), trieLM.ngramLogProbability(trigram));
+				}
+			}
+		}
+	}
 }
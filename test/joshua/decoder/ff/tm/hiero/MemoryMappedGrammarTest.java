@@ -0,0 +1,186 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.ff.tm.hiero;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.RuleCollection;
+import joshua.decoder.ff.tm.Trie;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for MemoryMappedGrammar: a compiled grammar must
+ * have the trie and rules of the text grammar it came from.
+ */
+public class MemoryMappedGrammarTest {
+
+	private static final String[] RULES = {
+		"[X] ||| [X,1] de [X,2] ||| [X,2] of [X,1] ||| 0.1 0.2",
+		"[X] ||| le chat ||| the cat ||| 0.5 0.6",
+		"[X] ||| le ||| the ||| 1 2",
+		"[X] ||| [X,1] de [X,2] ||| [X,1] 's [X,2] ||| 0.3 0.4",
+		"[X] ||| chat noir ||| black cat ||| 0.7 0.8",
+		"[X] ||| le chat noir ||| the black cat ||| 0.9 1.0",
+		"[S] ||| [X,1] ||| [X,1] ||| 0 0",
+		"[X] ||| le chat ||| a cat ||| 1.1 1.2",
+		"[X] ||| noir [X,1] le ||| [X,1] the black ||| 1 1",
+		"[X] ||| chien ||| dog ||| 2 2",
+	};
+
+	private File directory;
+	private File grammarFile;
+
+	@BeforeClass
+	public void setUp() throws IOException {
+		directory = File.createTempFile("joshua-grammar-test", "");
+		directory.delete();
+		directory.mkdir();
+
+		grammarFile = new File(directory, "grammar");
+		PrintStream out = new PrintStream(grammarFile, "UTF-8");
+		for (String rule : RULES) {
+			out.println(rule);
+		}
+		out.close();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		File binaryFile = new File(directory, "grammar.bin");
+		MemoryMappedGrammar.compile("hiero", grammarFile.getPath(), binaryFile.getPath());
+		compare(binaryFile);
+	}
+
+	/** Sorting one record at a time merges many runs. */
+	@Test
+	public void roundTripManyRuns() throws IOException {
+		File binaryFile = new File(directory, "grammar.runs.bin");
+		MemoryMappedGrammar.compile("hiero", grammarFile.getPath(), binaryFile.getPath(), 1);
+		compare(binaryFile);
+
+		// the runs and arrays are deleted
+		for (File file : directory.listFiles()) {
+			Assert.assertFalse(file.getName().endsWith(".tmp"), file.getName());
+		}
+	}
+
+	@Test(dependsOnMethods = { "roundTrip" })
+	public void ruleCollectionsAreKept() throws IOException {
+		SymbolTable symbolTable = new BuildinSymbol();
+		MemoryMappedGrammar grammar = map(new File(directory, "grammar.bin"), symbolTable);
+
+		Trie node = grammar.getTrieRoot().matchOne(symbolTable.addTerminal("le")).matchOne(symbolTable.addTerminal("chat"));
+		RuleCollection rules = node.getRules();
+		Assert.assertNotNull(rules);
+
+		// a new node object for the same trie node shares the materialized rules
+		Trie again = grammar.getTrieRoot().matchOne(symbolTable.addTerminal("le")).matchOne(symbolTable.addTerminal("chat"));
+		Assert.assertSame(again.getRules(), rules);
+
+		Assert.assertNull(grammar.getTrieRoot().matchOne(symbolTable.addTerminal("unseen")));
+	}
+
+	private MemoryMappedGrammar map(File binaryFile, SymbolTable symbolTable) throws IOException {
+		return new MemoryMappedGrammar(binaryFile.getPath(), symbolTable,
+				JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal,
+				JoshuaConfiguration.span_limit, JoshuaConfiguration.oov_feature_cost);
+	}
+
+	private void compare(File binaryFile) throws IOException {
+		SymbolTable textSymbols = new BuildinSymbol();
+		int textFirstRuleID = MemoryBasedBatchGrammar.ruleIDCount;
+		MemoryBasedBatchGrammar text = new MemoryBasedBatchGrammar("hiero", grammarFile.getPath(),
+				textSymbols, JoshuaConfiguration.phrase_owner, JoshuaConfiguration.default_non_terminal,
+				JoshuaConfiguration.span_limit, JoshuaConfiguration.oov_feature_cost);
+
+		SymbolTable mappedSymbols = new BuildinSymbol();
+		int mappedFirstRuleID = MemoryBasedBatchGrammar.ruleIDCount;
+		MemoryMappedGrammar mapped = map(binaryFile, mappedSymbols);
+
+		Assert.assertEquals(mapped.getNumRules(), text.getNumRules());
+
+		// the vocabulary is added in the order of the text grammar, so
+		// symbols get the same ids, and terminal ids are contiguous
+		Set<Integer> expectedIDs = new HashSet<Integer>();
+		for (int id = mappedSymbols.getLowestID(); id < mappedSymbols.getLowestID() + mappedSymbols.getAllIDs().size(); id++) {
+			expectedIDs.add(id);
+			Assert.assertEquals(mappedSymbols.getWord(id), textSymbols.getWord(id));
+		}
+		Assert.assertEquals(new HashSet<Integer>(mappedSymbols.getAllIDs()), expectedIDs);
+		Assert.assertEquals(textSymbols.getAllIDs().size(), mappedSymbols.getAllIDs().size());
+
+		compare((MemoryBasedTrie) text.getTrieRoot(), mapped.getTrieRoot(), textFirstRuleID, mappedFirstRuleID);
+	}
+
+	private void compare(MemoryBasedTrie text, Trie mapped, int textFirstRuleID, int mappedFirstRuleID) {
+		Assert.assertEquals(mapped.hasExtensions(), text.hasExtensions());
+		if (text.hasExtensions()) {
+			Assert.assertEquals(mapped.getExtensions().size(), text.getExtensionsTable().size());
+			for (Integer symbolID : text.getExtensionsTable().keySet()) {
+				Trie child = mapped.matchOne(symbolID);
+				Assert.assertNotNull(child);
+				compare(text.matchOne(symbolID), child, textFirstRuleID, mappedFirstRuleID);
+			}
+		}
+
+		Assert.assertEquals(mapped.hasRules(), text.hasRules());
+		if (text.hasRules()) {
+			RuleCollection textRules = text.getRules();
+			RuleCollection mappedRules = mapped.getRules();
+			Assert.assertEquals(mappedRules.getArity(), textRules.getArity());
+			Assert.assertEquals(Arrays.toString(mappedRules.getSourceSide()), Arrays.toString(textRules.getSourceSide()));
+
+			List<Rule> expected = textRules.getRules();
+			List<Rule> actual = mappedRules.getRules();
+			Assert.assertEquals(actual.size(), expected.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Rule e = expected.get(i);
+				Rule a = actual.get(i);
+				Assert.assertEquals(a.getLHS(), e.getLHS());
+				Assert.assertEquals(a.getArity(), e.getArity());
+				Assert.assertEquals(a.getOwner(), e.getOwner());
+				Assert.assertEquals(a.getRuleID() - mappedFirstRuleID, e.getRuleID() - textFirstRuleID);
+				Assert.assertEquals(Arrays.toString(a.getFrench()), Arrays.toString(e.getFrench()));
+				Assert.assertEquals(Arrays.toString(a.getEnglish()), Arrays.toString(e.getEnglish()));
+				Assert.assertEquals(Arrays.toString(a.getFeatureScores()), Arrays.toString(e.getFeatureScores()));
+			}
+		}
+	}
+}
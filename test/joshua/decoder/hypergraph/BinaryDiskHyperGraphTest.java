@@ -0,0 +1,378 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.JoshuaConfiguration;
+import joshua.decoder.ff.state_maintenance.DPState;
+import joshua.decoder.ff.state_maintenance.NgramDPState;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Rule;
+import joshua.decoder.ff.tm.hiero.MemoryBasedBatchGrammar;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for BinaryDiskHyperGraph.
+ */
+public class BinaryDiskHyperGraphTest {
+
+	private final SymbolTable symbolTable = new BuildinSymbol();
+
+	private int numPhrasalFeatures;
+
+	//OOV rules are constructed with one phrasal feature
+	@BeforeClass
+	public void setUp() {
+		numPhrasalFeatures = JoshuaConfiguration.num_phrasal_features;
+		JoshuaConfiguration.num_phrasal_features = 1;
+	}
+
+	@AfterClass
+	public void tearDown() {
+		JoshuaConfiguration.num_phrasal_features = numPhrasalFeatures;
+	}
+
+	private HGNode node(int i, int j, String lhs, String[] left, String[] right, HyperEdge... edges) {
+		HashMap<Integer,DPState> dpStates = new HashMap<Integer,DPState>();
+		dpStates.put(0, new NgramDPState(symbolTable.addTerminals(left), symbolTable.addTerminals(right)));
+		HyperEdge bestEdge = edges[0];
+		for (HyperEdge edge : edges) {
+			if (edge.bestDerivationLogP > bestEdge.bestDerivationLogP)
+				bestEdge = edge;
+		}
+		return new HGNode(i, j, symbolTable.addNonterminal(lhs),
+				new ArrayList<HyperEdge>(Arrays.asList(edges)), bestEdge, dpStates);
+	}
+
+	private HyperEdge edge(Rule rule, double bestLogP, double[] modelLogPs, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : new ArrayList<HGNode>(Arrays.asList(antNodes));
+		return new WithModelLogPsHyperEdge(rule, bestLogP, null, ants, modelLogPs, null);
+	}
+
+	private HyperGraph hyperGraph(int sentID) {
+		int owner = symbolTable.addTerminal("pt");
+		Rule r1 = new BilingualRule(symbolTable.addNonterminal("X"),
+				symbolTable.addTerminals(new String[]{"la", "maison"}),
+				symbolTable.addTerminals(new String[]{"the", "house"}),
+				new float[]{0.5f, 1.25f}, 0, owner, 0, 7);
+		Rule r2 = new BilingualRule(symbolTable.addNonterminal("S"),
+				new int[]{symbolTable.addNonterminal("[X,1]"), symbolTable.addTerminal("bleue")},
+				new int[]{symbolTable.addTerminal("blue"), symbolTable.addNonterminal("[X,1]")},
+				new float[]{2.0f, 0.125f}, 1, owner, 0, 9);
+		Rule oov = new MemoryBasedBatchGrammar().constructOOVRule(1,
+				symbolTable.addTerminal("bleue"), symbolTable.addTerminal("bleue"), false);
+		oov.setLHS(symbolTable.addNonterminal("X"));
+
+		HGNode a = node(0, 2, "X", new String[]{"the"}, new String[]{"house"},
+				edge(r1, -1.5, new double[]{-1.0, -0.5}));
+		HGNode b = node(2, 3, "X", new String[]{"bleue"}, new String[]{"bleue"},
+				edge(oov, -100.25, new double[]{-100.0, -0.25}));
+		HGNode c = node(0, 3, "S", new String[]{"blue", "the"}, new String[]{"the", "house"},
+				edge(r2, -4.75, new double[]{-3.0, -0.25}, a),
+				edge(r2, -103.5, new double[]{-3.0, -0.25}, a, b));
+		HyperEdge goalEdge = edge(null, -5.0, new double[]{-0.25, 0.0}, c);
+		HGNode goal = new HGNode(0, 3, symbolTable.addNonterminal("GOAL"),
+				new ArrayList<HyperEdge>(Arrays.asList(goalEdge)), goalEdge, null);
+		return new HyperGraph(goal, 4, 5, sentID, 3);
+	}
+
+	private void assertSameHyperGraph(HyperGraph actual, HyperGraph expected, double delta) {
+		CompactHyperGraph x = new CompactHyperGraph(actual);
+		CompactHyperGraph y = new CompactHyperGraph(expected);
+		Assert.assertEquals(actual.sentID, expected.sentID);
+		Assert.assertEquals(actual.sentLen, expected.sentLen);
+		Assert.assertEquals(x.getNumNodes(), y.getNumNodes());
+		Assert.assertEquals(x.getNumEdges(), y.getNumEdges());
+
+		for (int v = 0; v < x.getNumNodes(); v++) {
+			HGNode p = x.getNode(v);
+			HGNode q = y.getNode(v);
+			Assert.assertEquals(p.i, q.i);
+			Assert.assertEquals(p.j, q.j);
+			Assert.assertEquals(p.lhs, q.lhs);
+			Assert.assertEquals(x.getFirstEdge(v), y.getFirstEdge(v));
+			Assert.assertEquals(p.hyperedges.indexOf(p.bestHyperedge), q.hyperedges.indexOf(q.bestHyperedge));
+			if (null == q.getDPStates()) {
+				Assert.assertNull(p.getDPStates());
+			} else {
+				NgramDPState s = (NgramDPState) p.getDPStates().get(0);
+				NgramDPState t = (NgramDPState) q.getDPStates().get(0);
+				Assert.assertEquals(Arrays.toString(s.getLeftContext()), Arrays.toString(t.getLeftContext()));
+				Assert.assertEquals(Arrays.toString(s.getRightContext()), Arrays.toString(t.getRightContext()));
+			}
+		}
+
+		for (int e = 0; e < x.getNumEdges(); e++) {
+			HyperEdge p = x.getEdge(e);
+			HyperEdge q = y.getEdge(e);
+			Assert.assertEquals(p.bestDerivationLogP, q.bestDerivationLogP, delta);
+			Assert.assertEquals(x.getFirstTail(e+1), y.getFirstTail(e+1));
+			for (int t = x.getFirstTail(e); t < x.getFirstTail(e+1); t++)
+				Assert.assertEquals(x.getTail(t), y.getTail(t));
+
+			double[] pLogPs = ((WithModelLogPsHyperEdge) p).modeLogPs;
+			double[] qLogPs = ((WithModelLogPsHyperEdge) q).modeLogPs;
+			Assert.assertEquals(pLogPs.length, qLogPs.length);
+			for (int k = 0; k < pLogPs.length; k++)
+				Assert.assertEquals(pLogPs[k], qLogPs[k], delta);
+
+			if (null == q.getRule()) {
+				Assert.assertNull(p.getRule());
+			} else {
+				Assert.assertEquals(p.getRule().getRuleID(), q.getRule().getRuleID());
+				Assert.assertEquals(p.getRule().getLHS(), q.getRule().getLHS());
+				Assert.assertEquals(Arrays.toString(p.getRule().getEnglish()), Arrays.toString(q.getRule().getEnglish()));
+				if (q.getRule().getRuleID() != MemoryBasedBatchGrammar.OOV_RULE_ID) {
+					Assert.assertEquals(p.getRule().getOwner(), q.getRule().getOwner());
+					Assert.assertEquals(Arrays.toString(p.getRule().getFrench()), Arrays.toString(q.getRule().getFrench()));
+					Assert.assertEquals(Arrays.toString(p.getRule().getFeatureScores()), Arrays.toString(q.getRule().getFeatureScores()));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void roundTrip() throws IOException {
+		File file = File.createTempFile("joshua-hg", ".bin");
+		file.deleteOnExit();
+
+		BinaryDiskHyperGraph writer = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		writer.initWrite(file.getPath());
+		for (int sentID = 0; sentID < 3; sentID++)
+			writer.saveHyperGraph(hyperGraph(sentID));
+		writer.closeWriter();
+
+		BinaryDiskHyperGraph reader = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		reader.initRead(file.getPath());
+		Assert.assertEquals(reader.getNumHyperGraphs(), 3);
+		Assert.assertEquals(reader.getAssocatedGrammar().size(), 2);
+		Assert.assertTrue(reader.getRecordSize(0) > 0);
+		Assert.assertEquals(reader.getRecordSize(2), reader.getRecordSize(0));
+
+		for (int sentID = 0; sentID < 3; sentID++)
+			assertSameHyperGraph(reader.readHyperGraph(), hyperGraph(sentID), 0);
+		Assert.assertNull(reader.readHyperGraph());
+
+		//random access
+		assertSameHyperGraph(reader.readHyperGraphOfSentence(1), hyperGraph(1), 0);
+		assertSameHyperGraph(reader.readHyperGraph(), hyperGraph(2), 0);
+		Assert.assertNull(reader.readHyperGraphOfSentence(3));
+		reader.closeReader();
+	}
+
+
+	@Test
+	public void notBinaryFiles() throws IOException {
+		File file = File.createTempFile("joshua-hg", ".bin");
+		file.deleteOnExit();
+
+		//empty
+		assertNotReadable(file, "not a binary hypergraph file");
+
+		//truncated: the trailer is missing
+		BinaryDiskHyperGraph writer = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		writer.initWrite(file.getPath());
+		for (int sentID = 0; sentID < 3; sentID++)
+			writer.saveHyperGraph(hyperGraph(sentID));
+		writer.closeWriter();
+		RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+		truncated.setLength(truncated.length() - 1);
+		truncated.close();
+		assertNotReadable(file, "truncated binary hypergraph file");
+
+		//a text file
+		PrintStream text = new PrintStream(file);
+		text.println("#SENT: 0 and the rest of a text hypergraph");
+		text.close();
+		assertNotReadable(file, "not a binary hypergraph file");
+	}
+
+
+	private void assertNotReadable(File file, String message) {
+		BinaryDiskHyperGraph reader = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		try {
+			reader.initRead(file.getPath());
+			Assert.fail("read " + file);
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith(message), e.getMessage());
+		}
+	}
+
+
+	@Test
+	public void store() throws IOException {
+		BinaryDiskHyperGraph oneRecord = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		oneRecord.initStore(Long.MAX_VALUE, null);
+		oneRecord.storeHyperGraph(hyperGraph(0));
+		oneRecord.finishStore();
+		long recordSize = oneRecord.getNumBytesOnHeap();
+		oneRecord.closeStore();
+
+		//room for two records on the heap, so the third one is spilled
+		BinaryDiskHyperGraph store = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		store.initStore(2*recordSize, null);
+		for (int sentID = 0; sentID < 3; sentID++)
+			store.storeHyperGraph(hyperGraph(sentID));
+		store.finishStore();
+		Assert.assertEquals(store.getNumHyperGraphs(), 3);
+		Assert.assertEquals(store.getNumBytesOnHeap(), 2*recordSize);
+		for (int k = 0; k < 3; k++)
+			Assert.assertEquals(store.getRecordSize(k), recordSize);
+		for (int sentID = 2; sentID >= 0; sentID--)
+			assertSameHyperGraph(store.readHyperGraph(sentID), hyperGraph(sentID), 0);
+		store.closeStore();
+
+		//logPs are not rounded to floats
+		HyperGraph hg = hyperGraph(0);
+		hg.goalNode.bestHyperedge.bestDerivationLogP = -5.123456789;
+		store.initStore(0, null);
+		store.storeHyperGraph(hg);
+		store.finishStore();
+		Assert.assertEquals(store.getNumBytesOnHeap(), 0);
+		assertSameHyperGraph(store.readHyperGraph(0), hg, 0);
+		store.closeStore();
+	}
+
+
+	/**
+	 * Files mapped in segments about the size of a record, or
+	 * smaller: views that span segments are copied, and records
+	 * can be read from several threads at once.
+	 */
+	@Test
+	public void segments() throws Exception {
+		final int numHyperGraphs = 8;
+		File file = File.createTempFile("joshua-hg", ".bin");
+		file.deleteOnExit();
+
+		BinaryDiskHyperGraph writer = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		writer.initWrite(file.getPath());
+		for (int sentID = 0; sentID < numHyperGraphs; sentID++)
+			writer.saveHyperGraph(hyperGraph(sentID));
+		writer.closeWriter();
+
+		BinaryDiskHyperGraph oneSegment = reader(file, 1 << 30);
+		int recordSize = oneSegment.getRecordSize(0);
+		oneSegment.closeReader();
+
+		for (long segmentSize : new long[]{ 13, 2*recordSize }) {
+			BinaryDiskHyperGraph reader = reader(file, segmentSize);
+			Assert.assertEquals(reader.getNumHyperGraphs(), numHyperGraphs);
+			Assert.assertEquals(reader.getAssocatedGrammar().size(), 2);
+			readConcurrently(reader, numHyperGraphs, 0);
+			reader.closeReader();
+
+			//all records spilled
+			BinaryDiskHyperGraph store = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+			store.setSegmentSize(segmentSize);
+			store.initStore(0, null);
+			for (int sentID = 0; sentID < numHyperGraphs; sentID++)
+				store.storeHyperGraph(hyperGraph(sentID));
+			store.finishStore();
+			Assert.assertEquals(store.getNumBytesOnHeap(), 0);
+			readConcurrently(store, numHyperGraphs, 0);
+			store.closeStore();
+		}
+	}
+
+
+	private BinaryDiskHyperGraph reader(File file, long segmentSize) throws IOException {
+		BinaryDiskHyperGraph reader = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		reader.setSegmentSize(segmentSize);
+		reader.initRead(file.getPath());
+		return reader;
+	}
+
+
+	/** Reads each hypergraph many times, from four threads, last first. */
+	private void readConcurrently(final BinaryDiskHyperGraph reader, final int numHyperGraphs, final double delta)
+	throws Exception {
+		final List<HyperGraph> expected = new ArrayList<HyperGraph>();
+		for (int sentID = 0; sentID < numHyperGraphs; sentID++)
+			expected.add(hyperGraph(sentID));
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				results.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						for (int n = 0; n < 50; n++) {
+							for (int sentID = numHyperGraphs - 1; sentID >= 0; sentID--)
+								assertSameHyperGraph(reader.readHyperGraph(sentID), expected.get(sentID), delta);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results)
+				result.get();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	@Test
+	public void convertFromText() throws IOException {
+		File items = File.createTempFile("joshua-hg", ".items");
+		File rules = File.createTempFile("joshua-hg", ".rules");
+		File binary = File.createTempFile("joshua-hg", ".bin");
+		items.deleteOnExit();
+		rules.deleteOnExit();
+		binary.deleteOnExit();
+
+		DiskHyperGraph textHG = new DiskHyperGraph(symbolTable, 0, true, null);
+		textHG.initWrite(items.getPath(), false, 0);
+		for (int sentID = 0; sentID < 2; sentID++)
+			textHG.saveHyperGraph(hyperGraph(sentID));
+		textHG.closeItemsWriter();
+		textHG.writeRulesNonParallel(rules.getPath());
+
+		int numHGs = BinaryDiskHyperGraph.convertFromText(symbolTable, 0, true,
+				items.getPath(), rules.getPath(), binary.getPath());
+		Assert.assertEquals(numHGs, 2);
+
+		BinaryDiskHyperGraph reader = new BinaryDiskHyperGraph(symbolTable, 0, true, null);
+		reader.initRead(binary.getPath());
+		Assert.assertEquals(reader.getNumHyperGraphs(), 2);
+		for (int sentID = 0; sentID < 2; sentID++)
+			assertSameHyperGraph(reader.readHyperGraph(), hyperGraph(sentID), 1e-4);
+		Assert.assertNull(reader.readHyperGraph());
+		reader.closeReader();
+	}
+}
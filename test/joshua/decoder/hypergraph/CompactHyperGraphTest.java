@@ -0,0 +1,364 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.decoder.hypergraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import joshua.corpus.vocab.BuildinSymbol;
+import joshua.corpus.vocab.SymbolTable;
+import joshua.decoder.ff.FeatureFunction;
+import joshua.decoder.ff.PhraseModelFF;
+import joshua.decoder.ff.tm.BilingualRule;
+import joshua.decoder.ff.tm.Rule;
+import joshua.discriminative.ranker.HGRanker;
+import joshua.discriminative.semiring_parsingv2.applications.HypLenSquareExpectation;
+import joshua.util.CoIterator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for CompactHyperGraph, and the passes on top of it:
+ * inside-outside, k-best extraction, Viterbi rescoring and
+ * expectation-semiring parsing.
+ * <p>
+ * The passes are checked on a small hypergraph whose nodes are
+ * shared by several derivations against an enumeration of all its
+ * derivations, and the k-best extractor also against its lazy
+ * recursive path, which does not use the compact view.
+ */
+public class CompactHyperGraphTest {
+
+	/** A derivation found by enumerating the hypergraph. */
+	private static class Derivation {
+		final String words;
+		final double logP;
+
+		Derivation(String words, double logP) {
+			this.words = words;
+			this.logP = logP;
+		}
+	}
+
+	private final SymbolTable symbolTable = new BuildinSymbol();
+	private final int lhs = symbolTable.addNonterminal("[X]");
+
+	/** Rule whose only feature score is the specified cost. */
+	private Rule rule(String english, float cost) {
+		String[] words = english.split(" ");
+		int[] ids = new int[words.length];
+		int arity = 0;
+		for (int k = 0; k < words.length; k++) {
+			if (words[k].startsWith("[")) {
+				ids[k] = symbolTable.addNonterminal(words[k]);
+				arity++;
+			} else {
+				ids[k] = symbolTable.addTerminal(words[k]);
+			}
+		}
+		return new BilingualRule(lhs, ids, ids, new float[] { cost }, arity);
+	}
+
+	/** 
+	 * Hyperedge for a rule. Its transition logP is the negated
+	 * cost of the rule, or the specified logP if it is not NaN.
+	 */
+	private HyperEdge edge(Rule rule, double transitionLogP, HGNode... antNodes) {
+		if (Double.isNaN(transitionLogP))
+			transitionLogP = - rule.getFeatureScores()[0];
+		List<HGNode> ants = (antNodes.length == 0) ? null : new ArrayList<HGNode>(Arrays.asList(antNodes));
+		double logP = transitionLogP;
+		for (HGNode antNode : antNodes)
+			logP += antNode.bestHyperedge.bestDerivationLogP;
+		return new HyperEdge(rule, logP, transitionLogP, ants, null);
+	}
+
+	/**
+	 * Builds a hypergraph of 42 derivations and 30 distinct strings,
+	 * in which node c is used by both hyperedges of node d, and nodes
+	 * a and b by two hyperedges of c each.
+	 * 
+	 * @param logP Transition logP of every hyperedge,
+	 *             or NaN for the negated rule costs
+	 */
+	private HyperGraph sharedGraph(double logP) {
+		HGNode a = node(edge(rule("a", 0.9f), logP), edge(rule("the a", 1.7f), logP), edge(rule("a", 2.9f), logP));
+		HGNode b = node(edge(rule("b", 0.4f), logP), edge(rule("big b", 2.15f), logP));
+		HGNode e = node(edge(rule("e", 0.33f), logP), edge(rule("an e", 1.21f), logP));
+		HGNode c = node(
+				edge(rule("[X,1] of [X,2]", 0.3f), logP, a, b),
+				edge(rule("[X,2] [X,1]", 0.75f), logP, a, b),
+				edge(rule("c [X,1]", 2.6f), logP, b));
+		HGNode d = node(
+				edge(rule("[X,1] !", 0.12f), logP, c),
+				edge(rule("[X,2] [X,1]", 0.55f), logP, c, e));
+		HGNode goal = node(edge(null, 0.0, d));
+		return new HyperGraph(goal, 6, 13, 0, 1);
+	}
+
+	/** Enumerates the derivations of a node, using the transition logPs of its hyperedges. */
+	private List<Derivation> derivations(HGNode node) {
+		List<Derivation> result = new ArrayList<Derivation>();
+		for (HyperEdge edge : node.hyperedges) {
+			List<Derivation> partial = new ArrayList<Derivation>();
+			partial.add(new Derivation(null, edge.getTransitionLogP(false)));
+
+			// the derivations of the antecedents, in their order
+			List<List<Derivation>> ants = new ArrayList<List<Derivation>>();
+			if (edge.getAntNodes() != null) {
+				for (HGNode ant : edge.getAntNodes())
+					ants.add(derivations(ant));
+			}
+			List<Derivation[]> combinations = new ArrayList<Derivation[]>();
+			combinations.add(new Derivation[ants.size()]);
+			for (int t = 0; t < ants.size(); t++) {
+				List<Derivation[]> extended = new ArrayList<Derivation[]>();
+				for (Derivation[] combination : combinations) {
+					for (Derivation ant : ants.get(t)) {
+						Derivation[] copy = combination.clone();
+						copy[t] = ant;
+						extended.add(copy);
+					}
+				}
+				combinations = extended;
+			}
+
+			for (Derivation[] combination : combinations) {
+				double logP = edge.getTransitionLogP(false);
+				for (Derivation ant : combination)
+					logP += ant.logP;
+
+				StringBuilder words = new StringBuilder();
+				if (edge.getRule() == null) {
+					words.append(combination[0].words);
+				} else {
+					int[] english = edge.getRule().getEnglish();
+					for (int k = 0; k < english.length; k++) {
+						if (k > 0) words.append(' ');
+						if (symbolTable.isNonterminal(english[k]))
+							words.append(combination[symbolTable.getTargetNonterminalIndex(english[k])].words);
+						else
+							words.append(symbolTable.getWord(english[k]));
+					}
+				}
+				result.add(new Derivation(words.toString(), logP));
+			}
+		}
+		return result;
+	}
+
+	/** All derivations of a hypergraph, best first. */
+	private List<Derivation> sortedDerivations(HyperGraph hg) {
+		List<Derivation> all = derivations(hg.goalNode);
+		Collections.sort(all, new Comparator<Derivation>() {
+			public int compare(Derivation x, Derivation y) {
+				return Double.compare(y.logP, x.logP);
+			}
+		});
+		return all;
+	}
+
+	private List<FeatureFunction> ruleCostFeature() {
+		List<FeatureFunction> features = new ArrayList<FeatureFunction>();
+		features.add(new PhraseModelFF(0, 1.0, rule("x", 0f).getOwner(), 0));
+		return features;
+	}
+
+	private HyperEdge edge(double transitionLogP, HGNode... antNodes) {
+		List<HGNode> ants = (antNodes.length == 0) ? null : new ArrayList<HGNode>(Arrays.asList(antNodes));
+		double logP = transitionLogP;
+		for (HGNode antNode : antNodes)
+			logP += antNode.bestHyperedge.bestDerivationLogP;
+		return new HyperEdge(null, logP, transitionLogP, ants, null);
+	}
+
+	private HGNode node(HyperEdge... edges) {
+		HGNode node = new HGNode(0, 1, -1, null, null, 0.0);
+		node.hyperedges = null;
+		node.bestHyperedge = null;
+		for (HyperEdge edge : edges)
+			node.addHyperedgeInNode(edge);
+		return node;
+	}
+
+	@Test
+	public void insideOutside() {
+		HGNode a = node(edge(-1.0));
+		HGNode b = node(edge(-2.0), edge(-0.5));
+		HGNode c = node(edge(-0.25, a, b), edge(-3.0, b));
+		HGNode goal = node(edge(0.0, c));
+		HyperGraph hg = new HyperGraph(goal, 4, 6, 0, 1);
+
+		CompactHyperGraph graph = new CompactHyperGraph(hg);
+		Assert.assertEquals(graph.getNumNodes(), 4);
+		Assert.assertEquals(graph.getNumEdges(), 6);
+		Assert.assertEquals(graph.getGoalID(), 3);
+		Assert.assertSame(graph.getNode(graph.getGoalID()), goal);
+		for (int e = 0; e < graph.getNumEdges(); e++) {
+			Assert.assertSame(graph.getEdge(e), graph.getNode(graph.getEdgeHead(e)).hyperedges.get(e - graph.getFirstEdge(graph.getEdgeHead(e))));
+			for (int t = graph.getFirstTail(e); t < graph.getFirstTail(e+1); t++)
+				Assert.assertTrue(graph.getTail(t) < graph.getEdgeHead(e));
+		}
+
+		TrivialInsideOutside io = new TrivialInsideOutside();
+		io.runInsideOutside(hg, 0, 1, 1.0);
+		double logZb = Math.log(Math.exp(-2.0) + Math.exp(-0.5));
+		double logZ = Math.log(Math.exp(-1.0 + logZb - 0.25) + Math.exp(logZb - 3.0));
+		Assert.assertEquals(io.getLogNormalizationConstant(), logZ, 1e-9);
+		Assert.assertEquals(io.getNodePosteriorProb(b), 1.0, 1e-9);
+		Assert.assertEquals(io.getNodePosteriorProb(a), Math.exp(-1.0 + logZb - 0.25 - logZ), 1e-9);
+		Assert.assertEquals(io.getEdgePosteriorProb(b.hyperedges.get(1), b), Math.exp(-0.5 - logZb), 1e-9);
+	}
+
+	@Test
+	public void kBest() {
+		HyperGraph hg = sharedGraph(Double.NaN);
+		List<Derivation> expected = sortedDerivations(hg);
+		Assert.assertEquals(expected.size(), 42);
+		for (int k = 1; k < expected.size(); k++)
+			Assert.assertTrue(expected.get(k-1).logP > expected.get(k).logP + 1e-6, "tied derivations");
+
+		// over the compact view
+		KBestExtractor extractor = new KBestExtractor(symbolTable, false, false, false, true, false, true);
+		List<String> nbest = new ArrayList<String>();
+		extractor.lazyKBestExtractOnHG(hg, null, 100, 0, nbest);
+		Assert.assertEquals(nbest.size(), expected.size());
+
+		// the same list by the lazy recursive path, which finds
+		// nodes through a table instead of the compact view
+		extractor.resetState();
+		for (int k = 1; k <= expected.size(); k++) {
+			String hyp = extractor.getKthHyp(hg.goalNode, k, 0, null, null);
+			Assert.assertEquals(hyp, nbest.get(k-1));
+			Assert.assertTrue(hyp.startsWith("0 ||| " + expected.get(k-1).words + " ||| "), hyp);
+		}
+		Assert.assertNull(extractor.getKthHyp(hg.goalNode, expected.size() + 1, 0, null, null));
+
+		// candidates have the feature values and score of the derivation
+		final List<KBestExtractor.Candidate> candidates = new ArrayList<KBestExtractor.Candidate>();
+		extractor.lazyKBestExtractCandidates(hg, ruleCostFeature(), 10, 0, new CoIterator<KBestExtractor.Candidate>() {
+			public void coNext(KBestExtractor.Candidate candidate) {
+				candidates.add(candidate);
+			}
+			public void finish() {}
+		});
+		Assert.assertEquals(candidates.size(), 10);
+		for (int k = 0; k < candidates.size(); k++) {
+			Assert.assertEquals(candidates.get(k).getWords(), expected.get(k).words);
+			Assert.assertEquals(candidates.get(k).getScore(), expected.get(k).logP, 1e-6);
+			Assert.assertEquals(candidates.get(k).getFeatureValues()[0], expected.get(k).logP, 1e-6);
+		}
+	}
+
+	@Test
+	public void uniqueKBest() {
+		HyperGraph hg = sharedGraph(Double.NaN);
+
+		// the best derivation of each distinct string
+		List<Derivation> expected = new ArrayList<Derivation>();
+		List<String> seen = new ArrayList<String>();
+		for (Derivation derivation : sortedDerivations(hg)) {
+			if (! seen.contains(derivation.words)) {
+				seen.add(derivation.words);
+				expected.add(derivation);
+			}
+		}
+		Assert.assertEquals(expected.size(), 30);
+
+		KBestExtractor extractor = new KBestExtractor(symbolTable, true, false, false, true, false, true);
+		List<String> nbest = new ArrayList<String>();
+		extractor.lazyKBestExtractOnHG(hg, null, 100, 0, nbest);
+		Assert.assertEquals(nbest.size(), expected.size());
+
+		extractor.resetState();
+		for (int k = 1; k <= expected.size(); k++) {
+			String hyp = extractor.getKthHyp(hg.goalNode, k, 0, null, null);
+			Assert.assertEquals(hyp, nbest.get(k-1));
+			Assert.assertTrue(hyp.startsWith("0 ||| " + expected.get(k-1).words + " ||| "), hyp);
+		}
+	}
+
+	@Test
+	public void viterbiRescoring() {
+		// every hyperedge but the goal one has the same logP, so the best derivations
+		// are those with the fewest hyperedges
+		HyperGraph hg = sharedGraph(-1.0);
+		Assert.assertEquals(hg.goalNode.bestHyperedge.bestDerivationLogP, -3.0, 1e-9);
+
+		new HGRanker(ruleCostFeature()).rankHG(hg);
+
+		List<Derivation> expected = sortedDerivations(hg);
+		Assert.assertEquals(hg.goalNode.bestHyperedge.bestDerivationLogP, expected.get(0).logP, 1e-6);
+		Assert.assertEquals(ViterbiExtractor.extractViterbiString(symbolTable, hg.goalNode), expected.get(0).words);
+		Assert.assertEquals(expected.get(0).words, "a of b !");
+
+		// the same as if the hypergraph had been built with these logPs
+		List<Derivation> built = sortedDerivations(sharedGraph(Double.NaN));
+		for (int k = 0; k < built.size(); k++) {
+			Assert.assertEquals(expected.get(k).words, built.get(k).words);
+			Assert.assertEquals(expected.get(k).logP, built.get(k).logP, 1e-6);
+		}
+	}
+
+	@Test
+	public void expectationSemiring() {
+		HyperGraph hg = sharedGraph(Double.NaN);
+
+		double scale = 0.5;
+		double z = 0, length = 0, squaredLength = 0;
+		for (Derivation derivation : derivations(hg.goalNode)) {
+			double p = Math.exp(scale * derivation.logP);
+			int n = derivation.words.split(" ").length;
+			z += p;
+			length += p * n;
+			squaredLength += p * n * n;
+		}
+
+		HypLenSquareExpectation parser = new HypLenSquareExpectation(scale);
+		for (int run = 0; run < 2; run++) {
+			// the parser is reused, as over the hypergraphs of a corpus
+			parser.clearState();
+			parser.setHyperGraph(hg);
+			parser.runInsideOutside();
+			Assert.assertEquals(parser.getGoalK().getP().getLogValue(), Math.log(z), 1e-9);
+			parser.normalizeGoal();
+			Assert.assertEquals(parser.getGoalK().getR().getValue().convertToRealValue(), length / z, 1e-9);
+			Assert.assertEquals(parser.getSecondOrderExpectation(), squaredLength / z, 1e-9);
+		}
+	}
+
+	@Test
+	public void deepChain() {
+		HGNode node = node(edge(-1.0));
+		for (int k = 1; k < 100000; k++)
+			node = node(edge(-1.0, node));
+		HyperGraph hg = new HyperGraph(node, 100000, 100000, 0, 1);
+
+		CompactHyperGraph graph = new CompactHyperGraph(hg);
+		Assert.assertEquals(graph.getNumNodes(), 100000);
+
+		double[] transitionLogPs = graph.getTransitionLogPs();
+		Arrays.fill(transitionLogPs, -2.0);
+		Assert.assertEquals(graph.viterbi(transitionLogPs), 0);
+		Assert.assertEquals(node.bestHyperedge.bestDerivationLogP, -200000.0, 1e-6);
+	}
+}
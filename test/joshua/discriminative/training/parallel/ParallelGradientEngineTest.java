@@ -0,0 +1,257 @@
+/* This file is part of the Joshua Machine Translation System.
+ *
+ * Joshua is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free
+ * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+package joshua.discriminative.training.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for ParallelGradientEngine.
+ */
+public class ParallelGradientEngineTest {
+
+	/** Records the sentences computed by each thread, and the buffers reduced. */
+	private static class RecordingTask implements ParallelGradientEngine.Task<List<Integer>> {
+		final AtomicIntegerArray numComputed;
+		final AtomicInteger totalComputed = new AtomicInteger(0);
+		final List<List<Integer>> reduced = new ArrayList<List<Integer>>();
+		final List<Thread> reducingThreads = new ArrayList<Thread>();
+		final List<Thread> computingThreads = new ArrayList<Thread>();
+
+		RecordingTask(int numSentences) {
+			this.numComputed = new AtomicIntegerArray(numSentences);
+		}
+
+		public List<Integer> createAccumulator() {
+			synchronized (computingThreads) {
+				computingThreads.add(Thread.currentThread());
+			}
+			return new ArrayList<Integer>();
+		}
+
+		public void compute(int sentID, List<Integer> accumulator) {
+			numComputed.incrementAndGet(sentID);
+			totalComputed.incrementAndGet();
+			accumulator.add(sentID);
+		}
+
+		public void reduce(List<Integer> accumulator) {
+			reduced.add(accumulator);
+			reducingThreads.add(Thread.currentThread());
+		}
+	}
+
+
+	private static long[] randomSizes(int numSentences) {
+		Random random = new Random(17);
+		long[] sizes = new long[numSentences];
+		for (int i = 0; i < numSentences; i++)
+			sizes[i] = random.nextInt(50);//with ties
+		return sizes;
+	}
+
+
+	@Test
+	public void eachSentenceOnce() {
+		int numSentences = 1000;
+		RecordingTask task = new RecordingTask(numSentences);
+		ParallelGradientEngine engine = new ParallelGradientEngine(4);
+		engine.run(numSentences, randomSizes(numSentences), task);
+		engine.shutdown();
+
+		for (int i = 0; i < numSentences; i++)
+			Assert.assertEquals(task.numComputed.get(i), 1, "sentence " + i);
+
+		// one buffer per thread, each reduced once, by the calling thread
+		Assert.assertEquals(task.reduced.size(), 4);
+		Assert.assertEquals(task.computingThreads.size(), 4);
+		int numInBuffers = 0;
+		for (List<Integer> buffer : task.reduced)
+			numInBuffers += buffer.size();
+		Assert.assertEquals(numInBuffers, numSentences);
+		for (Thread thread : task.reducingThreads)
+			Assert.assertSame(thread, Thread.currentThread());
+		for (Thread thread : task.computingThreads)
+			Assert.assertNotSame(thread, Thread.currentThread());
+	}
+
+
+	@Test
+	public void fewerSentencesThanThreads() {
+		RecordingTask task = new RecordingTask(2);
+		ParallelGradientEngine engine = new ParallelGradientEngine(4);
+		engine.run(2, null, task);
+		engine.run(0, null, new RecordingTask(0));
+		engine.shutdown();
+
+		Assert.assertEquals(task.totalComputed.get(), 2);
+		Assert.assertEquals(task.reduced.size(), 2);
+	}
+
+
+	@Test
+	public void largestFirst() {
+		int numSentences = 300;
+		long[] sizes = randomSizes(numSentences);
+
+		// one thread takes the sentences in the order they are handed out
+		RecordingTask task = new RecordingTask(numSentences);
+		ParallelGradientEngine engine = new ParallelGradientEngine(1);
+		engine.run(numSentences, sizes, task);
+		List<Integer> order = task.reduced.get(0);
+		Assert.assertEquals(order.size(), numSentences);
+		for (int k = 1; k < numSentences; k++) {
+			int previous = order.get(k-1);
+			int current = order.get(k);
+			Assert.assertTrue(sizes[previous] > sizes[current]
+					|| (sizes[previous] == sizes[current] && previous < current),
+					previous + " before " + current);
+		}
+
+		// each of several threads takes sentences in that order too
+		task = new RecordingTask(numSentences);
+		engine = new ParallelGradientEngine(3);
+		engine.run(numSentences, sizes, task);
+		engine.shutdown();
+		for (List<Integer> buffer : task.reduced) {
+			for (int k = 1; k < buffer.size(); k++)
+				Assert.assertTrue(sizes[buffer.get(k-1)] >= sizes[buffer.get(k)]);
+		}
+	}
+
+
+	@Test
+	public void fewerSizesThanSentences() {
+		RecordingTask task = new RecordingTask(10);
+		ParallelGradientEngine engine = new ParallelGradientEngine(2);
+		try {
+			engine.run(10, new long[9], task);
+			Assert.fail("the sizes of 9 sentences are not enough for 10");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().contains("9") && e.getMessage().contains("10"), e.getMessage());
+		} finally {
+			engine.shutdown();
+		}
+		Assert.assertEquals(task.totalComputed.get(), 0);
+	}
+
+
+	@Test
+	public void singleThread() {
+		int numSentences = 50;
+		RecordingTask task = new RecordingTask(numSentences);
+		ParallelGradientEngine engine = new ParallelGradientEngine(1);
+		engine.run(numSentences, null, task);
+
+		// everything runs on the calling thread, in order
+		Assert.assertEquals(task.computingThreads.size(), 1);
+		Assert.assertSame(task.computingThreads.get(0), Thread.currentThread());
+		Assert.assertEquals(task.reduced.size(), 1);
+		for (int i = 0; i < numSentences; i++)
+			Assert.assertEquals(task.reduced.get(0).get(i).intValue(), i);
+	}
+
+
+	@Test
+	public void failure() throws InterruptedException {
+		final int numSentences = 200;
+		final int failing = 7;
+		long[] sizes = new long[numSentences];
+		sizes[failing] = 1;//handed out first
+
+		final IllegalStateException failure = new IllegalStateException("sentence " + failing);
+		RecordingTask task = new RecordingTask(numSentences) {
+			public void compute(int sentID, List<Integer> accumulator) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				if (sentID == failing)
+					throw failure;
+				super.compute(sentID, accumulator);
+			}
+		};
+
+		ParallelGradientEngine engine = new ParallelGradientEngine(4);
+		try {
+			engine.run(numSentences, sizes, task);
+			Assert.fail("the failure of a sentence must fail the pass");
+		} catch (IllegalStateException e) {
+			Assert.assertSame(e, failure);
+		}
+
+		// the other threads stopped, before the pass returned
+		int numComputed = task.totalComputed.get();
+		Assert.assertTrue(numComputed < numSentences - 1, numComputed + " sentences computed");
+		Thread.sleep(50);
+		Assert.assertEquals(task.totalComputed.get(), numComputed);
+
+		// the engine can still run passes
+		RecordingTask next = new RecordingTask(numSentences);
+		engine.run(numSentences, null, next);
+		engine.shutdown();
+		Assert.assertEquals(next.totalComputed.get(), numSentences);
+	}
+
+
+	@Test
+	public void errorsArePropagated() {
+		final AssertionError error = new AssertionError("sentence 3");
+		ParallelGradientEngine engine = new ParallelGradientEngine(2);
+		try {
+			engine.run(10, null, new RecordingTask(10) {
+				public void compute(int sentID, List<Integer> accumulator) {
+					if (sentID == 3)
+						throw error;
+					super.compute(sentID, accumulator);
+				}
+			});
+			Assert.fail("the failure of a sentence must fail the pass");
+		} catch (AssertionError e) {
+			Assert.assertSame(e, error);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+
+	@Test
+	public void sharedEngines() {
+		ParallelGradientEngine two = ParallelGradientEngine.getSharedEngine(2);
+		Assert.assertSame(ParallelGradientEngine.getSharedEngine(2), two);
+		Assert.assertEquals(two.getNumThreads(), 2);
+
+		// asking for another number of threads leaves the first engine running
+		ParallelGradientEngine three = ParallelGradientEngine.getSharedEngine(3);
+		Assert.assertNotSame(three, two);
+		Assert.assertEquals(three.getNumThreads(), 3);
+		Assert.assertSame(ParallelGradientEngine.getSharedEngine(2), two);
+
+		RecordingTask task = new RecordingTask(20);
+		two.run(20, null, task);
+		Assert.assertEquals(task.totalComputed.get(), 20);
+		Assert.assertEquals(task.reduced.size(), 2);
+	}
+}
@@ -119,6 +119,10 @@ public class ExtractRulesTest {
 	}
 	
 	private List<String> extractRules(String sourceFileName, String targetFileName, String alignmentFileName, String testCorpusString, boolean sentenceInitialX, boolean sentenceFinalX, boolean violatingX, boolean printPrefixTree, int minNonterminalSpan) throws IOException {
+		return extractRules(sourceFileName, targetFileName, alignmentFileName, testCorpusString, sentenceInitialX, sentenceFinalX, violatingX, printPrefixTree, minNonterminalSpan, 1);
+	}
+	
+	private List<String> extractRules(String sourceFileName, String targetFileName, String alignmentFileName, String testCorpusString, boolean sentenceInitialX, boolean sentenceFinalX, boolean violatingX, boolean printPrefixTree, int minNonterminalSpan, int ruleExtractionThreads) throws IOException {
 		
 		String testFileName;
 		{
@@ -159,6 +163,7 @@ public class ExtractRulesTest {
 		extractRules.setJoshDir(joshDirName);
 		extractRules.setTestFile(testFileName);
 		extractRules.setOutputFile(rulesFileName);
+		extractRules.setRuleExtractionThreads(ruleExtractionThreads);
 		try {
 			extractRules.execute();
 		} catch (ClassNotFoundException e) {
@@ -200,6 +205,22 @@ public class ExtractRulesTest {
 //		extractEuroparlSmall100(true);
 //	}
 	
+	@Test
+	public void europarlSmall100Parallel() throws IOException {
+		
+		String sourceFileName = "data/europarl.es.small.100";
+		String targetFileName = "data/europarl.en.small.100";
+		String alignmentFileName = "data/es_en_europarl_alignments.txt.small.100";
+		
+		String testSentence = "declaro reanudado el per\u00EDodo de sesiones del parlamento europeo , interrumpido el viernes 17 de diciembre pasado , y reitero a sus se\u00F1or\u00EDas mi deseo de que hayan tenido unas buenas vacaciones .";
+		
+		List<String> expected = extractRules(sourceFileName, targetFileName, alignmentFileName, testSentence, true, true, false, false, 2, 1);
+		List<String> actual = extractRules(sourceFileName, targetFileName, alignmentFileName, testSentence, true, true, false, false, 2, 4);
+		
+		Assert.assertEquals(actual.size(), expected.size());
+		Assert.assertEquals(actual, expected);
+	}
+	
 	private static class WTF extends RuntimeException {
 		WTF(String msg) { super(msg); }
 	}
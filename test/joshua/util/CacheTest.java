@@ -1,5 +1,9 @@
 package joshua.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -32,4 +36,92 @@ public class CacheTest {
 		
 	}
 	
+	@Test
+	public void testStatistics() {
+		
+		Cache<String,Integer> cache = new Cache<String,Integer>(2);
+		
+		cache.put("a", 1);
+		cache.put("b", 2);
+		
+		Assert.assertEquals(cache.get("a"), Integer.valueOf(1));
+		Assert.assertNull(cache.get("c"));
+		
+		// "b" was not used since it was added, so it is evicted
+		cache.put("c", 3);
+		
+		Assert.assertEquals(cache.size(), 2);
+		Assert.assertTrue(cache.containsKey("a"));
+		Assert.assertFalse(cache.containsKey("b"));
+		Assert.assertTrue(cache.containsKey("c"));
+		
+		Assert.assertEquals(cache.getHits(), 1);
+		Assert.assertEquals(cache.getMisses(), 1);
+		Assert.assertEquals(cache.getEvictions(), 1);
+		Assert.assertEquals(cache.getHitRate(), 0.5, 1e-9);
+		
+	}
+	
+	@Test
+	public void testClockIsBounded() {
+		
+		Cache<String,Integer> cache = new Cache<String,Integer>(10);
+		
+		// replacing the value of a key does not queue it again
+		for (int i = 0; i < 10000; i++) {
+			Assert.assertEquals(cache.put("a", i), (i == 0) ? null : Integer.valueOf(i - 1));
+		}
+		Assert.assertEquals(cache.get("a"), Integer.valueOf(9999));
+		Assert.assertEquals(cache.size(), 1);
+		Assert.assertEquals(cache.getClockSize(), 1);
+		
+		// removed entries are purged from the clock
+		for (int i = 0; i < 10000; i++) {
+			cache.put("b", i);
+			Assert.assertEquals(cache.remove("b"), Integer.valueOf(i));
+		}
+		Assert.assertEquals(cache.size(), 1);
+		// the live entry, and the removed ones since the last purge
+		Assert.assertTrue(cache.getClockSize() <= 1 + 1025);
+		
+	}
+	
+	@Test
+	public void testConcurrentAccess() throws InterruptedException {
+		
+		final int capacity = 100;
+		final Cache<Integer,Integer> cache = new Cache<Integer,Integer>(capacity);
+		final AtomicInteger wrongValues = new AtomicInteger();
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			threads.add(new Thread() {
+				public void run() {
+					for (int i = 0; i < 20000; i++) {
+						int key = (i * 31 + seed * 17) % 500;
+						Integer value = cache.get(key);
+						if (value == null) {
+							cache.put(key, key * 2);
+						} else if (value.intValue() != key * 2) {
+							wrongValues.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		Assert.assertEquals(wrongValues.get(), 0);
+		Assert.assertTrue(cache.size() <= capacity);
+		Assert.assertEquals(cache.size(), cache.entrySet().size());
+		Assert.assertEquals(cache.getHits() + cache.getMisses(), 8 * 20000);
+		
+	}
+	
 }
@@ -18,6 +18,7 @@ package joshua.zmert;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import joshua.zmert.BLEU;
@@ -113,6 +114,99 @@ public class BLEUTest {
 		}
 	}
 	
+	@Test
+	public void internedNgrams() {
+
+		String[][] refSentences = {
+				{ "the cat sat on the mat", "there is a cat on the mat" },
+				{ "a a a b a a", " a b a b" },
+				{ "", "x" },
+		};
+		String[] candidates = {
+				"the cat the cat on the mat",
+				"the dog sat on the the mat mat .",
+				"  the cat\tsat on the mat  ",
+				"",
+				"   ",
+				"a a a a b a",
+				" a b a b a",
+				"b a  b",
+				"x x y",
+		};
+		int[] indices = { 0, 0, 0, 0, 1, 1, 1, 1, 2 };
+
+		EvaluationMetric.set_numSentences(3);
+		EvaluationMetric.set_refsPerSen(2);
+		EvaluationMetric.set_refSentences(refSentences);
+
+		BLEU bleu = new BLEU();
+
+		int[][] serialSS = new int[candidates.length][];
+		for (int d = 0; d < candidates.length; ++d) {
+			// the interned n-grams should give the same statistics as split n-grams
+			String[] words = candidates[d].equals("") ? new String[0] : candidates[d].split("\\s+");
+			int[] expectedSS = new int[bleu.get_suffStatsCount()];
+			bleu.set_prec_suffStats(expectedSS, words, indices[d]);
+			expectedSS[expectedSS.length-2] = words.length;
+			expectedSS[expectedSS.length-1] = bleu.effLength(words.length, indices[d]);
+
+			serialSS[d] = bleu.suffStats(candidates[d], indices[d]);
+			Assert.assertEquals(Arrays.toString(serialSS[d]), Arrays.toString(expectedSS), candidates[d]);
+		}
+
+		EvaluationMetric.set_numThreads(3);
+		try {
+			int[][] parallelSS = bleu.suffStats(candidates, indices);
+			for (int d = 0; d < candidates.length; ++d) {
+				Assert.assertEquals(Arrays.toString(parallelSS[d]), Arrays.toString(serialSS[d]), candidates[d]);
+			}
+		} finally {
+			EvaluationMetric.set_numThreads(1);
+		}
+	}
+	
+	@Test
+	public void parallelFailure() {
+		
+		String[][] refSentences = { { "the cat sat on the mat" } };
+		String[] candidates = { "the cat", "the mat", "sat on", "on the mat" };
+		int[] indices = { 0, 0, 0, 0 };
+		
+		EvaluationMetric.set_numSentences(1);
+		EvaluationMetric.set_refsPerSen(1);
+		EvaluationMetric.set_refSentences(refSentences);
+		
+		BLEU bleu = new BLEU() {
+			public int[] suffStats(String cand_str, int i) {
+				if (cand_str.equals("sat on")) {
+					throw new IllegalStateException(cand_str);
+				}
+				return super.suffStats(cand_str, i);
+			}
+		};
+		
+		EvaluationMetric.set_numThreads(2);
+		try {
+			// the pool is reused from batch to batch
+			for (int batch = 0; batch < 3; ++batch) {
+				try {
+					bleu.suffStats(candidates, indices);
+					Assert.fail("the failure of a worker was not rethrown");
+				} catch (IllegalStateException e) {
+					Assert.assertEquals(e.getMessage(), "sat on");
+				}
+			}
+			
+			String[] good = { "the cat", "the mat", "on the mat" };
+			int[][] stats = bleu.suffStats(good, new int[] { 0, 0, 0 });
+			for (int d = 0; d < good.length; ++d) {
+				Assert.assertEquals(Arrays.toString(stats[d]), Arrays.toString(bleu.suffStats(good[d], 0)));
+			}
+		} finally {
+			EvaluationMetric.set_numThreads(1);
+		}
+	}
+	
 	@Parameters({"referenceFile","testFile"})
 	@Test
 	public void fileTest(String referenceFile, String testFile) throws FileNotFoundException {
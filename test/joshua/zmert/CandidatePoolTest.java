@@ -0,0 +1,114 @@
+/* This file is part of the Joshua Machine Translation System.
+ * 
+ * Joshua is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or 
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package joshua.zmert;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for CandidatePool class.
+ * 
+ * @version $LastChangedDate$
+ */
+public class CandidatePoolTest {
+
+	private static final int numParams = 3;
+	private static final int suffStatsCount = 2;
+
+	private static double[] featVal(int i, int k) {
+		// indexed from 1, as in MertCore
+		return new double[] { 0.0, i, k, 0.5 * (i + k) };
+	}
+
+	private static int[] stats(int i, int k) {
+		return new int[] { 10 * i + k, k };
+	}
+
+	private void fillAndCheck(CandidatePool pool, int numSentences, int numCandidates) throws IOException {
+
+		for (int k = 0; k < numCandidates; k++) {
+			for (int i = 0; i < numSentences; i++) {
+				String cand = "cand " + i + " " + k;
+				Assert.assertEquals(pool.indexOf(i, cand), -1);
+				Assert.assertEquals(pool.add(i, cand, featVal(i, k), stats(i, k), 1 + k / 10), k);
+				Assert.assertEquals(pool.indexOf(i, cand), k);
+			}
+		}
+
+		for (int i = 0; i < numSentences; i++) {
+			Assert.assertEquals(pool.size(i), numCandidates);
+
+			double[] featVals = new double[numCandidates * numParams];
+			int[] stats = new int[numCandidates * suffStatsCount];
+			pool.read(i, featVals, stats);
+
+			for (int k = 0; k < numCandidates; k++) {
+				for (int c = 1; c <= numParams; c++) {
+					Assert.assertEquals(featVals[k * numParams + c - 1], featVal(i, k)[c]);
+				}
+				for (int s = 0; s < suffStatsCount; s++) {
+					Assert.assertEquals(stats[k * suffStatsCount + s], stats(i, k)[s]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void inMemory() throws IOException {
+		File spillFile = File.createTempFile("candidates", ".pool");
+		spillFile.delete();
+
+		CandidatePool pool = new CandidatePool(3, numParams, suffStatsCount, 0, spillFile.getPath());
+		fillAndCheck(pool, 3, 50);
+		Assert.assertFalse(spillFile.exists());
+		pool.close();
+	}
+
+	@Test
+	public void spilled() throws IOException {
+		File spillFile = File.createTempFile("candidates", ".pool");
+		spillFile.delete();
+
+		// room for about 10 candidates of 32 bytes each
+		CandidatePool pool = new CandidatePool(3, numParams, suffStatsCount, 330, spillFile.getPath());
+		fillAndCheck(pool, 3, 50);
+		Assert.assertTrue(spillFile.exists());
+		pool.close();
+		Assert.assertFalse(spillFile.exists());
+	}
+
+	@Test
+	public void window() throws IOException {
+		CandidatePool pool = new CandidatePool(1, numParams, suffStatsCount, 0, "unused");
+
+		int k = pool.add(0, "a b c", featVal(0, 0), stats(0, 0), 1);
+		Assert.assertEquals(pool.enteredIteration(0, k), 1);
+
+		// still within the window of iterations 1-2
+		pool.seen(0, k, 2, 1);
+		Assert.assertEquals(pool.enteredIteration(0, k), 1);
+		Assert.assertEquals(pool.lastIteration(0, k), 2);
+
+		// not seen in iterations 3-4, so it enters the window anew
+		pool.seen(0, k, 5, 3);
+		Assert.assertEquals(pool.enteredIteration(0, k), 5);
+		Assert.assertEquals(pool.lastIteration(0, k), 5);
+	}
+}